@@ -0,0 +1,88 @@
+package org.example.config;
+
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs every task on its own virtual thread, admitting at most {@code maxInFlight} tasks at a time.
+ * <p>
+ * Virtual threads make the worker pool size meaningless as a throttle, so the number of in-flight
+ * tasks is capped here instead and the calls to each downstream are capped by
+ * {@link org.example.service.DownstreamLimits}. Unlike {@link SimpleAsyncTaskExecutor#setConcurrencyLimit(int)},
+ * a task over the cap is handed to the rejection policy instead of blocking the submitting thread.
+ */
+public class BoundedVirtualThreadExecutor implements AsyncTaskExecutor, AutoCloseable {
+
+    private final SimpleAsyncTaskExecutor delegate;
+    private final Semaphore permits;
+    private final int maxInFlight;
+    private final WebhookExecutorConfig.RejectionPolicy rejectionPolicy;
+    private final Runnable onRejected;
+
+    /**
+     * @param threadNamePrefix    Prefix for the names of the virtual threads.
+     * @param maxInFlight         The maximum number of tasks running at the same time.
+     * @param terminationTimeoutMs How long {@link #close()} waits for running tasks.
+     * @param rejectionPolicy     What to do with a task over the cap. There is no queue, so
+     *                            {@code DISCARD_OLDEST} behaves like {@code ABORT}.
+     * @param onRejected          Called for every task that hits the rejection policy.
+     */
+    public BoundedVirtualThreadExecutor(String threadNamePrefix, int maxInFlight, long terminationTimeoutMs,
+                                        WebhookExecutorConfig.RejectionPolicy rejectionPolicy, Runnable onRejected) {
+        this.delegate = new SimpleAsyncTaskExecutor(threadNamePrefix);
+        this.delegate.setVirtualThreads(true);
+        this.delegate.setTaskTerminationTimeout(terminationTimeoutMs);
+        this.permits = new Semaphore(maxInFlight);
+        this.maxInFlight = maxInFlight;
+        this.rejectionPolicy = rejectionPolicy;
+        this.onRejected = onRejected;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        // Work of an acknowledged payload is never dropped; a virtual thread is cheap enough to exceed the cap.
+        if (task instanceof WebhookExecutorConfig.AcknowledgedWork) {
+            delegate.execute(task);
+            return;
+        }
+        if (!permits.tryAcquire()) {
+            onRejected.run();
+            switch (rejectionPolicy) {
+                case CALLER_RUNS -> task.run();
+                case DISCARD -> WebhookExecutorConfig.discard(task);
+                default -> throw new RejectedExecutionException("In-flight limit of " + maxInFlight + " reached");
+            }
+            return;
+        }
+        try {
+            delegate.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The number of admitted tasks that have not finished yet.
+     */
+    public int getInFlightCount() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    /**
+     * Stops accepting tasks and waits up to the termination timeout for running ones.
+     */
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
@@ -0,0 +1,90 @@
+package org.example.config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Adds what {@code ddl-auto=update} cannot to the {@code knowledge} table: the {@code embedding_half}
+ * column of type {@code halfvec}, which Hibernate has no mapping for, and one partial HNSW index per
+ * width in {@code knowledge.embedding.indexed-dimensions}. It also lets {@code embedding} be {@code null},
+ * which the schema update does not change for existing columns.
+ * <p>
+ * Runs after Hibernate has updated the schema, because it depends on the {@link EntityManagerFactory}.
+ * Statements are idempotent; a failing one is logged and the others still run. Indexes are built with
+ * {@code CREATE INDEX CONCURRENTLY}, so that writes to the table go on while another instance is
+ * starting; such a statement cannot run in a transaction, so every statement runs in autocommit mode.
+ * A concurrent build that failed leaves an invalid index behind, which is dropped and built again.
+ */
+@Component
+@Lazy(false)
+public class KnowledgeEmbeddingSchema {
+
+    private static final Logger logger = LoggerFactory.getLogger(KnowledgeEmbeddingSchema.class);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final List<Integer> indexedDimensions;
+
+    public KnowledgeEmbeddingSchema(JdbcTemplate jdbcTemplate, EntityManagerFactory entityManagerFactory,
+                                    @Value("${knowledge.embedding.indexed-dimensions:768,1536}") List<Integer> indexedDimensions) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.indexedDimensions = indexedDimensions;
+    }
+
+    @PostConstruct
+    public void update() {
+        execute("ALTER TABLE knowledge ADD COLUMN IF NOT EXISTS embedding_half halfvec");
+        execute("ALTER TABLE knowledge ALTER COLUMN embedding DROP NOT NULL");
+        for (int dimensions : indexedDimensions) {
+            // halfvec indexes are limited to 4000 dimensions, and the full width is searched in embedding
+            if (dimensions < 1 || dimensions >= 3072) {
+                logger.warn("Пропущено індекс ембеддингів недопустимої розмірності {}.", dimensions);
+                continue;
+            }
+            String index = "knowledge_embedding_half_" + dimensions + "_idx";
+            if (isInvalid(index)) {
+                execute("DROP INDEX CONCURRENTLY IF EXISTS " + index);
+            }
+            execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS " + index + " ON knowledge "
+                    + "USING hnsw ((embedding_half::halfvec(" + dimensions + ")) halfvec_l2_ops) WHERE embedding_dims = " + dimensions);
+        }
+    }
+
+    private boolean isInvalid(String index) {
+        try {
+            return Boolean.TRUE.equals(jdbcTemplate.query(
+                    "SELECT NOT i.indisvalid FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid WHERE c.relname = ?",
+                    rs -> rs.next() ? rs.getBoolean(1) : null, index));
+        } catch (DataAccessException e) {
+            logger.error("Не вдалося перевірити індекс {}: {}", index, e.getMessage());
+            return false;
+        }
+    }
+
+    private void execute(String sql) {
+        try {
+            jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                boolean autoCommit = connection.getAutoCommit();
+                connection.setAutoCommit(true);
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute(sql);
+                } finally {
+                    connection.setAutoCommit(autoCommit);
+                }
+                return null;
+            });
+        } catch (DataAccessException e) {
+            logger.error("Не вдалося оновити схему таблиці knowledge ({}): {}", sql, e.getMessage());
+        }
+    }
+}
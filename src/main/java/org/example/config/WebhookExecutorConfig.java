@@ -0,0 +1,166 @@
+package org.example.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.task.ThreadPoolTaskExecutorBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Configures the bounded executor that processes webhook payloads off the request thread.
+ * <p>
+ * By default this is a platform-thread pool whose sizes, queue capacity, thread names and shutdown
+ * behaviour come from the {@code spring.task.execution.*} properties via Spring Boot's
+ * {@link ThreadPoolTaskExecutorBuilder}. With {@code spring.threads.virtual.enabled=true} every payload
+ * runs on its own virtual thread instead, capped by {@code webhook.ingestion.max-in-flight}.
+ * <p>
+ * The outbound calls a payload fans out into run on a second executor in the same thread mode, capped by
+ * {@code outbound.executor.max-in-flight}.
+ */
+@Configuration
+public class WebhookExecutorConfig {
+
+    public static final String WEBHOOK_EXECUTOR = "webhookTaskExecutor";
+    public static final String OUTBOUND_EXECUTOR = "outboundTaskExecutor";
+    private static final String OUTBOUND_THREAD_NAME_PREFIX = "outbound-";
+
+    /**
+     * Marker for work that belongs to an already acknowledged payload. Such work is never
+     * dropped by the rejection policy; when the pool is saturated it runs on the submitting thread.
+     */
+    @FunctionalInterface
+    public interface AcknowledgedWork extends Runnable {
+    }
+
+    /**
+     * Work that is told when a {@code DISCARD} or {@code DISCARD_OLDEST} policy drops it, so that it is
+     * not counted as processed and its payload is left for replay.
+     */
+    public interface DiscardableWork extends Runnable {
+        void discarded();
+    }
+
+    /**
+     * What to do with a payload when all workers are busy and the queue is full.
+     */
+    public enum RejectionPolicy {
+        ABORT,
+        CALLER_RUNS,
+        DISCARD,
+        DISCARD_OLDEST;
+
+        RejectedExecutionHandler toHandler() {
+            return switch (this) {
+                case ABORT -> new ThreadPoolExecutor.AbortPolicy();
+                case CALLER_RUNS -> new ThreadPoolExecutor.CallerRunsPolicy();
+                case DISCARD -> (task, pool) -> discard(task);
+                case DISCARD_OLDEST -> (task, pool) -> {
+                    if (pool.isShutdown()) {
+                        discard(task);
+                        return;
+                    }
+                    discard(pool.getQueue().poll());
+                    pool.execute(task);
+                };
+            };
+        }
+    }
+
+    static void discard(Runnable task) {
+        if (task instanceof DiscardableWork work) {
+            work.discarded();
+        }
+    }
+
+    @Bean(name = WEBHOOK_EXECUTOR)
+    public TaskExecutor webhookTaskExecutor(ThreadPoolTaskExecutorBuilder builder,
+                                            MeterRegistry meterRegistry,
+                                            @Value("${webhook.ingestion.rejection-policy:ABORT}") String rejectionPolicy,
+                                            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                                            @Value("${webhook.ingestion.max-in-flight:1000}") int maxInFlight,
+                                            @Value("${spring.task.execution.thread-name-prefix:webhook-async-}") String threadNamePrefix,
+                                            @Value("${spring.task.execution.shutdown.await-termination-period:10s}") Duration terminationPeriod) {
+        RejectionPolicy policy = RejectionPolicy.valueOf(rejectionPolicy.trim().toUpperCase(Locale.ROOT));
+        Counter rejected = Counter.builder("webhook.ingestion.rejected")
+                .description("Webhook payloads that hit the rejection policy")
+                .tag("policy", policy.name())
+                .register(meterRegistry);
+
+        if (virtualThreads) {
+            BoundedVirtualThreadExecutor executor = new BoundedVirtualThreadExecutor(threadNamePrefix, maxInFlight,
+                    terminationPeriod.toMillis(), policy, rejected::increment);
+            Gauge.builder("webhook.ingestion.active", executor, BoundedVirtualThreadExecutor::getInFlightCount)
+                    .description("Webhook payloads currently being processed")
+                    .register(meterRegistry);
+            return executor;
+        }
+
+        RejectedExecutionHandler delegate = policy.toHandler();
+        ThreadPoolTaskExecutor executor = builder.build();
+        executor.setRejectedExecutionHandler((task, pool) -> {
+            if (task instanceof AcknowledgedWork) {
+                task.run();
+                return;
+            }
+            rejected.increment();
+            delegate.rejectedExecution(task, pool);
+        });
+
+        Gauge.builder("webhook.ingestion.queue.depth", executor, ThreadPoolTaskExecutor::getQueueSize)
+                .description("Webhook payloads waiting for a worker")
+                .register(meterRegistry);
+        Gauge.builder("webhook.ingestion.active", executor, ThreadPoolTaskExecutor::getActiveCount)
+                .description("Workers currently processing a webhook payload")
+                .register(meterRegistry);
+        return executor;
+    }
+
+    /**
+     * Runs the background work of the outbound calls: Gemini context cache refreshes, knowledge base retrieval,
+     * embedding batches and the attempts of hedged or streamed Gemini calls. It has no queue; a task over the
+     * cap is rejected and its caller goes on without it.
+     */
+    @Bean(name = OUTBOUND_EXECUTOR)
+    public AsyncTaskExecutor outboundTaskExecutor(MeterRegistry meterRegistry,
+                                                  @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                                                  @Value("${outbound.executor.max-in-flight:64}") int maxInFlight) {
+        Counter rejected = Counter.builder("outbound.executor.rejected")
+                .description("Outbound tasks rejected because the executor was saturated")
+                .register(meterRegistry);
+
+        if (virtualThreads) {
+            BoundedVirtualThreadExecutor executor = new BoundedVirtualThreadExecutor(OUTBOUND_THREAD_NAME_PREFIX, maxInFlight,
+                    0, RejectionPolicy.ABORT, rejected::increment);
+            Gauge.builder("outbound.executor.active", executor, BoundedVirtualThreadExecutor::getInFlightCount)
+                    .description("Outbound tasks currently running")
+                    .register(meterRegistry);
+            return executor;
+        }
+
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix(OUTBOUND_THREAD_NAME_PREFIX);
+        executor.setCorePoolSize(maxInFlight);
+        executor.setMaxPoolSize(maxInFlight);
+        executor.setQueueCapacity(0);
+        executor.setAllowCoreThreadTimeOut(true);
+        RejectedExecutionHandler abort = RejectionPolicy.ABORT.toHandler();
+        executor.setRejectedExecutionHandler((task, pool) -> {
+            rejected.increment();
+            abort.rejectedExecution(task, pool);
+        });
+        Gauge.builder("outbound.executor.active", executor, ThreadPoolTaskExecutor::getActiveCount)
+                .description("Outbound tasks currently running")
+                .register(meterRegistry);
+        return executor;
+    }
+}
@@ -5,6 +5,7 @@ import jakarta.validation.Valid;
 import org.example.database.entity.CatalogItem;
 import org.example.database.entity.Knowledge;
 import org.example.service.CatalogManagementService;
+import org.example.service.EmbeddingDimensionReport;
 import org.example.service.KnowledgeManagementService;
 import org.springframework.beans.BeanUtils;
 import org.springframework.http.ResponseEntity;
@@ -12,6 +13,7 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.List;
+import java.util.Locale;
 
 /**
  * Controller for handling management tasks, such as knowledge base updates.
@@ -22,20 +24,23 @@ public class ManagementController {
 
     private final KnowledgeManagementService knowledgeManagementService;
     private final CatalogManagementService catalogManagementService;
+    private final EmbeddingDimensionReport embeddingDimensionReport;
 
     public ManagementController(KnowledgeManagementService knowledgeManagementService,
-                                CatalogManagementService catalogManagementService) {
+                                CatalogManagementService catalogManagementService,
+                                EmbeddingDimensionReport embeddingDimensionReport) {
         this.catalogManagementService = catalogManagementService;
         this.knowledgeManagementService = knowledgeManagementService;
+        this.embeddingDimensionReport = embeddingDimensionReport;
     }
 
     /**
      * Endpoint for uploading a text file to populate a client's knowledge base.
-     * The file is processed paragraph by paragraph.
+     * The file is split into paragraphs, which are embedded in batches.
      *
      * @param file     The text file to upload.
      * @param clientId The ID of the client to associate the knowledge with.
-     * @return A response indicating the result of the operation.
+     * @return A response indicating the result of the operation and the upload's throughput.
      */
     @PostMapping("/knowledge/upload")
     public ResponseEntity<String> uploadKnowledgeFile(@RequestParam("file") MultipartFile file, @RequestParam("clientId") Long clientId) {
@@ -43,8 +48,11 @@ public class ManagementController {
             return ResponseEntity.badRequest().body("Файл порожній!");
         }
         try {
-            knowledgeManagementService.processAndStoreKnowledge(clientId, file.getInputStream());
-            return ResponseEntity.ok("Базу знань для клієнта ID " + clientId + " успішно оновлено.");
+            KnowledgeManagementService.UploadReport report = knowledgeManagementService.processAndStoreKnowledge(clientId, file.getInputStream());
+            return ResponseEntity.ok(String.format(Locale.ROOT,
+                    "Базу знань для клієнта ID %d успішно оновлено: %d абзаців за %.1f с (%.1f абзаців/с).",
+                    clientId, report.paragraphs(), report.embedding().plus(report.insert()).toMillis() / 1000.0,
+                    report.paragraphsPerSecond()));
         } catch (Exception e) {
             return ResponseEntity.internalServerError().body("Помилка під час обробки файлу: " + e.getMessage());
         }
@@ -69,6 +77,30 @@ public class ManagementController {
         }
     }
 
+    /**
+     * Endpoint for comparing search recall, scan time and storage of a client's knowledge at reduced
+     * embedding widths, using the client's latest customer messages as queries.
+     *
+     * @param clientId   The ID of the client.
+     * @param dimensions The reduced widths to compare with the full one.
+     * @param k          The number of nearest entries compared per query.
+     * @param sampleSize The number of latest customer messages to use.
+     * @return The {@link EmbeddingDimensionReport.Report}.
+     */
+    @GetMapping("/knowledge/dimension-report")
+    public ResponseEntity<?> getDimensionReport(@RequestParam Long clientId,
+                                                @RequestParam(defaultValue = "768,1536") List<Integer> dimensions,
+                                                @RequestParam(defaultValue = "5") int k,
+                                                @RequestParam(defaultValue = "200") int sampleSize) {
+        try {
+            return ResponseEntity.ok(embeddingDimensionReport.build(clientId, dimensions, k, sampleSize));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().body("Помилка побудови звіту розмірностей: " + e.getMessage());
+        }
+    }
+
     /**
      * Endpoint for updating a specific general knowledge entry.
      *
@@ -1,6 +1,6 @@
 package org.example.controller;
 
-import org.example.service.WebhookProcessingService;
+import org.example.service.WebhookIngestionService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -25,18 +25,18 @@ public class WebhookController {
 
     private static final Logger log = LoggerFactory.getLogger(WebhookController.class);
 
-    private final WebhookProcessingService processingService;
+    private final WebhookIngestionService ingestionService;
     private final String verifyToken;
 
     /**
-     * Constructs the controller and injects the required WebhookProcessingService.
+     * Constructs the controller and injects the required WebhookIngestionService.
      *
-     * @param processingService The service responsible for processing webhook payloads.
-     * @param verifyToken       The token for webhook verification from application properties.
+     * @param ingestionService The service that validates and enqueues webhook payloads.
+     * @param verifyToken      The token for webhook verification from application properties.
      */
-    public WebhookController(WebhookProcessingService processingService,
+    public WebhookController(WebhookIngestionService ingestionService,
                              @Value("${instagram.verify.token}") String verifyToken) {
-        this.processingService = processingService;
+        this.ingestionService = ingestionService;
         this.verifyToken = verifyToken;
     }
 
@@ -70,19 +70,25 @@ public class WebhookController {
     /**
      * Handles incoming message payloads from the Instagram webhook.
      * <p>
-     * This endpoint receives the JSON payload from the webhook as a raw string
-     * and passes it to the {@link WebhookProcessingService} for processing.
+     * This endpoint receives the JSON payload from the webhook as a raw string and hands it to
+     * the {@link WebhookIngestionService}, which enqueues it for asynchronous processing.
+     * The request is acknowledged as soon as the payload is queued.
      *
      * @param payload The JSON payload from the webhook.
-     * @return A {@link ResponseEntity} with an OK status to acknowledge receipt of the message.
+     * @return OK if the payload was accepted, BAD_REQUEST if it is malformed,
+     * or SERVICE_UNAVAILABLE if the processing queue is full and Instagram should retry later.
      */
     @PostMapping
     public ResponseEntity<Void> handleMessage(@RequestBody String payload) {
         try {
-            processingService.processWebhookPayload(payload);
+            return switch (ingestionService.accept(payload)) {
+                case ACCEPTED -> new ResponseEntity<>(HttpStatus.OK);
+                case INVALID -> new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+                case REJECTED -> new ResponseEntity<>(HttpStatus.SERVICE_UNAVAILABLE);
+            };
         } catch (Exception e) {
             log.error("Error submitting webhook payload for processing.", e);
+            return new ResponseEntity<>(HttpStatus.OK);
         }
-        return new ResponseEntity<>(HttpStatus.OK);
     }
 }
\ No newline at end of file
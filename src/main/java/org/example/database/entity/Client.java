@@ -14,6 +14,17 @@ import jakarta.persistence.*;
 @ToString(exclude = "accessToken")
 @Table(name = "clients")
 public class Client {
+
+    /**
+     * How the Gemini model is chosen for this client's replies.
+     */
+    public enum ModelRouting {
+        /** Short small talk without knowledge base hits goes to the light model, everything else to the full one. */
+        AUTO,
+        /** Every reply uses the full model. */
+        FULL_ONLY
+    }
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
@@ -30,4 +41,47 @@ public class Client {
     @Column(name = "ai_system_prompt", nullable = false, columnDefinition = "TEXT")
     private String aiSystemPrompt;
 
+    /**
+     * Relative share of the webhook workers when several clients have work queued; {@code null} means 1.
+     */
+    @Column(name = "scheduling_weight")
+    private Integer schedulingWeight;
+
+    /**
+     * Maximum number of this client's webhook tasks running at once; {@code null} or 0 means no cap of its own.
+     */
+    @Column(name = "max_concurrency")
+    private Integer maxConcurrency;
+
+    /**
+     * Estimated tokens of conversation history sent with each request; {@code null} means {@code history.token-budget}.
+     */
+    @Column(name = "history_token_budget")
+    private Integer historyTokenBudget;
+
+    /**
+     * {@code null} means {@link ModelRouting#AUTO}.
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(name = "model_routing", length = 16)
+    private ModelRouting modelRouting;
+
+    /**
+     * Longest message still treated as small talk by {@link ModelRouting#AUTO}; {@code null} means {@code gemini.routing.small-talk-max-chars}.
+     */
+    @Column(name = "small_talk_max_chars")
+    private Integer smallTalkMaxChars;
+
+    /**
+     * Width the knowledge embeddings are migrated to, at most {@code 3072}; {@code null} means {@code knowledge.embedding.default-dimensions}.
+     */
+    @Column(name = "embedding_dimensions")
+    private Integer embeddingDimensions;
+
+    /**
+     * Width searched, set by the migration once every entry has it; {@code null} means the full embeddings.
+     */
+    @Column(name = "active_embedding_dimensions")
+    private Integer activeEmbeddingDimensions;
+
 }
@@ -0,0 +1,49 @@
+package org.example.database.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * A rolling summary of the turns of a conversation that no longer fit into the history token budget.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@Entity
+@Table(name = "conversation_summaries",
+        uniqueConstraints = @UniqueConstraint(name = "uk_conversation_summaries_sender", columnNames = {"client_id", "sender_psid"}))
+public class ConversationSummary {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "client_id", nullable = false)
+    private Client client;
+
+    @Column(name = "sender_psid", nullable = false)
+    private String senderPsid;
+
+    @Column(name = "summary", nullable = false, columnDefinition = "TEXT")
+    private String summary;
+
+    /**
+     * Timestamp of the newest turn folded into the summary.
+     */
+    @Column(name = "summarized_until", nullable = false)
+    private LocalDateTime summarizedUntil;
+
+    /**
+     * ID of the newest turn folded into the summary, which orders turns with the same timestamp.
+     */
+    @Column(name = "summarized_until_id")
+    private Long summarizedUntilId;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+}
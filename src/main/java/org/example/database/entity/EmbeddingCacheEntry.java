@@ -0,0 +1,54 @@
+package org.example.database.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+import java.time.LocalDateTime;
+
+/**
+ * An embedding stored under the model, the task type and the hash of the normalized text it was
+ * generated for, so that the same text is not embedded again.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@ToString(exclude = "embedding")
+@Entity
+@Table(name = "embedding_cache",
+        uniqueConstraints = @UniqueConstraint(name = "uk_embedding_cache_key", columnNames = {"model", "task_type", "content_hash"}))
+public class EmbeddingCacheEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "model", nullable = false)
+    private String model;
+
+    @Column(name = "task_type", nullable = false)
+    private String taskType;
+
+    /**
+     * Hex SHA-256 of the normalized text.
+     */
+    @Column(name = "content_hash", nullable = false, length = 64)
+    private String contentHash;
+
+    @JdbcTypeCode(SqlTypes.VECTOR)
+    @Column(name = "embedding", nullable = false, columnDefinition = "vector")
+    private float[] embedding;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    /**
+     * When the entry was last read from the database; reads served from memory do not update it.
+     */
+    @Column(name = "last_used_at", nullable = false)
+    private LocalDateTime lastUsedAt;
+}
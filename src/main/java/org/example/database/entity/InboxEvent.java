@@ -0,0 +1,59 @@
+package org.example.database.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+import java.time.LocalDateTime;
+
+/**
+ * A raw webhook payload journaled before the webhook is acknowledged.
+ * <p>
+ * Entries stay {@link Status#PENDING} until every event in the payload has been processed,
+ * so payloads acknowledged by an instance that was killed can be replayed. An instance replaying
+ * an entry claims it until {@code leasedUntil}, so that no other instance replays it meanwhile.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@ToString(exclude = "payload")
+@Entity
+@Table(name = "inbox", indexes = @Index(name = "idx_inbox_status_received", columnList = "status, received_at"))
+public class InboxEvent {
+
+    public enum Status {
+        PENDING,
+        DONE
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "payload", nullable = false, columnDefinition = "TEXT")
+    private String payload;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 16)
+    private Status status;
+
+    @Column(name = "received_at", nullable = false)
+    private LocalDateTime receivedAt;
+
+    @Column(name = "processed_at")
+    private LocalDateTime processedAt;
+
+    @Column(name = "attempts", nullable = false)
+    private int attempts;
+
+    @Column(name = "leased_until")
+    private LocalDateTime leasedUntil;
+
+    public InboxEvent(String payload) {
+        this.payload = payload;
+        this.status = Status.PENDING;
+        this.receivedAt = LocalDateTime.now();
+    }
+}
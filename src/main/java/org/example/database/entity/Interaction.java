@@ -37,6 +37,13 @@ public class Interaction {
     @Column(name = "message_id", unique = true)
     private String messageId;
 
+    /**
+     * For a user message whose reply is still being produced, the moment until which the instance
+     * producing it holds the claim; {@code null} once the message has been answered.
+     */
+    @Column(name = "claimed_until")
+    private LocalDateTime claimedUntil;
+
     public Interaction(String senderPsid, String author, String text) {
         this.senderPsid = senderPsid;
         this.author = author;
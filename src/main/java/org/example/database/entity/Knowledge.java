@@ -12,7 +12,7 @@ import org.hibernate.type.SqlTypes;
 @Getter
 @Setter
 @NoArgsConstructor
-@ToString(exclude = "embedding")
+@ToString(exclude = {"embedding", "reducedEmbedding"})
 @Entity
 @Table(name = "knowledge")
 public class Knowledge {
@@ -32,8 +32,25 @@ public class Knowledge {
     @Column(name = "content", nullable = false, columnDefinition = "TEXT")
     private String content;
 
+    /**
+     * The full embedding; {@code null} once a client that searches reduced embeddings has dropped it.
+     * Written only through {@link org.example.database.repository.KnowledgeBatchRepository}.
+     */
     @JdbcTypeCode(SqlTypes.VECTOR)
-    @Column(name = "embedding", nullable = false, columnDefinition = "vector(3072)")
+    @Column(name = "embedding", insertable = false, updatable = false, columnDefinition = "vector(3072)")
     private float[] embedding;
 
+    /**
+     * Width of the reduced embedding in the {@code embedding_half} column, or {@code null} if there is none.
+     */
+    @Column(name = "embedding_dims", insertable = false, updatable = false)
+    private Integer embeddingDimensions;
+
+    /**
+     * The reduced embedding to write, or as read by the migration. The {@code halfvec} column it is stored in
+     * has no Hibernate mapping and is accessed through {@link org.example.database.repository.KnowledgeBatchRepository}.
+     */
+    @Transient
+    private float[] reducedEmbedding;
+
 }
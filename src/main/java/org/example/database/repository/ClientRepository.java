@@ -2,7 +2,11 @@ package org.example.database.repository;
 
 import org.example.database.entity.Client;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Optional;
 
@@ -20,4 +24,16 @@ public interface ClientRepository extends JpaRepository<Client, Long> {
      * @return An {@link Optional} containing the found {@link Client} entity, or an empty Optional if no client is found.
      */
     Optional<Client> findByInstagramPageId(String instagramPageId);
+
+    /**
+     * Sets only the embedding width a client's knowledge is searched at, leaving the rest of the row as it is.
+     *
+     * @param id         The ID of the client.
+     * @param dimensions The reduced width, or {@code null} for full embeddings.
+     * @return The number of clients updated.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE Client c SET c.activeEmbeddingDimensions = :dimensions WHERE c.id = :id")
+    int updateActiveEmbeddingDimensions(@Param("id") Long id, @Param("dimensions") Integer dimensions);
 }
\ No newline at end of file
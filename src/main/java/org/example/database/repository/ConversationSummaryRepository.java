@@ -0,0 +1,23 @@
+package org.example.database.repository;
+
+import org.example.database.entity.ConversationSummary;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+/**
+ * Repository interface for {@link ConversationSummary} entity.
+ */
+@Repository
+public interface ConversationSummaryRepository extends JpaRepository<ConversationSummary, Long> {
+
+    /**
+     * Finds the summary of a conversation.
+     *
+     * @param clientId   The ID of the client.
+     * @param senderPsid The Instagram user's page-scoped ID.
+     * @return The summary, or an empty Optional if nothing has been summarized yet.
+     */
+    Optional<ConversationSummary> findByClientIdAndSenderPsid(Long clientId, String senderPsid);
+}
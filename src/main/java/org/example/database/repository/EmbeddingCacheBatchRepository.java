@@ -0,0 +1,19 @@
+package org.example.database.repository;
+
+import org.example.database.entity.EmbeddingCacheEntry;
+
+import java.util.List;
+
+/**
+ * Bulk writes to the embedding cache that bypass the persistence context.
+ */
+public interface EmbeddingCacheBatchRepository {
+
+    /**
+     * Inserts the entries with JDBC batches, skipping those whose key is already stored, for example
+     * by another instance that embedded the same text at the same time.
+     *
+     * @param entries The new entries, each with a model, task type, content hash and embedding.
+     */
+    void insertAllIfAbsent(List<EmbeddingCacheEntry> entries);
+}
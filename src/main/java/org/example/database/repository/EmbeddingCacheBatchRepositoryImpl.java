@@ -0,0 +1,42 @@
+package org.example.database.repository;
+
+import org.example.database.entity.EmbeddingCacheEntry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * JDBC implementation of {@link EmbeddingCacheBatchRepository}, picked up by Spring Data for
+ * {@link EmbeddingCacheRepository}.
+ */
+class EmbeddingCacheBatchRepositoryImpl implements EmbeddingCacheBatchRepository {
+
+    private static final String INSERT_SQL =
+            "INSERT INTO embedding_cache (model, task_type, content_hash, embedding, created_at, last_used_at) "
+                    + "VALUES (?, ?, ?, CAST(? AS vector), ?, ?) ON CONFLICT (model, task_type, content_hash) DO NOTHING";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int batchSize;
+
+    EmbeddingCacheBatchRepositoryImpl(JdbcTemplate jdbcTemplate,
+                                      @Value("${knowledge.insert-batch-size:500}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    @Transactional
+    public void insertAllIfAbsent(List<EmbeddingCacheEntry> entries) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, entries, batchSize, (ps, entry) -> {
+            ps.setString(1, entry.getModel());
+            ps.setString(2, entry.getTaskType());
+            ps.setString(3, entry.getContentHash());
+            ps.setString(4, KnowledgeBatchRepositoryImpl.toVectorLiteral(entry.getEmbedding()));
+            ps.setTimestamp(5, Timestamp.valueOf(entry.getCreatedAt()));
+            ps.setTimestamp(6, Timestamp.valueOf(entry.getLastUsedAt()));
+        });
+    }
+}
@@ -0,0 +1,41 @@
+package org.example.database.repository;
+
+import org.example.database.entity.EmbeddingCacheEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Repository interface for {@link EmbeddingCacheEntry} entity, with batched inserts through
+ * {@link EmbeddingCacheBatchRepository}.
+ */
+@Repository
+public interface EmbeddingCacheRepository extends JpaRepository<EmbeddingCacheEntry, Long>, EmbeddingCacheBatchRepository {
+
+    /**
+     * Finds the cached embeddings of a model and task type for the given text hashes.
+     */
+    List<EmbeddingCacheEntry> findByModelAndTaskTypeAndContentHashIn(String model, String taskType, Collection<String> contentHashes);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE EmbeddingCacheEntry e SET e.lastUsedAt = :usedAt WHERE e.id IN :ids")
+    void markUsed(@Param("ids") Collection<Long> ids, @Param("usedAt") LocalDateTime usedAt);
+
+    /**
+     * Deletes the entries not read since the given time.
+     *
+     * @return The number of deleted entries.
+     */
+    @Modifying
+    @Transactional
+    @Query("DELETE FROM EmbeddingCacheEntry e WHERE e.lastUsedAt < :cutoff")
+    int deleteUnusedSince(@Param("cutoff") LocalDateTime cutoff);
+}
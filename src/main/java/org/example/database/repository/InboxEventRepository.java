@@ -0,0 +1,54 @@
+package org.example.database.repository;
+
+import org.example.database.entity.InboxEvent;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Repository interface for the {@link InboxEvent} journal.
+ */
+@Repository
+public interface InboxEventRepository extends JpaRepository<InboxEvent, Long> {
+
+    /**
+     * Finds the oldest journaled payloads in the given status that were received before the given time.
+     *
+     * @param status The status to look for, normally {@link InboxEvent.Status#PENDING}.
+     * @param before Only entries received before this time are returned.
+     * @return Up to 100 entries, oldest first.
+     */
+    List<InboxEvent> findTop100ByStatusAndReceivedAtBeforeOrderByIdAsc(InboxEvent.Status status, LocalDateTime before);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE InboxEvent e SET e.status = :status, e.processedAt = :processedAt WHERE e.id IN :ids")
+    int updateStatus(@Param("ids") Collection<Long> ids, @Param("status") InboxEvent.Status status, @Param("processedAt") LocalDateTime processedAt);
+
+    /**
+     * Claims a pending entry for a replay attempt, unless another replay holds an unexpired lease on it.
+     *
+     * @param id          The entry.
+     * @param now         The current time; leases that end before it have expired.
+     * @param leasedUntil The end of the new lease.
+     * @return 1 if the entry was claimed and its attempts incremented, 0 otherwise.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE InboxEvent e SET e.attempts = e.attempts + 1, e.leasedUntil = :leasedUntil "
+            + "WHERE e.id = :id AND e.status = :status AND (e.leasedUntil IS NULL OR e.leasedUntil < :now)")
+    int claim(@Param("id") Long id, @Param("status") InboxEvent.Status status,
+              @Param("now") LocalDateTime now, @Param("leasedUntil") LocalDateTime leasedUntil);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM InboxEvent e WHERE e.status = :status AND e.processedAt < :before")
+    int deleteProcessedBefore(@Param("status") InboxEvent.Status status, @Param("before") LocalDateTime before);
+}
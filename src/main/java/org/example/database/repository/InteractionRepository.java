@@ -2,9 +2,15 @@ package org.example.database.repository;
 
 
 import org.example.database.entity.Interaction;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -12,13 +18,55 @@ public interface InteractionRepository extends JpaRepository<Interaction, Long>
 
     /**
      * Finds the last 10 interactions for a specific user (sender) of a specific client,
-     * ordered by timestamp in descending order.
+     * ordered by timestamp and ID in descending order.
      *
      * @param clientId   The ID of the client.
      * @param senderPsid The Page-Scoped ID of the user.
      * @return The list of 10 or fewer interactions
      */
-    List<Interaction> findTop10ByClientIdAndSenderPsidOrderByTimestampDesc(Long clientId, String senderPsid);
+    List<Interaction> findTop10ByClientIdAndSenderPsidOrderByTimestampDescIdDesc(Long clientId, String senderPsid);
+
+    /**
+     * Finds the latest interactions of a client by one author, such as the customers' messages ({@code "USER"}).
+     */
+    List<Interaction> findByClientIdAndAuthorOrderByTimestampDesc(Long clientId, String author, Pageable pageable);
 
     boolean existsByMessageId(String messageId);
+
+    List<Interaction> findByMessageIdIn(Collection<String> messageIds);
+
+    /**
+     * Atomically inserts a user message claimed for reply until {@code claimedUntil}, unless one with the
+     * same message ID already exists. An existing message whose claim expired before {@code timestamp}
+     * (its instance died before answering) is claimed again. Two concurrent deliveries of the same
+     * message cannot both succeed.
+     *
+     * @return 1 if the message was inserted or reclaimed, 0 if it is answered or claimed by someone else.
+     */
+    @Modifying
+    @Query(value = "INSERT INTO interactions (client_id, sender_psid, message_author, message_text, timestamp, message_id, claimed_until) " +
+            "VALUES (:clientId, :senderPsid, :author, :text, :timestamp, :messageId, :claimedUntil) " +
+            "ON CONFLICT (message_id) DO UPDATE SET claimed_until = EXCLUDED.claimed_until " +
+            "WHERE interactions.claimed_until < EXCLUDED.timestamp", nativeQuery = true)
+    int claim(@Param("clientId") Long clientId,
+              @Param("senderPsid") String senderPsid,
+              @Param("author") String author,
+              @Param("text") String text,
+              @Param("timestamp") LocalDateTime timestamp,
+              @Param("messageId") String messageId,
+              @Param("claimedUntil") LocalDateTime claimedUntil);
+
+    /**
+     * Marks claimed messages as answered.
+     */
+    @Modifying
+    @Query("UPDATE Interaction i SET i.claimedUntil = null WHERE i.messageId IN :messageIds")
+    int markAnswered(@Param("messageIds") Collection<String> messageIds);
+
+    /**
+     * Removes claimed messages whose reply failed, so a redelivery can try again.
+     */
+    @Modifying
+    @Query("DELETE FROM Interaction i WHERE i.messageId IN :messageIds AND i.claimedUntil IS NOT NULL")
+    int releaseClaims(@Param("messageIds") Collection<String> messageIds);
 }
@@ -0,0 +1,74 @@
+package org.example.database.repository;
+
+import org.example.database.entity.Knowledge;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes to the knowledge base that bypass the persistence context, and the queries on the
+ * {@code embedding_half} column, which has no Hibernate mapping.
+ * <p>
+ * Reduced embeddings are stored as {@code halfvec} in {@code embedding_half}, with their width in
+ * {@code embedding_dims}; full ones as {@code vector(3072)} in {@code embedding}.
+ */
+public interface KnowledgeBatchRepository {
+
+    /**
+     * Inserts the entries with JDBC batches in one transaction. The entries are not managed afterwards
+     * and their IDs stay unset.
+     *
+     * @param entries The new entries, each with a client, content, and a full or reduced embedding or both.
+     */
+    void insertAll(List<Knowledge> entries);
+
+    /**
+     * Overwrites the full and reduced embeddings of existing entries with those of the given ones,
+     * including {@code null}s.
+     *
+     * @param entries Entries with their ID and embeddings.
+     */
+    void updateEmbeddings(List<Knowledge> entries);
+
+    /**
+     * Finds entries of a client that do not have an embedding of the given width yet: without a reduced
+     * embedding of that width, or without a full embedding if it is the full width. The entries are not
+     * managed and have only their ID, content and embeddings set.
+     *
+     * @param clientId   The client.
+     * @param dimensions The width.
+     * @param limit      The maximum number of entries, lowest IDs first.
+     */
+    List<Knowledge> findWithoutEmbeddingOfWidth(Long clientId, int dimensions, int limit);
+
+    /**
+     * Finds all entries of a client that still have a full embedding, with only their ID, content and
+     * embeddings set.
+     */
+    List<Knowledge> findWithFullEmbedding(Long clientId);
+
+    /**
+     * Finds the entries of a client nearest to a query by Euclidean distance between reduced embeddings.
+     * Entries whose reduced embedding has another width are not considered.
+     *
+     * @param clientId     The client.
+     * @param queryVectors The query embedding reduced to each width to search.
+     * @param limit        The maximum number of entries.
+     * @return The entries, nearest first, with only their ID, content and reduced embedding set.
+     */
+    List<Knowledge> findNearestNeighborsReduced(Long clientId, Map<Integer, float[]> queryVectors, int limit);
+
+    /**
+     * Deletes the full embeddings of a client's entries that have a reduced one of the given width.
+     *
+     * @return The number of entries changed.
+     */
+    int clearFullEmbeddings(Long clientId, int dimensions);
+
+    /**
+     * Deletes the reduced embeddings of a client's entries that have a full one.
+     *
+     * @return The number of entries changed.
+     */
+    int clearReducedEmbeddings(Long clientId);
+}
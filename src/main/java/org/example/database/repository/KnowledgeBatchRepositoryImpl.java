@@ -0,0 +1,186 @@
+package org.example.database.repository;
+
+import org.example.database.entity.Knowledge;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+
+/**
+ * JDBC implementation of {@link KnowledgeBatchRepository}, picked up by Spring Data for
+ * {@link KnowledgeRepository}.
+ * <p>
+ * Saving entities one by one costs a round-trip per row, because IDENTITY keys disable Hibernate's
+ * insert batching. Here the rows go out in batches of {@code knowledge.insert-batch-size}, which the
+ * PostgreSQL driver rewrites into multi-row inserts with {@code reWriteBatchedInserts=true}.
+ * <p>
+ * Vectors are sent and read in pgvector's text form, which is the same for {@code vector} and {@code halfvec}.
+ */
+class KnowledgeBatchRepositoryImpl implements KnowledgeBatchRepository {
+
+    /** Largest width of full embeddings, as in {@code Knowledge.embedding}. */
+    private static final int FULL_DIMENSIONS = 3072;
+
+    private static final String INSERT_SQL =
+            "INSERT INTO knowledge (client_id, catalog_item_id, content, embedding, embedding_half, embedding_dims) "
+                    + "VALUES (?, ?, ?, CAST(? AS vector), CAST(? AS halfvec), ?)";
+    private static final String UPDATE_SQL =
+            "UPDATE knowledge SET embedding = CAST(? AS vector), embedding_half = CAST(? AS halfvec), embedding_dims = ? WHERE id = ?";
+    private static final String SELECT_EMBEDDINGS =
+            "SELECT id, content, embedding::text AS embedding, embedding_half::text AS embedding_half, embedding_dims FROM knowledge ";
+
+    private static final RowMapper<Knowledge> EMBEDDING_ROW = (rs, rowNum) -> {
+        Knowledge knowledge = new Knowledge();
+        knowledge.setId(rs.getLong("id"));
+        knowledge.setContent(rs.getString("content"));
+        knowledge.setEmbedding(fromVectorLiteral(rs.getString("embedding")));
+        knowledge.setReducedEmbedding(fromVectorLiteral(rs.getString("embedding_half")));
+        knowledge.setEmbeddingDimensions(rs.getObject("embedding_dims", Integer.class));
+        return knowledge;
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final int batchSize;
+
+    KnowledgeBatchRepositoryImpl(JdbcTemplate jdbcTemplate,
+                                 @Value("${knowledge.insert-batch-size:500}") int batchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    @Transactional
+    public void insertAll(List<Knowledge> entries) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, entries, batchSize, (ps, knowledge) -> {
+            ps.setLong(1, knowledge.getClient().getId());
+            if (knowledge.getCatalogItem() != null) {
+                ps.setLong(2, knowledge.getCatalogItem().getId());
+            } else {
+                ps.setNull(2, Types.BIGINT);
+            }
+            ps.setString(3, knowledge.getContent());
+            setEmbeddings(ps, 4, knowledge);
+        });
+    }
+
+    @Override
+    @Transactional
+    public void updateEmbeddings(List<Knowledge> entries) {
+        jdbcTemplate.batchUpdate(UPDATE_SQL, entries, batchSize, (ps, knowledge) -> {
+            setEmbeddings(ps, 1, knowledge);
+            ps.setLong(4, knowledge.getId());
+        });
+    }
+
+    private static void setEmbeddings(PreparedStatement ps, int index, Knowledge knowledge) throws SQLException {
+        ps.setString(index, knowledge.getEmbedding() != null ? toVectorLiteral(knowledge.getEmbedding()) : null);
+        ps.setString(index + 1, knowledge.getReducedEmbedding() != null ? toVectorLiteral(knowledge.getReducedEmbedding()) : null);
+        if (knowledge.getReducedEmbedding() != null) {
+            ps.setInt(index + 2, knowledge.getReducedEmbedding().length);
+        } else {
+            ps.setNull(index + 2, Types.INTEGER);
+        }
+    }
+
+    @Override
+    public List<Knowledge> findWithoutEmbeddingOfWidth(Long clientId, int dimensions, int limit) {
+        if (dimensions >= FULL_DIMENSIONS) {
+            return jdbcTemplate.query(SELECT_EMBEDDINGS + "WHERE client_id = ? AND embedding IS NULL ORDER BY id LIMIT ?",
+                    EMBEDDING_ROW, clientId, limit);
+        }
+        return jdbcTemplate.query(SELECT_EMBEDDINGS + "WHERE client_id = ? AND embedding_dims IS DISTINCT FROM ? ORDER BY id LIMIT ?",
+                EMBEDDING_ROW, clientId, dimensions, limit);
+    }
+
+    @Override
+    public List<Knowledge> findWithFullEmbedding(Long clientId) {
+        return jdbcTemplate.query(SELECT_EMBEDDINGS + "WHERE client_id = ? AND embedding IS NOT NULL ORDER BY id",
+                EMBEDDING_ROW, clientId);
+    }
+
+    @Override
+    public List<Knowledge> findNearestNeighborsReduced(Long clientId, Map<Integer, float[]> queryVectors, int limit) {
+        MapSqlParameterSource parameters = new MapSqlParameterSource()
+                .addValue("clientId", clientId)
+                .addValue("limit", limit);
+        queryVectors.forEach((dimensions, vector) -> parameters.addValue("query" + dimensions, toVectorLiteral(vector)));
+        return namedJdbcTemplate.query(nearestNeighborsSql(queryVectors.keySet()), parameters, EMBEDDING_ROW);
+    }
+
+    /**
+     * Builds one branch per width, each ordered by the expression of the partial HNSW index for that width
+     * (see {@link org.example.config.KnowledgeEmbeddingSchema}), and merges their results by distance.
+     * Widths are validated integers, so they can be part of the SQL.
+     */
+    static String nearestNeighborsSql(Iterable<Integer> widths) {
+        StringJoiner branches = new StringJoiner(" UNION ALL ");
+        for (int dimensions : widths) {
+            if (dimensions < 1 || dimensions >= FULL_DIMENSIONS) {
+                throw new IllegalArgumentException("Not a reduced embedding width: " + dimensions);
+            }
+            String distance = "embedding_half::halfvec(" + dimensions + ") <-> CAST(:query" + dimensions + " AS halfvec(" + dimensions + "))";
+            branches.add("(SELECT id, " + distance + " AS distance FROM knowledge WHERE client_id = :clientId AND embedding_dims = "
+                    + dimensions + " ORDER BY " + distance + " LIMIT :limit)");
+        }
+        return "SELECT k.id, k.content, NULL AS embedding, k.embedding_half::text AS embedding_half, k.embedding_dims "
+                + "FROM knowledge k JOIN (" + branches + ") nearest ON nearest.id = k.id ORDER BY nearest.distance LIMIT :limit";
+    }
+
+    @Override
+    @Transactional
+    public int clearFullEmbeddings(Long clientId, int dimensions) {
+        return jdbcTemplate.update("UPDATE knowledge SET embedding = NULL WHERE client_id = ? AND embedding_dims = ? AND embedding IS NOT NULL",
+                clientId, dimensions);
+    }
+
+    @Override
+    @Transactional
+    public int clearReducedEmbeddings(Long clientId) {
+        return jdbcTemplate.update("UPDATE knowledge SET embedding_half = NULL, embedding_dims = NULL "
+                + "WHERE client_id = ? AND embedding IS NOT NULL AND embedding_dims IS NOT NULL", clientId);
+    }
+
+    /**
+     * @return The vector in pgvector's text form, {@code [v1,v2,...]}.
+     */
+    static String toVectorLiteral(float[] vector) {
+        StringBuilder literal = new StringBuilder(vector.length * 12).append('[');
+        for (int i = 0; i < vector.length; i++) {
+            if (i > 0) {
+                literal.append(',');
+            }
+            literal.append(vector[i]);
+        }
+        return literal.append(']').toString();
+    }
+
+    /**
+     * @return The vector of a pgvector text form, or {@code null} for {@code null}.
+     */
+    static float[] fromVectorLiteral(String literal) {
+        if (literal == null) {
+            return null;
+        }
+        String values = literal.substring(1, literal.length() - 1);
+        if (values.isEmpty()) {
+            return new float[0];
+        }
+        String[] parts = values.split(",");
+        float[] vector = new float[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            vector[i] = Float.parseFloat(parts[i]);
+        }
+        return vector;
+    }
+}
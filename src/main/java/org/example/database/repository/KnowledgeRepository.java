@@ -12,10 +12,11 @@ import java.util.List;
  * Repository interface for the {@link Knowledge} entity.
  * <p>
  * Provides standard CRUD operations and custom queries for vector search
- * to find relevant knowledge base entries.
+ * to find relevant knowledge base entries by full embedding; batched writes and searches by reduced
+ * embedding go through {@link KnowledgeBatchRepository}.
  */
 @Repository
-public interface KnowledgeRepository extends JpaRepository<Knowledge, Long> {
+public interface KnowledgeRepository extends JpaRepository<Knowledge, Long>, KnowledgeBatchRepository {
 
     /**
      * Finds the nearest neighbors for a given query vector within a specific client's knowledge base.
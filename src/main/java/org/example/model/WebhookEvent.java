@@ -0,0 +1,21 @@
+package org.example.model;
+
+/**
+ * The fields of a single Instagram messaging event that the bot needs.
+ *
+ * @param pageId    The ID of the Instagram page (entry) the event belongs to.
+ * @param senderId  The page-scoped ID of the sender.
+ * @param messageId The message ID ({@code mid}), or {@code null} for events without a message.
+ * @param text      The message text, or {@code null} for non-text messages.
+ * @param echo      Whether the message is an echo of a message sent by the page.
+ * @param message   Whether the event carries a message at all (read receipts, reactions etc. do not).
+ */
+public record WebhookEvent(String pageId, String senderId, String messageId, String text, boolean echo, boolean message) {
+
+    /**
+     * @return {@code true} if this is an incoming text message the bot should answer.
+     */
+    public boolean isIncomingText() {
+        return message && !echo && text != null && messageId != null;
+    }
+}
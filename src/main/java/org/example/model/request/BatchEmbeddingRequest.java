@@ -0,0 +1,10 @@
+package org.example.model.request;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class BatchEmbeddingRequest {
+    private List<EmbeddingRequest> requests;
+}
@@ -0,0 +1,12 @@
+package org.example.model.request;
+
+import lombok.Data;
+import org.example.model.Content;
+
+@Data
+public class CachedContentRequest {
+    private String model;
+    private String displayName;
+    private Content systemInstruction;
+    private String ttl;
+}
@@ -5,5 +5,9 @@ import org.example.model.Content;
 
 @Data
 public class EmbeddingRequest {
+    /**
+     * The model, as {@code models/...}; only set inside a batch request.
+     */
+    private String model;
     private Content content;
-}
\ No newline at end of file
+}
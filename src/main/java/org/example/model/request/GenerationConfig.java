@@ -0,0 +1,8 @@
+package org.example.model.request;
+
+import lombok.Data;
+
+@Data
+public class GenerationConfig {
+    private Integer maxOutputTokens;
+}
@@ -8,4 +8,8 @@ import java.util.List;
 @Data
 public class RequestPayload {
     private List<Content> contents;
+    private Content systemInstruction;
+    /** Name of a cached content holding the system instruction; mutually exclusive with {@link #systemInstruction}. */
+    private String cachedContent;
+    private GenerationConfig generationConfig;
 }
@@ -0,0 +1,9 @@
+package org.example.model.response;
+
+import lombok.Data;
+
+@Data
+public class CachedContentResponse {
+    private String name;
+    private String expireTime;
+}
@@ -7,4 +7,12 @@ import java.util.List;
 @Data
 public class ResponsePayload {
     private List<ResponseCandidate> candidates;
+    private UsageMetadata usageMetadata;
+
+    @Data
+    public static class UsageMetadata {
+        private Integer promptTokenCount;
+        private Integer cachedContentTokenCount;
+        private Integer candidatesTokenCount;
+    }
 }
@@ -0,0 +1,395 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.example.database.entity.ConversationSummary;
+import org.example.database.entity.Interaction;
+import org.example.database.repository.ConversationSummaryRepository;
+import org.example.database.repository.InteractionRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the latest turns of each conversation in memory so that a reply does not have to load the
+ * history from the database.
+ * <p>
+ * Every conversation holds at most {@link #HISTORY_SIZE} turns in a ring buffer, together with the
+ * rolling summary of older turns. A conversation that is not cached is loaded from the database on
+ * first use; afterwards the webhook processing writes every claimed message, reply and release
+ * through to it, and the summarizer every new summary. Conversations idle for
+ * {@code conversation-cache.idle-ttl-ms} are evicted, and the least recently used ones are evicted
+ * while the estimated size of all cached text exceeds {@code conversation-cache.max-bytes}. A
+ * conversation loaded more than {@code conversation-cache.max-age-ms} ago is loaded again even if it
+ * stays busy.
+ * <p>
+ * A load that overlaps a write to the same conversation is returned but not cached, since it may have
+ * read the database before the write. Turns written by another instance are not seen until the
+ * conversation is evicted or reaches its maximum age here; keep both short when several instances
+ * receive webhooks.
+ */
+@Component
+public class ConversationHistoryCache {
+
+    /** The number of turns passed to the model as conversation history. */
+    public static final int HISTORY_SIZE = 10;
+    /** Rough per-turn cost of the objects around the text, for the memory estimate. */
+    private static final int TURN_OVERHEAD_BYTES = 96;
+    private static final int CONVERSATION_OVERHEAD_BYTES = 160;
+
+    /**
+     * A message of a conversation.
+     *
+     * @param id        The ID of the stored interaction; it orders turns with the same timestamp.
+     * @param author    {@code USER} or {@code AI}.
+     * @param text      The message text.
+     * @param timestamp When the message was stored.
+     * @param messageId The Instagram message ID, {@code null} for replies.
+     * @param pending   {@code true} for a user message whose reply is still being produced.
+     */
+    public record Turn(Long id, String author, String text, LocalDateTime timestamp, String messageId, boolean pending) {
+
+        public static Turn of(Interaction interaction) {
+            return new Turn(interaction.getId(), interaction.getAuthor(), interaction.getText(), interaction.getTimestamp(),
+                    interaction.getMessageId(), interaction.getClaimedUntil() != null);
+        }
+
+        public boolean fromUser() {
+            return "USER".equalsIgnoreCase(author);
+        }
+
+        private long estimatedBytes() {
+            return TURN_OVERHEAD_BYTES + 2L * (text != null ? text.length() : 0) + 2L * (messageId != null ? messageId.length() : 0);
+        }
+    }
+
+    /**
+     * The rolling summary of the turns that were dropped from the history.
+     *
+     * @param text              The summary.
+     * @param summarizedUntil   Timestamp of the newest turn folded into it.
+     * @param summarizedUntilId ID of the newest turn folded into it, or {@code null} for summaries stored before IDs were.
+     */
+    public record Summary(String text, LocalDateTime summarizedUntil, Long summarizedUntilId) {
+
+        public static Summary of(ConversationSummary entity) {
+            return new Summary(entity.getSummary(), entity.getSummarizedUntil(), entity.getSummarizedUntilId());
+        }
+
+        /**
+         * Turns are ordered by timestamp and then by ID, since the messages of a burst are stored with
+         * the same timestamp and may be folded in different summaries.
+         *
+         * @return Whether the turn is folded into this summary already.
+         */
+        public boolean covers(Turn turn) {
+            if (summarizedUntil == null || turn.timestamp() == null) {
+                return summarizedUntil != null;
+            }
+            int order = turn.timestamp().compareTo(summarizedUntil);
+            if (order != 0 || summarizedUntilId == null) {
+                return order <= 0;
+            }
+            return turn.id() != null && turn.id() <= summarizedUntilId;
+        }
+
+        private long estimatedBytes() {
+            return TURN_OVERHEAD_BYTES + 2L * text.length();
+        }
+    }
+
+    /**
+     * The history of a conversation.
+     *
+     * @param turns   The latest turns, oldest first.
+     * @param summary The summary of older turns, or {@code null}.
+     */
+    public record History(List<Turn> turns, Summary summary) {
+    }
+
+    private record Key(Long clientId, String senderPsid) {
+    }
+
+    private static final class Conversation {
+        private final ArrayDeque<Turn> turns = new ArrayDeque<>(HISTORY_SIZE);
+        private Summary summary;
+        private long bytes = CONVERSATION_OVERHEAD_BYTES;
+        private long loadedAt;
+        private long lastAccess;
+    }
+
+    /**
+     * The loads of a conversation in progress, and whether it was written to meanwhile.
+     */
+    private static final class PendingLoad {
+        private int loaders;
+        private boolean written;
+    }
+
+    private final InteractionRepository interactionRepository;
+    private final ConversationSummaryRepository summaryRepository;
+    private final boolean enabled;
+    private final long maxBytes;
+    private final long idleTtlNanos;
+    private final long maxAgeNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Key, Conversation> conversations = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<Key, PendingLoad> pendingLoads = new HashMap<>();
+    private long totalBytes;
+    private final Counter hits;
+    private final Counter misses;
+
+    public ConversationHistoryCache(InteractionRepository interactionRepository,
+                                    ConversationSummaryRepository summaryRepository,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${conversation-cache.enabled:true}") boolean enabled,
+                                    @Value("${conversation-cache.max-bytes:33554432}") long maxBytes,
+                                    @Value("${conversation-cache.idle-ttl-ms:600000}") long idleTtlMs,
+                                    @Value("${conversation-cache.max-age-ms:1800000}") long maxAgeMs) {
+        this.interactionRepository = interactionRepository;
+        this.summaryRepository = summaryRepository;
+        this.enabled = enabled;
+        this.maxBytes = maxBytes;
+        this.idleTtlNanos = Duration.ofMillis(idleTtlMs).toNanos();
+        this.maxAgeNanos = Duration.ofMillis(maxAgeMs).toNanos();
+        this.hits = lookupCounter(meterRegistry, "hit");
+        this.misses = lookupCounter(meterRegistry, "miss");
+        meterRegistry.gauge("conversation.cache.conversations", this, ConversationHistoryCache::conversationCount);
+        meterRegistry.gauge("conversation.cache.bytes", this, ConversationHistoryCache::estimatedBytes);
+    }
+
+    private static Counter lookupCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("conversation.cache.lookups")
+                .description("Conversation history lookups by whether the database had to be queried")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return The latest turns and the summary of the conversation.
+     */
+    public History history(Long clientId, String senderPsid) {
+        if (!enabled) {
+            return load(clientId, senderPsid);
+        }
+        Key key = new Key(clientId, senderPsid);
+        PendingLoad pending;
+        lock.lock();
+        try {
+            evictIdle();
+            Conversation conversation = conversations.get(key);
+            long now = System.nanoTime();
+            if (conversation != null && now - conversation.loadedAt <= maxAgeNanos) {
+                conversation.lastAccess = now;
+                hits.increment();
+                return new History(List.copyOf(conversation.turns), conversation.summary);
+            }
+            if (conversation != null) {
+                remove(key);
+            }
+            pending = pendingLoads.computeIfAbsent(key, k -> new PendingLoad());
+            pending.loaders++;
+        } finally {
+            lock.unlock();
+        }
+
+        misses.increment();
+        History history = null;
+        try {
+            history = load(clientId, senderPsid);
+        } finally {
+            lock.lock();
+            try {
+                if (--pending.loaders == 0) {
+                    pendingLoads.remove(key);
+                }
+                if (history != null && !pending.written && !conversations.containsKey(key)) {
+                    Conversation conversation = new Conversation();
+                    history.turns().forEach(turn -> add(conversation, turn));
+                    setSummary(conversation, history.summary());
+                    conversation.loadedAt = System.nanoTime();
+                    conversation.lastAccess = conversation.loadedAt;
+                    conversations.put(key, conversation);
+                    totalBytes += conversation.bytes;
+                    evictOverBudget();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return history;
+    }
+
+    /**
+     * Adds stored turns to the conversation if it is cached.
+     */
+    public void append(Long clientId, String senderPsid, Collection<Turn> turns) {
+        update(clientId, senderPsid, conversation -> turns.forEach(turn -> add(conversation, turn)));
+    }
+
+    /**
+     * Marks the user messages as answered and adds the reply, if the conversation is cached.
+     */
+    public void answered(Long clientId, String senderPsid, Collection<String> messageIds, Turn reply) {
+        update(clientId, senderPsid, conversation -> {
+            ArrayDeque<Turn> updated = new ArrayDeque<>(HISTORY_SIZE);
+            for (Turn turn : conversation.turns) {
+                updated.add(turn.pending() && messageIds.contains(turn.messageId())
+                        ? new Turn(turn.id(), turn.author(), turn.text(), turn.timestamp(), turn.messageId(), false)
+                        : turn);
+            }
+            conversation.turns.clear();
+            conversation.turns.addAll(updated);
+            add(conversation, reply);
+        });
+    }
+
+    /**
+     * Replaces the summary of the conversation if it is cached.
+     */
+    public void summarized(Long clientId, String senderPsid, Summary summary) {
+        update(clientId, senderPsid, conversation -> setSummary(conversation, summary));
+    }
+
+    /**
+     * Drops the conversation, e.g. after its claimed messages were released; it is reloaded on next use.
+     */
+    public void invalidate(Long clientId, String senderPsid) {
+        lock.lock();
+        try {
+            Key key = new Key(clientId, senderPsid);
+            remove(key);
+            markWritten(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void remove(Key key) {
+        Conversation conversation = conversations.remove(key);
+        if (conversation != null) {
+            totalBytes -= conversation.bytes;
+        }
+    }
+
+    /**
+     * Keeps a load of the conversation that is in progress from being cached, as it may miss the write.
+     */
+    private void markWritten(Key key) {
+        PendingLoad pending = pendingLoads.get(key);
+        if (pending != null) {
+            pending.written = true;
+        }
+    }
+
+    private void update(Long clientId, String senderPsid, Consumer<Conversation> change) {
+        if (!enabled) {
+            return;
+        }
+        Key key = new Key(clientId, senderPsid);
+        lock.lock();
+        try {
+            Conversation conversation = conversations.get(key);
+            if (conversation != null) {
+                long before = conversation.bytes;
+                change.accept(conversation);
+                conversation.lastAccess = System.nanoTime();
+                totalBytes += conversation.bytes - before;
+                evictOverBudget();
+            } else {
+                markWritten(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private History load(Long clientId, String senderPsid) {
+        List<Interaction> newestFirst = interactionRepository.findTop10ByClientIdAndSenderPsidOrderByTimestampDescIdDesc(clientId, senderPsid);
+        Turn[] turns = new Turn[newestFirst.size()];
+        for (int i = 0; i < turns.length; i++) {
+            turns[turns.length - 1 - i] = Turn.of(newestFirst.get(i));
+        }
+        Summary summary = summaryRepository.findByClientIdAndSenderPsid(clientId, senderPsid)
+                .map(Summary::of)
+                .orElse(null);
+        return new History(List.of(turns), summary);
+    }
+
+    private static void setSummary(Conversation conversation, Summary summary) {
+        if (conversation.summary != null) {
+            conversation.bytes -= conversation.summary.estimatedBytes();
+        }
+        conversation.summary = summary;
+        if (summary != null) {
+            conversation.bytes += summary.estimatedBytes();
+        }
+    }
+
+    /**
+     * Adds a turn, dropping the oldest one if the buffer is full. The caller accounts for the change in {@link #totalBytes}.
+     */
+    private static void add(Conversation conversation, Turn turn) {
+        if (conversation.turns.size() == HISTORY_SIZE) {
+            conversation.bytes -= conversation.turns.removeFirst().estimatedBytes();
+        }
+        conversation.turns.addLast(turn);
+        conversation.bytes += turn.estimatedBytes();
+    }
+
+    private void evictIdle() {
+        long now = System.nanoTime();
+        Iterator<Conversation> iterator = conversations.values().iterator();
+        while (iterator.hasNext()) {
+            Conversation eldest = iterator.next();
+            if (now - eldest.lastAccess <= idleTtlNanos) {
+                return;
+            }
+            totalBytes -= eldest.bytes;
+            iterator.remove();
+        }
+    }
+
+    private void evictOverBudget() {
+        Iterator<Map.Entry<Key, Conversation>> iterator = conversations.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            totalBytes -= iterator.next().getValue().bytes;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @return The number of cached conversations.
+     */
+    public int conversationCount() {
+        lock.lock();
+        try {
+            return conversations.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The estimated memory held by the cached conversations, in bytes.
+     */
+    public long estimatedBytes() {
+        lock.lock();
+        try {
+            return totalBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps the number of concurrent calls to each external dependency.
+ * <p>
+ * With a fixed worker pool the pool size implicitly limited how many requests could hit Gemini or the
+ * Graph API at once. On virtual threads that limit is gone, so every outbound call takes a permit for
+ * its downstream here and waits up to {@code downstream.acquire-timeout-ms} for one. Database access
+ * is already capped by the Hikari pool size.
+ */
+@Component
+public class DownstreamLimits {
+
+    /**
+     * An external dependency with its own concurrency cap.
+     */
+    public enum Downstream {
+        GEMINI_CHAT,
+        GEMINI_EMBEDDING,
+        INSTAGRAM;
+
+        String tag() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+    }
+
+    /**
+     * A blocking call to a downstream.
+     *
+     * @param <T> The result type.
+     */
+    @FunctionalInterface
+    public interface Call<T> {
+        T execute() throws IOException;
+    }
+
+    private final Map<Downstream, Semaphore> permits = new EnumMap<>(Downstream.class);
+    private final Map<Downstream, Counter> timeouts = new EnumMap<>(Downstream.class);
+    private final long acquireTimeoutMs;
+
+    public DownstreamLimits(MeterRegistry meterRegistry,
+                            @Value("${downstream.gemini-chat.max-concurrency:32}") int geminiChatLimit,
+                            @Value("${downstream.gemini-embedding.max-concurrency:32}") int geminiEmbeddingLimit,
+                            @Value("${downstream.instagram.max-concurrency:64}") int instagramLimit,
+                            @Value("${downstream.acquire-timeout-ms:30000}") long acquireTimeoutMs) {
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        register(meterRegistry, Downstream.GEMINI_CHAT, geminiChatLimit);
+        register(meterRegistry, Downstream.GEMINI_EMBEDDING, geminiEmbeddingLimit);
+        register(meterRegistry, Downstream.INSTAGRAM, instagramLimit);
+    }
+
+    private void register(MeterRegistry meterRegistry, Downstream downstream, int limit) {
+        Semaphore semaphore = new Semaphore(limit);
+        permits.put(downstream, semaphore);
+        timeouts.put(downstream, Counter.builder("downstream.limit.timeouts")
+                .description("Calls that gave up waiting for a concurrency permit")
+                .tag("downstream", downstream.tag())
+                .register(meterRegistry));
+        Gauge.builder("downstream.in-flight", semaphore, s -> limit - s.availablePermits())
+                .description("Calls currently in flight")
+                .tag("downstream", downstream.tag())
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs the call while holding a permit for the downstream.
+     *
+     * @param downstream The dependency being called.
+     * @param call       The blocking call.
+     * @return The result of the call.
+     * @throws IOException if the call fails or no permit became available in time.
+     */
+    public <T> T call(Downstream downstream, Call<T> call) throws IOException {
+        Semaphore semaphore = permits.get(downstream);
+        try {
+            if (!semaphore.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+                timeouts.get(downstream).increment();
+                throw new IOException("Concurrency limit for " + downstream.tag() + " reached");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + downstream.tag());
+        }
+        try {
+            return call.execute();
+        } finally {
+            semaphore.release();
+        }
+    }
+}
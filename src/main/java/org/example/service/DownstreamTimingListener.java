@@ -0,0 +1,130 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the phases of one outbound call as {@code http.client.phase} timers tagged with the downstream:
+ * DNS lookup, TCP connect, TLS handshake and the time from sending the request headers to the first
+ * response byte. The first three only occur on a new connection; {@code http.client.connections}
+ * counts how often a pooled connection was reused instead.
+ */
+class DownstreamTimingListener extends EventListener {
+
+    /**
+     * Creates one listener per call; the meters are registered once per downstream.
+     */
+    static final class Factory implements EventListener.Factory {
+        private final Timer dns;
+        private final Timer connect;
+        private final Timer tls;
+        private final Timer timeToFirstByte;
+        private final Counter newConnections;
+        private final Counter reusedConnections;
+
+        Factory(MeterRegistry meterRegistry, DownstreamLimits.Downstream downstream) {
+            this.dns = phase(meterRegistry, downstream, "dns");
+            this.connect = phase(meterRegistry, downstream, "connect");
+            this.tls = phase(meterRegistry, downstream, "tls");
+            this.timeToFirstByte = phase(meterRegistry, downstream, "ttfb");
+            this.newConnections = connections(meterRegistry, downstream, "false");
+            this.reusedConnections = connections(meterRegistry, downstream, "true");
+        }
+
+        private static Timer phase(MeterRegistry meterRegistry, DownstreamLimits.Downstream downstream, String phase) {
+            return Timer.builder("http.client.phase")
+                    .description("Duration of a phase of an outbound HTTP call")
+                    .tag("downstream", downstream.tag())
+                    .tag("phase", phase)
+                    .register(meterRegistry);
+        }
+
+        private static Counter connections(MeterRegistry meterRegistry, DownstreamLimits.Downstream downstream, String reused) {
+            return Counter.builder("http.client.connections")
+                    .description("Connections acquired for outbound calls, by whether they came from the pool")
+                    .tag("downstream", downstream.tag())
+                    .tag("reused", reused)
+                    .register(meterRegistry);
+        }
+
+        @Override
+        public EventListener create(Call call) {
+            return new DownstreamTimingListener(this);
+        }
+    }
+
+    private final Factory meters;
+    private long dnsStartedAt;
+    private long connectStartedAt;
+    private long tlsStartedAt;
+    private long requestStartedAt;
+    private boolean connected;
+
+    private DownstreamTimingListener(Factory meters) {
+        this.meters = meters;
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+        dnsStartedAt = System.nanoTime();
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+        record(meters.dns, dnsStartedAt);
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+        connectStartedAt = System.nanoTime();
+        connected = true;
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+        tlsStartedAt = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, Handshake handshake) {
+        record(meters.tls, tlsStartedAt);
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+        record(meters.connect, connectStartedAt);
+    }
+
+    @Override
+    public void connectionAcquired(Call call, Connection connection) {
+        (connected ? meters.newConnections : meters.reusedConnections).increment();
+    }
+
+    @Override
+    public void requestHeadersStart(Call call) {
+        requestStartedAt = System.nanoTime();
+    }
+
+    @Override
+    public void responseHeadersStart(Call call) {
+        record(meters.timeToFirstByte, requestStartedAt);
+    }
+
+    private static void record(Timer timer, long startedAt) {
+        if (startedAt != 0) {
+            timer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package org.example.service;
+
+import org.example.database.entity.Interaction;
+import org.example.database.entity.Knowledge;
+import org.example.database.repository.ClientRepository;
+import org.example.database.repository.InteractionRepository;
+import org.example.database.repository.KnowledgeRepository;
+import org.example.service.gemini.GeminiEmbeddingService;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Measures what reducing a client's knowledge embeddings would cost in search quality, before choosing
+ * a width for {@code Client.embeddingDimensions}.
+ * <p>
+ * The client's latest customer messages serve as queries against the client's knowledge. For each width,
+ * the nearest entries by reduced embeddings rounded to 16-bit floats, as {@code halfvec} stores them, are
+ * compared with the nearest by full embeddings. The search time is that of an exact scan in memory, which
+ * grows with the width like the distance computations of a database scan or index search do; it is not
+ * the latency of a query in the database.
+ */
+@Service
+public class EmbeddingDimensionReport {
+
+    /**
+     * The outcome for one width.
+     *
+     * @param dimensions         The width.
+     * @param recallAtK          The share of the exact nearest k entries also found at this width, averaged over the queries.
+     * @param scanMicrosPerQuery The time to compare a query with all entries at this width.
+     * @param bytesPerVector     The storage size of one embedding: {@code vector} at full width, {@code halfvec} below.
+     */
+    public record WidthResult(int dimensions, double recallAtK, double scanMicrosPerQuery, int bytesPerVector) {
+    }
+
+    /**
+     * @param clientId The client.
+     * @param entries  The knowledge entries compared; only those that still have a full embedding.
+     * @param queries  The distinct customer messages used as queries.
+     * @param k        The number of nearest entries compared per query.
+     * @param widths   The results, full width first.
+     */
+    public record Report(Long clientId, int entries, int queries, int k, List<WidthResult> widths) {
+    }
+
+    private final ClientRepository clientRepository;
+    private final KnowledgeRepository knowledgeRepository;
+    private final InteractionRepository interactionRepository;
+    private final GeminiEmbeddingService geminiEmbeddingService;
+
+    public EmbeddingDimensionReport(ClientRepository clientRepository, KnowledgeRepository knowledgeRepository,
+                                    InteractionRepository interactionRepository, GeminiEmbeddingService geminiEmbeddingService) {
+        this.clientRepository = clientRepository;
+        this.knowledgeRepository = knowledgeRepository;
+        this.interactionRepository = interactionRepository;
+        this.geminiEmbeddingService = geminiEmbeddingService;
+    }
+
+    /**
+     * Builds the report for a client.
+     *
+     * @param clientId   The client.
+     * @param widths     The reduced widths to compare with the full one.
+     * @param k          The number of nearest entries compared per query.
+     * @param sampleSize The number of latest customer messages to use as queries.
+     * @throws IllegalArgumentException if the client is not found or has no knowledge with full embeddings or no messages.
+     * @throws IOException              if embedding the queries fails.
+     */
+    public Report build(Long clientId, List<Integer> widths, int k, int sampleSize) throws IOException {
+        clientRepository.findById(clientId)
+                .orElseThrow(() -> new IllegalArgumentException("Клієнт з ID " + clientId + " не знайдений."));
+        if (k < 1) {
+            throw new IllegalArgumentException("k має бути додатним.");
+        }
+        widths.forEach(EmbeddingDimensions::validate);
+
+        List<float[]> corpus = knowledgeRepository.findWithFullEmbedding(clientId).stream().map(Knowledge::getEmbedding).toList();
+        if (corpus.isEmpty()) {
+            throw new IllegalArgumentException("У клієнта " + clientId + " немає знань з повними ембеддингами.");
+        }
+        Set<String> messages = new LinkedHashSet<>();
+        for (Interaction interaction : interactionRepository.findByClientIdAndAuthorOrderByTimestampDesc(clientId, "USER", PageRequest.of(0, sampleSize))) {
+            if (interaction.getText() != null && !interaction.getText().isBlank()) {
+                messages.add(interaction.getText().strip());
+            }
+        }
+        if (messages.isEmpty()) {
+            throw new IllegalArgumentException("У клієнта " + clientId + " немає повідомлень для запитів.");
+        }
+        List<float[]> queries = geminiEmbeddingService.getEmbeddings(new ArrayList<>(messages));
+        return new Report(clientId, corpus.size(), queries.size(), k, compare(corpus, queries, widths, k));
+    }
+
+    /**
+     * Compares the nearest neighbors at each width with those at full width.
+     *
+     * @param corpus  Full embeddings of the entries.
+     * @param queries Full embeddings of the queries.
+     * @param widths  Reduced widths; the full width is always compared first.
+     * @param k       The number of nearest entries compared per query.
+     */
+    static List<WidthResult> compare(List<float[]> corpus, List<float[]> queries, List<Integer> widths, int k) {
+        int fullWidth = corpus.get(0).length;
+        List<Set<Integer>> exact = new ArrayList<>(queries.size());
+        for (float[] query : queries) {
+            exact.add(nearest(corpus, query, k));
+        }
+        int expected = Math.min(k, corpus.size());
+
+        Set<Integer> allWidths = new LinkedHashSet<>();
+        allWidths.add(fullWidth);
+        allWidths.addAll(widths);
+        List<WidthResult> results = new ArrayList<>();
+        for (int dimensions : allWidths) {
+            boolean reduced = dimensions < fullWidth;
+            List<float[]> reducedCorpus = corpus.stream().map(vector -> reduced ? toHalfPrecision(EmbeddingDimensions.reduce(vector, dimensions)) : vector).toList();
+            List<float[]> reducedQueries = queries.stream().map(vector -> reduced ? toHalfPrecision(EmbeddingDimensions.reduce(vector, dimensions)) : vector).toList();
+
+            // One pass to warm up, one timed
+            for (float[] query : reducedQueries) {
+                nearest(reducedCorpus, query, k);
+            }
+            double found = 0;
+            long startedAt = System.nanoTime();
+            for (int i = 0; i < reducedQueries.size(); i++) {
+                Set<Integer> approximate = nearest(reducedCorpus, reducedQueries.get(i), k);
+                approximate.retainAll(exact.get(i));
+                found += approximate.size();
+            }
+            long elapsed = System.nanoTime() - startedAt;
+
+            results.add(new WidthResult(dimensions, found / expected / queries.size(),
+                    elapsed / 1000.0 / queries.size(), (reduced ? 2 : 4) * dimensions + 8));
+        }
+        return results;
+    }
+
+    /**
+     * @return The indexes of the k entries nearest to the query by Euclidean distance.
+     */
+    private static Set<Integer> nearest(List<float[]> corpus, float[] query, int k) {
+        // Max-heap of the k nearest so far, farthest on top
+        PriorityQueue<double[]> heap = new PriorityQueue<>(k + 1, (a, b) -> Double.compare(b[0], a[0]));
+        for (int i = 0; i < corpus.size(); i++) {
+            float[] vector = corpus.get(i);
+            double distance = 0;
+            for (int j = 0; j < query.length; j++) {
+                double difference = vector[j] - query[j];
+                distance += difference * difference;
+            }
+            if (heap.size() < k) {
+                heap.add(new double[]{distance, i});
+            } else if (distance < heap.peek()[0]) {
+                heap.poll();
+                heap.add(new double[]{distance, i});
+            }
+        }
+        Set<Integer> indexes = new HashSet<>();
+        heap.forEach(entry -> indexes.add((int) entry[1]));
+        return indexes;
+    }
+
+    private static float[] toHalfPrecision(float[] vector) {
+        float[] rounded = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            rounded[i] = Float.float16ToFloat(Float.floatToFloat16(vector[i]));
+        }
+        return rounded;
+    }
+}
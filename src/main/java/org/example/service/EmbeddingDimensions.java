@@ -0,0 +1,131 @@
+package org.example.service;
+
+import org.example.database.entity.Client;
+import org.example.database.entity.Knowledge;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Decides at which widths a client's knowledge embeddings are stored and searched.
+ * <p>
+ * The embedding model is trained so that a prefix of its 3072-dimensional output is itself an embedding
+ * (Matryoshka representation learning), which is also how the API's {@code outputDimensionality} works.
+ * A reduced embedding is therefore the first N values of the full one, renormalised to unit length, and
+ * is stored as a {@code halfvec} (16-bit floats) next to or instead of the full {@code vector}.
+ * <p>
+ * Each client has a target width ({@link Client#getEmbeddingDimensions()}) and the width currently
+ * searched ({@link Client#getActiveEmbeddingDimensions()}). They differ while
+ * {@link KnowledgeEmbeddingMigrationWorker} migrates the stored entries; until it switches the client over,
+ * new entries are written so that both the current and the target search find them.
+ */
+@Component
+public class EmbeddingDimensions {
+
+    /** Width of the embeddings returned by the model. */
+    public static final int FULL = 3072;
+
+    private final int defaultDimensions;
+    private final boolean dropFullVectors;
+
+    public EmbeddingDimensions(@Value("${knowledge.embedding.default-dimensions:3072}") int defaultDimensions,
+                               @Value("${knowledge.embedding.drop-full-vectors:false}") boolean dropFullVectors) {
+        this.defaultDimensions = validate(defaultDimensions);
+        this.dropFullVectors = dropFullVectors;
+    }
+
+    /**
+     * @return The width the client's embeddings should have.
+     */
+    public int target(Client client) {
+        return client.getEmbeddingDimensions() != null ? validate(client.getEmbeddingDimensions()) : defaultDimensions;
+    }
+
+    /**
+     * @return The width the client's knowledge is searched at.
+     */
+    public int active(Client client) {
+        return client.getActiveEmbeddingDimensions() != null ? validate(client.getActiveEmbeddingDimensions()) : FULL;
+    }
+
+    /**
+     * @return Whether full embeddings of the client are deleted once every entry has a reduced one.
+     */
+    public boolean dropFullVectors() {
+        return dropFullVectors;
+    }
+
+    /**
+     * @return The reduced widths a search for the client has to cover, or an empty list to search the full
+     * embeddings. While the client moves between two reduced widths, entries can have either of them.
+     */
+    public List<Integer> searchWidths(Client client) {
+        int active = active(client);
+        if (active == FULL) {
+            return List.of();
+        }
+        int target = target(client);
+        return target < FULL && target != active ? List.of(active, target) : List.of(active);
+    }
+
+    /**
+     * Sets the embeddings to store for a knowledge entry of the entry's client.
+     *
+     * @param knowledge     The entry, with its client.
+     * @param fullEmbedding The full embedding of the entry's content.
+     */
+    public void assign(Knowledge knowledge, float[] fullEmbedding) {
+        Client client = knowledge.getClient();
+        int target = target(client);
+        int active = active(client);
+        int reduced = target < FULL ? target : active;
+
+        boolean steady = target == active && target < FULL;
+        knowledge.setEmbedding(steady && dropFullVectors ? null : fullEmbedding);
+        if (reduced < FULL) {
+            knowledge.setReducedEmbedding(reduce(fullEmbedding, reduced));
+            knowledge.setEmbeddingDimensions(reduced);
+        } else {
+            knowledge.setReducedEmbedding(null);
+            knowledge.setEmbeddingDimensions(null);
+        }
+    }
+
+    /**
+     * Truncates an embedding to its first values and scales them back to unit length.
+     *
+     * @param embedding  A full embedding, or a reduced one wider than {@code dimensions}.
+     * @param dimensions The width wanted.
+     * @return A new array, or the embedding itself if it already has that width.
+     */
+    public static float[] reduce(float[] embedding, int dimensions) {
+        if (dimensions > embedding.length) {
+            throw new IllegalArgumentException("Cannot reduce a " + embedding.length + "-dimensional embedding to " + dimensions);
+        }
+        if (dimensions == embedding.length) {
+            return embedding;
+        }
+        double sumOfSquares = 0;
+        for (int i = 0; i < dimensions; i++) {
+            sumOfSquares += (double) embedding[i] * embedding[i];
+        }
+        float[] reduced = new float[dimensions];
+        double scale = sumOfSquares > 0 ? 1 / Math.sqrt(sumOfSquares) : 0;
+        for (int i = 0; i < dimensions; i++) {
+            reduced[i] = (float) (embedding[i] * scale);
+        }
+        return reduced;
+    }
+
+    /**
+     * @return The width, if it is one an embedding can be reduced to.
+     * @throws IllegalArgumentException otherwise.
+     */
+    public static int validate(int dimensions) {
+        if (dimensions < 1 || dimensions > FULL) {
+            throw new IllegalArgumentException("Embedding dimensions must be between 1 and " + FULL + ", got " + dimensions);
+        }
+        return dimensions;
+    }
+}
@@ -0,0 +1,111 @@
+package org.example.service;
+
+import org.example.database.entity.InboxEvent;
+import org.example.database.repository.InboxEventRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Replays webhook payloads that were journaled and acknowledged but never finished,
+ * e.g. because the instance processing them was shut down.
+ * <p>
+ * An entry is replayed only after claiming it with a lease of {@code webhook.inbox.lease-ms}, so
+ * instances sweeping at the same time do not replay it twice, and never while this instance is still
+ * processing it. Should a replay outlast its lease and run twice anyway, the uniqueness of
+ * {@code Interaction.messageId} makes the events already processed be skipped as duplicates.
+ */
+@Component
+@Lazy(false)
+public class InboxRecoveryWorker {
+
+    private static final Logger logger = LoggerFactory.getLogger(InboxRecoveryWorker.class);
+
+    private final InboxEventRepository inboxEventRepository;
+    private final WebhookIngestionService ingestionService;
+    private final long replayGraceMs;
+    private final long leaseMs;
+    private final long retentionHours;
+    private final int maxAttempts;
+
+    public InboxRecoveryWorker(InboxEventRepository inboxEventRepository,
+                               WebhookIngestionService ingestionService,
+                               @Value("${webhook.inbox.replay-grace-ms:60000}") long replayGraceMs,
+                               @Value("${webhook.inbox.lease-ms:600000}") long leaseMs,
+                               @Value("${webhook.inbox.retention-hours:72}") long retentionHours,
+                               @Value("${webhook.inbox.max-attempts:5}") int maxAttempts) {
+        this.inboxEventRepository = inboxEventRepository;
+        this.ingestionService = ingestionService;
+        this.replayGraceMs = replayGraceMs;
+        this.leaseMs = leaseMs;
+        this.retentionHours = retentionHours;
+        this.maxAttempts = maxAttempts;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void replayOnStartup() {
+        int replayed = replayUnfinished();
+        if (replayed > 0) {
+            logger.info("Відновлено {} необроблених webhook payload(s) з inbox після запуску.", replayed);
+        }
+    }
+
+    /**
+     * Periodically picks up entries left behind by instances that stopped after this one started.
+     */
+    @Scheduled(fixedDelayString = "${webhook.inbox.sweep-interval-ms:60000}",
+            initialDelayString = "${webhook.inbox.sweep-interval-ms:60000}")
+    public void sweep() {
+        replayUnfinished();
+        int deleted = inboxEventRepository.deleteProcessedBefore(InboxEvent.Status.DONE, LocalDateTime.now().minusHours(retentionHours));
+        if (deleted > 0) {
+            logger.debug("Видалено {} оброблених записів inbox.", deleted);
+        }
+    }
+
+    /**
+     * Resubmits pending entries older than the grace period. Younger entries may still be
+     * in progress on another instance. Entries this instance is processing and entries leased by
+     * another replay are skipped.
+     *
+     * @return The number of entries resubmitted.
+     */
+    int replayUnfinished() {
+        LocalDateTime before = LocalDateTime.now().minus(Duration.ofMillis(replayGraceMs));
+        int replayed = 0;
+        try {
+            List<InboxEvent> pending = inboxEventRepository.findTop100ByStatusAndReceivedAtBeforeOrderByIdAsc(InboxEvent.Status.PENDING, before);
+            for (InboxEvent event : pending) {
+                if (ingestionService.isInFlight(event.getId())) {
+                    continue;
+                }
+                if (event.getAttempts() >= maxAttempts) {
+                    logger.warn("Webhook payload {} з inbox не вдалося обробити після {} спроб. Відмовляємось.", event.getId(), event.getAttempts());
+                    inboxEventRepository.updateStatus(Set.of(event.getId()), InboxEvent.Status.DONE, LocalDateTime.now());
+                    continue;
+                }
+                LocalDateTime now = LocalDateTime.now();
+                if (inboxEventRepository.claim(event.getId(), InboxEvent.Status.PENDING, now, now.plus(Duration.ofMillis(leaseMs))) == 0) {
+                    continue;
+                }
+                if (!ingestionService.replay(event.getId(), event.getPayload())) {
+                    break;
+                }
+                replayed++;
+            }
+        } catch (Exception e) {
+            logger.error("Помилка відновлення webhook payload(s) з inbox: {}", e.getMessage(), e);
+        }
+        return replayed;
+    }
+}
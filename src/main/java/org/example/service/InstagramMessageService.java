@@ -11,6 +11,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.StringJoiner;
+import java.util.function.Consumer;
 
 /**
  * A service responsible for sending messages to users via the Instagram Graph API.
@@ -20,8 +22,11 @@ import java.util.List;
  */
 @Service
 public class InstagramMessageService {
-    private final OkHttpClient httpClient = new OkHttpClient();
+    private static final int MESSAGE_PART_LENGTH = 990;
+
+    private final OkHttpClient httpClient;
     private final Gson gson = new Gson();
+    private final DownstreamLimits downstreamLimits;
 
     private static final Logger logger = LoggerFactory.getLogger(InstagramMessageService.class);
 
@@ -31,6 +36,14 @@ public class InstagramMessageService {
     @Value("${instagram.page.id}")
     private String pageId;
 
+    @Value("${instagram.streaming.min-chunk-chars:120}")
+    private int streamingMinChunkChars = 120;
+
+    public InstagramMessageService(DownstreamLimits downstreamLimits, OutboundHttpClients httpClients) {
+        this.downstreamLimits = downstreamLimits;
+        this.httpClient = httpClients.forDownstream(DownstreamLimits.Downstream.INSTAGRAM);
+    }
+
     /**
      * Sends a text reply to a user on Instagram.
      * <p>
@@ -43,7 +56,7 @@ public class InstagramMessageService {
     public void sendReply(String accessToken, String recipientId, String text) {
         // Check if the message needs to be split
         if (text.length() > 1000) {
-            List<String> messageParts = splitMessage(text, 990);
+            List<String> messageParts = splitMessage(text, MESSAGE_PART_LENGTH);
             for (String part : messageParts) {
                 try {
                     sendMessagePart(accessToken, recipientId, part);
@@ -61,14 +74,74 @@ public class InstagramMessageService {
         }
     }
 
+    /**
+     * Starts a reply whose text arrives in pieces, e.g. from a streaming model response.
+     * <p>
+     * Text passed to the returned {@link StreamingReply} is sent as soon as it forms complete sentences
+     * of at least {@code instagram.streaming.min-chunk-chars} characters, in messages within the
+     * platform's length limit.
+     *
+     * @param accessToken The page access token.
+     * @param recipientId The Instagram user ID to send the reply to.
+     * @return The reply to feed with text; {@link StreamingReply#finish()} sends the rest.
+     */
+    public StreamingReply startStreamingReply(String accessToken, String recipientId) {
+        return new StreamingReply(accessToken, recipientId);
+    }
+
+    /**
+     * A reply that is sent sentence by sentence while its text is still being generated.
+     */
+    public class StreamingReply implements Consumer<String> {
+        private final String accessToken;
+        private final String recipientId;
+        private final SentenceChunker chunker = new SentenceChunker(streamingMinChunkChars, MESSAGE_PART_LENGTH);
+        private final StringJoiner delivered = new StringJoiner("\n");
+
+        private StreamingReply(String accessToken, String recipientId) {
+            this.accessToken = accessToken;
+            this.recipientId = recipientId;
+        }
+
+        @Override
+        public void accept(String text) {
+            chunker.append(text).forEach(this::send);
+        }
+
+        /**
+         * Sends the text that has not been sent yet.
+         */
+        public void finish() {
+            chunker.finish().forEach(this::send);
+        }
+
+        /**
+         * @return The text of the messages the Graph API accepted so far, or an empty string.
+         */
+        public String deliveredText() {
+            return delivered.toString();
+        }
+
+        private void send(String part) {
+            try {
+                if (sendMessagePart(accessToken, recipientId, part)) {
+                    delivered.add(part);
+                }
+            } catch (IOException e) {
+                logger.error("Помилка надсилання частини повідомлення: {}", e.getMessage(), e);
+            }
+        }
+    }
+
     /**
      * An internal method for sending a single part of a message via the Instagram Graph API.
      *
      * @param recipientId The recipient's ID.
      * @param text        The text of the message (or a part of it).
+     * @return Whether the Graph API accepted the message; a rejection is logged.
      * @throws IOException if an error occurs during the HTTP request execution.
      */
-    private void sendMessagePart(String accessToken, String recipientId, String text) throws IOException {
+    private boolean sendMessagePart(String accessToken, String recipientId, String text) throws IOException {
         HttpUrl url = HttpUrl.parse(graphApiUrl);
         if (url == null) {
             logger.error("Invalid base graphApiUrl: {}", graphApiUrl);
@@ -96,13 +169,16 @@ public class InstagramMessageService {
                 .post(body)
                 .build();
 
-        try (Response response = httpClient.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                logger.error("Помилка надсилання відповіді на URL [{}]: {}", fullUrl, response.body() != null ? response.body().string() : "Немає тіла відповіді");
-            } else {
+        return downstreamLimits.call(DownstreamLimits.Downstream.INSTAGRAM, () -> {
+            try (Response response = httpClient.newCall(request).execute()) {
+                if (!response.isSuccessful()) {
+                    logger.error("Помилка надсилання відповіді на URL [{}]: {}", fullUrl, response.body() != null ? response.body().string() : "Немає тіла відповіді");
+                    return false;
+                }
                 logger.info("Відповідь успішно надіслано користувачу {}.", recipientId);
+                return true;
             }
-        }
+        });
     }
 
     /**
@@ -129,16 +205,21 @@ public class InstagramMessageService {
                 .get()
                 .build();
 
-        try (Response response = httpClient.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                logger.error("Помилка отримання shortcode: {}", response.body() != null ? response.body().string() : "Немає тіла відповіді");
-                return null;
-            }
-            String responseBody = response.body().string();
-            JsonObject jsonObject = gson.fromJson(responseBody, JsonObject.class);
-            if (jsonObject.has("shortcode")) {
-                return jsonObject.get("shortcode").getAsString();
-            }
+        try {
+            return downstreamLimits.call(DownstreamLimits.Downstream.INSTAGRAM, () -> {
+                try (Response response = httpClient.newCall(request).execute()) {
+                    if (!response.isSuccessful()) {
+                        logger.error("Помилка отримання shortcode: {}", response.body() != null ? response.body().string() : "Немає тіла відповіді");
+                        return null;
+                    }
+                    String responseBody = response.body().string();
+                    JsonObject jsonObject = gson.fromJson(responseBody, JsonObject.class);
+                    if (jsonObject.has("shortcode")) {
+                        return jsonObject.get("shortcode").getAsString();
+                    }
+                    return null;
+                }
+            });
         } catch (IOException e) {
             logger.error("Помилка API-запиту для отримання shortcode: {}", e.getMessage(), e);
         }
@@ -0,0 +1,140 @@
+package org.example.service;
+
+import org.example.database.entity.Client;
+import org.example.database.entity.Knowledge;
+import org.example.database.repository.ClientRepository;
+import org.example.database.repository.KnowledgeRepository;
+import org.example.service.gemini.GeminiEmbeddingService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves each client's knowledge embeddings to the client's target width while searches keep working:
+ * <ol>
+ *     <li>backfill: entries without an embedding of the target width get one, in batches of
+ *     {@code knowledge.embedding.migration.batch-size}. A reduced embedding is derived from the full one,
+ *     or from a wider reduced one; only entries with neither are embedded again;</li>
+ *     <li>switch: once no entry is left, searches move to the target width;</li>
+ *     <li>contract: embeddings no search uses any more are deleted, the full ones only with
+ *     {@code knowledge.embedding.drop-full-vectors}.</li>
+ * </ol>
+ * Until the switch, searches use the previous width, which new entries are also written with (see
+ * {@link EmbeddingDimensions#assign}). A run that fails is logged and continued by the next one; running
+ * on several instances at once only repeats work.
+ */
+@Component
+@Lazy(false)
+public class KnowledgeEmbeddingMigrationWorker {
+
+    private static final Logger logger = LoggerFactory.getLogger(KnowledgeEmbeddingMigrationWorker.class);
+
+    private final ClientRepository clientRepository;
+    private final KnowledgeRepository knowledgeRepository;
+    private final GeminiEmbeddingService geminiEmbeddingService;
+    private final EmbeddingDimensions embeddingDimensions;
+    private final int batchSize;
+
+    public KnowledgeEmbeddingMigrationWorker(ClientRepository clientRepository,
+                                             KnowledgeRepository knowledgeRepository,
+                                             GeminiEmbeddingService geminiEmbeddingService,
+                                             EmbeddingDimensions embeddingDimensions,
+                                             @Value("${knowledge.embedding.migration.batch-size:200}") int batchSize) {
+        this.clientRepository = clientRepository;
+        this.knowledgeRepository = knowledgeRepository;
+        this.geminiEmbeddingService = geminiEmbeddingService;
+        this.embeddingDimensions = embeddingDimensions;
+        this.batchSize = batchSize;
+    }
+
+    @Scheduled(fixedDelayString = "${knowledge.embedding.migration.interval-ms:300000}",
+            initialDelayString = "${knowledge.embedding.migration.initial-delay-ms:60000}")
+    public void migrateAll() {
+        for (Client client : clientRepository.findAll()) {
+            try {
+                migrate(client);
+            } catch (Exception e) {
+                logger.error("Помилка міграції ембеддингів клієнта {}: {}", client.getId(), e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Runs all steps of the migration for one client.
+     *
+     * @return The number of entries given an embedding of the target width.
+     * @throws IOException if entries had to be embedded again and that failed.
+     */
+    int migrate(Client client) throws IOException {
+        int target = embeddingDimensions.target(client);
+        int migrated = 0;
+        List<Knowledge> batch;
+        while (!(batch = knowledgeRepository.findWithoutEmbeddingOfWidth(client.getId(), target, batchSize)).isEmpty()) {
+            backfill(batch, target);
+            knowledgeRepository.updateEmbeddings(batch);
+            migrated += batch.size();
+            if (batch.size() < batchSize) {
+                break;
+            }
+        }
+        if (migrated > 0) {
+            logger.info("Клієнт {}: {} запис(ів) знань отримали ембеддинги розмірності {}.", client.getId(), migrated, target);
+        }
+
+        if (embeddingDimensions.active(client) != target) {
+            // The client may have been edited since it was loaded, so only this column is written
+            client.setActiveEmbeddingDimensions(target < EmbeddingDimensions.FULL ? target : null);
+            clientRepository.updateActiveEmbeddingDimensions(client.getId(), client.getActiveEmbeddingDimensions());
+            logger.info("Клієнт {}: пошук у базі знань переведено на ембеддинги розмірності {}.", client.getId(), target);
+        }
+
+        int cleared = 0;
+        if (target == EmbeddingDimensions.FULL) {
+            cleared = knowledgeRepository.clearReducedEmbeddings(client.getId());
+        } else if (embeddingDimensions.dropFullVectors()) {
+            cleared = knowledgeRepository.clearFullEmbeddings(client.getId(), target);
+        }
+        if (cleared > 0) {
+            logger.info("Клієнт {}: видалено непотрібні ембеддинги {} запис(ів) знань.", client.getId(), cleared);
+        }
+        return migrated;
+    }
+
+    /**
+     * Gives each entry an embedding of the target width, keeping the embedding that searches use until the switch.
+     */
+    private void backfill(List<Knowledge> batch, int target) throws IOException {
+        List<Knowledge> toEmbed = new ArrayList<>();
+        for (Knowledge knowledge : batch) {
+            if (target == EmbeddingDimensions.FULL) {
+                toEmbed.add(knowledge);
+            } else if (knowledge.getEmbedding() != null) {
+                knowledge.setReducedEmbedding(EmbeddingDimensions.reduce(knowledge.getEmbedding(), target));
+            } else if (knowledge.getReducedEmbedding() != null && knowledge.getReducedEmbedding().length > target) {
+                knowledge.setReducedEmbedding(EmbeddingDimensions.reduce(knowledge.getReducedEmbedding(), target));
+            } else {
+                toEmbed.add(knowledge);
+            }
+        }
+        if (toEmbed.isEmpty()) {
+            return;
+        }
+
+        List<float[]> embeddings = geminiEmbeddingService.getEmbeddings(toEmbed.stream().map(Knowledge::getContent).toList());
+        for (int i = 0; i < toEmbed.size(); i++) {
+            Knowledge knowledge = toEmbed.get(i);
+            if (target == EmbeddingDimensions.FULL) {
+                knowledge.setEmbedding(embeddings.get(i));
+            } else {
+                knowledge.setReducedEmbedding(EmbeddingDimensions.reduce(embeddings.get(i), target));
+            }
+        }
+    }
+}
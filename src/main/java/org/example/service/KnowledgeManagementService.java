@@ -1,9 +1,14 @@
 package org.example.service;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.example.database.entity.Client;
 import org.example.database.entity.Knowledge;
 import org.example.database.repository.ClientRepository;
 import org.example.database.repository.KnowledgeRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -12,25 +17,69 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * Service for managing the knowledge base.
  * Handles processing of uploaded files and populating the knowledge base.
+ * <p>
+ * An upload is embedded with batch calls first, without holding a transaction or a connection,
+ * and then inserted in one transaction with JDBC batches, so a failed upload stores nothing.
  */
 @Service
 public class KnowledgeManagementService {
 
+    private static final Logger logger = LoggerFactory.getLogger(KnowledgeManagementService.class);
+
+    /**
+     * The outcome of a knowledge upload.
+     *
+     * @param paragraphs The number of paragraphs stored.
+     * @param embedding  The time taken to embed them.
+     * @param insert     The time taken to insert them.
+     */
+    public record UploadReport(int paragraphs, Duration embedding, Duration insert) {
+
+        /**
+         * @return Paragraphs stored per second over the whole upload.
+         */
+        public double paragraphsPerSecond() {
+            long nanos = embedding.plus(insert).toNanos();
+            return nanos > 0 ? paragraphs * 1e9 / nanos : 0;
+        }
+    }
+
     private final RAGService ragService;
 
     private final ClientRepository clientRepository;
     private final KnowledgeRepository knowledgeRepository;
+    private final EmbeddingDimensions embeddingDimensions;
+    private final Timer embeddingStage;
+    private final Timer insertStage;
+    private final DistributionSummary throughput;
 
-    public KnowledgeManagementService(RAGService ragService, ClientRepository clientRepository, KnowledgeRepository knowledgeRepository) {
+    public KnowledgeManagementService(RAGService ragService, ClientRepository clientRepository, KnowledgeRepository knowledgeRepository,
+                                      EmbeddingDimensions embeddingDimensions, MeterRegistry meterRegistry) {
         this.ragService = ragService;
         this.clientRepository = clientRepository;
         this.knowledgeRepository = knowledgeRepository;
+        this.embeddingDimensions = embeddingDimensions;
+        this.embeddingStage = uploadStage(meterRegistry, "embedding");
+        this.insertStage = uploadStage(meterRegistry, "insert");
+        this.throughput = DistributionSummary.builder("knowledge.upload.throughput")
+                .description("Paragraphs stored per second, per knowledge upload")
+                .baseUnit("paragraphs/s")
+                .register(meterRegistry);
+    }
+
+    private static Timer uploadStage(MeterRegistry meterRegistry, String stage) {
+        return Timer.builder("knowledge.upload.stage")
+                .description("Time per knowledge upload by stage")
+                .tag("stage", stage)
+                .register(meterRegistry);
     }
 
     /**
@@ -39,20 +88,53 @@ public class KnowledgeManagementService {
      *
      * @param clientId    The ID of the client whose knowledge base is being updated.
      * @param inputStream The InputStream of the file to process.
+     * @return The number of paragraphs stored and the time each stage took.
      * @throws IOException              if an I/O error occurs.
      * @throws IllegalArgumentException if the client is not found.
      */
-    @Transactional
-    public void processAndStoreKnowledge(Long clientId, InputStream inputStream) throws IOException {
+    public UploadReport processAndStoreKnowledge(Long clientId, InputStream inputStream) throws IOException {
         Client client = clientRepository.findById(clientId)
                 .orElseThrow(() -> new IllegalArgumentException("Client with ID " + clientId + " not found."));
+        List<String> paragraphs = readParagraphs(inputStream);
+        if (paragraphs.isEmpty()) {
+            return new UploadReport(0, Duration.ZERO, Duration.ZERO);
+        }
+
+        long startedAt = System.nanoTime();
+        List<float[]> embeddings = ragService.getEmbeddingsForTexts(paragraphs);
+        long embeddedAt = System.nanoTime();
+
+        List<Knowledge> entries = new ArrayList<>(paragraphs.size());
+        for (int i = 0; i < paragraphs.size(); i++) {
+            Knowledge knowledge = new Knowledge();
+            knowledge.setClient(client);
+            knowledge.setContent(paragraphs.get(i));
+            embeddingDimensions.assign(knowledge, embeddings.get(i));
+            entries.add(knowledge);
+        }
+        knowledgeRepository.insertAll(entries);
+        long insertedAt = System.nanoTime();
+
+        UploadReport report = new UploadReport(paragraphs.size(),
+                Duration.ofNanos(embeddedAt - startedAt), Duration.ofNanos(insertedAt - embeddedAt));
+        embeddingStage.record(report.embedding());
+        insertStage.record(report.insert());
+        throughput.record(report.paragraphsPerSecond());
+        logger.info("Базу знань клієнта {} оновлено: {} абзаців, ембеддинги {} мс, запис {} мс, {} абзаців/с.",
+                clientId, report.paragraphs(), report.embedding().toMillis(), report.insert().toMillis(),
+                String.format(Locale.ROOT, "%.1f", report.paragraphsPerSecond()));
+        return report;
+    }
+
+    private static List<String> readParagraphs(InputStream inputStream) throws IOException {
+        List<String> paragraphs = new ArrayList<>();
         try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
             String line;
             StringBuilder paragraph = new StringBuilder();
             while ((line = reader.readLine()) != null) {
                 if (line.trim().isEmpty()) {
                     if (!paragraph.toString().trim().isEmpty()) {
-                        ragService.createAndStoreEmbedding(client, paragraph.toString().trim());
+                        paragraphs.add(paragraph.toString().trim());
                         paragraph.setLength(0);
                     }
                 } else {
@@ -60,9 +142,10 @@ public class KnowledgeManagementService {
                 }
             }
             if (!paragraph.toString().trim().isEmpty()) {
-                ragService.createAndStoreEmbedding(client, paragraph.toString().trim());
+                paragraphs.add(paragraph.toString().trim());
             }
         }
+        return paragraphs;
     }
 
     /**
@@ -105,8 +188,9 @@ public class KnowledgeManagementService {
 
         knowledge.setContent(newContent);
         float[] newEmbedding = ragService.getEmbeddingForText(newContent);
-        knowledge.setEmbedding(newEmbedding);
+        embeddingDimensions.assign(knowledge, newEmbedding);
 
         knowledgeRepository.save(knowledge);
+        knowledgeRepository.updateEmbeddings(List.of(knowledge));
     }
 }
\ No newline at end of file
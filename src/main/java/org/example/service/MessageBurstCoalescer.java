@@ -0,0 +1,154 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.Function;
+
+/**
+ * Collects consecutive messages from the same sender into a single burst.
+ * <p>
+ * Every new message restarts a debounce window; when the window elapses without a new message
+ * (or the burst reaches its maximum age or size) the whole burst is flushed at once, so the bot
+ * answers "hi" / "do you have" / "the black dress in M?" with a single reply.
+ */
+@Component
+public class MessageBurstCoalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger(MessageBurstCoalescer.class);
+
+    /**
+     * A message waiting in a burst.
+     *
+     * @param messageId The Instagram message ID.
+     * @param text      The message text.
+     */
+    public record PendingMessage(String messageId, String text) {
+    }
+
+    private static final class Burst {
+        private final Instant startedAt = Instant.now();
+        private final List<PendingMessage> messages = new ArrayList<>();
+        private final CompletableFuture<Void> flushed = new CompletableFuture<>();
+        private Function<List<PendingMessage>, CompletableFuture<Void>> flusher;
+        private ScheduledFuture<?> timer;
+
+        private boolean contains(String messageId) {
+            return messages.stream().anyMatch(message -> message.messageId().equals(messageId));
+        }
+    }
+
+    private final TaskScheduler taskScheduler;
+    private final Duration window;
+    private final Duration maxDelay;
+    private final int maxMessages;
+    private final Map<String, Burst> bursts = new ConcurrentHashMap<>();
+    private final Counter burstCounter;
+    private final DistributionSummary burstSizeSummary;
+
+    public MessageBurstCoalescer(TaskScheduler taskScheduler,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${webhook.coalescing.window-ms:1500}") long windowMs,
+                                 @Value("${webhook.coalescing.max-delay-ms:5000}") long maxDelayMs,
+                                 @Value("${webhook.coalescing.max-messages:10}") int maxMessages) {
+        this.taskScheduler = taskScheduler;
+        this.window = Duration.ofMillis(windowMs);
+        this.maxDelay = Duration.ofMillis(Math.max(windowMs, maxDelayMs));
+        this.maxMessages = maxMessages;
+        this.burstCounter = meterRegistry.counter("webhook.coalescing.bursts");
+        this.burstSizeSummary = DistributionSummary.builder("webhook.coalescing.burst.size")
+                .description("Messages answered by a single reply")
+                .register(meterRegistry);
+        meterRegistry.gauge("webhook.coalescing.pending", bursts, Map::size);
+    }
+
+    /**
+     * @return {@code false} if the debounce window is zero and messages should be answered immediately.
+     */
+    public boolean isEnabled() {
+        return !window.isZero() && !window.isNegative();
+    }
+
+    /**
+     * Adds a message to the sender's current burst, starting a new burst if needed.
+     * A message whose ID is already waiting in the burst is ignored.
+     *
+     * @param key     The conversation key (client and sender).
+     * @param message The message to add.
+     * @param flusher Called once with all messages of the burst when it is flushed; the returned
+     *                future must complete when the burst has been answered.
+     * @return A future completed once the burst containing this message has been flushed and answered.
+     */
+    public CompletableFuture<Void> add(String key, PendingMessage message,
+                                       Function<List<PendingMessage>, CompletableFuture<Void>> flusher) {
+        Burst burst = bursts.compute(key, (k, existing) -> {
+            Burst current = existing != null ? existing : new Burst();
+            if (current.contains(message.messageId())) {
+                return current;
+            }
+            current.messages.add(message);
+            current.flusher = flusher;
+            if (current.timer != null) {
+                current.timer.cancel(false);
+            }
+            current.timer = taskScheduler.schedule(() -> flush(k, current), Instant.now().plus(delayFor(current)));
+            return current;
+        });
+        return burst.flushed;
+    }
+
+    private Duration delayFor(Burst burst) {
+        if (burst.messages.size() >= maxMessages) {
+            return Duration.ZERO;
+        }
+        Duration untilMaxDelay = maxDelay.minus(Duration.between(burst.startedAt, Instant.now()));
+        if (untilMaxDelay.isNegative()) {
+            return Duration.ZERO;
+        }
+        return untilMaxDelay.compareTo(window) < 0 ? untilMaxDelay : window;
+    }
+
+    private void flush(String key, Burst burst) {
+        // A rescheduled burst may still be flushed by its previous timer; whichever removes it wins.
+        if (!bursts.remove(key, burst)) {
+            return;
+        }
+        burstCounter.increment();
+        burstSizeSummary.record(burst.messages.size());
+        try {
+            burst.flusher.apply(List.copyOf(burst.messages))
+                    .whenComplete((result, error) -> burst.flushed.complete(null));
+        } catch (Exception e) {
+            logger.error("Помилка обробки серії повідомлень для {}: {}", key, e.getMessage(), e);
+            burst.flushed.complete(null);
+        }
+    }
+
+    /**
+     * Flushes every pending burst without waiting for its window, so no conversation is left unanswered on shutdown.
+     */
+    @PreDestroy
+    public void flushAll() {
+        bursts.forEach((key, burst) -> {
+            if (burst.timer != null) {
+                burst.timer.cancel(false);
+            }
+            flush(key, burst);
+        });
+    }
+}
@@ -0,0 +1,90 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory filter of recently persisted Instagram message IDs.
+ * <p>
+ * Answers most duplicate deliveries without a database round-trip. It is bounded both by size and
+ * by age; a message ID that is not (or no longer) remembered is not assumed to be new, it is
+ * checked by the atomic insert-or-ignore on the unique {@code message_id} constraint instead.
+ * Only IDs known to be persisted are remembered, so the filter never reports a false duplicate.
+ */
+@Component
+public class MessageIdDeduplicator {
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Map<String, Long> seenAt = new LinkedHashMap<>();
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter storeDuplicates;
+
+    public MessageIdDeduplicator(MeterRegistry meterRegistry,
+                                 @Value("${webhook.dedupe.max-entries:50000}") int maxEntries,
+                                 @Value("${webhook.dedupe.ttl-minutes:360}") long ttlMinutes) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = Duration.ofMinutes(ttlMinutes).toNanos();
+        this.hits = meterRegistry.counter("webhook.dedupe.lookups", "result", "hit");
+        this.misses = meterRegistry.counter("webhook.dedupe.lookups", "result", "miss");
+        this.storeDuplicates = Counter.builder("webhook.dedupe.store.duplicates")
+                .description("Duplicates missed by the in-memory filter and rejected by the unique message_id constraint")
+                .register(meterRegistry);
+        meterRegistry.gauge("webhook.dedupe.size", this, MessageIdDeduplicator::size);
+    }
+
+    /**
+     * @param messageId The Instagram message ID.
+     * @return {@code true} if the message is known to be persisted already.
+     */
+    public synchronized boolean isKnownDuplicate(String messageId) {
+        Long timestamp = seenAt.get(messageId);
+        if (timestamp != null && System.nanoTime() - timestamp < ttlNanos) {
+            hits.increment();
+            return true;
+        }
+        misses.increment();
+        return false;
+    }
+
+    /**
+     * Remembers a message ID that is known to be persisted.
+     *
+     * @param messageId The Instagram message ID.
+     */
+    public synchronized void remember(String messageId) {
+        long now = System.nanoTime();
+        seenAt.remove(messageId);
+        seenAt.put(messageId, now);
+        Iterator<Map.Entry<String, Long>> eldest = seenAt.entrySet().iterator();
+        while (eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            if (seenAt.size() <= maxEntries && now - entry.getValue() < ttlNanos) {
+                break;
+            }
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Records a duplicate that the filter did not know about but the database rejected. It is not
+     * remembered: the message may still be claimed by an instance that dies before answering it.
+     *
+     * @param messageId The Instagram message ID.
+     */
+    public void recordStoreDuplicate(String messageId) {
+        storeDuplicates.increment();
+    }
+
+    public synchronized int size() {
+        return seenAt.size();
+    }
+}
@@ -0,0 +1,70 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The HTTP clients for all outbound calls.
+ * <p>
+ * Every downstream gets its own {@link OkHttpClient} with timeouts that fit its endpoint, but all of
+ * them share one connection pool, so a connection to Google opened for an embedding
+ * is reused (multiplexed over HTTP/2) by the next chat call. Idle connections are kept for
+ * {@code http.client.keep-alive-ms}, below the idle timeouts of the Google and Meta front ends, so
+ * a pooled connection is not reused after the far end has dropped it. Calls are synchronous, which
+ * the dispatcher's per-host limits do not apply to; concurrency per downstream is capped by
+ * {@link DownstreamLimits}.
+ */
+@Component
+public class OutboundHttpClients {
+
+    private final OkHttpClient shared;
+    private final Map<DownstreamLimits.Downstream, OkHttpClient> clients = new EnumMap<>(DownstreamLimits.Downstream.class);
+
+    public OutboundHttpClients(MeterRegistry meterRegistry,
+                               @Value("${http.client.connect-timeout-ms:5000}") long connectTimeoutMs,
+                               @Value("${http.client.keep-alive-ms:240000}") long keepAliveMs,
+                               @Value("${http.client.max-idle-connections:16}") int maxIdleConnections,
+                               @Value("${http.client.gemini-chat.read-timeout-ms:60000}") long geminiChatReadTimeoutMs,
+                               @Value("${http.client.gemini-embedding.call-timeout-ms:10000}") long geminiEmbeddingCallTimeoutMs,
+                               @Value("${http.client.instagram.call-timeout-ms:15000}") long instagramCallTimeoutMs) {
+        this.shared = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveMs, TimeUnit.MILLISECONDS))
+                .connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+                .build();
+
+        // Generation is slow and streamed, so only the gap between two reads is bounded
+        register(meterRegistry, DownstreamLimits.Downstream.GEMINI_CHAT, shared.newBuilder()
+                .writeTimeout(30, TimeUnit.SECONDS)
+                .readTimeout(geminiChatReadTimeoutMs, TimeUnit.MILLISECONDS));
+        register(meterRegistry, DownstreamLimits.Downstream.GEMINI_EMBEDDING, shared.newBuilder()
+                .callTimeout(geminiEmbeddingCallTimeoutMs, TimeUnit.MILLISECONDS));
+        register(meterRegistry, DownstreamLimits.Downstream.INSTAGRAM, shared.newBuilder()
+                .callTimeout(instagramCallTimeoutMs, TimeUnit.MILLISECONDS));
+    }
+
+    private void register(MeterRegistry meterRegistry, DownstreamLimits.Downstream downstream, OkHttpClient.Builder builder) {
+        clients.put(downstream, builder
+                .eventListenerFactory(new DownstreamTimingListener.Factory(meterRegistry, downstream))
+                .build());
+    }
+
+    /**
+     * @return The client for calls to the downstream.
+     */
+    public OkHttpClient forDownstream(DownstreamLimits.Downstream downstream) {
+        return clients.get(downstream);
+    }
+
+    @PreDestroy
+    public void close() {
+        shared.connectionPool().evictAll();
+    }
+}
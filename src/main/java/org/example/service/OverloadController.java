@@ -0,0 +1,175 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides how much work a reply may cost while the instance is overloaded.
+ * <p>
+ * Two signals are watched: the number of webhook tasks waiting for a worker and a moving average of
+ * the Gemini chat latency. Each signal maps to a {@link Level} through four configurable thresholds
+ * and the higher of the two levels wins. A latency average that has not been refreshed for
+ * {@code overload.latency-stale-ms} is ignored, so deferring all calls cannot keep the level stuck.
+ */
+@Component
+public class OverloadController {
+
+    /**
+     * Degradation levels, from full service to deferring the reply.
+     */
+    public enum Level {
+        /** Full history, inactivity hint and RAG context. */
+        NORMAL,
+        /** The time since the user's last message is not passed to the model. */
+        NO_INACTIVITY_HINT,
+        /** RAG context is limited to {@code overload.reduced-rag-top-k} items. */
+        REDUCED_RAG,
+        /** No embedding call and no vector search. */
+        NO_RAG,
+        /** A holding reply is sent and the event is answered later. */
+        DEFER;
+
+        public boolean atLeast(Level other) {
+            return compareTo(other) >= 0;
+        }
+    }
+
+    private static final int THRESHOLD_COUNT = Level.values().length - 1;
+
+    private final TenantFairScheduler scheduler;
+    private final long[] queueDepthThresholds;
+    private final long[] latencyThresholdsMs;
+    private final double latencyAlpha;
+    private final long latencyStaleNanos;
+    private final int reducedRagTopK;
+    private final Duration deferDelay;
+    private final int maxDeferrals;
+    private final String holdingReply;
+    private final AtomicLong latencyAverageBits = new AtomicLong(Double.doubleToLongBits(0));
+    private final AtomicLong lastLatencySampleAt = new AtomicLong();
+    private volatile boolean latencySampled;
+    private final Map<Level, Counter> decisions = new EnumMap<>(Level.class);
+
+    public OverloadController(TenantFairScheduler scheduler,
+                              MeterRegistry meterRegistry,
+                              @Value("${overload.queue-depth-thresholds:16,32,64,128}") long[] queueDepthThresholds,
+                              @Value("${overload.latency-thresholds-ms:8000,15000,25000,40000}") long[] latencyThresholdsMs,
+                              @Value("${overload.latency-ewma-alpha:0.2}") double latencyAlpha,
+                              @Value("${overload.latency-stale-ms:60000}") long latencyStaleMs,
+                              @Value("${overload.reduced-rag-top-k:1}") int reducedRagTopK,
+                              @Value("${overload.defer-delay-ms:30000}") long deferDelayMs,
+                              @Value("${overload.max-deferrals:3}") int maxDeferrals,
+                              @Value("${overload.holding-reply:Дякуємо за повідомлення! Ми відповімо вам найближчим часом.}") String holdingReply) {
+        if (queueDepthThresholds.length != THRESHOLD_COUNT || latencyThresholdsMs.length != THRESHOLD_COUNT) {
+            throw new IllegalArgumentException("Overload thresholds must list " + THRESHOLD_COUNT + " values, one per degradation level");
+        }
+        this.scheduler = scheduler;
+        this.queueDepthThresholds = queueDepthThresholds;
+        this.latencyThresholdsMs = latencyThresholdsMs;
+        this.latencyAlpha = latencyAlpha;
+        this.latencyStaleNanos = Duration.ofMillis(latencyStaleMs).toNanos();
+        this.reducedRagTopK = reducedRagTopK;
+        this.deferDelay = Duration.ofMillis(deferDelayMs);
+        this.maxDeferrals = maxDeferrals;
+        this.holdingReply = holdingReply;
+        for (Level level : Level.values()) {
+            decisions.put(level, Counter.builder("overload.decisions")
+                    .description("Replies handled at each degradation level")
+                    .tag("level", level.name())
+                    .register(meterRegistry));
+        }
+        meterRegistry.gauge("overload.level", this, controller -> controller.currentLevel().ordinal());
+        meterRegistry.gauge("overload.gemini.latency.average", this, OverloadController::latencyAverageMs);
+    }
+
+    /**
+     * @return The degradation level for the current queue depth and Gemini latency.
+     */
+    public Level currentLevel() {
+        Level byQueue = levelFor(scheduler.queuedCount(), queueDepthThresholds);
+        long sinceLastSample = System.nanoTime() - lastLatencySampleAt.get();
+        Level byLatency = !latencySampled || sinceLastSample > latencyStaleNanos
+                ? Level.NORMAL
+                : levelFor((long) latencyAverageMs(), latencyThresholdsMs);
+        return byQueue.compareTo(byLatency) >= 0 ? byQueue : byLatency;
+    }
+
+    /**
+     * Decides the level for a reply that is about to be generated and records the decision.
+     * A reply is never generated at {@link Level#DEFER}; it is answered at {@link Level#NO_RAG} instead.
+     */
+    public Level levelForReply() {
+        Level level = currentLevel();
+        if (level == Level.DEFER) {
+            level = Level.NO_RAG;
+        }
+        decisions.get(level).increment();
+        return level;
+    }
+
+    /**
+     * Decides whether an event should be deferred and records the decision.
+     *
+     * @param deferrals How many times the event has already been deferred.
+     */
+    public boolean shouldDefer(int deferrals) {
+        if (deferrals >= maxDeferrals || currentLevel() != Level.DEFER) {
+            return false;
+        }
+        decisions.get(Level.DEFER).increment();
+        return true;
+    }
+
+    /**
+     * Feeds an observed Gemini chat latency into the moving average.
+     */
+    public void recordLatency(Duration latency) {
+        double sample = latency.toNanos() / 1_000_000.0;
+        boolean first = !latencySampled;
+        latencyAverageBits.updateAndGet(bits -> Double.doubleToLongBits(first
+                ? sample
+                : latencyAlpha * sample + (1 - latencyAlpha) * Double.longBitsToDouble(bits)));
+        lastLatencySampleAt.set(System.nanoTime());
+        latencySampled = true;
+    }
+
+    public int reducedRagTopK() {
+        return reducedRagTopK;
+    }
+
+    public Duration deferDelay() {
+        return deferDelay;
+    }
+
+    /**
+     * @return The longest a reply can be deferred in total.
+     */
+    public Duration maxDeferral() {
+        return deferDelay.multipliedBy(maxDeferrals);
+    }
+
+    public String holdingReply() {
+        return holdingReply;
+    }
+
+    private double latencyAverageMs() {
+        return Double.longBitsToDouble(latencyAverageBits.get());
+    }
+
+    private static Level levelFor(long value, long[] thresholds) {
+        Level[] levels = Level.values();
+        for (int i = thresholds.length - 1; i >= 0; i--) {
+            if (value >= thresholds[i]) {
+                return levels[i + 1];
+            }
+        }
+        return Level.NORMAL;
+    }
+}
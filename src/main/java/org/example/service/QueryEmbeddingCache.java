@@ -0,0 +1,247 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the embeddings of recent user queries, so that common messages such as "ціна?" or "доставка"
+ * are embedded once rather than for every customer who sends them.
+ * <p>
+ * Queries are looked up by their text after Unicode normalization (NFC), trimming, collapsing runs of
+ * whitespace and lower-casing. At most {@code query-embedding-cache.max-entries} embeddings of at most
+ * {@code query-embedding-cache.max-bytes} in total are kept as primitive arrays, least recently used
+ * evicted first, each for {@code query-embedding-cache.ttl-ms}. Concurrent misses for the same query
+ * share one embedding call: the first caller makes it and the others wait for its result or failure.
+ * If the first caller is interrupted or cancelled instead, which is about its own deadline rather than
+ * the query, the waiting callers look the query up again and one of them makes the call.
+ */
+@Component
+public class QueryEmbeddingCache {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    /** Rough per-entry cost of the entry object and map node, for the memory estimate. */
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    /**
+     * Computes the embedding of a query on a miss.
+     */
+    @FunctionalInterface
+    public interface Loader {
+        float[] load(String query) throws IOException;
+    }
+
+    private record Entry(float[] embedding, long storedAt, long bytes) {
+    }
+
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(1024, 0.75f, true);
+    private final Map<String, CompletableFuture<float[]>> inFlight = new ConcurrentHashMap<>();
+    private long totalBytes;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter joined;
+
+    public QueryEmbeddingCache(MeterRegistry meterRegistry,
+                               @Value("${query-embedding-cache.enabled:true}") boolean enabled,
+                               @Value("${query-embedding-cache.max-entries:10000}") int maxEntries,
+                               @Value("${query-embedding-cache.max-bytes:33554432}") long maxBytes,
+                               @Value("${query-embedding-cache.ttl-ms:3600000}") long ttlMs) {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlNanos = Duration.ofMillis(ttlMs).toNanos();
+        this.hits = lookupCounter(meterRegistry, "hit");
+        this.misses = lookupCounter(meterRegistry, "miss");
+        this.joined = lookupCounter(meterRegistry, "joined");
+        meterRegistry.gauge("query.embedding.cache.size", this, QueryEmbeddingCache::size);
+        meterRegistry.gauge("query.embedding.cache.bytes", this, QueryEmbeddingCache::estimatedBytes);
+        meterRegistry.gauge("query.embedding.cache.hit.ratio", this, QueryEmbeddingCache::hitRatio);
+    }
+
+    private static Counter lookupCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("query.embedding.cache.lookups")
+                .description("Query embedding lookups: cached, embedded, or joined to an embedding call already in flight")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the embedding of a query, computing it with the loader on a miss.
+     *
+     * @param query  The user's query.
+     * @param loader Embeds the query; called at most once at a time per normalized query.
+     * @return The embedding; shared, must not be modified.
+     * @throws IOException if the loader fails, for this caller or the one whose call it waited for.
+     */
+    public float[] get(String query, Loader loader) throws IOException {
+        if (!enabled) {
+            return loader.load(query);
+        }
+        String key = normalize(query);
+        while (true) {
+            float[] cached = lookup(key);
+            if (cached != null) {
+                hits.increment();
+                return cached;
+            }
+
+            CompletableFuture<float[]> call = new CompletableFuture<>();
+            CompletableFuture<float[]> running = inFlight.putIfAbsent(key, call);
+            if (running == null) {
+                return load(key, query, loader, call);
+            }
+            joined.increment();
+            float[] embedding = await(running);
+            if (embedding != null) {
+                return embedding;
+            }
+            // The caller that made the call was cancelled; look again, and make the call if nobody else does
+        }
+    }
+
+    /**
+     * Makes the embedding call claimed with {@code call} and hands its outcome to the waiting callers.
+     * They get {@code null} if this caller is interrupted or fails unexpectedly, which tells them to retry.
+     */
+    private float[] load(String key, String query, Loader loader, CompletableFuture<float[]> call) throws IOException {
+        float[] embedding = null;
+        Exception failure = null;
+        try {
+            // The previous call for this query may have finished between the lookup and claiming it
+            embedding = lookup(key);
+            if (embedding == null) {
+                misses.increment();
+                embedding = loader.load(query);
+                store(key, embedding);
+            } else {
+                hits.increment();
+            }
+            return embedding;
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            // Removed first, so that retrying callers do not find the finished call again
+            inFlight.remove(key, call);
+            if (embedding != null) {
+                call.complete(embedding);
+            } else if (failure == null || failure instanceof InterruptedIOException || Thread.currentThread().isInterrupted()) {
+                call.complete(null);
+            } else {
+                call.completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * @return The embedding, or {@code null} if the caller that made the call gave up on it.
+     */
+    private static float[] await(CompletableFuture<float[]> call) throws IOException {
+        try {
+            return call.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("Query embedding failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the query embedding");
+        }
+    }
+
+    static String normalize(String query) {
+        return WHITESPACE.matcher(Normalizer.normalize(query, Normalizer.Form.NFC).strip()).replaceAll(" ")
+                .toLowerCase(Locale.ROOT);
+    }
+
+    private float[] lookup(String key) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (System.nanoTime() - entry.storedAt() > ttlNanos) {
+                entries.remove(key);
+                totalBytes -= entry.bytes();
+                return null;
+            }
+            return entry.embedding();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void store(String key, float[] embedding) {
+        Entry entry = new Entry(embedding, System.nanoTime(), ENTRY_OVERHEAD_BYTES + 2L * key.length() + 4L * embedding.length);
+        lock.lock();
+        try {
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                totalBytes -= previous.bytes();
+            }
+            totalBytes += entry.bytes();
+            Iterator<Entry> iterator = entries.values().iterator();
+            while ((entries.size() > maxEntries || totalBytes > maxBytes) && iterator.hasNext()) {
+                totalBytes -= iterator.next().bytes();
+                iterator.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of cached embeddings, including expired ones not yet looked up again.
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The estimated memory used by the cached embeddings and their keys.
+     */
+    public long estimatedBytes() {
+        lock.lock();
+        try {
+            return totalBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The share of lookups since startup that did not make an embedding call.
+     */
+    public double hitRatio() {
+        double served = hits.count() + joined.count();
+        double total = served + misses.count();
+        return total > 0 ? served / total : 0;
+    }
+}
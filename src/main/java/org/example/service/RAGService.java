@@ -5,27 +5,60 @@ import org.example.database.entity.Client;
 import org.example.database.entity.Knowledge;
 import org.example.database.repository.KnowledgeRepository;
 import org.example.service.gemini.GeminiEmbeddingService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
  * Service for Retrieval-Augmented Generation (RAG).
  * This service handles the creation of embeddings and finding relevant context
  * from the knowledge base.
+ * <p>
+ * Knowledge is stored and searched at the client's embedding widths chosen by {@link EmbeddingDimensions};
+ * the model is always asked for full embeddings, which are reduced locally.
+ * <p>
+ * The nearest entries always make up the context, however far they are; whether the knowledge base
+ * actually has something on the query is told by {@link RetrievedContext#relevant()}, which compares the
+ * cosine similarity of the nearest entry with {@code rag.relevance-threshold}.
  */
 @Service
 public class RAGService {
 
+    /**
+     * Context retrieved for a query.
+     *
+     * @param queryEmbedding The embedding of the query.
+     * @param context        The formatted context, or an empty string if nothing relevant was found.
+     * @param fingerprint    A hash of the context; it changes whenever the retrieved knowledge changes.
+     * @param relevant       Whether an entry is at least as similar to the query as the relevance threshold.
+     */
+    public record RetrievedContext(float[] queryEmbedding, String context, String fingerprint, boolean relevant) {
+    }
+
     private final KnowledgeRepository knowledgeRepository;
     private final GeminiEmbeddingService geminiEmbeddingService;
+    private final QueryEmbeddingCache queryEmbeddingCache;
+    private final EmbeddingDimensions embeddingDimensions;
+    private final double relevanceThreshold;
 
-    public RAGService(KnowledgeRepository knowledgeRepository, GeminiEmbeddingService geminiEmbeddingService) {
+    public RAGService(KnowledgeRepository knowledgeRepository, GeminiEmbeddingService geminiEmbeddingService,
+                      QueryEmbeddingCache queryEmbeddingCache, EmbeddingDimensions embeddingDimensions,
+                      @Value("${rag.relevance-threshold:0.7}") double relevanceThreshold) {
         this.knowledgeRepository = knowledgeRepository;
         this.geminiEmbeddingService = geminiEmbeddingService;
+        this.queryEmbeddingCache = queryEmbeddingCache;
+        this.embeddingDimensions = embeddingDimensions;
+        this.relevanceThreshold = relevanceThreshold;
     }
 
     /**
@@ -43,9 +76,9 @@ public class RAGService {
         Knowledge knowledge = new Knowledge();
         knowledge.setClient(client);
         knowledge.setContent(content);
-        knowledge.setEmbedding(embeddingVector);
+        embeddingDimensions.assign(knowledge, embeddingVector);
 
-        knowledgeRepository.save(knowledge);
+        knowledgeRepository.insertAll(List.of(knowledge));
     }
 
     /**
@@ -58,10 +91,56 @@ public class RAGService {
      * @throws IOException if the embedding generation for the query fails.
      */
     public String findRelevantContext(Client client, String userQuery, int limit) throws IOException {
-        float[] queryVector = geminiEmbeddingService.getEmbedding(userQuery);
+        return retrieveContext(client, userQuery, limit).context();
+    }
+
+    /**
+     * Finds relevant context like {@link #findRelevantContext} and also returns the query embedding
+     * and a fingerprint of the context. The query embedding comes from the {@link QueryEmbeddingCache}
+     * at full width and is reduced to the widths the client's knowledge is searched at.
+     */
+    public RetrievedContext retrieveContext(Client client, String userQuery, int limit) throws IOException {
+        float[] queryVector = queryEmbeddingCache.get(userQuery, geminiEmbeddingService::getQueryEmbedding);
+
+        List<Integer> widths = embeddingDimensions.searchWidths(client);
+        List<Knowledge> nearestNeighbors;
+        if (widths.isEmpty()) {
+            nearestNeighbors = knowledgeRepository.findNearestNeighbors(client.getId(), queryVector, limit);
+        } else {
+            Map<Integer, float[]> queryVectors = new LinkedHashMap<>();
+            widths.forEach(dimensions -> queryVectors.put(dimensions, EmbeddingDimensions.reduce(queryVector, dimensions)));
+            nearestNeighbors = knowledgeRepository.findNearestNeighborsReduced(client.getId(), queryVectors, limit);
+        }
+
+        String context = formatContext(nearestNeighbors);
+        return new RetrievedContext(queryVector, context, fingerprint(context), isRelevant(queryVector, nearestNeighbors));
+    }
 
-        List<Knowledge> nearestNeighbors = knowledgeRepository.findNearestNeighbors(client.getId(), queryVector, limit);
+    private boolean isRelevant(float[] queryVector, List<Knowledge> nearestNeighbors) {
+        for (Knowledge knowledge : nearestNeighbors) {
+            // Entries found by reduced embedding have only that one loaded
+            float[] embedding = knowledge.getEmbedding() != null ? knowledge.getEmbedding() : knowledge.getReducedEmbedding();
+            if (embedding != null && embedding.length <= queryVector.length
+                    && cosineSimilarity(EmbeddingDimensions.reduce(queryVector, embedding.length), embedding) >= relevanceThreshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static double cosineSimilarity(float[] a, float[] b) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += (double) a[i] * b[i];
+            normA += (double) a[i] * a[i];
+            normB += (double) b[i] * b[i];
+        }
+        return normA > 0 && normB > 0 ? dot / Math.sqrt(normA * normB) : 0;
+    }
 
+    private static String formatContext(List<Knowledge> nearestNeighbors) {
         if (nearestNeighbors.isEmpty()) {
             return "";
         }
@@ -74,6 +153,14 @@ public class RAGService {
                 "\n### Кінець Контексту ###\n";
     }
 
+    private static String fingerprint(String context) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(context.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
     /**
      * Creates a vector embedding and links it to a specific catalog item.
      */
@@ -85,9 +172,9 @@ public class RAGService {
         knowledge.setClient(client);
         knowledge.setContent(content);
         knowledge.setCatalogItem(catalogItem); // Link to the catalog item
-        knowledge.setEmbedding(embeddingVector);
+        embeddingDimensions.assign(knowledge, embeddingVector);
 
-        knowledgeRepository.save(knowledge);
+        knowledgeRepository.insertAll(List.of(knowledge));
     }
 
     /**
@@ -101,4 +188,11 @@ public class RAGService {
     public float[] getEmbeddingForText(String text) throws IOException {
         return geminiEmbeddingService.getEmbedding(text);
     }
+
+    /**
+     * Generates embeddings for many texts with batch calls, in the order of the texts.
+     */
+    public List<float[]> getEmbeddingsForTexts(List<String> texts) throws IOException {
+        return geminiEmbeddingService.getEmbeddings(texts);
+    }
 }
\ No newline at end of file
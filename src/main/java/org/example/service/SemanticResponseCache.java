@@ -0,0 +1,216 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reuses generated answers for near-identical questions of one client.
+ * <p>
+ * An answer is stored under the query embedding that RAG computes anyway and the fingerprint of the
+ * knowledge base context retrieved for it. A later question is answered from the cache if its
+ * embedding has a cosine similarity of at least {@code semantic-cache.similarity-threshold} with a
+ * stored one and the same context is retrieved for it, so editing a price or the stock of a catalog
+ * item changes the fingerprint and the stale answer is no longer used. Only stand-alone questions
+ * take part: if the conversation had any answered message within {@code semantic-cache.standalone-gap-ms},
+ * the history shapes the answer and the cache is skipped. Each client keeps at most
+ * {@code semantic-cache.max-entries-per-client} answers, the least recently used are evicted first,
+ * and an answer expires after {@code semantic-cache.ttl-ms}.
+ */
+@Component
+public class SemanticResponseCache {
+
+    /**
+     * What an answer is cached under.
+     *
+     * @param clientId           The client whose bot answered.
+     * @param queryEmbedding     The embedding of the question.
+     * @param contextFingerprint The fingerprint of the knowledge base context retrieved for the question.
+     */
+    public record Key(Long clientId, float[] queryEmbedding, String contextFingerprint) {
+    }
+
+    private record Entry(float[] unitEmbedding, String contextFingerprint, String answer, long storedAt) {
+    }
+
+    private static final class ClientEntries {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LinkedHashMap<Long, Entry> entries;
+
+        private ClientEntries(int maxEntries) {
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        }
+    }
+
+    private final boolean enabled;
+    private final double similarityThreshold;
+    private final int maxEntriesPerClient;
+    private final long ttlNanos;
+    private final Duration standaloneGap;
+    private final Map<Long, ClientEntries> clients = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final Counter hits;
+    private final Counter misses;
+
+    public SemanticResponseCache(MeterRegistry meterRegistry,
+                                 @Value("${semantic-cache.enabled:true}") boolean enabled,
+                                 @Value("${semantic-cache.similarity-threshold:0.95}") double similarityThreshold,
+                                 @Value("${semantic-cache.max-entries-per-client:256}") int maxEntriesPerClient,
+                                 @Value("${semantic-cache.ttl-ms:21600000}") long ttlMs,
+                                 @Value("${semantic-cache.standalone-gap-ms:1800000}") long standaloneGapMs) {
+        this.enabled = enabled;
+        this.similarityThreshold = similarityThreshold;
+        this.maxEntriesPerClient = Math.max(1, maxEntriesPerClient);
+        this.ttlNanos = Duration.ofMillis(ttlMs).toNanos();
+        this.standaloneGap = Duration.ofMillis(standaloneGapMs);
+        this.hits = lookupCounter(meterRegistry, "hit");
+        this.misses = lookupCounter(meterRegistry, "miss");
+        meterRegistry.gauge("semantic.cache.size", this, SemanticResponseCache::size);
+    }
+
+    private static Counter lookupCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("semantic.cache.lookups")
+                .description("Semantic response cache lookups by outcome")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Decides whether a question can be answered without regard to the conversation.
+     *
+     * @param history The latest turns of the conversation, including the messages being answered.
+     * @return {@code true} if no message in the conversation was answered within the stand-alone gap.
+     */
+    public boolean appliesTo(List<ConversationHistoryCache.Turn> history) {
+        if (!enabled) {
+            return false;
+        }
+        LocalDateTime since = LocalDateTime.now().minus(standaloneGap);
+        // The messages being answered are still claimed; anything else that recent is conversation context
+        return history.stream()
+                .filter(turn -> turn.timestamp() != null && turn.timestamp().isAfter(since))
+                .allMatch(ConversationHistoryCache.Turn::pending);
+    }
+
+    /**
+     * @return The stored answer for a similar question with the same retrieved context, if any.
+     */
+    public Optional<String> find(Key key) {
+        ClientEntries client = clients.get(key.clientId());
+        float[] query = normalize(key.queryEmbedding());
+        if (client == null || query == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+        long now = System.nanoTime();
+        client.lock.lock();
+        try {
+            Long bestId = null;
+            double bestSimilarity = similarityThreshold;
+            Iterator<Map.Entry<Long, Entry>> iterator = client.entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Long, Entry> candidate = iterator.next();
+                Entry entry = candidate.getValue();
+                if (now - entry.storedAt() > ttlNanos) {
+                    iterator.remove();
+                    continue;
+                }
+                if (!entry.contextFingerprint().equals(key.contextFingerprint())) {
+                    continue;
+                }
+                double similarity = dot(query, entry.unitEmbedding());
+                if (similarity >= bestSimilarity) {
+                    bestSimilarity = similarity;
+                    bestId = candidate.getKey();
+                }
+            }
+            if (bestId == null) {
+                misses.increment();
+                return Optional.empty();
+            }
+            hits.increment();
+            // Reading through get() marks the entry as recently used
+            return Optional.of(client.entries.get(bestId).answer());
+        } finally {
+            client.lock.unlock();
+        }
+    }
+
+    /**
+     * Stores a generated answer. Stored answers for similar questions are replaced, whatever their
+     * context fingerprint, as they are either duplicates or based on outdated knowledge.
+     */
+    public void put(Key key, String answer) {
+        float[] unitEmbedding = normalize(key.queryEmbedding());
+        if (!enabled || unitEmbedding == null) {
+            return;
+        }
+        ClientEntries client = clients.computeIfAbsent(key.clientId(), id -> new ClientEntries(maxEntriesPerClient));
+        client.lock.lock();
+        try {
+            client.entries.values().removeIf(entry -> dot(unitEmbedding, entry.unitEmbedding()) >= similarityThreshold);
+            client.entries.put(nextId.incrementAndGet(), new Entry(unitEmbedding, key.contextFingerprint(), answer, System.nanoTime()));
+        } finally {
+            client.lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of answers stored across all clients.
+     */
+    public int size() {
+        int size = 0;
+        for (ClientEntries client : clients.values()) {
+            client.lock.lock();
+            try {
+                size += client.entries.size();
+            } finally {
+                client.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    private static float[] normalize(float[] vector) {
+        if (vector == null || vector.length == 0) {
+            return null;
+        }
+        double norm = Math.sqrt(dot(vector, vector));
+        if (norm == 0) {
+            return null;
+        }
+        float[] unit = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            unit[i] = (float) (vector[i] / norm);
+        }
+        return unit;
+    }
+
+    private static double dot(float[] a, float[] b) {
+        if (a.length != b.length) {
+            return 0;
+        }
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,93 @@
+package org.example.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Runs tasks on the webhook worker pool so that tasks sharing a key (a conversation)
+ * execute one after another in submission order, while tasks with different keys run in parallel.
+ * Each task is started through the {@link TenantFairScheduler}, so clients share the workers fairly.
+ * <p>
+ * A failed task does not block the tasks queued after it for the same key, and tasks are never
+ * dropped by the pool's rejection policy because their payload has already been acknowledged.
+ */
+@Component
+public class SenderOrderedDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(SenderOrderedDispatcher.class);
+
+    private final TenantFairScheduler scheduler;
+    private final Map<String, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+
+    public SenderOrderedDispatcher(TenantFairScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Schedules a task after all previously dispatched tasks with the same key.
+     *
+     * @param tenant The client the task belongs to.
+     * @param key    The ordering key, e.g. client ID and sender PSID.
+     * @param task   The task to run.
+     * @return A future completed when the task has finished (exceptionally if it failed).
+     */
+    public CompletableFuture<Void> dispatch(TenantFairScheduler.Tenant tenant, String key, Runnable task) {
+        return enqueue(key, previous -> previous.thenRunAsync(task, scheduler.forTenant(tenant)));
+    }
+
+    /**
+     * Schedules a task that finishes asynchronously, such as a deferred reply, after all previously
+     * dispatched tasks with the same key. The worker is free again as soon as the task returns, but the
+     * tasks dispatched after it for the same key wait until the future it returned completes.
+     *
+     * @param tenant The client the task belongs to.
+     * @param key    The ordering key, e.g. client ID and sender PSID.
+     * @param task   The task to run; returns the future that holds the key.
+     * @return A future completed when the returned future has completed (exceptionally if either failed).
+     */
+    public CompletableFuture<Void> dispatchHeld(TenantFairScheduler.Tenant tenant, String key,
+                                                Supplier<CompletableFuture<Void>> task) {
+        return enqueue(key, previous -> previous
+                .thenComposeAsync(ignored -> task.get(), scheduler.forTenant(tenant)));
+    }
+
+    /**
+     * Runs the continuation of a task that still holds its key, such as a deferred reply that is due, on
+     * the client's share of the workers. It is not queued behind the key, which would wait for itself.
+     *
+     * @param tenant       The client the continuation belongs to.
+     * @param continuation The continuation; returns a future completed once it has finished.
+     * @return A future completed when the returned future has completed (exceptionally if either failed).
+     */
+    public CompletableFuture<Void> resume(TenantFairScheduler.Tenant tenant, Supplier<CompletableFuture<Void>> continuation) {
+        return CompletableFuture.<Void>completedFuture(null)
+                .thenComposeAsync(ignored -> continuation.get(), scheduler.forTenant(tenant));
+    }
+
+    private CompletableFuture<Void> enqueue(String key, Function<CompletableFuture<Void>, CompletableFuture<Void>> after) {
+        CompletableFuture<Void> next = tails.compute(key, (k, tail) -> after.apply(tail == null
+                ? CompletableFuture.completedFuture(null)
+                : tail.exceptionally(e -> null)));
+        next.whenComplete((result, error) -> {
+            tails.remove(key, next);
+            if (error != null) {
+                logger.error("Помилка виконання задачі для ключа {}: {}", key, error.getMessage(), error);
+            }
+        });
+        return next;
+    }
+
+    /**
+     * Number of keys that currently have queued or running tasks.
+     */
+    public int activeKeys() {
+        return tails.size();
+    }
+}
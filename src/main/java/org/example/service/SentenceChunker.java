@@ -0,0 +1,95 @@
+package org.example.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cuts text that arrives in pieces into messages that end at sentence boundaries.
+ * <p>
+ * A message is cut at the last sentence end once at least {@code minChars} characters are buffered,
+ * so a streamed reply goes out sentence by sentence instead of in many tiny messages. Text longer
+ * than {@code maxChars} without a sentence end is cut at the last whitespace (or hard at the limit).
+ * A sentence end is only recognised once the character after it has arrived, so "3.5" is never split.
+ */
+class SentenceChunker {
+
+    private final int minChars;
+    private final int maxChars;
+    private final StringBuilder buffer = new StringBuilder();
+
+    SentenceChunker(int minChars, int maxChars) {
+        this.minChars = Math.min(minChars, maxChars);
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Adds text and returns the messages that are complete now.
+     */
+    List<String> append(String text) {
+        buffer.append(text);
+        List<String> chunks = new ArrayList<>();
+        int cut;
+        while ((cut = findCut()) > 0) {
+            take(cut, chunks);
+        }
+        return chunks;
+    }
+
+    /**
+     * Returns the rest of the text as messages of at most {@code maxChars} characters.
+     */
+    List<String> finish() {
+        List<String> chunks = new ArrayList<>();
+        while (buffer.length() > maxChars) {
+            take(forcedCut(), chunks);
+        }
+        take(buffer.length(), chunks);
+        return chunks;
+    }
+
+    private int findCut() {
+        if (buffer.length() > maxChars) {
+            return forcedCut();
+        }
+        int boundary = lastSentenceEnd(buffer.length());
+        return boundary >= minChars ? boundary : 0;
+    }
+
+    private int forcedCut() {
+        int boundary = lastSentenceEnd(maxChars);
+        if (boundary > 0) {
+            return boundary;
+        }
+        for (int i = maxChars; i > 0; i--) {
+            if (Character.isWhitespace(buffer.charAt(i))) {
+                return i;
+            }
+        }
+        return Character.isHighSurrogate(buffer.charAt(maxChars - 1)) ? maxChars - 1 : maxChars;
+    }
+
+    /**
+     * @return The position just after the last sentence end within the first {@code limit} characters, or 0.
+     */
+    private int lastSentenceEnd(int limit) {
+        for (int i = Math.min(limit, buffer.length() - 1); i > 0; i--) {
+            char previous = buffer.charAt(i - 1);
+            if (previous == '\n' || (isTerminator(previous) && Character.isWhitespace(buffer.charAt(i)))) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean isTerminator(char c) {
+        return c == '.' || c == '!' || c == '?' || c == '…';
+    }
+
+    private void take(int length, List<String> chunks) {
+        String chunk = buffer.substring(0, length).strip();
+        buffer.delete(0, length);
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.example.config.WebhookExecutorConfig;
+import org.example.database.entity.Client;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shares the webhook workers between clients with weighted fair queueing.
+ * <p>
+ * Work is queued per client and at most {@code webhook.tenant.max-concurrency} tasks run at a time.
+ * A free slot goes to the client whose next task has the smallest virtual start time, which
+ * advances by {@code 1 / weight} for every task started, so a client with weight 2 gets twice the share of a
+ * client with weight 1 while both have work queued. A client returning from idle starts at the
+ * current virtual time and cannot claim the share it did not use. A client may additionally be
+ * capped to a number of concurrent tasks of its own.
+ */
+@Component
+public class TenantFairScheduler {
+
+    /**
+     * Scheduling parameters of a client.
+     *
+     * @param id             The client ID.
+     * @param weight         The relative share of the workers, at least 1.
+     * @param maxConcurrency The maximum number of the client's tasks running at once, or 0 for no cap.
+     */
+    public record Tenant(Long id, int weight, int maxConcurrency) {
+
+        public static Tenant of(Client client) {
+            int weight = client.getSchedulingWeight() != null ? Math.max(1, client.getSchedulingWeight()) : 1;
+            int maxConcurrency = client.getMaxConcurrency() != null ? Math.max(0, client.getMaxConcurrency()) : 0;
+            return new Tenant(client.getId(), weight, maxConcurrency);
+        }
+    }
+
+    private record QueuedTask(Runnable task, long enqueuedAt) {
+    }
+
+    private static final class TenantQueue {
+        private final Queue<QueuedTask> tasks = new ArrayDeque<>();
+        private final Timer queueWait;
+        private final Counter capped;
+        private Tenant tenant;
+        private double nextStart;
+        private int running;
+
+        private TenantQueue(Timer queueWait, Counter capped) {
+            this.queueWait = queueWait;
+            this.capped = capped;
+        }
+
+        private boolean atCap() {
+            return tenant.maxConcurrency() > 0 && running >= tenant.maxConcurrency();
+        }
+    }
+
+    private final Executor executor;
+    private final MeterRegistry meterRegistry;
+    private final int maxConcurrency;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Long, TenantQueue> queues = new HashMap<>();
+    private double virtualTime;
+    private int running;
+    private int queued;
+
+    public TenantFairScheduler(@Qualifier(WebhookExecutorConfig.WEBHOOK_EXECUTOR) Executor executor,
+                               MeterRegistry meterRegistry,
+                               @Value("${webhook.tenant.max-concurrency:8}") int maxConcurrency) {
+        this.executor = executor;
+        this.meterRegistry = meterRegistry;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+        meterRegistry.gauge("webhook.tenant.queued", this, TenantFairScheduler::queuedCount);
+    }
+
+    /**
+     * Queues a task for the client and starts it as soon as the client's fair share allows.
+     *
+     * @param tenant The client the task belongs to.
+     * @param task   The task to run on the webhook worker pool.
+     */
+    public void execute(Tenant tenant, Runnable task) {
+        lock.lock();
+        try {
+            TenantQueue queue = queues.computeIfAbsent(tenant.id(), id -> new TenantQueue(
+                    Timer.builder("webhook.tenant.queue.wait")
+                            .description("Time webhook work waited for a fair-share slot")
+                            .tag("client", String.valueOf(id))
+                            .register(meterRegistry),
+                    Counter.builder("webhook.tenant.capped")
+                            .description("Tasks queued while the client was at its concurrency cap")
+                            .tag("client", String.valueOf(id))
+                            .register(meterRegistry)));
+            queue.tenant = tenant;
+            if (queue.tasks.isEmpty() && queue.running == 0) {
+                queue.nextStart = Math.max(queue.nextStart, virtualTime);
+            }
+            if (queue.atCap()) {
+                queue.capped.increment();
+            }
+            queue.tasks.add(new QueuedTask(task, System.nanoTime()));
+            queued++;
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    /**
+     * @return An executor that queues every task for the given client.
+     */
+    public Executor forTenant(Tenant tenant) {
+        return task -> execute(tenant, task);
+    }
+
+    private void drain() {
+        while (true) {
+            TenantQueue next;
+            QueuedTask queuedTask;
+            lock.lock();
+            try {
+                if (running >= maxConcurrency) {
+                    return;
+                }
+                next = pickNext();
+                if (next == null) {
+                    return;
+                }
+                queuedTask = next.tasks.poll();
+                queued--;
+                running++;
+                next.running++;
+                virtualTime = Math.max(virtualTime, next.nextStart);
+                next.nextStart += 1.0 / next.tenant.weight();
+            } finally {
+                lock.unlock();
+            }
+            next.queueWait.record(System.nanoTime() - queuedTask.enqueuedAt(), TimeUnit.NANOSECONDS);
+            start(next, queuedTask.task());
+        }
+    }
+
+    private TenantQueue pickNext() {
+        TenantQueue best = null;
+        Iterator<TenantQueue> iterator = queues.values().iterator();
+        while (iterator.hasNext()) {
+            TenantQueue queue = iterator.next();
+            if (queue.tasks.isEmpty()) {
+                if (queue.running == 0 && queue.nextStart <= virtualTime) {
+                    iterator.remove();
+                }
+                continue;
+            }
+            if (queue.atCap()) {
+                continue;
+            }
+            if (best == null || queue.nextStart < best.nextStart) {
+                best = queue;
+            }
+        }
+        return best;
+    }
+
+    private void start(TenantQueue queue, Runnable task) {
+        Runnable tracked = () -> {
+            try {
+                task.run();
+            } finally {
+                finished(queue);
+            }
+        };
+        try {
+            executor.execute((WebhookExecutorConfig.AcknowledgedWork) tracked::run);
+        } catch (RuntimeException e) {
+            finished(queue);
+            throw e;
+        }
+    }
+
+    private void finished(TenantQueue queue) {
+        lock.lock();
+        try {
+            running--;
+            queue.running--;
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    /**
+     * @return The number of tasks waiting for a slot across all clients.
+     */
+    public int queuedCount() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package org.example.service;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.example.model.WebhookEvent;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming extractor for Instagram webhook payloads.
+ * <p>
+ * Reads the payload token by token and keeps only the page ID, sender ID, message ID, text and
+ * echo flag of each messaging event. Attachments and every other field are skipped without being
+ * materialised, unlike a full {@code JsonObject} tree.
+ */
+public final class WebhookEventParser {
+
+    private WebhookEventParser() {
+    }
+
+    /**
+     * Extracts all messaging events of all entries.
+     *
+     * @param payload The raw JSON payload.
+     * @return The events in payload order.
+     * @throws IOException if the payload is not valid JSON or has no {@code entry} array.
+     */
+    public static List<WebhookEvent> parse(String payload) throws IOException {
+        List<WebhookEvent> events = new ArrayList<>();
+        boolean hasEntries = false;
+        try (JsonReader reader = new JsonReader(new StringReader(payload))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("entry".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    hasEntries = true;
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readEntry(reader, events);
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Malformed webhook payload: " + e.getMessage(), e);
+        }
+        if (!hasEntries) {
+            throw new IOException("Webhook payload has no entry array");
+        }
+        return events;
+    }
+
+    private static void readEntry(JsonReader reader, List<WebhookEvent> events) throws IOException {
+        String pageId = null;
+        // The entry id may follow the messaging array, so events are completed at the end of the entry.
+        List<EventBuilder> entryEvents = new ArrayList<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("id".equals(name)) {
+                pageId = nextStringOrNull(reader);
+            } else if ("messaging".equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    entryEvents.add(readMessaging(reader));
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        for (EventBuilder event : entryEvents) {
+            events.add(event.build(pageId));
+        }
+    }
+
+    private static EventBuilder readMessaging(JsonReader reader) throws IOException {
+        EventBuilder event = new EventBuilder();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("sender".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                event.senderId = readId(reader);
+            } else if ("message".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                event.message = true;
+                readMessage(reader, event);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return event;
+    }
+
+    private static void readMessage(JsonReader reader, EventBuilder event) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "mid" -> event.messageId = nextStringOrNull(reader);
+                case "text" -> event.text = nextStringOrNull(reader);
+                case "is_echo" -> {
+                    if (reader.peek() == JsonToken.BOOLEAN) {
+                        event.echo = reader.nextBoolean();
+                    } else {
+                        reader.skipValue();
+                        event.echo = true;
+                    }
+                }
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static String readId(JsonReader reader) throws IOException {
+        String id = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("id".equals(reader.nextName())) {
+                id = nextStringOrNull(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return id;
+    }
+
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+            return reader.nextString();
+        }
+        reader.skipValue();
+        return null;
+    }
+
+    private static final class EventBuilder {
+        private String senderId;
+        private String messageId;
+        private String text;
+        private boolean echo;
+        private boolean message;
+
+        private WebhookEvent build(String pageId) {
+            return new WebhookEvent(pageId, senderId, messageId, text, echo, message);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.example.database.entity.InboxEvent;
+import org.example.database.repository.InboxEventRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only journal of acknowledged webhook payloads, backed by the {@code inbox} table.
+ * <p>
+ * Appends from concurrent requests are group-committed: a single writer thread collects
+ * appends for up to {@code webhook.inbox.max-batch-delay-ms} (or until the batch is full)
+ * and persists them in one transaction, so the durability write costs one commit per batch
+ * instead of one per request. Completions are recorded the same way.
+ */
+@Component
+public class WebhookInbox {
+
+    private static final Logger logger = LoggerFactory.getLogger(WebhookInbox.class);
+
+    private record PendingAppend(InboxEvent event, CompletableFuture<Long> result) {
+    }
+
+    private final InboxEventRepository inboxEventRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final long maxBatchDelayNanos;
+    private final DistributionSummary batchSizeSummary;
+
+    private final BlockingQueue<PendingAppend> appends = new LinkedBlockingQueue<>();
+    private final ConcurrentLinkedQueue<Long> completions = new ConcurrentLinkedQueue<>();
+    private volatile boolean running;
+    private Thread writer;
+
+    public WebhookInbox(InboxEventRepository inboxEventRepository,
+                        PlatformTransactionManager transactionManager,
+                        MeterRegistry meterRegistry,
+                        @Value("${webhook.inbox.batch-size:64}") int batchSize,
+                        @Value("${webhook.inbox.max-batch-delay-ms:5}") long maxBatchDelayMs) {
+        this.inboxEventRepository = inboxEventRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+        this.maxBatchDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxBatchDelayMs);
+        this.batchSizeSummary = DistributionSummary.builder("webhook.inbox.commit.batch.size")
+                .description("Journal entries written per commit")
+                .register(meterRegistry);
+        meterRegistry.gauge("webhook.inbox.append.queue", appends, BlockingQueue::size);
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        writer = new Thread(this::writeLoop, "webhook-inbox-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        writer.interrupt();
+        writer.join(TimeUnit.SECONDS.toMillis(5));
+    }
+
+    /**
+     * Journals a payload. The returned future completes with the entry ID once the batch
+     * containing it has been committed.
+     *
+     * @param payload The raw webhook payload.
+     * @return A future with the ID of the journaled entry.
+     */
+    public CompletableFuture<Long> append(String payload) {
+        CompletableFuture<Long> result = new CompletableFuture<>();
+        if (!running) {
+            result.completeExceptionally(new IllegalStateException("Webhook inbox is not running"));
+            return result;
+        }
+        appends.add(new PendingAppend(new InboxEvent(payload), result));
+        return result;
+    }
+
+    /**
+     * Marks a journaled payload as fully processed. The update is written with the next batch.
+     *
+     * @param inboxId The ID returned by {@link #append(String)}.
+     */
+    public void markProcessed(Long inboxId) {
+        completions.add(inboxId);
+        if (!running) {
+            flushCompletions();
+        }
+    }
+
+    private void writeLoop() {
+        List<PendingAppend> batch = new ArrayList<>(batchSize);
+        while (running || !appends.isEmpty()) {
+            try {
+                PendingAppend first = appends.poll(100, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    long deadline = System.nanoTime() + maxBatchDelayNanos;
+                    while (batch.size() < batchSize) {
+                        PendingAppend next = appends.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                }
+            } catch (InterruptedException e) {
+                appends.drainTo(batch, batchSize - batch.size());
+            }
+            flushAppends(batch);
+            batch.clear();
+            flushCompletions();
+        }
+        flushCompletions();
+    }
+
+    private void flushAppends(List<PendingAppend> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            List<InboxEvent> events = batch.stream().map(PendingAppend::event).toList();
+            transactionTemplate.executeWithoutResult(status -> inboxEventRepository.saveAll(events));
+            batchSizeSummary.record(batch.size());
+            batch.forEach(append -> append.result().complete(append.event().getId()));
+        } catch (Exception e) {
+            logger.error("Не вдалося записати {} webhook payload(s) до inbox: {}", batch.size(), e.getMessage(), e);
+            batch.forEach(append -> append.result().completeExceptionally(e));
+        }
+    }
+
+    private void flushCompletions() {
+        List<Long> ids = new ArrayList<>();
+        Long id;
+        while ((id = completions.poll()) != null) {
+            ids.add(id);
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        try {
+            inboxEventRepository.updateStatus(ids, InboxEvent.Status.DONE, LocalDateTime.now());
+        } catch (Exception e) {
+            // The entries stay PENDING and will be replayed; processing is idempotent by message ID.
+            logger.error("Не вдалося позначити {} запис(и) inbox як оброблені: {}", ids.size(), e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.example.config.WebhookExecutorConfig;
+import org.example.model.WebhookEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * First stage of the webhook pipeline.
+ * <p>
+ * Validates the raw payload, journals it in the {@link WebhookInbox} and hands it to the bounded
+ * webhook worker pool, so that the HTTP request can be acknowledged immediately instead of waiting
+ * for the database, Gemini and the Graph API, without losing the payload if the instance dies.
+ */
+@Service
+public class WebhookIngestionService {
+
+    /**
+     * Result of an ingestion attempt, used by the controller to choose the HTTP status.
+     */
+    public enum Outcome {
+        ACCEPTED,
+        INVALID,
+        REJECTED
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(WebhookIngestionService.class);
+    /**
+     * Raw payloads, received or replayed, are logged only at DEBUG on a dedicated logger, which is off by
+     * default in log4j2.xml.
+     */
+    private static final Logger payloadLogger = LoggerFactory.getLogger("org.example.webhook.payload");
+
+    private final WebhookProcessingService processingService;
+    private final WebhookInbox inbox;
+    private final Executor webhookExecutor;
+    private final long inboxAppendTimeoutMs;
+    private final Counter acceptedCounter;
+    private final Counter discardedCounter;
+    private final Counter invalidCounter;
+    /** Inbox entries enqueued or being processed by this instance. */
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    public WebhookIngestionService(WebhookProcessingService processingService,
+                                   WebhookInbox inbox,
+                                   @Qualifier(WebhookExecutorConfig.WEBHOOK_EXECUTOR) Executor webhookExecutor,
+                                   MeterRegistry meterRegistry,
+                                   @Value("${webhook.inbox.append-timeout-ms:2000}") long inboxAppendTimeoutMs) {
+        this.processingService = processingService;
+        this.inbox = inbox;
+        this.webhookExecutor = webhookExecutor;
+        this.inboxAppendTimeoutMs = inboxAppendTimeoutMs;
+        this.acceptedCounter = meterRegistry.counter("webhook.ingestion.accepted");
+        this.discardedCounter = Counter.builder("webhook.ingestion.discarded")
+                .description("Journaled webhook payloads dropped by a DISCARD rejection policy; they are replayed from the inbox")
+                .register(meterRegistry);
+        this.invalidCounter = meterRegistry.counter("webhook.ingestion.invalid");
+    }
+
+    /**
+     * Validates the payload, journals it and enqueues it for asynchronous processing.
+     *
+     * @param payload The raw JSON payload from the webhook.
+     * @return {@link Outcome#ACCEPTED} if the payload was queued (or handled by the rejection policy),
+     * {@link Outcome#INVALID} if it is not a webhook payload, {@link Outcome#REJECTED} if it could not
+     * be journaled or the queue is full.
+     */
+    public Outcome accept(String payload) {
+        if (payloadLogger.isDebugEnabled()) {
+            payloadLogger.debug("Отримано повідомлення від Instagram: {}", payload);
+        }
+        List<WebhookEvent> events;
+        try {
+            events = WebhookEventParser.parse(payload);
+        } catch (IOException | RuntimeException e) {
+            invalidCounter.increment();
+            logger.warn("Отримано некоректний webhook payload. Ігноруємо.");
+            return Outcome.INVALID;
+        }
+
+        Long inboxId;
+        try {
+            inboxId = inbox.append(payload).get(inboxAppendTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Outcome.REJECTED;
+        } catch (ExecutionException | TimeoutException e) {
+            logger.error("Не вдалося записати webhook payload до inbox: {}", e.getMessage());
+            return Outcome.REJECTED;
+        }
+
+        ProcessingTask task = new ProcessingTask(inboxId, () -> processingService.processEvents(events));
+        if (!enqueue(task)) {
+            // The payload stays pending in the inbox and is replayed later.
+            logger.warn("Черга обробки webhook переповнена. Відхиляємо payload.");
+            return Outcome.REJECTED;
+        }
+        if (!task.isDiscarded()) {
+            acceptedCounter.increment();
+        }
+        return Outcome.ACCEPTED;
+    }
+
+    /**
+     * Resubmits a journaled payload that was never finished.
+     *
+     * @param inboxId The ID of the inbox entry.
+     * @param payload The journaled payload.
+     * @return {@code false} if the worker pool rejected or discarded the payload.
+     */
+    public boolean replay(Long inboxId, String payload) {
+        if (payloadLogger.isDebugEnabled()) {
+            payloadLogger.debug("Відновлено повідомлення від Instagram {}: {}", inboxId, payload);
+        }
+        ProcessingTask task = new ProcessingTask(inboxId, () -> processingService.processWebhookPayload(payload));
+        return enqueue(task) && !task.isDiscarded();
+    }
+
+    /**
+     * @return Whether the inbox entry is enqueued or being processed by this instance, so that it must not be replayed.
+     */
+    public boolean isInFlight(Long inboxId) {
+        return inFlight.contains(inboxId);
+    }
+
+    /**
+     * @return {@code false} if the worker pool rejected the task; a discarded task counts as enqueued.
+     */
+    private boolean enqueue(ProcessingTask task) {
+        inFlight.add(task.inboxId);
+        try {
+            webhookExecutor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(task.inboxId);
+            return false;
+        }
+    }
+
+    /**
+     * The processing of one inbox entry, as submitted to the worker pool.
+     */
+    private final class ProcessingTask implements WebhookExecutorConfig.DiscardableWork {
+        private final Long inboxId;
+        private final Supplier<CompletableFuture<Void>> processing;
+        private volatile boolean discarded;
+
+        private ProcessingTask(Long inboxId, Supplier<CompletableFuture<Void>> processing) {
+            this.inboxId = inboxId;
+            this.processing = processing;
+        }
+
+        @Override
+        public void run() {
+            process(inboxId, processing);
+        }
+
+        @Override
+        public void discarded() {
+            discarded = true;
+            inFlight.remove(inboxId);
+            discardedCounter.increment();
+            logger.warn("Webhook payload {} відкинуто політикою черги, його буде відновлено з inbox.", inboxId);
+        }
+
+        private boolean isDiscarded() {
+            return discarded;
+        }
+    }
+
+    private void process(Long inboxId, Supplier<CompletableFuture<Void>> processing) {
+        try {
+            processing.get()
+                    .whenComplete((result, error) -> {
+                        inFlight.remove(inboxId);
+                        if (error == null) {
+                            inbox.markProcessed(inboxId);
+                        } else {
+                            // The entry stays pending and is replayed until it succeeds or runs out of attempts.
+                            logger.warn("Обробка webhook payload {} не вдалася, його буде відновлено з inbox: {}", inboxId, error.getMessage());
+                        }
+                    });
+        } catch (Exception e) {
+            // A payload that cannot be parsed will not succeed on replay either.
+            logger.error("Помилка обробки webhook payload {}: {}", inboxId, e.getMessage(), e);
+            inFlight.remove(inboxId);
+            inbox.markProcessed(inboxId);
+        }
+    }
+}
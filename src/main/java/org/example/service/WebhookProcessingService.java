@@ -1,19 +1,33 @@
 package org.example.service;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
 import org.example.database.entity.Client;
 import org.example.database.entity.Interaction;
 import org.example.database.repository.ClientRepository;
 import org.example.database.repository.InteractionRepository;
+import org.example.model.WebhookEvent;
 import org.example.service.gemini.GeminiChatService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * Service responsible for processing incoming webhook payloads from Instagram.
@@ -21,15 +35,29 @@ import java.util.Optional;
  * This service acts as the central hub for handling messages. It parses the payload,
  * checks for duplicates, saves the user's message, retrieves a response from the AI,
  * saves the AI's response, and sends the reply back to the user.
+ * <p>
+ * A single payload may contain several entries, each with several messaging events.
+ * Events from different senders run in parallel, events from the same sender run in the order
+ * they were received, and clients share the workers according to their scheduling weights.
+ * Consecutive messages from one sender can be coalesced into a single reply by the
+ * {@link MessageBurstCoalescer}; no transaction spans the Gemini or Graph API calls. Under
+ * overload a reply may be deferred, see {@link OverloadController}.
  */
 @Service
 public class WebhookProcessingService {
 
-    private final Gson gson = new Gson();
     private final GeminiChatService chatService;
     private final InstagramMessageService instagramMessageService;
     private final InteractionRepository interactionRepository;
     private final ClientRepository clientRepository;
+    private final SenderOrderedDispatcher dispatcher;
+    private final MessageBurstCoalescer burstCoalescer;
+    private final MessageIdDeduplicator deduplicator;
+    private final OverloadController overloadController;
+    private final TaskScheduler taskScheduler;
+    private final TransactionTemplate transactionTemplate;
+    private final Duration claimLease;
+    private final ConversationHistoryCache historyCache;
 
     private static final Logger logger = LoggerFactory.getLogger(WebhookProcessingService.class);
 
@@ -40,86 +68,330 @@ public class WebhookProcessingService {
      * @param interactionRepository   The repository for saving and retrieving interaction data.
      * @param instagramMessageService The service for sending messages back to Instagram.
      * @param clientRepository        The repository for managing clients.
+     * @param dispatcher              Runs events in parallel across senders and in order per sender.
+     * @param burstCoalescer          Merges consecutive messages from one sender into a single AI turn.
+     * @param deduplicator            Answers most duplicate deliveries from memory.
+     * @param overloadController      Decides when replies are deferred under overload.
+     * @param taskScheduler           Schedules deferred replies.
+     * @param transactionManager      The transaction manager used for the short claim and save transactions.
+     * @param historyCache            The in-memory conversation history, kept in step with every write.
+     * @param claimLeaseMs            How long a claimed message is reserved for this instance to answer it.
      */
     @Autowired
-    public WebhookProcessingService(GeminiChatService chatService, InteractionRepository interactionRepository, InstagramMessageService instagramMessageService, ClientRepository clientRepository) {
+    public WebhookProcessingService(GeminiChatService chatService, InteractionRepository interactionRepository,
+                                    InstagramMessageService instagramMessageService, ClientRepository clientRepository,
+                                    SenderOrderedDispatcher dispatcher, MessageBurstCoalescer burstCoalescer,
+                                    MessageIdDeduplicator deduplicator, OverloadController overloadController,
+                                    TaskScheduler taskScheduler, PlatformTransactionManager transactionManager,
+                                    ConversationHistoryCache historyCache,
+                                    @Value("${webhook.reply.claim-lease-ms:120000}") long claimLeaseMs) {
         this.chatService = chatService;
         this.interactionRepository = interactionRepository;
         this.instagramMessageService = instagramMessageService;
         this.clientRepository = clientRepository;
+        this.dispatcher = dispatcher;
+        this.burstCoalescer = burstCoalescer;
+        this.deduplicator = deduplicator;
+        this.overloadController = overloadController;
+        this.taskScheduler = taskScheduler;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.historyCache = historyCache;
+        this.claimLease = Duration.ofMillis(claimLeaseMs);
     }
 
     /**
      * Processes the raw JSON payload received from the Instagram webhook.
      * <p>
-     * This method extracts the message details, processes only textual messages,
-     * checks for duplicates, and orchestrates the conversation flow by involving
-     * the chat service and the message sending service. It ignores non-text messages
-     * and system events like echoes or read receipts.
+     * The payload is read with the streaming {@link WebhookEventParser}; every messaging event of
+     * every entry is then dispatched as described in {@link #processEvents(List)}.
      *
      * @param payload The JSON string payload from the webhook.
+     * @return A future completed when all dispatched events of this payload have been processed.
+     * @throws UncheckedIOException if the payload is malformed.
      */
-    @Transactional
-    public void processWebhookPayload(String payload) {
-        logger.info("Отримано повідомлення від Instagram: {}", payload);
-        JsonObject data = gson.fromJson(payload, JsonObject.class);
-
-        Client client = null;
+    public CompletableFuture<Void> processWebhookPayload(String payload) {
         try {
-            JsonObject entry = data.getAsJsonArray("entry").get(0).getAsJsonObject();
-            String pageId = entry.get("id").getAsString();
+            return processEvents(WebhookEventParser.parse(payload));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-            Optional<Client> clientOptional = clientRepository.findByInstagramPageId(pageId);
-            if (clientOptional.isEmpty()) {
-                logger.warn("Отримано повідомлення для незареєстрованої сторінки з ID: {}. Ігноруємо.", pageId);
-                return;
+    /**
+     * Resolves the client of each event and dispatches the event for processing.
+     * An event for an unknown page or without a sender is logged and skipped without
+     * affecting the rest of the batch.
+     *
+     * @param events The events extracted from a webhook payload.
+     * @return A future completed when all dispatched events have been processed and answered.
+     */
+    public CompletableFuture<Void> processEvents(List<WebhookEvent> events) {
+        logger.info("Отримано {} подій від Instagram.", events.size());
+        Map<String, Optional<Client>> clientsByPage = new HashMap<>();
+        List<CompletableFuture<Void>> dispatched = new ArrayList<>();
+        for (WebhookEvent event : events) {
+            try {
+                if (event.pageId() == null || event.senderId() == null) {
+                    logger.warn("Отримано подію без ID сторінки або відправника. Ігноруємо.");
+                    continue;
+                }
+                Optional<Client> clientOptional = clientsByPage.computeIfAbsent(event.pageId(), clientRepository::findByInstagramPageId);
+                if (clientOptional.isEmpty()) {
+                    logger.warn("Отримано повідомлення для незареєстрованої сторінки з ID: {}. Ігноруємо.", event.pageId());
+                    continue;
+                }
+                Client client = clientOptional.get();
+                TenantFairScheduler.Tenant tenant = TenantFairScheduler.Tenant.of(client);
+                String conversationKey = client.getId() + ":" + event.senderId();
+                // A message joining a burst lets the sender's next one in at once, so that it can join too
+                dispatched.add(dispatchAndAwait(tenant, conversationKey, !burstCoalescer.isEnabled(),
+                        () -> processMessagingEvent(client, tenant, conversationKey, event)));
+            } catch (Exception e) {
+                logger.error("Помилка диспетчеризації події для сторінки {}: {} - {}", event.pageId(), e.getClass().getName(), e.getMessage(), e);
             }
-            client = clientOptional.get();
+        }
+        return CompletableFuture.allOf(dispatched.toArray(new CompletableFuture[0]));
+    }
 
-            JsonObject messaging = entry.getAsJsonArray("messaging").get(0).getAsJsonObject();
-            String senderPsid = messaging.getAsJsonObject("sender").get("id").getAsString();
+    /**
+     * Dispatches work that itself completes asynchronously.
+     *
+     * @param holdKey Whether the sender's later events wait for the future returned by the work, e.g. for a
+     *                deferred reply, rather than only for the work itself.
+     * @return A future completed when the future returned by the work completes, or the work fails.
+     */
+    private CompletableFuture<Void> dispatchAndAwait(TenantFairScheduler.Tenant tenant, String conversationKey,
+                                                     boolean holdKey, Supplier<CompletableFuture<Void>> work) {
+        CompletableFuture<Void> completion = new CompletableFuture<>();
+        Supplier<CompletableFuture<Void>> observed = () -> work.get()
+                .whenComplete((result, error) -> completion.complete(null));
+        CompletableFuture<Void> dispatched = holdKey
+                ? dispatcher.dispatchHeld(tenant, conversationKey, observed)
+                : dispatcher.dispatch(tenant, conversationKey, observed::get);
+        dispatched.exceptionally(error -> {
+            completion.complete(null);
+            return null;
+        });
+        return completion;
+    }
 
-            if (!messaging.has("message") || messaging.getAsJsonObject("message").has("is_echo")) {
-                logger.info("Отримано системну подію (echo/read) або подію без повідомлення. Ігноруємо.");
-                return;
-            }
+    /**
+     * Processes a single messaging event.
+     * <p>
+     * Only textual messages are processed; echoes, read receipts and attachments are ignored.
+     * When burst coalescing is enabled the message joins the sender's current burst and is
+     * answered together with it; otherwise it is answered immediately.
+     *
+     * @return A future completed once the message has been answered (or ignored).
+     */
+    private CompletableFuture<Void> processMessagingEvent(Client client, TenantFairScheduler.Tenant tenant,
+                                                          String conversationKey, WebhookEvent event) {
+        if (!event.message() || event.echo()) {
+            logger.info("Отримано системну подію (echo/read) або подію без повідомлення. Ігноруємо.");
+            return CompletableFuture.completedFuture(null);
+        }
 
-            JsonObject messageObject = messaging.getAsJsonObject("message");
+        // Ignore non-text messages for now
+        if (!event.isIncomingText()) {
+            logger.info("Отримано не-текстове повідомлення. Ігноруємо.");
+            return CompletableFuture.completedFuture(null);
+        }
 
-            // Ignore non-text messages for now
-            if (!messageObject.has("text")) {
-                logger.info("Отримано не-текстове повідомлення. Ігноруємо.");
-                return;
-            }
+        if (deduplicator.isKnownDuplicate(event.messageId())) {
+            logger.info("Отримано дублікат повідомлення з ID: {}. Ігноруємо.", event.messageId());
+            return CompletableFuture.completedFuture(null);
+        }
 
-            String messageId = messageObject.get("mid").getAsString();
+        MessageBurstCoalescer.PendingMessage message = new MessageBurstCoalescer.PendingMessage(event.messageId(), event.text());
+        if (burstCoalescer.isEnabled()) {
+            return burstCoalescer.add(conversationKey, message, messages -> dispatchAndAwait(tenant, conversationKey, true,
+                    () -> replyOrDefer(client, tenant, conversationKey, event.senderId(), messages)));
+        }
+        return replyOrDefer(client, tenant, conversationKey, event.senderId(), List.of(message));
+    }
 
-            if (interactionRepository.existsByMessageId(messageId)) {
-                logger.info("Отримано дублікат повідомлення з ID: {}. Ігноруємо.", messageId);
-                return;
-            }
+    /**
+     * Answers the messages now, or, when the {@link OverloadController} asks for it, claims them, sends a
+     * holding reply and tries again after the defer delay without occupying a worker in the meantime.
+     * The claim comes first, so a redelivery of deferred messages gets no second holding reply; the claim
+     * lasts for the longest deferral on top of the claim lease.
+     *
+     * @return A future completed once the messages have been answered.
+     */
+    private CompletableFuture<Void> replyOrDefer(Client client, TenantFairScheduler.Tenant tenant, String conversationKey,
+                                                 String senderPsid, List<MessageBurstCoalescer.PendingMessage> messages) {
+        if (!overloadController.shouldDefer(0)) {
+            reply(client, senderPsid, messages);
+            return CompletableFuture.completedFuture(null);
+        }
+        List<ConversationHistoryCache.Turn> claimed = claim(client, senderPsid, messages, claimLease.plus(overloadController.maxDeferral()));
+        if (claimed.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        logger.warn("Система перевантажена. Відкладаємо відповідь для {}.", conversationKey);
+        instagramMessageService.sendReply(client.getAccessToken(), senderPsid, overloadController.holdingReply());
+        return defer(client, tenant, senderPsid, claimed, 1);
+    }
+
+    /**
+     * Answers claimed messages after the defer delay, or defers them again.
+     *
+     * @param deferrals How many times the messages have been deferred, including this time.
+     * @return A future completed once the messages have been answered.
+     */
+    private CompletableFuture<Void> defer(Client client, TenantFairScheduler.Tenant tenant, String senderPsid,
+                                          List<ConversationHistoryCache.Turn> claimed, int deferrals) {
+        CompletableFuture<Void> answered = new CompletableFuture<>();
+        taskScheduler.schedule(() -> dispatcher.resume(tenant, () -> {
+                            if (overloadController.shouldDefer(deferrals)) {
+                                return defer(client, tenant, senderPsid, claimed, deferrals + 1);
+                            }
+                            answer(client, senderPsid, claimed);
+                            return CompletableFuture.completedFuture(null);
+                        })
+                        .whenComplete((result, error) -> answered.complete(null)),
+                Instant.now().plus(overloadController.deferDelay()));
+        return answered;
+    }
 
-            String messageText = messageObject.get("text").getAsString();
+    /**
+     * Answers the messages with a single AI reply. Failures are logged and do not propagate, so they
+     * cannot affect other events.
+     * <p>
+     * No database connection is held while Gemini or the Graph API is called. The messages are first
+     * claimed in a short transaction; the unique {@code message_id} constraint decides which deliveries
+     * are duplicates. The reply is then generated, saved together with marking the messages answered in
+     * a second short transaction, and sent; with streaming enabled it is sent while it is being
+     * generated instead. If generating or saving the reply fails, the claims are
+     * released so that a redelivery can try again; if this instance dies, the claims expire after the
+     * claim lease.
+     */
+    private void reply(Client client, String senderPsid, List<MessageBurstCoalescer.PendingMessage> messages) {
+        List<ConversationHistoryCache.Turn> claimed = claim(client, senderPsid, messages, claimLease);
+        if (!claimed.isEmpty()) {
+            answer(client, senderPsid, claimed);
+        }
+    }
+
+    /**
+     * Claims the messages in a short transaction and adds the claimed ones to the history cache.
+     *
+     * @return The claimed messages; empty if all were duplicates or the claim failed.
+     */
+    private List<ConversationHistoryCache.Turn> claim(Client client, String senderPsid,
+                                                      List<MessageBurstCoalescer.PendingMessage> messages, Duration lease) {
+        List<ConversationHistoryCache.Turn> claimed;
+        LocalDateTime claimedAt = LocalDateTime.now();
+        try {
+            claimed = transactionTemplate.execute(status -> insertClaims(client, senderPsid, messages, claimedAt, lease));
+        } catch (Exception e) {
+            logger.error("Помилка збереження повідомлення для клієнта '{}': {} - {}", client.getClientName(), e.getClass().getName(), e.getMessage(), e);
+            return List.of();
+        }
+        if (claimed == null || claimed.isEmpty()) {
+            return List.of();
+        }
+        historyCache.append(client.getId(), senderPsid, claimed);
+        return claimed;
+    }
 
-            // Save user interaction
-            Interaction userInteraction = new Interaction(senderPsid, "USER", messageText);
-            userInteraction.setClient(client);
-            userInteraction.setMessageId(messageId);
-            interactionRepository.save(userInteraction);
+    /**
+     * Generates, saves and sends the reply to claimed messages, or releases the claims if that fails.
+     */
+    private void answer(Client client, String senderPsid, List<ConversationHistoryCache.Turn> claimed) {
+        List<String> claimedMessageIds = claimed.stream().map(ConversationHistoryCache.Turn::messageId).toList();
+        boolean streamed = chatService.isStreamingEnabled();
+        String replyText;
+        try {
+            String messageText = claimed.stream()
+                    .map(ConversationHistoryCache.Turn::text)
+                    .collect(Collectors.joining("\n"));
 
             // Get AI response
-            String replyText = chatService.sendMessage(client, senderPsid, messageText);
+            replyText = streamed
+                    ? streamReply(client, senderPsid, messageText)
+                    : chatService.sendMessage(client, senderPsid, messageText);
 
             // Save AI interaction
             Interaction aiInteraction = new Interaction(senderPsid, "AI", replyText);
             aiInteraction.setClient(client);
-            interactionRepository.save(aiInteraction);
+            transactionTemplate.executeWithoutResult(status -> {
+                interactionRepository.save(aiInteraction);
+                interactionRepository.markAnswered(claimedMessageIds);
+            });
+            historyCache.answered(client.getId(), senderPsid, claimedMessageIds, ConversationHistoryCache.Turn.of(aiInteraction));
+        } catch (Exception e) {
+            logger.error("Помилка обробки повідомлення для клієнта '{}': {} - {}", client.getClientName(), e.getClass().getName(), e.getMessage(), e);
+            releaseClaims(client, senderPsid, claimedMessageIds);
+            return;
+        }
+        // Only answered message IDs may be remembered, otherwise a retry after a failure would be dropped.
+        claimedMessageIds.forEach(deduplicator::remember);
 
-            // Send reply to user
+        // Send reply to user
+        if (!streamed) {
             instagramMessageService.sendReply(client.getAccessToken(), senderPsid, replyText);
+        }
+    }
+
+    /**
+     * Generates the reply with the streaming endpoint and sends it sentence by sentence while it is
+     * being generated. If the stream breaks after part of the reply has been sent, that part is kept
+     * as the reply so that a redelivery does not answer the same messages twice.
+     *
+     * @return The reply text to persist.
+     */
+    private String streamReply(Client client, String senderPsid, String messageText) throws IOException {
+        InstagramMessageService.StreamingReply streamingReply = instagramMessageService.startStreamingReply(client.getAccessToken(), senderPsid);
+        String replyText;
+        try {
+            replyText = chatService.streamMessage(client, senderPsid, messageText, streamingReply);
+        } catch (IOException e) {
+            String delivered = streamingReply.deliveredText();
+            if (delivered.isEmpty()) {
+                throw e;
+            }
+            logger.warn("Потокова відповідь для клієнта '{}' обірвалася: {}. Зберігаємо вже надіслану частину.", client.getClientName(), e.getMessage());
+            return delivered;
+        }
+        streamingReply.finish();
+        return replyText;
+    }
+
+    private List<ConversationHistoryCache.Turn> insertClaims(Client client, String senderPsid,
+                                                             List<MessageBurstCoalescer.PendingMessage> messages,
+                                                             LocalDateTime now, Duration lease) {
+        List<MessageBurstCoalescer.PendingMessage> claimed = new ArrayList<>();
+        for (MessageBurstCoalescer.PendingMessage message : messages) {
+            int inserted = interactionRepository.claim(client.getId(), senderPsid, "USER",
+                    message.text(), now, message.messageId(), now.plus(lease));
+            if (inserted == 0) {
+                logger.info("Отримано дублікат повідомлення з ID: {}. Ігноруємо.", message.messageId());
+                deduplicator.recordStoreDuplicate(message.messageId());
+            } else {
+                claimed.add(message);
+            }
+        }
+        if (claimed.isEmpty()) {
+            return List.of();
+        }
+        // The messages of a burst share the timestamp; their IDs keep them apart for the summary boundary
+        Map<String, Long> ids = interactionRepository.findByMessageIdIn(claimed.stream().map(MessageBurstCoalescer.PendingMessage::messageId).toList())
+                .stream()
+                .collect(Collectors.toMap(Interaction::getMessageId, Interaction::getId));
+        return claimed.stream()
+                .map(message -> new ConversationHistoryCache.Turn(ids.get(message.messageId()), "USER", message.text(), now, message.messageId(), true))
+                .toList();
+    }
+
+    private void releaseClaims(Client client, String senderPsid, List<String> messageIds) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> interactionRepository.releaseClaims(messageIds));
         } catch (Exception e) {
-            logger.error("Помилка обробки повідомлення для клієнта '{}': {} - {}", (client != null ? client.getClientName() : "N/A"), e.getClass().getName(), e.getMessage(), e);
-            e.printStackTrace();
+            // The claims expire after the lease.
+            logger.error("Не вдалося звільнити повідомлення {}: {}", messageIds, e.getMessage());
         }
+        // The cached turns may no longer match the database; the next reply reloads them.
+        historyCache.invalidate(client.getId(), senderPsid);
     }
 }
@@ -0,0 +1,210 @@
+package org.example.service.gemini;
+
+import com.google.gson.Gson;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import okhttp3.*;
+import org.example.database.entity.Client;
+import org.example.database.entity.ConversationSummary;
+import org.example.database.repository.ConversationSummaryRepository;
+import org.example.model.Content;
+import org.example.model.Part;
+import org.example.model.request.GenerationConfig;
+import org.example.model.request.RequestPayload;
+import org.example.model.response.ResponsePayload;
+import org.example.service.ConversationHistoryCache;
+import org.example.service.DownstreamLimits;
+import org.example.service.OutboundHttpClients;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Folds turns that no longer fit into the history token budget into a rolling per-sender summary.
+ * <p>
+ * Summaries are generated on a small executor of their own, off the reply path: the reply that
+ * drops the turns goes out without them, and later replies carry the updated summary instead. Only
+ * one summary per conversation is generated at a time, and turns already folded into the stored
+ * summary are skipped, so a turn is never summarized twice.
+ */
+@Component
+public class ConversationSummarizer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConversationSummarizer.class);
+    /** Longer turns, typically pasted product descriptions, are cut before summarizing. */
+    private static final int MAX_TURN_CHARS = 2000;
+
+    private final ConversationSummaryRepository summaryRepository;
+    private final ConversationHistoryCache historyCache;
+    private final DownstreamLimits downstreamLimits;
+    private final GeminiResilience resilience;
+    private final OkHttpClient httpClient;
+    private final String apiKey;
+    private final String modelUrl;
+    private final int maxOutputTokens;
+    private final ThreadPoolTaskExecutor executor;
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final Gson gson = new Gson();
+    private final Counter folded;
+    private final Counter failed;
+    private final Counter skipped;
+
+    public ConversationSummarizer(ConversationSummaryRepository summaryRepository,
+                                  ConversationHistoryCache historyCache,
+                                  DownstreamLimits downstreamLimits,
+                                  GeminiResilience resilience,
+                                  OutboundHttpClients httpClients,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${gemini.api.key}") String apiKey,
+                                  @Value("${history.summary.model-url:${gemini.api.model-url:https://generativelanguage.googleapis.com/v1beta/models/gemini-2.5-flash}}") String modelUrl,
+                                  @Value("${history.summary.max-output-tokens:300}") int maxOutputTokens,
+                                  @Value("${history.summary.concurrency:2}") int concurrency,
+                                  @Value("${history.summary.queue-capacity:100}") int queueCapacity) {
+        this.summaryRepository = summaryRepository;
+        this.historyCache = historyCache;
+        this.downstreamLimits = downstreamLimits;
+        this.resilience = resilience;
+        this.httpClient = httpClients.forDownstream(DownstreamLimits.Downstream.GEMINI_CHAT);
+        this.apiKey = apiKey;
+        this.modelUrl = modelUrl;
+        this.maxOutputTokens = maxOutputTokens;
+        this.executor = new ThreadPoolTaskExecutor();
+        this.executor.setCorePoolSize(concurrency);
+        this.executor.setMaxPoolSize(concurrency);
+        this.executor.setQueueCapacity(queueCapacity);
+        this.executor.setThreadNamePrefix("history-summary-");
+        this.executor.initialize();
+        this.folded = summaryCounter(meterRegistry, "folded");
+        this.failed = summaryCounter(meterRegistry, "failed");
+        this.skipped = summaryCounter(meterRegistry, "skipped");
+    }
+
+    private static Counter summaryCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("history.summaries")
+                .description("Rolling conversation summary updates by outcome")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Schedules folding the dropped turns into the conversation's summary. Does nothing if a summary
+     * of the conversation is already being generated or the queue is full; the turns are offered
+     * again with the next reply.
+     *
+     * @param client     The client whose bot holds the conversation.
+     * @param senderPsid The Instagram user's page-scoped ID.
+     * @param dropped    The turns left out of the history, oldest first.
+     */
+    public void foldAsync(Client client, String senderPsid, List<ConversationHistoryCache.Turn> dropped) {
+        String key = client.getId() + ":" + senderPsid;
+        if (dropped.isEmpty() || !inFlight.add(key)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    fold(client, senderPsid, dropped);
+                } catch (Exception e) {
+                    failed.increment();
+                    logger.warn("Не вдалося оновити підсумок розмови з {} для клієнта '{}': {}", senderPsid, client.getClientName(), e.getMessage());
+                } finally {
+                    inFlight.remove(key);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            inFlight.remove(key);
+            skipped.increment();
+        }
+    }
+
+    /**
+     * Folds the turns newer than the stored summary into it and stores the result.
+     */
+    void fold(Client client, String senderPsid, List<ConversationHistoryCache.Turn> dropped) throws IOException {
+        ConversationSummary stored = summaryRepository.findByClientIdAndSenderPsid(client.getId(), senderPsid)
+                .orElseGet(ConversationSummary::new);
+        ConversationHistoryCache.Summary boundary = ConversationHistoryCache.Summary.of(stored);
+        List<ConversationHistoryCache.Turn> unsummarized = dropped.stream()
+                .filter(turn -> !boundary.covers(turn))
+                .toList();
+        if (unsummarized.isEmpty()) {
+            return;
+        }
+
+        String summary = summarize(stored.getSummary(), unsummarized);
+        ConversationHistoryCache.Turn newest = unsummarized.get(unsummarized.size() - 1);
+        stored.setClient(client);
+        stored.setSenderPsid(senderPsid);
+        stored.setSummary(summary);
+        stored.setSummarizedUntil(newest.timestamp());
+        stored.setSummarizedUntilId(newest.id());
+        stored.setUpdatedAt(LocalDateTime.now());
+        summaryRepository.save(stored);
+        historyCache.summarized(client.getId(), senderPsid, new ConversationHistoryCache.Summary(summary, newest.timestamp(), newest.id()));
+        folded.increment();
+    }
+
+    private String summarize(String previousSummary, List<ConversationHistoryCache.Turn> turns) throws IOException {
+        StringBuilder prompt = new StringBuilder("Стисло підсумуй розмову магазину з клієнтом в Instagram для подальших відповідей. ")
+                .append("Збережи імена, товари, розміри, ціни, адреси, домовленості та відкриті питання; пропусти привітання. ")
+                .append("Пиши від третьої особи, не більше 8 речень.\n\n");
+        if (previousSummary != null && !previousSummary.isBlank()) {
+            prompt.append("Попередній підсумок:\n").append(previousSummary).append("\n\n");
+        }
+        prompt.append("Нові репліки:\n");
+        for (ConversationHistoryCache.Turn turn : turns) {
+            String text = turn.text().length() > MAX_TURN_CHARS ? turn.text().substring(0, MAX_TURN_CHARS) + "…" : turn.text();
+            prompt.append(turn.fromUser() ? "Клієнт: " : "Магазин: ").append(text).append('\n');
+        }
+
+        Part part = new Part();
+        part.setText(prompt.toString());
+        Content content = new Content();
+        content.setParts(List.of(part));
+        content.setRole("user");
+        GenerationConfig generationConfig = new GenerationConfig();
+        generationConfig.setMaxOutputTokens(maxOutputTokens);
+        RequestPayload payload = new RequestPayload();
+        payload.setContents(List.of(content));
+        payload.setGenerationConfig(generationConfig);
+
+        Request request = new Request.Builder()
+                .url(modelUrl + ":generateContent?key=" + apiKey)
+                .post(JsonRequestBody.of(gson, payload))
+                .build();
+        return downstreamLimits.call(DownstreamLimits.Downstream.GEMINI_CHAT, () -> {
+            try (Response response = resilience.execute(GeminiResilience.Endpoint.SUMMARIZE, httpClient, request)) {
+                if (!response.isSuccessful()) {
+                    throw new IOException("Unexpected code " + response + " | " + response.body().string());
+                }
+                ResponsePayload responsePayload = gson.fromJson(response.body().string(), ResponsePayload.class);
+                if (responsePayload == null || responsePayload.getCandidates() == null || responsePayload.getCandidates().isEmpty()
+                        || responsePayload.getCandidates().get(0).getContent() == null
+                        || responsePayload.getCandidates().get(0).getContent().getParts() == null
+                        || responsePayload.getCandidates().get(0).getContent().getParts().isEmpty()) {
+                    throw new IOException("Summary response without text");
+                }
+                String summary = responsePayload.getCandidates().get(0).getContent().getParts().get(0).getText();
+                if (summary == null || summary.isBlank()) {
+                    throw new IOException("Summary response without text");
+                }
+                return summary.strip();
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
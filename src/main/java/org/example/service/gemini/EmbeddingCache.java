@@ -0,0 +1,283 @@
+package org.example.service.gemini;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.example.database.entity.EmbeddingCacheEntry;
+import org.example.database.repository.EmbeddingCacheRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps generated embeddings so that the same text is embedded only once, such as the knowledge text
+ * of a catalog item that is saved again unchanged, or a re-uploaded FAQ file.
+ * <p>
+ * An embedding is stored under the model, the task type and the SHA-256 of the text after Unicode
+ * normalization (NFC), trimming and collapsing runs of whitespace. Lookups go to an in-memory tier of
+ * at most {@code embedding-cache.max-bytes}, least recently used entries evicted first, and on a miss
+ * to the {@code embedding_cache} table, which survives restarts and is shared by all instances.
+ * Entries not read from the table for {@code embedding-cache.durable.ttl-days} are deleted. Callers can
+ * keep embeddings that are unlikely to be needed again after a restart, such as those of customer
+ * queries, in memory only, so that they neither wait for nor fill the table.
+ * <p>
+ * The database tier is best effort: if it fails, the lookup counts as a miss and the text is embedded.
+ * Returned arrays are shared and must not be modified.
+ */
+@Component
+public class EmbeddingCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddingCache.class);
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    /** Rough per-entry cost of the key and map entry, for the memory estimate. */
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+    /**
+     * What an embedding is cached under.
+     *
+     * @param model       The model, as {@code models/...}.
+     * @param taskType    The task type the embedding was requested for.
+     * @param contentHash Hex SHA-256 of the normalized text.
+     */
+    public record Key(String model, String taskType, String contentHash) {
+    }
+
+    private final EmbeddingCacheRepository repository;
+    private final boolean enabled;
+    private final boolean durableEnabled;
+    private final long maxBytes;
+    private final long durableTtlDays;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Key, float[]> entries = new LinkedHashMap<>(1024, 0.75f, true);
+    private long totalBytes;
+    private final Counter memoryHits;
+    private final Counter memoryMisses;
+    private final Counter durableHits;
+    private final Counter durableMisses;
+    private final Counter savedBytes;
+
+    public EmbeddingCache(EmbeddingCacheRepository repository, MeterRegistry meterRegistry,
+                          @Value("${embedding-cache.enabled:true}") boolean enabled,
+                          @Value("${embedding-cache.max-bytes:67108864}") long maxBytes,
+                          @Value("${embedding-cache.durable.enabled:true}") boolean durableEnabled,
+                          @Value("${embedding-cache.durable.ttl-days:90}") long durableTtlDays) {
+        this.repository = repository;
+        this.enabled = enabled;
+        this.maxBytes = maxBytes;
+        this.durableEnabled = durableEnabled;
+        this.durableTtlDays = durableTtlDays;
+        this.memoryHits = lookupCounter(meterRegistry, "memory", "hit");
+        this.memoryMisses = lookupCounter(meterRegistry, "memory", "miss");
+        this.durableHits = lookupCounter(meterRegistry, "durable", "hit");
+        this.durableMisses = lookupCounter(meterRegistry, "durable", "miss");
+        this.savedBytes = Counter.builder("embedding.cache.saved")
+                .description("UTF-8 bytes of text that did not have to be sent for embedding")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        meterRegistry.gauge("embedding.cache.bytes", this, EmbeddingCache::estimatedBytes);
+    }
+
+    private static Counter lookupCounter(MeterRegistry meterRegistry, String tier, String result) {
+        return Counter.builder("embedding.cache.lookups")
+                .description("Embedding cache lookups by tier and outcome; the durable tier is asked only on a memory miss")
+                .tag("tier", tier)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return The key of the text's embedding.
+     */
+    public static Key key(String model, String taskType, String text) {
+        String normalized = WHITESPACE.matcher(Normalizer.normalize(text, Normalizer.Form.NFC).strip()).replaceAll(" ");
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(normalized.getBytes(StandardCharsets.UTF_8));
+            return new Key(model, taskType, HexFormat.of().formatHex(digest));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Looks up the embeddings of many texts with at most one database query per model and task type.
+     *
+     * @param texts The texts by key; their size is reported as saved on a hit.
+     * @return The cached embeddings by key; keys without one are missing.
+     */
+    public Map<Key, float[]> getAll(Map<Key, String> texts) {
+        return getAll(texts, true);
+    }
+
+    /**
+     * Looks up the embeddings of many texts.
+     *
+     * @param texts   The texts by key; their size is reported as saved on a hit.
+     * @param durable Whether to ask the database tier on a memory miss.
+     * @return The cached embeddings by key; keys without one are missing.
+     */
+    public Map<Key, float[]> getAll(Map<Key, String> texts, boolean durable) {
+        Map<Key, float[]> found = new HashMap<>();
+        if (!enabled || texts.isEmpty()) {
+            return found;
+        }
+        List<Key> missing = new ArrayList<>();
+        lock.lock();
+        try {
+            for (Key key : texts.keySet()) {
+                float[] embedding = entries.get(key);
+                if (embedding != null) {
+                    found.put(key, embedding);
+                } else {
+                    missing.add(key);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        memoryHits.increment(found.size());
+        memoryMisses.increment(missing.size());
+
+        if (durable && durableEnabled && !missing.isEmpty()) {
+            Map<Key, float[]> loaded = loadDurable(missing);
+            durableHits.increment(loaded.size());
+            durableMisses.increment(missing.size() - loaded.size());
+            putInMemory(loaded);
+            found.putAll(loaded);
+        }
+        found.keySet().forEach(key -> savedBytes.increment(texts.get(key).getBytes(StandardCharsets.UTF_8).length));
+        return found;
+    }
+
+    /**
+     * Stores newly generated embeddings in both tiers.
+     */
+    public void putAll(Map<Key, float[]> embeddings) {
+        putAll(embeddings, true);
+    }
+
+    /**
+     * Stores newly generated embeddings in memory and, if {@code durable}, in the database.
+     */
+    public void putAll(Map<Key, float[]> embeddings, boolean durable) {
+        if (!enabled || embeddings.isEmpty()) {
+            return;
+        }
+        putInMemory(embeddings);
+        if (!durable || !durableEnabled) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        List<EmbeddingCacheEntry> rows = new ArrayList<>(embeddings.size());
+        embeddings.forEach((key, embedding) -> {
+            EmbeddingCacheEntry row = new EmbeddingCacheEntry();
+            row.setModel(key.model());
+            row.setTaskType(key.taskType());
+            row.setContentHash(key.contentHash());
+            row.setEmbedding(embedding);
+            row.setCreatedAt(now);
+            row.setLastUsedAt(now);
+            rows.add(row);
+        });
+        try {
+            repository.insertAllIfAbsent(rows);
+        } catch (DataAccessException e) {
+            logger.warn("Не вдалося зберегти {} ембеддинг(ів) у кеш: {}", rows.size(), e.getMessage());
+        }
+    }
+
+    private Map<Key, float[]> loadDurable(List<Key> keys) {
+        Map<Key, float[]> loaded = new HashMap<>();
+        Map<Key, List<String>> hashesByModel = new HashMap<>();
+        for (Key key : keys) {
+            hashesByModel.computeIfAbsent(new Key(key.model(), key.taskType(), null), k -> new ArrayList<>()).add(key.contentHash());
+        }
+        try {
+            List<Long> ids = new ArrayList<>();
+            for (Map.Entry<Key, List<String>> group : hashesByModel.entrySet()) {
+                Key model = group.getKey();
+                for (EmbeddingCacheEntry row : repository.findByModelAndTaskTypeAndContentHashIn(model.model(), model.taskType(), group.getValue())) {
+                    loaded.put(new Key(row.getModel(), row.getTaskType(), row.getContentHash()), row.getEmbedding());
+                    ids.add(row.getId());
+                }
+            }
+            if (!ids.isEmpty()) {
+                repository.markUsed(ids, LocalDateTime.now());
+            }
+        } catch (DataAccessException e) {
+            logger.warn("Не вдалося прочитати ембеддинги з кешу: {}", e.getMessage());
+        }
+        return loaded;
+    }
+
+    private void putInMemory(Map<Key, float[]> embeddings) {
+        lock.lock();
+        try {
+            embeddings.forEach((key, embedding) -> {
+                float[] previous = entries.put(key, embedding);
+                if (previous != null) {
+                    totalBytes -= estimatedBytes(previous);
+                }
+                totalBytes += estimatedBytes(embedding);
+            });
+            Iterator<float[]> iterator = entries.values().iterator();
+            while (totalBytes > maxBytes && iterator.hasNext()) {
+                totalBytes -= estimatedBytes(iterator.next());
+                iterator.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long estimatedBytes(float[] embedding) {
+        return ENTRY_OVERHEAD_BYTES + 4L * embedding.length;
+    }
+
+    /**
+     * @return The estimated size of the in-memory tier.
+     */
+    public long estimatedBytes() {
+        lock.lock();
+        try {
+            return totalBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the database entries that have not been read for {@code embedding-cache.durable.ttl-days}.
+     */
+    @Scheduled(fixedDelayString = "${embedding-cache.durable.purge-interval-ms:21600000}",
+            initialDelayString = "${embedding-cache.durable.purge-interval-ms:21600000}")
+    public void purgeUnused() {
+        if (!enabled || !durableEnabled) {
+            return;
+        }
+        try {
+            int deleted = repository.deleteUnusedSince(LocalDateTime.now().minusDays(durableTtlDays));
+            if (deleted > 0) {
+                logger.info("Видалено {} застарілих ембеддинг(ів) з кешу.", deleted);
+            }
+        } catch (DataAccessException e) {
+            logger.warn("Не вдалося очистити кеш ембеддингів: {}", e.getMessage());
+        }
+    }
+}
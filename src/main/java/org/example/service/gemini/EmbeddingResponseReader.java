@@ -0,0 +1,370 @@
+package org.example.service.gemini;
+
+import okio.BufferedSource;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads the embeddings out of {@code :embedContent} and {@code :batchEmbedContents} responses straight
+ * from the response source into {@code float[]}, instead of building the body as a {@code String} and a
+ * Gson tree of boxed {@code Float}s first. Apart from the result arrays, a call allocates one 8 KiB
+ * read buffer.
+ * <p>
+ * Only the {@code values} arrays are decoded; every other member is skipped without being materialized.
+ * Numbers of up to 19 significant digits with a decimal exponent of at most 22, which covers everything
+ * the API sends, are converted exactly with one double operation; others go through
+ * {@link Double#parseDouble}. Either way the result is the same {@code (float) double} as Gson's.
+ */
+public final class EmbeddingResponseReader {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    private static final byte[] EMBEDDING = {'e', 'm', 'b', 'e', 'd', 'd', 'i', 'n', 'g'};
+    private static final byte[] EMBEDDINGS = {'e', 'm', 'b', 'e', 'd', 'd', 'i', 'n', 'g', 's'};
+    private static final byte[] VALUES = {'v', 'a', 'l', 'u', 'e', 's'};
+
+    private final BufferedSource source;
+    private final int expectedDimensions;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    /** Characters of the number being read, for the rare ones that need {@link Double#parseDouble}. */
+    private char[] number = new char[32];
+
+    private EmbeddingResponseReader(BufferedSource source, int expectedDimensions) {
+        this.source = source;
+        this.expectedDimensions = Math.max(expectedDimensions, 1);
+    }
+
+    /**
+     * Reads an {@code :embedContent} response, {@code {"embedding": {"values": [...]}}}.
+     *
+     * @param source             The response body.
+     * @param expectedDimensions The usual length of an embedding; arrays of this length are not copied.
+     * @return The embedding, or {@code null} if the response has none.
+     * @throws IOException if the body cannot be read or is not valid JSON.
+     */
+    public static float[] readEmbedding(BufferedSource source, int expectedDimensions) throws IOException {
+        EmbeddingResponseReader reader = new EmbeddingResponseReader(source, expectedDimensions);
+        if (reader.peek() != '{') {
+            return null;
+        }
+        float[] embedding = null;
+        reader.expect('{');
+        for (boolean first = true; reader.hasNextMember(first); first = false) {
+            if (reader.nextKeyIs(EMBEDDING) && reader.peek() == '{') {
+                embedding = reader.readValues();
+            } else {
+                reader.skipValue();
+            }
+        }
+        return embedding;
+    }
+
+    /**
+     * Reads a {@code :batchEmbedContents} response, {@code {"embeddings": [{"values": [...]}, ...]}}.
+     *
+     * @param source             The response body.
+     * @param expectedDimensions The usual length of an embedding; arrays of this length are not copied.
+     * @return The embeddings in response order, an element being {@code null} if it has no values, or
+     * {@code null} if the response has no embeddings.
+     * @throws IOException if the body cannot be read or is not valid JSON.
+     */
+    public static List<float[]> readEmbeddings(BufferedSource source, int expectedDimensions) throws IOException {
+        EmbeddingResponseReader reader = new EmbeddingResponseReader(source, expectedDimensions);
+        if (reader.peek() != '{') {
+            return null;
+        }
+        List<float[]> embeddings = null;
+        reader.expect('{');
+        for (boolean first = true; reader.hasNextMember(first); first = false) {
+            if (reader.nextKeyIs(EMBEDDINGS) && reader.peek() == '[') {
+                embeddings = new ArrayList<>();
+                reader.expect('[');
+                for (boolean firstElement = true; reader.hasNextElement(firstElement); firstElement = false) {
+                    embeddings.add(reader.peek() == '{' ? reader.readValues() : reader.skipValueAsNull());
+                }
+            } else {
+                reader.skipValue();
+            }
+        }
+        return embeddings;
+    }
+
+    /**
+     * Reads an object with a {@code values} member, such as {@code {"values": [0.1, -0.2]}}.
+     */
+    private float[] readValues() throws IOException {
+        float[] values = null;
+        expect('{');
+        for (boolean first = true; hasNextMember(first); first = false) {
+            if (nextKeyIs(VALUES) && peek() == '[') {
+                values = readFloats();
+            } else {
+                skipValue();
+            }
+        }
+        return values;
+    }
+
+    private float[] readFloats() throws IOException {
+        float[] values = new float[expectedDimensions];
+        int count = 0;
+        expect('[');
+        for (boolean first = true; hasNextElement(first); first = false) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[count++] = readFloat();
+        }
+        return count == values.length ? values : Arrays.copyOf(values, count);
+    }
+
+    private float readFloat() throws IOException {
+        int length = 0;
+        int c = peek();
+        boolean negative = c == '-';
+        if (negative) {
+            position++;
+            length = append(length, '-');
+        }
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean exact = true;
+        boolean anyDigit = false;
+
+        while (isDigit(c = peekRaw())) {
+            position++;
+            length = append(length, c);
+            anyDigit = true;
+            if (mantissa == 0 && c == '0') {
+                continue;
+            }
+            if (significantDigits < 19) {
+                mantissa = mantissa * 10 + (c - '0');
+                significantDigits++;
+            } else {
+                exponent++;
+                exact &= c == '0';
+            }
+        }
+        if (c == '.') {
+            position++;
+            length = append(length, c);
+            while (isDigit(c = peekRaw())) {
+                position++;
+                length = append(length, c);
+                anyDigit = true;
+                if (mantissa == 0 && c == '0') {
+                    exponent--;
+                } else if (significantDigits < 19) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    significantDigits++;
+                    exponent--;
+                } else {
+                    exact &= c == '0';
+                }
+            }
+        }
+        if (!anyDigit) {
+            throw new IOException("Malformed number in embedding response");
+        }
+        if (c == 'e' || c == 'E') {
+            position++;
+            length = append(length, c);
+            c = peekRaw();
+            boolean negativeExponent = c == '-';
+            if (c == '-' || c == '+') {
+                position++;
+                length = append(length, c);
+            }
+            int explicitExponent = 0;
+            boolean anyExponentDigit = false;
+            while (isDigit(c = peekRaw())) {
+                position++;
+                length = append(length, c);
+                anyExponentDigit = true;
+                explicitExponent = Math.min(explicitExponent * 10 + (c - '0'), 100_000);
+            }
+            if (!anyExponentDigit) {
+                throw new IOException("Malformed number in embedding response");
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+
+        double value;
+        if (mantissa == 0 && exact) {
+            value = 0;
+        } else if (exact && mantissa <= MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+            // Both operands are exact doubles, so the one rounding makes this the correctly rounded value
+            value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        } else {
+            return (float) Double.parseDouble(new String(number, 0, length));
+        }
+        return (float) (negative ? -value : value);
+    }
+
+    private int append(int length, int c) {
+        if (length == number.length) {
+            number = Arrays.copyOf(number, length * 2);
+        }
+        number[length] = (char) c;
+        return length + 1;
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Moves past the separator before the next member of an object, or the closing brace.
+     *
+     * @return Whether there is another member.
+     */
+    private boolean hasNextMember(boolean first) throws IOException {
+        if (peek() == '}') {
+            position++;
+            return false;
+        }
+        if (!first) {
+            expect(',');
+        }
+        return true;
+    }
+
+    private boolean hasNextElement(boolean first) throws IOException {
+        if (peek() == ']') {
+            position++;
+            return false;
+        }
+        if (!first) {
+            expect(',');
+        }
+        return true;
+    }
+
+    /**
+     * Reads a member name and the colon after it.
+     *
+     * @return Whether the name is the given ASCII key; escaped names never are.
+     */
+    private boolean nextKeyIs(byte[] key) throws IOException {
+        expect('"');
+        boolean matches = true;
+        int index = 0;
+        int c;
+        while ((c = read()) != '"') {
+            if (c == '\\') {
+                read();
+                matches = false;
+            } else {
+                matches &= index < key.length && key[index] == c;
+            }
+            index++;
+        }
+        expect(':');
+        return matches && index == key.length;
+    }
+
+    private float[] skipValueAsNull() throws IOException {
+        skipValue();
+        return null;
+    }
+
+    private void skipValue() throws IOException {
+        int c = peek();
+        if (c == '{') {
+            position++;
+            for (boolean first = true; hasNextMember(first); first = false) {
+                expect('"');
+                skipStringRest();
+                expect(':');
+                skipValue();
+            }
+        } else if (c == '[') {
+            position++;
+            for (boolean first = true; hasNextElement(first); first = false) {
+                skipValue();
+            }
+        } else if (c == '"') {
+            position++;
+            skipStringRest();
+        } else {
+            // A number, true, false or null
+            while ((c = peekRaw()) != -1 && c != ',' && c != '}' && c != ']' && !isWhitespace(c)) {
+                position++;
+            }
+        }
+    }
+
+    /**
+     * Skips the rest of a string whose opening quote has been read.
+     */
+    private void skipStringRest() throws IOException {
+        int c;
+        while ((c = read()) != '"') {
+            if (c == '\\') {
+                read();
+            }
+        }
+    }
+
+    private void expect(char expected) throws IOException {
+        int c = peek();
+        if (c != expected) {
+            throw new IOException("Expected '" + expected + "' in embedding response, found " + (c == -1 ? "end of input" : "'" + (char) c + "'"));
+        }
+        position++;
+    }
+
+    /**
+     * @return The next byte that is not whitespace, without consuming it.
+     * @throws EOFException at the end of the body.
+     */
+    private int peek() throws IOException {
+        int c;
+        while (isWhitespace(c = peekRaw())) {
+            position++;
+        }
+        if (c == -1) {
+            throw new EOFException("Embedding response ended early");
+        }
+        return c;
+    }
+
+    /**
+     * @return The next byte without consuming it, or -1 at the end of the body.
+     */
+    private int peekRaw() throws IOException {
+        if (position == limit) {
+            limit = source.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position] & 0xFF;
+    }
+
+    private int read() throws IOException {
+        int c = peekRaw();
+        if (c == -1) {
+            throw new EOFException("Embedding response ended early");
+        }
+        position++;
+        return c;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+}
@@ -1,52 +1,352 @@
 package org.example.service.gemini;
 
 import com.google.gson.Gson;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import okhttp3.*;
+import okio.BufferedSource;
+import org.example.config.WebhookExecutorConfig;
 import org.example.database.entity.Client;
-import org.example.database.entity.Interaction;
-import org.example.database.repository.InteractionRepository;
 import org.example.model.Content;
 import org.example.model.Part;
 import org.example.model.request.RequestPayload;
 import org.example.model.response.ResponsePayload;
+import org.example.service.ConversationHistoryCache;
+import org.example.service.DownstreamLimits;
+import org.example.service.OutboundHttpClients;
+import org.example.service.OverloadController;
 import org.example.service.RAGService;
+import org.example.service.SemanticResponseCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 @Service
 public class GeminiChatService {
-    private static final String API_URL_TEMPLATE = "https://generativelanguage.googleapis.com/v1beta/models/gemini-2.5-flash:generateContent?key=";
+    private static final Logger logger = LoggerFactory.getLogger(GeminiChatService.class);
+    private static final int RAG_TOP_K = 3;
+    private static final String FALLBACK_REPLY = "Вибачте, сталася помилка. Не вдалося отримати відповідь.";
 
     @Value("${gemini.api.key}")
     private String apiKey;
-    private final InteractionRepository interactionRepository;
+
+    @Value("${gemini.streaming.enabled:false}")
+    private boolean streamingEnabled;
+
+    @Value("${history.token-budget:2000}")
+    private int defaultHistoryTokenBudget = 2000;
+
+    @Value("${history.chars-per-token:3.0}")
+    private double charsPerToken = 3.0;
+
+    /** How long loading the history and retrieving the knowledge base context may take together. */
+    @Value("${gemini.prepare.timeout-ms:8000}")
+    private long prepareTimeoutMs = 8000;
+    private final ConversationHistoryCache historyCache;
     private final RAGService ragService;
+    private final DownstreamLimits downstreamLimits;
+    private final OverloadController overloadController;
+    private final GeminiContextCache contextCache;
+    private final SemanticResponseCache responseCache;
+    private final ConversationSummarizer summarizer;
+    private final GeminiResilience resilience;
+    private final ModelRouter modelRouter;
+    private final MeterRegistry meterRegistry;
+    private final DistributionSummary verbatimHistoryTokens;
+    private final DistributionSummary summaryTokens;
+    private final DistributionSummary droppedHistoryTokens;
+    private final Timer historyStage;
+    private final Timer ragStage;
+    private final Timer prepareTotal;
+    /** Runs the knowledge base retrieval next to the history loading. */
+    private final AsyncTaskExecutor ragExecutor;
 
     private final OkHttpClient httpClient;
     private final Gson gson = new Gson();
 
     @Autowired
-    public GeminiChatService(InteractionRepository interactionRepository, RAGService ragService) {
-        this.interactionRepository = interactionRepository;
+    public GeminiChatService(ConversationHistoryCache historyCache, RAGService ragService,
+                             DownstreamLimits downstreamLimits, OverloadController overloadController,
+                             GeminiContextCache contextCache, SemanticResponseCache responseCache,
+                             ConversationSummarizer summarizer, GeminiResilience resilience, ModelRouter modelRouter,
+                             OutboundHttpClients httpClients, MeterRegistry meterRegistry,
+                             @Qualifier(WebhookExecutorConfig.OUTBOUND_EXECUTOR) AsyncTaskExecutor ragExecutor) {
+        this.historyCache = historyCache;
         this.ragService = ragService;
+        this.downstreamLimits = downstreamLimits;
+        this.overloadController = overloadController;
+        this.contextCache = contextCache;
+        this.responseCache = responseCache;
+        this.summarizer = summarizer;
+        this.resilience = resilience;
+        this.modelRouter = modelRouter;
+        this.meterRegistry = meterRegistry;
+        this.ragExecutor = ragExecutor;
+        this.verbatimHistoryTokens = historyTokens(meterRegistry, "verbatim");
+        this.summaryTokens = historyTokens(meterRegistry, "summary");
+        this.droppedHistoryTokens = historyTokens(meterRegistry, "dropped");
+        this.historyStage = prepareStage(meterRegistry, "history");
+        this.ragStage = prepareStage(meterRegistry, "rag");
+        this.prepareTotal = prepareStage(meterRegistry, "total");
 
-        this.httpClient = new OkHttpClient.Builder()
-                .connectTimeout(60, TimeUnit.SECONDS)
-                .writeTimeout(60, TimeUnit.SECONDS)
-                .readTimeout(60, TimeUnit.SECONDS)
-                .build();
+        this.httpClient = httpClients.forDownstream(DownstreamLimits.Downstream.GEMINI_CHAT);
+    }
+
+    private static Timer prepareStage(MeterRegistry meterRegistry, String stage) {
+        return Timer.builder("gemini.prepare.stage")
+                .description("Time to prepare a request by stage; history and rag run concurrently, total is the critical path")
+                .tag("stage", stage)
+                .register(meterRegistry);
+    }
+
+    private static DistributionSummary historyTokens(MeterRegistry meterRegistry, String part) {
+        return DistributionSummary.builder("gemini.history.tokens")
+                .description("Estimated tokens of conversation history per request: turns sent verbatim, the summary, turns left out")
+                .tag("part", part)
+                .register(meterRegistry);
     }
 
     public String sendMessage(Client client, String userPsid, String userMessage) throws IOException {
-        List<Content> conversationHistory = buildConversationHistory(client, userPsid);
-        String ragContext = ragService.findRelevantContext(client, userMessage, 3);
+        PreparedRequest prepared = prepare(client, userPsid, userMessage);
+        if (prepared.cachedAnswer() != null) {
+            return prepared.cachedAnswer();
+        }
+
+        long startedAt = System.nanoTime();
+        try {
+            String reply = withInlinePromptFallback(client, prepared.payload(),
+                    attempt -> callGemini(toRequest(client, attempt, prepared.route(), ":generateContent?key="), attempt, prepared.route()));
+            remember(prepared, reply);
+            return reply;
+        } finally {
+            recordLatency(prepared.route(), startedAt);
+        }
+    }
+
+    /**
+     * @return {@code true} if replies should be generated with {@link #streamMessage}.
+     */
+    public boolean isStreamingEnabled() {
+        return streamingEnabled;
+    }
+
+    /**
+     * Generates a reply with the streaming {@code :streamGenerateContent} endpoint (server-sent events),
+     * handing each piece of text to {@code onText} as soon as it arrives.
+     *
+     * @param client      The client whose bot answers.
+     * @param userPsid    The Instagram user's page-scoped ID.
+     * @param userMessage The user's message.
+     * @param onText      Receives the text deltas in order.
+     * @return The full reply text.
+     * @throws IOException if the API call fails; text already passed to {@code onText} stays delivered.
+     */
+    public String streamMessage(Client client, String userPsid, String userMessage, Consumer<String> onText) throws IOException {
+        PreparedRequest prepared = prepare(client, userPsid, userMessage);
+        if (prepared.cachedAnswer() != null) {
+            onText.accept(prepared.cachedAnswer());
+            return prepared.cachedAnswer();
+        }
+
+        long startedAt = System.nanoTime();
+        try {
+            String fullReply = withInlinePromptFallback(client, prepared.payload(), attempt -> downstreamLimits.call(DownstreamLimits.Downstream.GEMINI_CHAT, () -> {
+                try (Response response = resilience.execute(GeminiResilience.Endpoint.STREAM_GENERATE, httpClient,
+                        toRequest(client, attempt, prepared.route(), ":streamGenerateContent?alt=sse&key="))) {
+                    checkSuccessful(response, attempt);
+                    StringBuilder reply = new StringBuilder();
+                    // Every chunk carries the running totals, the last one the final counts
+                    ResponsePayload.UsageMetadata[] usage = new ResponsePayload.UsageMetadata[1];
+                    readServerSentEvents(response.body().source(), data -> {
+                        ResponsePayload chunk = gson.fromJson(data, ResponsePayload.class);
+                        if (chunk != null && chunk.getUsageMetadata() != null) {
+                            usage[0] = chunk.getUsageMetadata();
+                        }
+                        String text = extractText(chunk);
+                        if (text != null && !text.isEmpty()) {
+                            reply.append(text);
+                            onText.accept(text);
+                        }
+                    });
+                    modelRouter.recordUsage(prepared.route(), usage[0]);
+                    if (reply.isEmpty()) {
+                        onText.accept(FALLBACK_REPLY);
+                        return FALLBACK_REPLY;
+                    }
+                    return reply.toString();
+                }
+            }));
+            remember(prepared, fullReply);
+            return fullReply;
+        } finally {
+            recordLatency(prepared.route(), startedAt);
+        }
+    }
+
+    private void recordLatency(ModelRouter.Route route, long startedAt) {
+        Duration latency = Duration.ofNanos(System.nanoTime() - startedAt);
+        overloadController.recordLatency(latency);
+        modelRouter.recordLatency(route, latency);
+    }
+
+    /**
+     * A request ready to be sent, or the answer to a similar question if one could be reused.
+     *
+     * @param payload      The request, or {@code null} if the cached answer is used.
+     * @param cacheKey     The key to store the generated answer under, or {@code null} if it must not be cached.
+     * @param cachedAnswer The reused answer, or {@code null}.
+     * @param route        The model to generate the answer with.
+     */
+    private record PreparedRequest(RequestPayload payload, SemanticResponseCache.Key cacheKey, String cachedAnswer,
+                                   ModelRouter.Route route) {
+    }
+
+    @FunctionalInterface
+    private interface GeminiCall {
+        String execute(RequestPayload payload) throws IOException;
+    }
+
+    /**
+     * Thrown when Gemini refuses the cached content a request refers to.
+     */
+    private static final class CachedContentRejectedException extends IOException {
+        private CachedContentRejectedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Reads {@code data:} fields of server-sent events; an event ends at a blank line.
+     */
+    private static void readServerSentEvents(BufferedSource source, Consumer<String> onData) throws IOException {
+        StringBuilder data = new StringBuilder();
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            if (line.isEmpty()) {
+                if (!data.isEmpty()) {
+                    onData.accept(data.toString());
+                    data.setLength(0);
+                }
+            } else if (line.startsWith("data:")) {
+                if (!data.isEmpty()) {
+                    data.append('\n');
+                }
+                data.append(line.substring(line.startsWith("data: ") ? 6 : 5));
+            }
+        }
+        if (!data.isEmpty()) {
+            onData.accept(data.toString());
+        }
+    }
+
+    /**
+     * Sends the payload and, if Gemini rejects its cached system prompt, forgets the cache and sends the
+     * prompt inline instead. The rejection arrives as an error status before any text, so nothing is delivered twice.
+     */
+    private String withInlinePromptFallback(Client client, RequestPayload payload, GeminiCall call) throws IOException {
+        try {
+            return call.execute(payload);
+        } catch (CachedContentRejectedException e) {
+            contextCache.invalidate(client, payload.getCachedContent());
+            payload.setCachedContent(null);
+            payload.setSystemInstruction(GeminiContextCache.systemInstruction(client));
+            return call.execute(payload);
+        }
+    }
+
+    private Request toRequest(Client client, RequestPayload payload, ModelRouter.Route route, String endpoint) {
+        return new Request.Builder()
+                .url(modelRouter.modelUrl(route) + endpoint + apiKey)
+                .post(JsonRequestBody.of(gson, payload,
+                        payload.getSystemInstruction() != null ? contextCache.encodedSystemInstruction(client) : null))
+                .build();
+    }
+
+    private static void checkSuccessful(Response response, RequestPayload payload) throws IOException {
+        if (response.isSuccessful()) {
+            return;
+        }
+        String body = response.body().string();
+        String message = "Unexpected code " + response + " | " + body;
+        if (payload.getCachedContent() != null && rejectsCachedContent(response.code(), body)) {
+            throw new CachedContentRejectedException(message);
+        }
+        throw new IOException(message);
+    }
+
+    /**
+     * An expired or deleted cache is reported as 404, a cache the key may not use as 403, and a cache of
+     * another model as 400 naming the cached content. Other 400s are about the request itself and would
+     * fail the same way with the prompt inline.
+     */
+    private static boolean rejectsCachedContent(int code, String body) {
+        if (code == 403 || code == 404) {
+            return true;
+        }
+        String lowerCaseBody = body.toLowerCase(Locale.ROOT);
+        return code == 400 && (lowerCaseBody.contains("cachedcontent") || lowerCaseBody.contains("cached content"));
+    }
+
+    private PreparedRequest prepare(Client client, String userPsid, String userMessage) throws IOException {
+        long startedAt = System.nanoTime();
+        // Under overload the enrichments are dropped one by one, cheapest savings first
+        OverloadController.Level level = overloadController.levelForReply();
+        boolean fullRag = !level.atLeast(OverloadController.Level.REDUCED_RAG);
+        Future<RAGService.RetrievedContext> rag = null;
+        if (!level.atLeast(OverloadController.Level.NO_RAG)) {
+            int ragTopK = fullRag ? RAG_TOP_K : overloadController.reducedRagTopK();
+            try {
+                rag = ragExecutor.submit(() -> ragStage.recordCallable(() -> ragService.retrieveContext(client, userMessage, ragTopK)));
+            } catch (RejectedExecutionException e) {
+                // A saturated outbound executor is overload as well, so the reply goes without the context
+                ragDegraded("rejected");
+                logger.warn("Пошук у базі знань для клієнта '{}' пропущено, виконавець перевантажений", client.getClientName());
+            }
+        }
+
+        ConversationHistoryCache.History history;
+        try {
+            history = historyStage.record(() -> historyCache.history(client.getId(), userPsid));
+        } catch (RuntimeException e) {
+            // Without the history there is no reply, so the retrieval is not needed either
+            if (rag != null) {
+                rag.cancel(true);
+            }
+            throw e;
+        }
+        RAGService.RetrievedContext retrieved = rag != null ? awaitContext(rag, client, startedAt) : null;
+        prepareTotal.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+
+        List<ConversationHistoryCache.Turn> turns = history.turns();
+        String ragContext = retrieved != null ? retrieved.context() : "";
+        SemanticResponseCache.Key cacheKey = null;
+        // Only answers generated with the full context are reused or stored
+        if (fullRag && retrieved != null && responseCache.appliesTo(turns)) {
+            cacheKey = new SemanticResponseCache.Key(client.getId(), retrieved.queryEmbedding(), retrieved.fingerprint());
+            Optional<String> cachedAnswer = responseCache.find(cacheKey);
+            if (cachedAnswer.isPresent()) {
+                return new PreparedRequest(null, cacheKey, cachedAnswer.get(), null);
+            }
+        }
+        List<Content> conversationHistory = buildConversationHistory(compact(client, userPsid, history), history.summary(),
+                !level.atLeast(OverloadController.Level.NO_INACTIVITY_HINT));
 
         String finalUserMessage = userMessage;
         if (!ragContext.isEmpty()) {
@@ -62,71 +362,177 @@ public class GeminiChatService {
 
         RequestPayload payload = new RequestPayload();
         payload.setContents(conversationHistory);
+        ModelRouter.Route route = modelRouter.route(client, userMessage, retrieved == null || retrieved.relevant());
+        // The static prompt lives in a per-client cache of the full model; only the per-conversation parts travel with each call
+        Optional<String> cachedContent = route == ModelRouter.Route.FULL ? contextCache.cachedContentFor(client) : Optional.empty();
+        if (cachedContent.isPresent()) {
+            payload.setCachedContent(cachedContent.get());
+        } else {
+            payload.setSystemInstruction(GeminiContextCache.systemInstruction(client));
+        }
+        return new PreparedRequest(payload, cacheKey, null, route);
+    }
+
+    /**
+     * Waits for the knowledge base context until the preparation deadline. A failed or late retrieval
+     * is cancelled and the reply is generated without the context rather than not at all.
+     *
+     * @return The retrieved context, or {@code null}.
+     */
+    private RAGService.RetrievedContext awaitContext(Future<RAGService.RetrievedContext> rag, Client client, long startedAt)
+            throws InterruptedIOException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(prepareTimeoutMs) - (System.nanoTime() - startedAt);
+        try {
+            return rag.get(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // The embedding call itself ends at its call timeout; the interrupt stops the rest of the retrieval
+            rag.cancel(true);
+            ragDegraded("timeout");
+            logger.warn("Пошук у базі знань для клієнта '{}' не вклався в {} мс, відповідь без контексту", client.getClientName(), prepareTimeoutMs);
+            return null;
+        } catch (ExecutionException e) {
+            ragDegraded("error");
+            logger.warn("Пошук у базі знань для клієнта '{}' не вдався, відповідь без контексту: {}", client.getClientName(), e.getCause().getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            rag.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while retrieving the knowledge base context");
+        }
+    }
 
-        String jsonPayload = gson.toJson(payload);
-        RequestBody body = RequestBody.create(jsonPayload, MediaType.get("application/json; charset=utf-8"));
+    private void ragDegraded(String reason) {
+        meterRegistry.counter("gemini.prepare.degraded", "stage", "rag", "reason", reason).increment();
+    }
 
-        Request request = new Request.Builder()
-                .url(API_URL_TEMPLATE + apiKey)
-                .post(body)
-                .build();
+    private void remember(PreparedRequest prepared, String reply) {
+        if (prepared.cacheKey() != null && !FALLBACK_REPLY.equals(reply)) {
+            responseCache.put(prepared.cacheKey(), reply);
+        }
+    }
 
-        try (Response response = httpClient.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                throw new IOException("Unexpected code " + response + " | " + response.body().string());
+    private String callGemini(Request request, RequestPayload payload, ModelRouter.Route route) throws IOException {
+        return downstreamLimits.call(DownstreamLimits.Downstream.GEMINI_CHAT, () -> {
+            try (Response response = resilience.execute(GeminiResilience.Endpoint.GENERATE, httpClient, request)) {
+                checkSuccessful(response, payload);
+
+                String responseBody = response.body().string();
+                ResponsePayload responsePayload = gson.fromJson(responseBody, ResponsePayload.class);
+                modelRouter.recordUsage(route, responsePayload != null ? responsePayload.getUsageMetadata() : null);
+                String text = extractText(responsePayload);
+                return text != null ? text : FALLBACK_REPLY;
             }
+        });
+    }
+
+    private static String extractText(ResponsePayload responsePayload) {
+        if (responsePayload == null || responsePayload.getCandidates() == null || responsePayload.getCandidates().isEmpty()) {
+            return null;
+        }
+        Content content = responsePayload.getCandidates().get(0).getContent();
+        if (content == null || content.getParts() == null || content.getParts().isEmpty()) {
+            return null;
+        }
+        return content.getParts().get(0).getText();
+    }
 
-            String responseBody = response.body().string();
-            ResponsePayload responsePayload = gson.fromJson(responseBody, ResponsePayload.class);
+    /**
+     * Picks the newest turns that fit into the client's history token budget, after the summary of
+     * older turns. Turns the summary covers already are never sent verbatim. Turns that fall out of the
+     * budget are handed to the summarizer; so are the turns about to be pushed out of the cached window,
+     * which are still sent this time if they fit.
+     *
+     * @return The turns to send verbatim, oldest first.
+     */
+    private List<ConversationHistoryCache.Turn> compact(Client client, String userPsid, ConversationHistoryCache.History history) {
+        int budget = client.getHistoryTokenBudget() != null ? client.getHistoryTokenBudget() : defaultHistoryTokenBudget;
+        ConversationHistoryCache.Summary summary = history.summary();
+        int summaryCost = summary != null ? estimateTokens(summary.text()) : 0;
+        List<ConversationHistoryCache.Turn> turns = summary == null ? history.turns() : history.turns().stream()
+                .filter(turn -> !summary.covers(turn))
+                .toList();
 
-            if (responsePayload.getCandidates() != null && !responsePayload.getCandidates().isEmpty()) {
-                return responsePayload.getCandidates().get(0).getContent().getParts().get(0).getText();
+        int first = 0;
+        int verbatimCost = 0;
+        for (int i = turns.size() - 1; i >= 0; i--) {
+            int cost = estimateTokens(turns.get(i).text());
+            // The messages being answered are always sent
+            if (!turns.get(i).pending() && summaryCost + verbatimCost + cost > budget) {
+                first = i + 1;
+                break;
             }
-            return "Вибачте, сталася помилка. Не вдалося отримати відповідь.";
+            verbatimCost += cost;
+        }
+
+        // A reply and the next message push the two oldest turns out of the cached window, covered ones first
+        int leaving = Math.max(0, turns.size() - (ConversationHistoryCache.HISTORY_SIZE - 2));
+        List<ConversationHistoryCache.Turn> toFold = turns.subList(0, Math.max(first, leaving));
+        int droppedCost = turns.subList(0, first).stream()
+                .mapToInt(turn -> estimateTokens(turn.text()))
+                .sum();
+        verbatimHistoryTokens.record(verbatimCost);
+        summaryTokens.record(summaryCost);
+        droppedHistoryTokens.record(droppedCost);
+        if (!toFold.isEmpty()) {
+            summarizer.foldAsync(client, userPsid, toFold);
         }
+        return turns.subList(first, turns.size());
     }
 
-    private List<Content> buildConversationHistory(Client client, String userPsid) {
-        List<Interaction> interactions = interactionRepository.findTop10ByClientIdAndSenderPsidOrderByTimestampDesc(client.getId(), userPsid);
-        LocalDateTime lastUserMessageTime = interactions.stream()
-                .filter(interaction -> "USER".equalsIgnoreCase(interaction.getAuthor()))
-                .map(Interaction::getTimestamp)
-                .findFirst()
-                .orElse(null);
+    /**
+     * A local estimate; exact counts are only known from the response's usage metadata.
+     */
+    private int estimateTokens(String text) {
+        return text == null ? 0 : (int) Math.ceil(text.length() / charsPerToken);
+    }
 
-        List<Content> history = new ArrayList<>();
-        history.add(createSystemPrompt(client, lastUserMessageTime));
+    private List<Content> buildConversationHistory(List<ConversationHistoryCache.Turn> turns, ConversationHistoryCache.Summary summary,
+                                                   boolean withInactivityHint) {
+        LocalDateTime lastUserMessageTime = null;
+        for (int i = turns.size() - 1; withInactivityHint && i >= 0; i--) {
+            if (turns.get(i).fromUser()) {
+                lastUserMessageTime = turns.get(i).timestamp();
+                break;
+            }
+        }
 
-        Collections.reverse(interactions);
+        List<Content> history = new ArrayList<>();
+        String inactivityHint = buildInactivityHint(lastUserMessageTime);
+        if (inactivityHint != null) {
+            history.add(createUserNote(inactivityHint));
+        }
+        if (summary != null) {
+            history.add(createUserNote("Підсумок попередньої розмови: " + summary.text()));
+        }
 
-        for (Interaction interaction : interactions) {
+        for (ConversationHistoryCache.Turn turn : turns) {
             Part part = new Part();
-            part.setText(interaction.getText());
+            part.setText(turn.text());
             Content content = new Content();
             content.setParts(List.of(part));
-            content.setRole("USER".equalsIgnoreCase(interaction.getAuthor()) ? "user" : "model");
+            content.setRole(turn.fromUser() ? "user" : "model");
             history.add(content);
         }
         return history;
     }
 
-    private Content createSystemPrompt(Client client, LocalDateTime lastUserMessageTime) {
-        Part systemPart = new Part();
-        systemPart.setText(buildSystemPromptWithInactivityInfo(client.getAiSystemPrompt(), lastUserMessageTime));
-        Content systemContent = new Content();
-        systemContent.setParts(List.of(systemPart));
-        systemContent.setRole("user"); // System prompts are passed as 'user' role in the first turn
-        return systemContent;
+    private Content createUserNote(String note) {
+        Part notePart = new Part();
+        notePart.setText(note);
+        Content noteContent = new Content();
+        noteContent.setParts(List.of(notePart));
+        noteContent.setRole("user"); // Changes with every message, so it stays out of the cached system instruction
+        return noteContent;
     }
 
-    private String buildSystemPromptWithInactivityInfo(String basePrompt, LocalDateTime lastUserMessageTime) {
+    private String buildInactivityHint(LocalDateTime lastUserMessageTime) {
         if (lastUserMessageTime == null) {
-            return basePrompt;
+            return null;
         }
 
         Duration sinceLastUserMessage = Duration.between(lastUserMessageTime, LocalDateTime.now());
         if (sinceLastUserMessage.isNegative()) {
-            return basePrompt;
+            return null;
         }
 
         long days = sinceLastUserMessage.toDays();
@@ -158,6 +564,6 @@ public class GeminiChatService {
 
         inactivityDescription.append(". Якщо минуло 12 або більше годин, ввічливо привітайся знову. Якщо менше 12 годин — продовжуй спілкування без повторного привітання, якщо для контексту це не потрібно.");
 
-        return basePrompt + "\n\n" + inactivityDescription;
+        return inactivityDescription.toString();
     }
 }
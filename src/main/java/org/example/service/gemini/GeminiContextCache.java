@@ -0,0 +1,335 @@
+package org.example.service.gemini;
+
+import com.google.gson.Gson;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import okhttp3.*;
+import org.example.config.WebhookExecutorConfig;
+import org.example.database.entity.Client;
+import org.example.model.Content;
+import org.example.model.Part;
+import org.example.model.request.CachedContentRequest;
+import org.example.model.response.CachedContentResponse;
+import org.example.service.DownstreamLimits;
+import org.example.service.OutboundHttpClients;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Keeps each client's system prompt registered with the Gemini {@code cachedContents} API.
+ * <p>
+ * A cache is created on the first reply for a client and prompt version and referenced by name
+ * afterwards, so the prompt is no longer sent (and billed at the full input rate) with every call.
+ * A cache that is used within {@code gemini.context-cache.renew-before-seconds} of its expiry gets
+ * its TTL extended; a cache of an idle client simply expires. When the prompt changes its hash no
+ * longer matches, so a new cache is created and the old one deleted. If a cache cannot be created
+ * (Gemini rejects prompts below the model's minimum cacheable size) the caller sends the prompt
+ * inline, and creation is not retried for {@code gemini.context-cache.retry-after-seconds}.
+ * <p>
+ * Caches are created, renewed and deleted in the background, at most one call per client at a time,
+ * so no reply waits for the {@code cachedContents} API: replies send the prompt inline until the
+ * cache exists, and keep referring to a cache while it is being renewed.
+ */
+@Component
+public class GeminiContextCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(GeminiContextCache.class);
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    /** A cache this close to its expiry is not referenced any more, it could expire before the call arrives. */
+    private static final Duration EXPIRY_MARGIN = Duration.ofSeconds(30);
+
+    private record EncodedPrompt(String prompt, String json) {
+    }
+
+    /**
+     * The cache of one client.
+     *
+     * @param promptHash  Hash of the model and prompt the cache was created for.
+     * @param name        The cache name, or {@code null} if creation failed.
+     * @param expireTime  When the cache expires, or when creation may be retried if it failed.
+     */
+    private record Entry(String promptHash, String name, Instant expireTime) {
+
+        private boolean matches(String hash) {
+            return promptHash.equals(hash);
+        }
+    }
+
+    private final boolean enabled;
+    private final String apiKey;
+    private final String apiBaseUrl;
+    private final String model;
+    private final Duration ttl;
+    private final Duration renewBefore;
+    private final Duration retryAfter;
+    private final DownstreamLimits downstreamLimits;
+    private final OkHttpClient httpClient;
+    private final Gson gson = new Gson();
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+    /** Clients whose cache is being created, renewed or replaced. */
+    private final Set<Long> refreshing = ConcurrentHashMap.newKeySet();
+    private final Executor refreshExecutor;
+    private final Map<Long, EncodedPrompt> encodedPrompts = new ConcurrentHashMap<>();
+    private final Counter hits;
+    private final Counter created;
+    private final Counter fallbacks;
+    private final Counter invalidations;
+
+    public GeminiContextCache(DownstreamLimits downstreamLimits,
+                              OutboundHttpClients httpClients,
+                              MeterRegistry meterRegistry,
+                              @Qualifier(WebhookExecutorConfig.OUTBOUND_EXECUTOR) Executor refreshExecutor,
+                              @Value("${gemini.context-cache.enabled:true}") boolean enabled,
+                              @Value("${gemini.api.key}") String apiKey,
+                              @Value("${gemini.api.model-url:https://generativelanguage.googleapis.com/v1beta/models/gemini-2.5-flash}") String modelUrl,
+                              @Value("${gemini.context-cache.ttl-seconds:3600}") long ttlSeconds,
+                              @Value("${gemini.context-cache.renew-before-seconds:600}") long renewBeforeSeconds,
+                              @Value("${gemini.context-cache.retry-after-seconds:600}") long retryAfterSeconds) {
+        int modelsPath = modelUrl.lastIndexOf("/models/");
+        if (modelsPath < 0) {
+            throw new IllegalArgumentException("gemini.api.model-url must end with /models/<model>: " + modelUrl);
+        }
+        this.downstreamLimits = downstreamLimits;
+        this.refreshExecutor = refreshExecutor;
+        this.enabled = enabled;
+        this.apiKey = apiKey;
+        this.apiBaseUrl = modelUrl.substring(0, modelsPath);
+        this.model = modelUrl.substring(modelsPath + 1);
+        this.ttl = Duration.ofSeconds(ttlSeconds);
+        this.renewBefore = Duration.ofSeconds(renewBeforeSeconds);
+        this.retryAfter = Duration.ofSeconds(retryAfterSeconds);
+        this.httpClient = httpClients.forDownstream(DownstreamLimits.Downstream.GEMINI_CHAT);
+        this.hits = lookupCounter(meterRegistry, "hit");
+        this.created = lookupCounter(meterRegistry, "created");
+        this.fallbacks = lookupCounter(meterRegistry, "fallback");
+        this.invalidations = Counter.builder("gemini.context.cache.invalidations")
+                .description("Cached system prompts rejected by Gemini and dropped")
+                .register(meterRegistry);
+    }
+
+    private static Counter lookupCounter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("gemini.context.cache.lookups")
+                .description("System prompt lookups by outcome; hit / total is the cache hit rate")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Returns the name of the cache holding the client's current system prompt, and starts creating or
+     * renewing it in the background if needed.
+     *
+     * @return The cached content name, or empty if the prompt has to be sent inline.
+     */
+    public Optional<String> cachedContentFor(Client client) {
+        String prompt = client.getAiSystemPrompt();
+        if (!enabled || prompt == null || prompt.isBlank()) {
+            fallbacks.increment();
+            return Optional.empty();
+        }
+        String hash = hash(prompt);
+        Entry entry = entries.get(client.getId());
+        if (isFresh(entry, hash)) {
+            hits.increment();
+            return Optional.of(entry.name());
+        }
+        if (isFailed(entry, hash)) {
+            fallbacks.increment();
+            return Optional.empty();
+        }
+
+        Entry current = entry;
+        if (current != null && current.matches(hash) && current.name() != null
+                && Instant.now().plus(EXPIRY_MARGIN).isBefore(current.expireTime())) {
+            // Still usable if the renewal fails; the next lookup tries again
+            refresh(client.getId(), () -> renew(client.getId(), current));
+            hits.increment();
+            return Optional.of(current.name());
+        }
+        refresh(client.getId(), () -> {
+            if (current != null && current.name() != null && !current.matches(hash)) {
+                delete(client.getId(), current.name());
+            }
+            create(client.getId(), prompt, hash);
+        });
+        fallbacks.increment();
+        return Optional.empty();
+    }
+
+    /**
+     * Runs the cache call in the background unless one is running for the client already. If the outbound
+     * executor is saturated the call is skipped; the next lookup tries again.
+     */
+    private void refresh(Long clientId, Runnable call) {
+        if (!refreshing.add(clientId)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    call.run();
+                } finally {
+                    refreshing.remove(clientId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(clientId);
+        }
+    }
+
+    /**
+     * Forgets the client's cache after Gemini rejected it, e.g. because it expired or was deleted elsewhere.
+     * The next lookup creates a new one.
+     */
+    public void invalidate(Client client, String name) {
+        Entry entry = entries.get(client.getId());
+        if (entry != null && name.equals(entry.name()) && entries.remove(client.getId(), entry)) {
+            invalidations.increment();
+            logger.warn("Gemini відхилив кеш системного промпту {} для клієнта {}", name, client.getId());
+        }
+    }
+
+    /**
+     * @return The client's system prompt as a {@code systemInstruction}, for sending it inline.
+     */
+    static Content systemInstruction(Client client) {
+        return systemInstruction(client.getAiSystemPrompt());
+    }
+
+    private static Content systemInstruction(String prompt) {
+        Part part = new Part();
+        part.setText(prompt);
+        Content content = new Content();
+        content.setParts(List.of(part));
+        return content;
+    }
+
+    /**
+     * @return The client's system prompt as a {@code systemInstruction} in JSON, encoded once per prompt version.
+     */
+    public String encodedSystemInstruction(Client client) {
+        String prompt = client.getAiSystemPrompt();
+        EncodedPrompt encoded = encodedPrompts.get(client.getId());
+        if (encoded == null || !encoded.prompt().equals(prompt)) {
+            encoded = new EncodedPrompt(prompt, JsonRequestBody.encode(gson, systemInstruction(client)));
+            encodedPrompts.put(client.getId(), encoded);
+        }
+        return encoded.json();
+    }
+
+    private boolean isFresh(Entry entry, String hash) {
+        return entry != null && entry.name() != null && entry.matches(hash)
+                && Instant.now().plus(renewBefore).isBefore(entry.expireTime());
+    }
+
+    private static boolean isFailed(Entry entry, String hash) {
+        return entry != null && entry.name() == null && entry.matches(hash) && Instant.now().isBefore(entry.expireTime());
+    }
+
+    private void create(Long clientId, String prompt, String hash) {
+        CachedContentRequest payload = new CachedContentRequest();
+        payload.setModel(model);
+        payload.setDisplayName("client-" + clientId + "-" + hash.substring(0, 12));
+        payload.setSystemInstruction(systemInstruction(prompt));
+        payload.setTtl(ttl.toSeconds() + "s");
+        Request request = new Request.Builder()
+                .url(apiBaseUrl + "/cachedContents?key=" + apiKey)
+                .post(RequestBody.create(gson.toJson(payload), JSON))
+                .build();
+        try {
+            CachedContentResponse response = execute(request);
+            if (response == null || response.getName() == null) {
+                throw new IOException("Cached content without a name");
+            }
+            entries.put(clientId, new Entry(hash, response.getName(), expireTime(response)));
+            created.increment();
+            logger.info("Створено кеш системного промпту {} для клієнта {}", response.getName(), clientId);
+        } catch (IOException e) {
+            entries.put(clientId, new Entry(hash, null, Instant.now().plus(retryAfter)));
+            logger.warn("Не вдалося закешувати системний промпт клієнта {} ({} символів), він надсилатиметься в кожному запиті: {}",
+                    clientId, prompt.length(), e.getMessage());
+        }
+    }
+
+    private void renew(Long clientId, Entry entry) {
+        CachedContentRequest payload = new CachedContentRequest();
+        payload.setTtl(ttl.toSeconds() + "s");
+        Request request = new Request.Builder()
+                .url(apiBaseUrl + "/" + entry.name() + "?updateMask=ttl&key=" + apiKey)
+                .patch(RequestBody.create(gson.toJson(payload), JSON))
+                .build();
+        try {
+            Entry renewed = new Entry(entry.promptHash(), entry.name(), expireTime(execute(request)));
+            // Unless the cache was invalidated or replaced meanwhile
+            entries.replace(clientId, entry, renewed);
+        } catch (IOException e) {
+            logger.warn("Не вдалося продовжити кеш системного промпту {} для клієнта {}: {}", entry.name(), clientId, e.getMessage());
+        }
+    }
+
+    private void delete(Long clientId, String name) {
+        Request request = new Request.Builder()
+                .url(apiBaseUrl + "/" + name + "?key=" + apiKey)
+                .delete()
+                .build();
+        try {
+            execute(request);
+            logger.info("Видалено застарілий кеш системного промпту {} для клієнта {}", name, clientId);
+        } catch (IOException e) {
+            // The cache expires on its own once its TTL runs out
+            logger.warn("Не вдалося видалити застарілий кеш {} для клієнта {}: {}", name, clientId, e.getMessage());
+        }
+    }
+
+    private CachedContentResponse execute(Request request) throws IOException {
+        return downstreamLimits.call(DownstreamLimits.Downstream.GEMINI_CHAT, () -> {
+            try (Response response = httpClient.newCall(request).execute()) {
+                String body = response.body() != null ? response.body().string() : "";
+                if (!response.isSuccessful()) {
+                    throw new IOException("Unexpected code " + response.code() + " | " + body);
+                }
+                return gson.fromJson(body, CachedContentResponse.class);
+            }
+        });
+    }
+
+    private Instant expireTime(CachedContentResponse response) {
+        if (response != null && response.getExpireTime() != null) {
+            try {
+                return Instant.parse(response.getExpireTime());
+            } catch (DateTimeParseException e) {
+                logger.debug("Невідомий формат expireTime: {}", response.getExpireTime());
+            }
+        }
+        return Instant.now().plus(ttl);
+    }
+
+    private String hash(String prompt) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(model.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            return HexFormat.of().formatHex(digest.digest(prompt.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
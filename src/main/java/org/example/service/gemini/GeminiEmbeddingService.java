@@ -2,38 +2,88 @@ package org.example.service.gemini;
 
 import com.google.gson.Gson;
 import okhttp3.*;
+import org.example.config.WebhookExecutorConfig;
 import org.example.model.Content;
+import org.example.model.request.BatchEmbeddingRequest;
 import org.example.model.request.EmbeddingRequest;
-import org.example.model.response.EmbeddingResponse;
 import org.example.model.Part;
+import org.example.service.DownstreamLimits;
+import org.example.service.EmbeddingDimensions;
+import org.example.service.OutboundHttpClients;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Service for generating vector embeddings using the Google Gemini API.
+ * <p>
+ * Many texts at once, such as the paragraphs of an uploaded file, are embedded with
+ * {@code :batchEmbedContents} in batches of {@code gemini.embedding.batch-size}, of which at most
+ * {@code gemini.embedding.batch-parallelism} are in flight per call.
+ * <p>
+ * Every text is looked up in the {@link EmbeddingCache} first; only texts without a cached embedding
+ * are sent, each distinct text once.
+ * <p>
+ * Responses are decoded by {@link EmbeddingResponseReader} while they are received.
  */
 @Service
 public class GeminiEmbeddingService {
 
-    private static final String API_URL_TEMPLATE = "https://generativelanguage.googleapis.com/v1beta/models/gemini-embedding-001:embedContent?key=%s";
+    /** No task type is sent, so the model's default applies; part of the cache key. */
+    private static final String TASK_TYPE = "TASK_TYPE_UNSPECIFIED";
 
     @Value("${gemini.api.key}")
     private String apiKey;
 
     private final OkHttpClient client;
+    private final OkHttpClient batchClient;
     private final Gson gson = new Gson();
+    private final DownstreamLimits downstreamLimits;
+    private final GeminiResilience resilience;
+    private final EmbeddingCache embeddingCache;
+    private final String modelUrl;
+    private final String modelName;
+    private final int batchSize;
+    private final int batchParallelism;
+    /** Runs the batch workers of {@link #getEmbeddings} next to the calling thread. */
+    private final AsyncTaskExecutor batchExecutor;
 
-    public GeminiEmbeddingService() {
-        this.client = new OkHttpClient.Builder()
-                .connectTimeout(60, TimeUnit.SECONDS)
-                .writeTimeout(60, TimeUnit.SECONDS)
-                .readTimeout(60, TimeUnit.SECONDS)
+    public GeminiEmbeddingService(DownstreamLimits downstreamLimits, GeminiResilience resilience, EmbeddingCache embeddingCache,
+                                  OutboundHttpClients httpClients,
+                                  @Qualifier(WebhookExecutorConfig.OUTBOUND_EXECUTOR) AsyncTaskExecutor batchExecutor,
+                                  @Value("${gemini.embedding.model-url:https://generativelanguage.googleapis.com/v1beta/models/gemini-embedding-001}") String modelUrl,
+                                  @Value("${gemini.embedding.batch-size:100}") int batchSize,
+                                  @Value("${gemini.embedding.batch-parallelism:4}") int batchParallelism,
+                                  @Value("${gemini.embedding.batch-call-timeout-ms:60000}") long batchCallTimeoutMs) {
+        this.downstreamLimits = downstreamLimits;
+        this.resilience = resilience;
+        this.embeddingCache = embeddingCache;
+        this.batchExecutor = batchExecutor;
+        this.client = httpClients.forDownstream(DownstreamLimits.Downstream.GEMINI_EMBEDDING);
+        // A batch takes far longer than the single query embedding the downstream's call timeout is sized for
+        this.batchClient = client.newBuilder()
+                .callTimeout(batchCallTimeoutMs, TimeUnit.MILLISECONDS)
                 .build();
+        this.modelUrl = modelUrl;
+        this.modelName = modelUrl.substring(modelUrl.lastIndexOf("models/"));
+        this.batchSize = batchSize;
+        this.batchParallelism = batchParallelism;
     }
 
     /**
@@ -44,40 +94,186 @@ public class GeminiEmbeddingService {
      * @throws IOException if the API call fails.
      */
     public float[] getEmbedding(String text) throws IOException {
-        Part part = new Part();
-        part.setText(text);
+        return getEmbedding(text, true);
+    }
 
-        Content content = new Content();
-        content.setParts(List.of(part));
+    /**
+     * Generates the embedding of a customer query. A query is rarely sent again after a restart, so its
+     * embedding is cached in memory only and the reply never waits for the {@code embedding_cache} table.
+     *
+     * @param text The query.
+     * @return A float array representing the vector embedding.
+     * @throws IOException if the API call fails.
+     */
+    public float[] getQueryEmbedding(String text) throws IOException {
+        return getEmbedding(text, false);
+    }
 
-        EmbeddingRequest payload = new EmbeddingRequest();
-        payload.setContent(content);
+    private float[] getEmbedding(String text, boolean durable) throws IOException {
+        EmbeddingCache.Key key = EmbeddingCache.key(modelName, TASK_TYPE, text);
+        float[] cached = embeddingCache.getAll(Map.of(key, text), durable).get(key);
+        if (cached != null) {
+            return cached;
+        }
+        float[] embedding = embed(text);
+        embeddingCache.putAll(Map.of(key, embedding), durable);
+        return embedding;
+    }
 
-        String jsonPayload = gson.toJson(payload);
-        RequestBody body = RequestBody.create(jsonPayload, MediaType.get("application/json; charset=utf-8"));
+    private float[] embed(String text) throws IOException {
+        EmbeddingRequest payload = new EmbeddingRequest();
+        payload.setContent(content(text));
 
         Request request = new Request.Builder()
-                .url(String.format(API_URL_TEMPLATE, apiKey))
-                .post(body)
+                .url(modelUrl + ":embedContent?key=" + apiKey)
+                .post(JsonRequestBody.of(gson, payload))
                 .build();
 
-        try (Response response = client.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                throw new IOException("Unexpected API response code " + response + " | " + Objects.requireNonNull(response.body()).string());
+        return downstreamLimits.call(DownstreamLimits.Downstream.GEMINI_EMBEDDING, () -> {
+            try (Response response = resilience.execute(GeminiResilience.Endpoint.EMBED, client, request)) {
+                if (!response.isSuccessful()) {
+                    throw new IOException("Unexpected API response code " + response + " | " + Objects.requireNonNull(response.body()).string());
+                }
+
+                float[] embedding = EmbeddingResponseReader.readEmbedding(Objects.requireNonNull(response.body()).source(), EmbeddingDimensions.FULL);
+                if (embedding != null) {
+                    return embedding;
+                }
+                throw new IOException("Failed to parse embedding from API response.");
             }
+        });
+    }
 
-            String responseBody = Objects.requireNonNull(response.body()).string();
-            EmbeddingResponse embeddingResponse = gson.fromJson(responseBody, EmbeddingResponse.class);
+    /**
+     * Generates vector embeddings for many texts with batch calls.
+     *
+     * @param texts The input texts to be embedded.
+     * @return The embeddings, in the order of the texts.
+     * @throws IOException if any batch call fails; the other batches are cancelled.
+     */
+    public List<float[]> getEmbeddings(List<String> texts) throws IOException {
+        if (texts.isEmpty()) {
+            return List.of();
+        }
+        List<EmbeddingCache.Key> keys = new ArrayList<>(texts.size());
+        Map<EmbeddingCache.Key, String> textsByKey = new LinkedHashMap<>();
+        for (String text : texts) {
+            EmbeddingCache.Key key = EmbeddingCache.key(modelName, TASK_TYPE, text);
+            keys.add(key);
+            textsByKey.putIfAbsent(key, text);
+        }
+        Map<EmbeddingCache.Key, float[]> embeddings = new HashMap<>(embeddingCache.getAll(textsByKey));
 
-            if (embeddingResponse != null && embeddingResponse.getEmbedding() != null && embeddingResponse.getEmbedding().getValues() != null) {
-                List<Float> values = embeddingResponse.getEmbedding().getValues();
-                float[] result = new float[values.size()];
-                for (int i = 0; i < values.size(); i++) {
-                    result[i] = values.get(i);
-                }
-                return result;
+        List<EmbeddingCache.Key> missing = textsByKey.keySet().stream()
+                .filter(key -> !embeddings.containsKey(key))
+                .toList();
+        if (!missing.isEmpty()) {
+            List<float[]> generated = embedAll(missing.stream().map(textsByKey::get).toList());
+            Map<EmbeddingCache.Key, float[]> fresh = new HashMap<>();
+            for (int i = 0; i < missing.size(); i++) {
+                fresh.put(missing.get(i), generated.get(i));
             }
-            throw new IOException("Failed to parse embedding from API response.");
+            embeddingCache.putAll(fresh);
+            embeddings.putAll(fresh);
         }
+        return keys.stream().map(embeddings::get).toList();
+    }
+
+    private List<float[]> embedAll(List<String> texts) throws IOException {
+        float[][] embeddings = new float[texts.size()][];
+        int batches = (texts.size() + batchSize - 1) / batchSize;
+        if (batches <= 1) {
+            embedBatch(texts, 0, embeddings);
+            return Arrays.asList(embeddings);
+        }
+
+        // A fixed number of workers, this thread among them, take the next batch as they finish, so one slow
+        // batch does not hold up the others
+        AtomicInteger nextBatch = new AtomicInteger();
+        List<Future<Void>> helpers = new ArrayList<>();
+        try {
+            for (int i = 1; i < Math.min(batchParallelism, batches); i++) {
+                helpers.add(batchExecutor.submit(() -> {
+                    takeBatches(texts, batches, nextBatch, embeddings);
+                    return null;
+                }));
+            }
+        } catch (RejectedExecutionException e) {
+            // The helpers submitted so far and this thread share the batches
+        }
+        try {
+            takeBatches(texts, batches, nextBatch, embeddings);
+            for (Future<Void> helper : helpers) {
+                helper.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("Embedding batch failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for embedding batches");
+        } finally {
+            helpers.forEach(helper -> helper.cancel(true));
+        }
+        return Arrays.asList(embeddings);
+    }
+
+    private void takeBatches(List<String> texts, int batches, AtomicInteger nextBatch, float[][] embeddings) throws IOException {
+        int batch;
+        while ((batch = nextBatch.getAndIncrement()) < batches && !Thread.currentThread().isInterrupted()) {
+            int from = batch * batchSize;
+            try {
+                embedBatch(texts.subList(from, Math.min(from + batchSize, texts.size())), from, embeddings);
+            } catch (IOException | RuntimeException e) {
+                // The call fails anyway, so the other workers take no further batches
+                nextBatch.set(batches);
+                throw e;
+            }
+        }
+    }
+
+    private void embedBatch(List<String> texts, int offset, float[][] embeddings) throws IOException {
+        List<EmbeddingRequest> requests = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            EmbeddingRequest embeddingRequest = new EmbeddingRequest();
+            embeddingRequest.setModel(modelName);
+            embeddingRequest.setContent(content(text));
+            requests.add(embeddingRequest);
+        }
+        BatchEmbeddingRequest payload = new BatchEmbeddingRequest();
+        payload.setRequests(requests);
+
+        Request request = new Request.Builder()
+                .url(modelUrl + ":batchEmbedContents?key=" + apiKey)
+                .post(JsonRequestBody.of(gson, payload))
+                .build();
+
+        downstreamLimits.call(DownstreamLimits.Downstream.GEMINI_EMBEDDING, () -> {
+            try (Response response = resilience.execute(GeminiResilience.Endpoint.BATCH_EMBED, batchClient, request)) {
+                if (!response.isSuccessful()) {
+                    throw new IOException("Unexpected API response code " + response + " | " + Objects.requireNonNull(response.body()).string());
+                }
+
+                List<float[]> batch = EmbeddingResponseReader.readEmbeddings(Objects.requireNonNull(response.body()).source(), EmbeddingDimensions.FULL);
+                if (batch == null || batch.size() != texts.size() || batch.contains(null)) {
+                    throw new IOException("Failed to parse batch embeddings from API response.");
+                }
+                for (int i = 0; i < texts.size(); i++) {
+                    embeddings[offset + i] = batch.get(i);
+                }
+                return null;
+            }
+        });
+    }
+
+    private static Content content(String text) {
+        Part part = new Part();
+        part.setText(text);
+
+        Content content = new Content();
+        content.setParts(List.of(part));
+        return content;
     }
-}
\ No newline at end of file
+}
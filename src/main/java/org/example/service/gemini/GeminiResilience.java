@@ -0,0 +1,612 @@
+package org.example.service.gemini;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.example.config.WebhookExecutorConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Retries, circuit breaking, adaptive timeouts and hedging for calls to the Gemini API.
+ * <p>
+ * A call that fails with a connection error or a 408, 429 or 5xx status is retried up to
+ * {@code gemini.resilience.max-attempts} times with exponential backoff and full jitter; a
+ * {@code Retry-After} header sets the minimum wait, and one above {@code gemini.resilience.max-retry-after-ms}
+ * ends the retries. A retry is only made if it can still complete within {@code gemini.resilience.max-elapsed-ms},
+ * judged by the endpoint's p95 latency. Other responses are returned to the caller unchanged.
+ * <p>
+ * Every endpoint has a circuit breaker over its last {@code circuit.window-size} attempts: once at least
+ * {@code circuit.min-calls} were made and {@code circuit.failure-rate} of them failed, calls are rejected
+ * without reaching Gemini for {@code circuit.open-ms}, after which a single trial call decides whether
+ * the circuit closes again. Client errors (4xx other than 408 and 429) do not count as failures.
+ * <p>
+ * Once an endpoint has {@code timeout.min-samples} latencies (time to response headers) the read timeout
+ * of each attempt is {@code timeout.multiplier} times their p99, at least {@code timeout.min-ms} and at
+ * most the client's configured read timeout. For a streamed reply that timeout only bounds the wait for the
+ * headers; the body arrives as it is generated, so its reads get {@code timeout.stream-read-ms} instead. With {@code hedge.enabled} a single embedding call that has not
+ * answered within the endpoint's p95 is sent a second time and the first response wins; at most
+ * {@code hedge.max-ratio} of the calls are hedged. Chat calls are never hedged, they are billed per call.
+ */
+@Component
+public class GeminiResilience {
+
+    private static final Logger logger = LoggerFactory.getLogger(GeminiResilience.class);
+    private static final int LATENCY_WINDOW = 256;
+
+    /**
+     * A Gemini endpoint with its own circuit breaker and latency statistics.
+     */
+    public enum Endpoint {
+        GENERATE("generate"),
+        STREAM_GENERATE("stream-generate"),
+        /** Summaries of older conversation turns, kept apart so that their latency does not shape reply timeouts. */
+        SUMMARIZE("summarize"),
+        EMBED("embed"),
+        BATCH_EMBED("batch-embed");
+
+        private final String tag;
+
+        Endpoint(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    /**
+     * Thrown when a call is rejected because the endpoint's circuit is open.
+     */
+    public static final class CircuitOpenException extends IOException {
+        private CircuitOpenException(Endpoint endpoint) {
+            super("Circuit for Gemini " + endpoint.tag + " is open");
+        }
+    }
+
+    private enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+
+    private final int maxAttempts;
+    private final long backoffBaseMs;
+    private final long backoffMaxMs;
+    private final long maxRetryAfterMs;
+    private final long maxElapsedNanos;
+    private final int circuitWindowSize;
+    private final int circuitMinCalls;
+    private final double circuitFailureRate;
+    private final long circuitOpenNanos;
+    private final double timeoutMultiplier;
+    private final long minTimeoutMs;
+    private final int minLatencySamples;
+    private final long streamReadTimeoutMs;
+    private final boolean hedgeEnabled;
+    private final long hedgeMinDelayMs;
+    private final double hedgeMaxRatio;
+    private final Map<Endpoint, EndpointState> endpoints = new EnumMap<>(Endpoint.class);
+    /** Runs the attempts of hedged calls and of streamed calls waiting for their headers. */
+    private final Executor attemptExecutor;
+
+    public GeminiResilience(MeterRegistry meterRegistry,
+                            @Qualifier(WebhookExecutorConfig.OUTBOUND_EXECUTOR) Executor attemptExecutor,
+                            @Value("${gemini.resilience.max-attempts:3}") int maxAttempts,
+                            @Value("${gemini.resilience.backoff-base-ms:200}") long backoffBaseMs,
+                            @Value("${gemini.resilience.backoff-max-ms:5000}") long backoffMaxMs,
+                            @Value("${gemini.resilience.max-retry-after-ms:10000}") long maxRetryAfterMs,
+                            @Value("${gemini.resilience.max-elapsed-ms:45000}") long maxElapsedMs,
+                            @Value("${gemini.resilience.circuit.window-size:20}") int circuitWindowSize,
+                            @Value("${gemini.resilience.circuit.min-calls:10}") int circuitMinCalls,
+                            @Value("${gemini.resilience.circuit.failure-rate:0.5}") double circuitFailureRate,
+                            @Value("${gemini.resilience.circuit.open-ms:30000}") long circuitOpenMs,
+                            @Value("${gemini.resilience.timeout.multiplier:3.0}") double timeoutMultiplier,
+                            @Value("${gemini.resilience.timeout.min-ms:2000}") long minTimeoutMs,
+                            @Value("${gemini.resilience.timeout.min-samples:20}") int minLatencySamples,
+                            @Value("${gemini.resilience.timeout.stream-read-ms:30000}") long streamReadTimeoutMs,
+                            @Value("${gemini.resilience.hedge.enabled:false}") boolean hedgeEnabled,
+                            @Value("${gemini.resilience.hedge.min-delay-ms:50}") long hedgeMinDelayMs,
+                            @Value("${gemini.resilience.hedge.max-ratio:0.1}") double hedgeMaxRatio) {
+        this.attemptExecutor = attemptExecutor;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffBaseMs = backoffBaseMs;
+        this.backoffMaxMs = backoffMaxMs;
+        this.maxRetryAfterMs = maxRetryAfterMs;
+        this.maxElapsedNanos = Duration.ofMillis(maxElapsedMs).toNanos();
+        this.circuitWindowSize = Math.max(1, circuitWindowSize);
+        this.circuitMinCalls = Math.min(Math.max(1, circuitMinCalls), this.circuitWindowSize);
+        this.circuitFailureRate = circuitFailureRate;
+        this.circuitOpenNanos = Duration.ofMillis(circuitOpenMs).toNanos();
+        this.timeoutMultiplier = timeoutMultiplier;
+        this.minTimeoutMs = minTimeoutMs;
+        this.minLatencySamples = Math.max(1, minLatencySamples);
+        this.streamReadTimeoutMs = streamReadTimeoutMs;
+        this.hedgeEnabled = hedgeEnabled;
+        this.hedgeMinDelayMs = hedgeMinDelayMs;
+        this.hedgeMaxRatio = hedgeMaxRatio;
+        for (Endpoint endpoint : Endpoint.values()) {
+            endpoints.put(endpoint, new EndpointState(meterRegistry, endpoint));
+        }
+    }
+
+    /**
+     * Executes the request, retrying it while it fails with a connection error or a retryable status.
+     *
+     * @param endpoint The endpoint the request goes to.
+     * @param client   The client to send it with.
+     * @param request  The request; its body must be replayable.
+     * @return The response, successful or not; the caller closes it.
+     * @throws IOException if every attempt failed without a response, or the circuit is open.
+     */
+    public Response execute(Endpoint endpoint, OkHttpClient client, Request request) throws IOException {
+        EndpointState state = endpoints.get(endpoint);
+        long startedAt = System.nanoTime();
+        for (int attempt = 1; ; attempt++) {
+            state.acquire();
+            Response response = null;
+            IOException failure = null;
+            long attemptStartedAt = System.nanoTime();
+            try {
+                response = attempt(endpoint, state, client, request);
+            } catch (IOException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                failure = e;
+            } finally {
+                if (response == null && failure == null) {
+                    // Interrupted or failed unexpectedly, which says nothing about Gemini: another call may be the trial
+                    state.abandon();
+                }
+            }
+
+            if (response != null && !isRetryable(response.code())) {
+                state.record(false);
+                if (response.isSuccessful()) {
+                    state.recordLatency(System.nanoTime() - attemptStartedAt);
+                }
+                return response;
+            }
+            state.record(true);
+
+            long delayMs = retryDelayMs(attempt, response);
+            if (attempt >= maxAttempts || delayMs < 0 || !fitsDeadline(state, startedAt, delayMs)) {
+                if (response != null) {
+                    return response;
+                }
+                throw failure;
+            }
+            state.retries.increment();
+            logger.debug("Повтор запиту до Gemini {} через {} мс: {}", endpoint.tag, delayMs,
+                    response != null ? "HTTP " + response.code() : failure.getMessage());
+            if (response != null) {
+                response.close();
+            }
+            sleep(delayMs);
+        }
+    }
+
+    private Response attempt(Endpoint endpoint, EndpointState state, OkHttpClient client, Request request) throws IOException {
+        long timeoutMs = adaptiveTimeoutMs(client, state);
+        if (endpoint == Endpoint.STREAM_GENERATE) {
+            // The gaps between chunks follow the generation, so the adaptive timeout only bounds the wait for the headers
+            Call call = client.newBuilder().readTimeout(streamReadTimeoutMs, TimeUnit.MILLISECONDS).build().newCall(request);
+            return timeoutMs < 0 ? call.execute() : withHeadersTimeout(call, timeoutMs);
+        }
+        if (timeoutMs >= 0) {
+            client = client.newBuilder().readTimeout(timeoutMs, TimeUnit.MILLISECONDS).build();
+        }
+        long hedgeDelayMs = hedgeEnabled && endpoint == Endpoint.EMBED ? state.percentileMillis(0.95) : -1;
+        state.calls.incrementAndGet();
+        if (hedgeDelayMs < 0 || state.hedgesSent.get() + 1 > hedgeMaxRatio * state.calls.get()) {
+            return client.newCall(request).execute();
+        }
+        return hedged(state, client, request, Math.max(hedgeMinDelayMs, hedgeDelayMs));
+    }
+
+    /**
+     * Sends the request and cancels it if the response headers do not arrive within the timeout.
+     */
+    private Response withHeadersTimeout(Call call, long timeoutMs) throws IOException {
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        try {
+            attemptExecutor.execute(() -> {
+                try {
+                    Response response = call.execute();
+                    if (!result.complete(response)) {
+                        response.close();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // No thread to wait on while the executor is saturated; the stream read timeout bounds the headers instead
+            return call.execute();
+        }
+        try {
+            return result.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            SocketTimeoutException timeout = new SocketTimeoutException("No response headers from Gemini within " + timeoutMs + " ms");
+            if (result.completeExceptionally(timeout)) {
+                call.cancel();
+                throw timeout;
+            }
+            return awaitCompleted(result);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            call.cancel();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for Gemini");
+        }
+    }
+
+    private static Response awaitCompleted(CompletableFuture<Response> result) throws IOException {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Sends the request and, if no response arrived within the delay, a second copy; the first response wins.
+     */
+    private Response hedged(EndpointState state, OkHttpClient client, Request request, long delayMs) throws IOException {
+        HedgedCall hedged = new HedgedCall();
+        try {
+            hedged.launch(client.newCall(request));
+        } catch (RejectedExecutionException e) {
+            // No thread to wait on while the executor is saturated, so the call goes out without a hedge
+            return client.newCall(request).execute();
+        }
+        try {
+            try {
+                return hedged.result.get(delayMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // Counted before the check, so that the first copy failing meanwhile does not end the call without it
+                hedged.outstanding.incrementAndGet();
+                if (hedged.result.isDone()) {
+                    hedged.finish(null);
+                } else {
+                    try {
+                        hedged.send(client.newCall(request));
+                        state.hedgesSent.incrementAndGet();
+                        state.hedges.increment();
+                    } catch (RejectedExecutionException rejected) {
+                        hedged.finish(null);
+                    }
+                }
+                return hedged.result.get();
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            hedged.cancelAll();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for Gemini");
+        }
+    }
+
+    private final class HedgedCall {
+        private final CompletableFuture<Response> result = new CompletableFuture<>();
+        private final List<Call> calls = new CopyOnWriteArrayList<>();
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile IOException failure;
+
+        private void launch(Call call) {
+            outstanding.incrementAndGet();
+            send(call);
+        }
+
+        /**
+         * Sends a copy already counted in {@code outstanding}.
+         */
+        private void send(Call call) {
+            calls.add(call);
+            attemptExecutor.execute(() -> {
+                IOException failure = null;
+                try {
+                    Response response = call.execute();
+                    if (result.complete(response)) {
+                        calls.stream().filter(other -> other != call).forEach(Call::cancel);
+                    } else {
+                        response.close();
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                } catch (RuntimeException e) {
+                    failure = new IOException(e);
+                } finally {
+                    finish(failure);
+                }
+            });
+        }
+
+        /**
+         * Ends one copy, or a hedge that was not sent; once none is left and no response arrived, the call fails
+         * with the last failure.
+         */
+        private void finish(IOException failure) {
+            if (failure != null) {
+                this.failure = failure;
+            }
+            // The other copy may still answer
+            if (outstanding.decrementAndGet() == 0 && !result.isDone()) {
+                result.completeExceptionally(this.failure != null ? this.failure : new IOException("Gemini call ended without a response"));
+            }
+        }
+
+        private void cancelAll() {
+            calls.forEach(Call::cancel);
+        }
+    }
+
+    /**
+     * @return The read timeout derived from the endpoint's latency, or -1 with too few samples.
+     */
+    private long adaptiveTimeoutMs(OkHttpClient client, EndpointState state) {
+        long p99 = state.percentileMillis(0.99);
+        if (p99 < 0) {
+            return -1;
+        }
+        long timeoutMs = Math.max(minTimeoutMs, (long) (p99 * timeoutMultiplier));
+        if (client.readTimeoutMillis() > 0) {
+            timeoutMs = Math.min(timeoutMs, client.readTimeoutMillis());
+        }
+        state.adaptiveTimeoutMs.set(timeoutMs);
+        return timeoutMs;
+    }
+
+    private static boolean isRetryable(int code) {
+        return code == 408 || code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+    }
+
+    /**
+     * @return How long to wait before the next attempt, or -1 if the server asked for a longer pause than allowed.
+     */
+    private long retryDelayMs(int attempt, Response response) {
+        long backoffMs = (long) Math.min(backoffMaxMs, backoffBaseMs * Math.pow(2, attempt - 1));
+        long jitteredMs = backoffMs > 0 ? ThreadLocalRandom.current().nextLong(backoffMs + 1) : 0;
+        long retryAfterMs = response != null ? retryAfterMs(response.header("Retry-After")) : 0;
+        if (retryAfterMs > maxRetryAfterMs) {
+            return -1;
+        }
+        return Math.max(jitteredMs, retryAfterMs);
+    }
+
+    private static long retryAfterMs(String retryAfter) {
+        if (retryAfter == null || retryAfter.isBlank()) {
+            return 0;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            try {
+                ZonedDateTime at = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                return Math.max(0, Duration.between(ZonedDateTime.now(at.getZone()), at).toMillis());
+            } catch (DateTimeParseException ignored) {
+                return 0;
+            }
+        }
+    }
+
+    private boolean fitsDeadline(EndpointState state, long startedAt, long delayMs) {
+        long expectedMs = Math.max(0, state.percentileMillis(0.95));
+        return System.nanoTime() - startedAt + TimeUnit.MILLISECONDS.toNanos(delayMs + expectedMs) <= maxElapsedNanos;
+    }
+
+    private static void sleep(long delayMs) throws InterruptedIOException {
+        try {
+            Thread.sleep(delayMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry");
+        }
+    }
+
+    /**
+     * The circuit breaker and latency statistics of one endpoint.
+     */
+    private final class EndpointState {
+        private final Endpoint endpoint;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final boolean[] outcomes = new boolean[circuitWindowSize];
+        private int recorded;
+        private int next;
+        private int failures;
+        private State state = State.CLOSED;
+        private long openedAt;
+        private boolean trialInFlight;
+
+        private final long[] latencies = new long[LATENCY_WINDOW];
+        private int latencyCount;
+        private int latencyNext;
+        private long[] sortedLatencies;
+
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong hedgesSent = new AtomicLong();
+        private final AtomicLong adaptiveTimeoutMs = new AtomicLong();
+        private final Counter retries;
+        private final Counter rejections;
+        private final Counter hedges;
+
+        private EndpointState(MeterRegistry meterRegistry, Endpoint endpoint) {
+            this.endpoint = endpoint;
+            this.retries = Counter.builder("gemini.resilience.retries")
+                    .description("Gemini calls sent again after a connection error or a retryable status")
+                    .tag("endpoint", endpoint.tag)
+                    .register(meterRegistry);
+            this.rejections = Counter.builder("gemini.resilience.circuit.rejections")
+                    .description("Gemini calls rejected because the circuit was open")
+                    .tag("endpoint", endpoint.tag)
+                    .register(meterRegistry);
+            this.hedges = Counter.builder("gemini.resilience.hedges")
+                    .description("Second copies sent for calls slower than the endpoint's p95")
+                    .tag("endpoint", endpoint.tag)
+                    .register(meterRegistry);
+            Gauge.builder("gemini.resilience.circuit.state", this, EndpointState::stateValue)
+                    .description("0 closed, 1 half-open, 2 open")
+                    .tag("endpoint", endpoint.tag)
+                    .register(meterRegistry);
+            Gauge.builder("gemini.resilience.timeout", adaptiveTimeoutMs, AtomicLong::get)
+                    .description("Read timeout derived from the observed latency, 0 until enough samples exist")
+                    .tag("endpoint", endpoint.tag)
+                    .baseUnit("milliseconds")
+                    .register(meterRegistry);
+        }
+
+        private void acquire() throws CircuitOpenException {
+            lock.lock();
+            try {
+                if (state == State.OPEN) {
+                    if (System.nanoTime() - openedAt < circuitOpenNanos) {
+                        rejections.increment();
+                        throw new CircuitOpenException(endpoint);
+                    }
+                    state = State.HALF_OPEN;
+                    trialInFlight = false;
+                }
+                if (state == State.HALF_OPEN) {
+                    if (trialInFlight) {
+                        rejections.increment();
+                        throw new CircuitOpenException(endpoint);
+                    }
+                    trialInFlight = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void record(boolean failure) {
+            lock.lock();
+            try {
+                switch (state) {
+                    case HALF_OPEN -> {
+                        trialInFlight = false;
+                        if (failure) {
+                            open();
+                        } else {
+                            state = State.CLOSED;
+                            logger.info("Gemini {} знову відповідає, запити відновлено", endpoint.tag);
+                        }
+                    }
+                    case CLOSED -> {
+                        if (recorded == outcomes.length && outcomes[next]) {
+                            failures--;
+                        }
+                        outcomes[next] = failure;
+                        next = (next + 1) % outcomes.length;
+                        recorded = Math.min(recorded + 1, outcomes.length);
+                        if (failure) {
+                            failures++;
+                        }
+                        if (recorded >= circuitMinCalls && failures >= circuitFailureRate * recorded) {
+                            open();
+                        }
+                    }
+                    case OPEN -> {
+                        // A call started before the circuit opened
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Ends an attempt without an outcome, so that a half-open circuit lets the next call be the trial.
+         */
+        private void abandon() {
+            lock.lock();
+            try {
+                if (state == State.HALF_OPEN) {
+                    trialInFlight = false;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void open() {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+            recorded = 0;
+            next = 0;
+            failures = 0;
+            Arrays.fill(outcomes, false);
+            logger.warn("Gemini {} не відповідає, запити призупинено на {} мс", endpoint.tag,
+                    TimeUnit.NANOSECONDS.toMillis(circuitOpenNanos));
+        }
+
+        private double stateValue() {
+            lock.lock();
+            try {
+                return state.ordinal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void recordLatency(long nanos) {
+            lock.lock();
+            try {
+                latencies[latencyNext] = nanos;
+                latencyNext = (latencyNext + 1) % latencies.length;
+                latencyCount = Math.min(latencyCount + 1, latencies.length);
+                sortedLatencies = null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return The percentile of the recent latencies in milliseconds, or -1 with too few samples.
+         */
+        private long percentileMillis(double quantile) {
+            lock.lock();
+            try {
+                if (latencyCount < minLatencySamples) {
+                    return -1;
+                }
+                if (sortedLatencies == null) {
+                    sortedLatencies = Arrays.copyOf(latencies, latencyCount);
+                    Arrays.sort(sortedLatencies);
+                }
+                int index = Math.min(sortedLatencies.length - 1, (int) Math.ceil(quantile * sortedLatencies.length) - 1);
+                return TimeUnit.NANOSECONDS.toMillis(sortedLatencies[Math.max(0, index)]);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
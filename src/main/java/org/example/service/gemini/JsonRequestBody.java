@@ -0,0 +1,220 @@
+package org.example.service.gemini;
+
+import com.google.gson.ExclusionStrategy;
+import com.google.gson.FieldAttributes;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import org.example.model.request.RequestPayload;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A JSON request body that Gson writes straight into the connection's sink, instead of first building
+ * the whole document as a {@code String} and then copying it into a byte array.
+ * <p>
+ * A {@link RequestPayload} may come with its system instruction already encoded (see {@link #encode}),
+ * so a long prompt is turned into JSON once per prompt version rather than on every call. The encoded
+ * text is written as the {@code systemInstruction} member, and Gson serializes the other members into
+ * the same {@link JsonWriter}, with a copy of the caller's {@link Gson} that skips the system instruction.
+ * The body is written again for every attempt of a retried or hedged call.
+ */
+public final class JsonRequestBody extends RequestBody {
+
+    public static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static final String SYSTEM_INSTRUCTION = "systemInstruction";
+    private static final ExclusionStrategy SKIP_SYSTEM_INSTRUCTION = new ExclusionStrategy() {
+        @Override
+        public boolean shouldSkipField(FieldAttributes field) {
+            return field.getDeclaringClass() == RequestPayload.class && field.getName().equals(SYSTEM_INSTRUCTION);
+        }
+
+        @Override
+        public boolean shouldSkipClass(Class<?> type) {
+            return false;
+        }
+    };
+    /** The copies without the system instruction, by the Gson they were made from. */
+    private static final Map<Gson, Gson> WITHOUT_SYSTEM_INSTRUCTION = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final Gson gson;
+    private final Object payload;
+    private final String encodedSystemInstruction;
+
+    private JsonRequestBody(Gson gson, Object payload, String encodedSystemInstruction) {
+        this.gson = gson;
+        this.payload = payload;
+        this.encodedSystemInstruction = encodedSystemInstruction;
+    }
+
+    /**
+     * @return A body serializing the payload with Gson.
+     */
+    public static JsonRequestBody of(Gson gson, Object payload) {
+        return new JsonRequestBody(gson, payload, null);
+    }
+
+    /**
+     * @param encodedSystemInstruction The payload's system instruction as encoded by {@link #encode}, written
+     *                                 in its place; {@code null} to serialize the payload as it is.
+     * @return A body serializing the request.
+     */
+    public static JsonRequestBody of(Gson gson, RequestPayload payload, String encodedSystemInstruction) {
+        return new JsonRequestBody(gson, payload, payload.getSystemInstruction() != null ? encodedSystemInstruction : null);
+    }
+
+    /**
+     * @return The value as JSON, for writing it into many bodies.
+     */
+    public static String encode(Gson gson, Object value) {
+        return gson.toJson(value);
+    }
+
+    @Override
+    public MediaType contentType() {
+        return JSON;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        // Sent chunked: knowing the length up front would take a second serialization
+        Writer writer = new OutputStreamWriter(sink.outputStream(), StandardCharsets.UTF_8);
+        if (encodedSystemInstruction == null) {
+            gson.toJson(payload, writer);
+            writer.flush();
+            return;
+        }
+
+        Gson withoutSystemInstruction = WITHOUT_SYSTEM_INSTRUCTION.computeIfAbsent(gson,
+                original -> original.newBuilder().addSerializationExclusionStrategy(SKIP_SYSTEM_INSTRUCTION).create());
+        JsonWriter json = gson.newJsonWriter(writer);
+        json.beginObject();
+        json.name(SYSTEM_INSTRUCTION).jsonValue(encodedSystemInstruction);
+        withoutSystemInstruction.toJson(payload, payload.getClass(), new RemainingMembers(json));
+        json.endObject();
+        json.flush();
+    }
+
+    /**
+     * Writes the members of the object serialized into it as further members of the object that is open in
+     * {@code out}, leaving out that object's own braces.
+     */
+    private static final class RemainingMembers extends JsonWriter {
+
+        private final JsonWriter out;
+        private int depth;
+
+        private RemainingMembers(JsonWriter out) {
+            super(Writer.nullWriter());
+            this.out = out;
+        }
+
+        @Override
+        public JsonWriter beginObject() throws IOException {
+            if (depth++ > 0) {
+                out.beginObject();
+            }
+            return this;
+        }
+
+        @Override
+        public JsonWriter endObject() throws IOException {
+            if (--depth > 0) {
+                out.endObject();
+            }
+            return this;
+        }
+
+        @Override
+        public JsonWriter beginArray() throws IOException {
+            depth++;
+            out.beginArray();
+            return this;
+        }
+
+        @Override
+        public JsonWriter endArray() throws IOException {
+            depth--;
+            out.endArray();
+            return this;
+        }
+
+        @Override
+        public JsonWriter name(String name) throws IOException {
+            out.name(name);
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(String value) throws IOException {
+            out.value(value);
+            return this;
+        }
+
+        @Override
+        public JsonWriter jsonValue(String value) throws IOException {
+            out.jsonValue(value);
+            return this;
+        }
+
+        @Override
+        public JsonWriter nullValue() throws IOException {
+            out.nullValue();
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(boolean value) throws IOException {
+            out.value(value);
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(Boolean value) throws IOException {
+            out.value(value);
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(float value) throws IOException {
+            out.value(value);
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(double value) throws IOException {
+            out.value(value);
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(long value) throws IOException {
+            out.value(value);
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(Number value) throws IOException {
+            out.value(value);
+            return this;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+            // The enclosing object is still open
+        }
+    }
+}
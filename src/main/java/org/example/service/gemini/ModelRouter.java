@@ -0,0 +1,148 @@
+package org.example.service.gemini;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.example.database.entity.Client;
+import org.example.model.response.ResponsePayload;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Picks the Gemini model for each reply and records latency, tokens and cost per choice.
+ * <p>
+ * With {@link Client.ModelRouting#AUTO} a message of at most {@code gemini.routing.small-talk-max-chars}
+ * characters (or the client's own limit) that is not a question and on which the knowledge base has
+ * nothing relevant, such as "дякую!" or an emoji, is answered by the light model. Everything else, and
+ * every reply of a {@link Client.ModelRouting#FULL_ONLY} client, goes to the full model; so does a reply
+ * for which the knowledge base was not searched or the search failed, as nothing says it is small talk.
+ * <p>
+ * The cost is computed from the token counts Gemini reports and the configured USD prices per million
+ * tokens of each route; it is an estimate for comparing routes, not an invoice.
+ */
+@Component
+public class ModelRouter {
+
+    /**
+     * A model a reply can be generated with.
+     */
+    public enum Route {
+        LIGHT,
+        FULL;
+
+        String tag() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private record Prices(double input, double cachedInput, double output) {
+    }
+
+    private final boolean enabled;
+    private final int smallTalkMaxChars;
+    private final Map<Route, String> modelUrls = new EnumMap<>(Route.class);
+    private final Map<Route, Prices> prices = new EnumMap<>(Route.class);
+    private final Map<Route, Timer> latencies = new EnumMap<>(Route.class);
+    private final Map<Route, Counter> costs = new EnumMap<>(Route.class);
+    /** Token summaries by route and token type. */
+    private final Map<Route, Map<String, DistributionSummary>> tokens = new EnumMap<>(Route.class);
+
+    public ModelRouter(MeterRegistry meterRegistry,
+                       @Value("${gemini.routing.enabled:true}") boolean enabled,
+                       @Value("${gemini.routing.small-talk-max-chars:40}") int smallTalkMaxChars,
+                       @Value("${gemini.api.model-url:https://generativelanguage.googleapis.com/v1beta/models/gemini-2.5-flash}") String fullModelUrl,
+                       @Value("${gemini.routing.light-model-url:https://generativelanguage.googleapis.com/v1beta/models/gemini-2.5-flash-lite}") String lightModelUrl,
+                       @Value("${gemini.routing.full.input-price:0.30}") double fullInputPrice,
+                       @Value("${gemini.routing.full.cached-input-price:0.075}") double fullCachedInputPrice,
+                       @Value("${gemini.routing.full.output-price:2.50}") double fullOutputPrice,
+                       @Value("${gemini.routing.light.input-price:0.10}") double lightInputPrice,
+                       @Value("${gemini.routing.light.cached-input-price:0.025}") double lightCachedInputPrice,
+                       @Value("${gemini.routing.light.output-price:0.40}") double lightOutputPrice) {
+        this.enabled = enabled;
+        this.smallTalkMaxChars = smallTalkMaxChars;
+        modelUrls.put(Route.FULL, fullModelUrl);
+        modelUrls.put(Route.LIGHT, lightModelUrl);
+        prices.put(Route.FULL, new Prices(fullInputPrice, fullCachedInputPrice, fullOutputPrice));
+        prices.put(Route.LIGHT, new Prices(lightInputPrice, lightCachedInputPrice, lightOutputPrice));
+        for (Route route : Route.values()) {
+            latencies.put(route, Timer.builder("gemini.route.latency")
+                    .description("Gemini reply time by model route")
+                    .tag("route", route.tag())
+                    .register(meterRegistry));
+            costs.put(route, Counter.builder("gemini.route.cost")
+                    .description("Estimated Gemini cost in USD by model route")
+                    .tag("route", route.tag())
+                    .baseUnit("usd")
+                    .register(meterRegistry));
+            Map<String, DistributionSummary> byType = new HashMap<>();
+            for (String type : new String[]{"prompt", "cached", "output"}) {
+                byType.put(type, DistributionSummary.builder("gemini.tokens")
+                        .description("Tokens per Gemini reply as billed: prompt (including cached), cached, output")
+                        .tag("type", type)
+                        .tag("route", route.tag())
+                        .register(meterRegistry));
+            }
+            tokens.put(route, byType);
+        }
+    }
+
+    /**
+     * Picks the model for a reply.
+     *
+     * @param client        The client whose bot answers.
+     * @param userMessage   The user's message.
+     * @param knowledgeHit  Whether the knowledge base has an entry relevant to the message, or could not
+     *                      tell because it was not searched or the search failed.
+     */
+    public Route route(Client client, String userMessage, boolean knowledgeHit) {
+        if (!enabled || client.getModelRouting() == Client.ModelRouting.FULL_ONLY || knowledgeHit) {
+            return Route.FULL;
+        }
+        int maxChars = client.getSmallTalkMaxChars() != null ? client.getSmallTalkMaxChars() : smallTalkMaxChars;
+        String text = userMessage.strip();
+        return text.codePointCount(0, text.length()) <= maxChars && text.indexOf('?') < 0 ? Route.LIGHT : Route.FULL;
+    }
+
+    /**
+     * @return The model URL of the route, without the method suffix.
+     */
+    public String modelUrl(Route route) {
+        return modelUrls.get(route);
+    }
+
+    public void recordLatency(Route route, Duration latency) {
+        latencies.get(route).record(latency);
+    }
+
+    /**
+     * Records the billed tokens of a reply and their estimated cost.
+     */
+    public void recordUsage(Route route, ResponsePayload.UsageMetadata usage) {
+        if (usage == null) {
+            return;
+        }
+        long prompt = usage.getPromptTokenCount() != null ? usage.getPromptTokenCount() : 0;
+        long cached = usage.getCachedContentTokenCount() != null ? usage.getCachedContentTokenCount() : 0;
+        long output = usage.getCandidatesTokenCount() != null ? usage.getCandidatesTokenCount() : 0;
+        recordTokens(route, "prompt", usage.getPromptTokenCount());
+        recordTokens(route, "cached", usage.getCachedContentTokenCount());
+        recordTokens(route, "output", usage.getCandidatesTokenCount());
+        Prices price = prices.get(route);
+        // The prompt count includes the cached tokens, which are billed at the cached rate
+        double cost = (Math.max(0, prompt - cached) * price.input() + cached * price.cachedInput() + output * price.output()) / 1_000_000;
+        costs.get(route).increment(cost);
+    }
+
+    private void recordTokens(Route route, String type, Integer count) {
+        if (count != null) {
+            tokens.get(route).get(type).record(count);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.example.benchmark;
+
+import com.google.gson.Gson;
+import okio.Buffer;
+import org.example.model.response.EmbeddingResponse;
+import org.example.service.gemini.EmbeddingResponseReader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding an {@code :embedContent} response as {@code GeminiEmbeddingService} did before, reading
+ * the body into a {@code String} and parsing it with Gson into boxed {@code Float}s, with the streaming
+ * {@link EmbeddingResponseReader}. Each invocation decodes from a fresh Okio buffer, as a response body would
+ * be; {@code gc.alloc.rate.norm} from the GC profiler is the allocation per response.
+ * <p>
+ * Run with:
+ * <pre>
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) org.example.benchmark.EmbeddingResponseDecodingBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmbeddingResponseDecodingBenchmark {
+
+    @Param({"768", "3072"})
+    private int dimensions;
+
+    private final Gson gson = new Gson();
+    private byte[] response;
+
+    @Setup
+    public void setUp() {
+        // Formatted like the API's responses: pretty-printed, values with up to nine significant digits
+        Random random = new Random(1);
+        StringBuilder json = new StringBuilder("{\n  \"embedding\": {\n    \"values\": [\n");
+        for (int i = 0; i < dimensions; i++) {
+            json.append("      ").append((float) (random.nextGaussian() / Math.sqrt(dimensions)));
+            json.append(i < dimensions - 1 ? ",\n" : "\n");
+        }
+        json.append("    ]\n  }\n}\n");
+        response = json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public float[] gsonString() {
+        String body = new Buffer().write(response).readUtf8();
+        List<Float> values = gson.fromJson(body, EmbeddingResponse.class).getEmbedding().getValues();
+        float[] result = new float[values.size()];
+        for (int i = 0; i < values.size(); i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+
+    @Benchmark
+    public float[] streaming() throws IOException {
+        return EmbeddingResponseReader.readEmbedding(new Buffer().write(response), dimensions);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(EmbeddingResponseDecodingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
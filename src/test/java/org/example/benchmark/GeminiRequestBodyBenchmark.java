@@ -0,0 +1,109 @@
+package org.example.benchmark;
+
+import com.google.gson.Gson;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+import org.example.model.Content;
+import org.example.model.Part;
+import org.example.model.request.RequestPayload;
+import org.example.service.gemini.JsonRequestBody;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares writing a Gemini request body from a Gson {@code String}, as {@code GeminiChatService} did
+ * before, with the streaming {@link JsonRequestBody} and a pre-encoded system prompt. The bodies are
+ * written into a discarding sink, so the numbers cover serialization only; {@code gc.alloc.rate.norm}
+ * from the GC profiler is the allocation per request.
+ * <p>
+ * Run with:
+ * <pre>
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) org.example.benchmark.GeminiRequestBodyBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GeminiRequestBodyBenchmark {
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    /**
+     * Length of the system prompt in characters; the RAG context is a third of it.
+     */
+    @Param({"2000", "20000"})
+    private int promptChars;
+
+    private final Gson gson = new Gson();
+    private RequestPayload payload;
+    private String encodedSystemInstruction;
+    private BufferedSink sink;
+
+    @Setup
+    public void setUp() {
+        payload = new RequestPayload();
+        payload.setSystemInstruction(content(null, text("Ти — консультант інтернет-магазину одягу. ", promptChars)));
+        List<Content> contents = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            contents.add(content(i % 2 == 0 ? "user" : "model", "Репліка " + i + ": чи є ця сукня в розмірі M і скільки коштує доставка?"));
+        }
+        contents.add(content("user", text("Сукня лляна, 1200 грн, розміри S–L. ", promptChars / 3)
+                + "\n\nОсь запит від клієнта: \"А чорна є?\". Дай відповідь на основі контексту вище."));
+        payload.setContents(contents);
+        encodedSystemInstruction = JsonRequestBody.encode(gson, payload.getSystemInstruction());
+        sink = Okio.buffer(Okio.blackhole());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        sink.close();
+    }
+
+    @Benchmark
+    public BufferedSink gsonString() throws IOException {
+        RequestBody.create(gson.toJson(payload), JSON).writeTo(sink);
+        return sink.emit();
+    }
+
+    @Benchmark
+    public BufferedSink streaming() throws IOException {
+        JsonRequestBody.of(gson, payload, encodedSystemInstruction).writeTo(sink);
+        return sink.emit();
+    }
+
+    private static String text(String sentence, int length) {
+        return sentence.repeat(length / sentence.length() + 1).substring(0, length);
+    }
+
+    private static Content content(String role, String text) {
+        Part part = new Part();
+        part.setText(text);
+        Content content = new Content();
+        content.setParts(List.of(part));
+        content.setRole(role);
+        return content;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(GeminiRequestBodyBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
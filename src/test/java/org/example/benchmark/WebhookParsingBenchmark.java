@@ -0,0 +1,120 @@
+package org.example.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import org.example.model.WebhookEvent;
+import org.example.service.WebhookEventParser;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the Gson tree parsing previously used by {@code WebhookProcessingService}
+ * with the streaming {@link WebhookEventParser} on batched multi-event payloads.
+ * <p>
+ * Run with:
+ * <pre>
+ * mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ * java -cp target/test-classes:target/classes:$(cat target/cp.txt) org.example.benchmark.WebhookParsingBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WebhookParsingBenchmark {
+
+    /**
+     * Number of entries in the payload; each entry carries five messaging events.
+     */
+    @Param({"1", "4", "16"})
+    private int entries;
+
+    private final Gson gson = new Gson();
+    private String payload;
+
+    @Setup
+    public void setUp() {
+        payload = buildPayload(entries);
+    }
+
+    @Benchmark
+    public List<WebhookEvent> gsonTree() {
+        JsonObject data = gson.fromJson(payload, JsonObject.class);
+        List<WebhookEvent> events = new ArrayList<>();
+        for (JsonElement entryElement : data.getAsJsonArray("entry")) {
+            JsonObject entry = entryElement.getAsJsonObject();
+            String pageId = entry.get("id").getAsString();
+            for (JsonElement messagingElement : entry.getAsJsonArray("messaging")) {
+                JsonObject messaging = messagingElement.getAsJsonObject();
+                String senderId = messaging.getAsJsonObject("sender").get("id").getAsString();
+                if (!messaging.has("message")) {
+                    events.add(new WebhookEvent(pageId, senderId, null, null, false, false));
+                    continue;
+                }
+                JsonObject message = messaging.getAsJsonObject("message");
+                events.add(new WebhookEvent(pageId, senderId,
+                        message.has("mid") ? message.get("mid").getAsString() : null,
+                        message.has("text") ? message.get("text").getAsString() : null,
+                        message.has("is_echo"), true));
+            }
+        }
+        return events;
+    }
+
+    @Benchmark
+    public List<WebhookEvent> streaming() throws IOException {
+        return WebhookEventParser.parse(payload);
+    }
+
+    static String buildPayload(int entries) {
+        StringBuilder json = new StringBuilder("{\"object\":\"instagram\",\"entry\":[");
+        for (int e = 0; e < entries; e++) {
+            if (e > 0) {
+                json.append(',');
+            }
+            String pageId = "1784140" + e;
+            json.append("{\"id\":\"").append(pageId).append("\",\"time\":1717171717,\"messaging\":[");
+            for (int m = 0; m < 5; m++) {
+                if (m > 0) {
+                    json.append(',');
+                }
+                String sender = "5512" + e + "" + m;
+                json.append("{\"sender\":{\"id\":\"").append(sender).append("\"},")
+                        .append("\"recipient\":{\"id\":\"").append(pageId).append("\"},")
+                        .append("\"timestamp\":1717171717").append(m).append(',');
+                switch (m) {
+                    case 0, 1 -> json.append("\"message\":{\"mid\":\"aWdfZAG1faXRlbToxOklH").append(e).append(m)
+                            .append("\",\"text\":\"Доброго дня! Чи є в наявності чорна сукня розміру M? Яка ціна доставки до Львова?\"}}");
+                    case 2 -> json.append("\"message\":{\"mid\":\"aWdfZAG1faXRlbToxOklH").append(e).append(m)
+                            .append("\",\"attachments\":[{\"type\":\"image\",\"payload\":{\"url\":\"https://lookaside.fbsbx.com/ig_messaging_cdn/?asset_id=")
+                            .append("1".repeat(20)).append("&signature=").append("AbCdEf0123456789".repeat(12)).append("\"}}]}}");
+                    case 3 -> json.append("\"message\":{\"mid\":\"aWdfZAG1faXRlbToxOklH").append(e).append(m)
+                            .append("\",\"text\":\"Дякуємо за звернення!\",\"is_echo\":true}}");
+                    default -> json.append("\"read\":{\"mid\":\"aWdfZAG1faXRlbToxOklH").append(e).append("\"}}");
+                }
+            }
+            json.append("]}");
+        }
+        return json.append("]}").toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(WebhookParsingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
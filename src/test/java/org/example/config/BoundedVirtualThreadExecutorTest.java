@@ -0,0 +1,153 @@
+package org.example.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoundedVirtualThreadExecutorTest {
+
+    private final AtomicInteger rejections = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private BoundedVirtualThreadExecutor executor;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executor.close();
+    }
+
+    @Test
+    void execute_runsTasksOnVirtualThreads() throws InterruptedException {
+        executor = newExecutor(WebhookExecutorConfig.RejectionPolicy.ABORT);
+        AtomicBoolean virtual = new AtomicBoolean();
+        CountDownLatch done = new CountDownLatch(1);
+
+        executor.execute(() -> {
+            virtual.set(Thread.currentThread().isVirtual());
+            done.countDown();
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(virtual.get());
+    }
+
+    @Test
+    void execute_rejectsTasksOverTheInFlightLimit() {
+        executor = newExecutor(WebhookExecutorConfig.RejectionPolicy.ABORT);
+        executor.execute(this::awaitRelease);
+        executor.execute(this::awaitRelease);
+
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> { }));
+        assertEquals(2, executor.getInFlightCount());
+        assertEquals(1, rejections.get());
+    }
+
+    @Test
+    void execute_callerRunsOverTheLimitWhenConfigured() {
+        executor = newExecutor(WebhookExecutorConfig.RejectionPolicy.CALLER_RUNS);
+        executor.execute(this::awaitRelease);
+        executor.execute(this::awaitRelease);
+        AtomicBoolean ranInline = new AtomicBoolean();
+        Thread caller = Thread.currentThread();
+
+        executor.execute(() -> ranInline.set(Thread.currentThread() == caller));
+
+        assertTrue(ranInline.get());
+    }
+
+    @Test
+    void execute_tellsDiscardedWorkWhenConfigured() {
+        executor = newExecutor(WebhookExecutorConfig.RejectionPolicy.DISCARD);
+        executor.execute(this::awaitRelease);
+        executor.execute(this::awaitRelease);
+        AtomicBoolean ran = new AtomicBoolean();
+        AtomicBoolean discarded = new AtomicBoolean();
+
+        executor.execute(new WebhookExecutorConfig.DiscardableWork() {
+            @Override
+            public void run() {
+                ran.set(true);
+            }
+
+            @Override
+            public void discarded() {
+                discarded.set(true);
+            }
+        });
+
+        assertFalse(ran.get());
+        assertTrue(discarded.get());
+        assertEquals(1, rejections.get());
+    }
+
+    @Test
+    void execute_neverRejectsAcknowledgedWork() throws InterruptedException {
+        executor = newExecutor(WebhookExecutorConfig.RejectionPolicy.ABORT);
+        executor.execute(this::awaitRelease);
+        executor.execute(this::awaitRelease);
+        CountDownLatch done = new CountDownLatch(1);
+
+        executor.execute((WebhookExecutorConfig.AcknowledgedWork) done::countDown);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, rejections.get());
+    }
+
+    @Test
+    void execute_releasesPermitWhenTaskFinishes() throws InterruptedException {
+        executor = newExecutor(WebhookExecutorConfig.RejectionPolicy.ABORT);
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute(done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (executor.getInFlightCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, executor.getInFlightCount());
+    }
+
+    @Test
+    void submit_cancelInterruptsTheTaskAndReleasesItsPermit() throws InterruptedException {
+        executor = newExecutor(WebhookExecutorConfig.RejectionPolicy.ABORT);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Future<?> task = executor.submit(() -> {
+            started.countDown();
+            awaitRelease();
+            if (Thread.currentThread().isInterrupted()) {
+                interrupted.countDown();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        task.cancel(true);
+
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (executor.getInFlightCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, executor.getInFlightCount());
+    }
+
+    private BoundedVirtualThreadExecutor newExecutor(WebhookExecutorConfig.RejectionPolicy policy) {
+        return new BoundedVirtualThreadExecutor("test-vt-", 2, 1000, policy, rejections::incrementAndGet);
+    }
+
+    private void awaitRelease() {
+        try {
+            release.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -5,6 +5,7 @@ import org.example.database.entity.Knowledge;
 import org.example.model.request.UpdateKnowledgeRequest;
 import org.example.model.dto.CatalogItemDto;
 import org.example.service.CatalogManagementService;
+import org.example.service.EmbeddingDimensionReport;
 import org.example.service.KnowledgeManagementService;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -19,6 +20,7 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -39,20 +41,39 @@ class ManagementControllerTest {
     @Mock
     private CatalogManagementService catalogManagementService;
 
+    @Mock
+    private EmbeddingDimensionReport embeddingDimensionReport;
+
     @InjectMocks
     private ManagementController managementController;
 
     private final Long testClientId = 1L;
 
+    @Test
+    void getDimensionReport_returnsReportOrBadRequest() throws Exception {
+        EmbeddingDimensionReport.Report report = new EmbeddingDimensionReport.Report(testClientId, 120, 40, 5,
+                List.of(new EmbeddingDimensionReport.WidthResult(3072, 1.0, 900.0, 12296)));
+        when(embeddingDimensionReport.build(testClientId, List.of(768), 5, 200)).thenReturn(report);
+        when(embeddingDimensionReport.build(2L, List.of(768), 5, 200)).thenThrow(new IllegalArgumentException("Клієнт з ID 2 не знайдений."));
+
+        ResponseEntity<?> response = managementController.getDimensionReport(testClientId, List.of(768), 5, 200);
+        ResponseEntity<?> missing = managementController.getDimensionReport(2L, List.of(768), 5, 200);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(report, response.getBody());
+        assertEquals(HttpStatus.BAD_REQUEST, missing.getStatusCode());
+    }
+
     @Test
     void uploadKnowledgeFile_success() throws Exception {
         MultipartFile file = new MockMultipartFile("test.txt", "test.txt", "text/plain", "Test content".getBytes());
-        doNothing().when(knowledgeManagementService).processAndStoreKnowledge(anyLong(), any());
+        when(knowledgeManagementService.processAndStoreKnowledge(anyLong(), any()))
+                .thenReturn(new KnowledgeManagementService.UploadReport(300, Duration.ofMillis(1500), Duration.ofMillis(500)));
 
         ResponseEntity<String> response = managementController.uploadKnowledgeFile(file, testClientId);
 
         assertEquals(HttpStatus.OK, response.getStatusCode());
-        assertEquals("Базу знань для клієнта ID " + testClientId + " успішно оновлено.", response.getBody());
+        assertEquals("Базу знань для клієнта ID " + testClientId + " успішно оновлено: 300 абзаців за 2.0 с (150.0 абзаців/с).", response.getBody());
         verify(knowledgeManagementService, times(1)).processAndStoreKnowledge(eq(testClientId), any(ByteArrayInputStream.class));
     }
 
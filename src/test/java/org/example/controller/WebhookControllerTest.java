@@ -1,6 +1,6 @@
 package org.example.controller;
 
-import org.example.service.WebhookProcessingService;
+import org.example.service.WebhookIngestionService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -14,12 +14,13 @@ import org.springframework.test.util.ReflectionTestUtils;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 class WebhookControllerTest {
 
     @Mock
-    private WebhookProcessingService processingService;
+    private WebhookIngestionService ingestionService;
 
     @InjectMocks
     private WebhookController webhookController;
@@ -73,15 +74,42 @@ class WebhookControllerTest {
     }
 
     @Test
-    void handleMessage_callsProcessingServiceAndReturnsOk() {
+    void handleMessage_enqueuesPayloadAndReturnsOk() {
         // Given
         String payload = "{\"object\":\"instagram\",\"entry\":[{\"id\":\"<PAGE_ID>\",\"time\":1515114666,\"messaging\":[{\"sender\":{\"id\":\"<PSID>\"},\"recipient\":{\"id\":\"<PAGE_ID>\"},\"message\":{\"text\":\"Hello, world!\"}}]}]}";
+        when(ingestionService.accept(payload)).thenReturn(WebhookIngestionService.Outcome.ACCEPTED);
 
         // When
         ResponseEntity<Void> response = webhookController.handleMessage(payload);
 
         // Then
         assertEquals(HttpStatus.OK, response.getStatusCode());
-        verify(processingService, times(1)).processWebhookPayload(payload);
+        verify(ingestionService, times(1)).accept(payload);
+    }
+
+    @Test
+    void handleMessage_withInvalidPayload_returnsBadRequest() {
+        // Given
+        String payload = "not json";
+        when(ingestionService.accept(payload)).thenReturn(WebhookIngestionService.Outcome.INVALID);
+
+        // When
+        ResponseEntity<Void> response = webhookController.handleMessage(payload);
+
+        // Then
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
+    @Test
+    void handleMessage_whenQueueIsFull_returnsServiceUnavailable() {
+        // Given
+        String payload = "{\"entry\":[]}";
+        when(ingestionService.accept(payload)).thenReturn(WebhookIngestionService.Outcome.REJECTED);
+
+        // When
+        ResponseEntity<Void> response = webhookController.handleMessage(payload);
+
+        // Then
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
     }
 }
\ No newline at end of file
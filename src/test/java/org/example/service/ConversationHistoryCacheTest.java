@@ -0,0 +1,181 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.database.entity.ConversationSummary;
+import org.example.database.entity.Interaction;
+import org.example.database.repository.ConversationSummaryRepository;
+import org.example.database.repository.InteractionRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ConversationHistoryCacheTest {
+
+    @Mock
+    private InteractionRepository interactionRepository;
+
+    @Mock
+    private ConversationSummaryRepository summaryRepository;
+
+    private SimpleMeterRegistry meterRegistry;
+    private ConversationHistoryCache cache;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new ConversationHistoryCache(interactionRepository, summaryRepository, meterRegistry, true, 1 << 20, 600000, 1800000);
+    }
+
+    @Test
+    void loadsConversationOnceAndServesItFromMemory() {
+        Interaction older = interaction("USER", "Привіт", 2);
+        Interaction newer = interaction("AI", "Вітаю!", 1);
+        when(interactionRepository.findTop10ByClientIdAndSenderPsidOrderByTimestampDescIdDesc(1L, "psid"))
+                .thenReturn(List.of(newer, older));
+
+        List<ConversationHistoryCache.Turn> first = cache.history(1L, "psid").turns();
+        List<ConversationHistoryCache.Turn> second = cache.history(1L, "psid").turns();
+
+        assertEquals(List.of("Привіт", "Вітаю!"), texts(first));
+        assertEquals(first, second);
+        verify(interactionRepository, times(1)).findTop10ByClientIdAndSenderPsidOrderByTimestampDescIdDesc(1L, "psid");
+        assertEquals(1, meterRegistry.counter("conversation.cache.lookups", "result", "hit").count());
+        assertEquals(1, meterRegistry.counter("conversation.cache.lookups", "result", "miss").count());
+        assertTrue(cache.estimatedBytes() > 0);
+    }
+
+    @Test
+    void writesThroughClaimedMessagesAndRepliesAndKeepsLatestTurns() {
+        when(interactionRepository.findTop10ByClientIdAndSenderPsidOrderByTimestampDescIdDesc(1L, "psid")).thenReturn(List.of());
+        cache.history(1L, "psid");
+
+        for (int i = 0; i < 6; i++) {
+            cache.append(1L, "psid", List.of(new ConversationHistoryCache.Turn(null, "USER", "q" + i, LocalDateTime.now(), "m" + i, true)));
+            cache.answered(1L, "psid", List.of("m" + i), new ConversationHistoryCache.Turn(null, "AI", "a" + i, LocalDateTime.now(), null, false));
+        }
+
+        List<ConversationHistoryCache.Turn> turns = cache.history(1L, "psid").turns();
+        assertEquals(List.of("q1", "a1", "q2", "a2", "q3", "a3", "q4", "a4", "q5", "a5"), texts(turns));
+        assertTrue(turns.stream().noneMatch(ConversationHistoryCache.Turn::pending));
+        verify(interactionRepository, times(1)).findTop10ByClientIdAndSenderPsidOrderByTimestampDescIdDesc(1L, "psid");
+    }
+
+    @Test
+    void ignoresWritesForConversationsThatAreNotCached() {
+        cache.append(1L, "psid", List.of(new ConversationHistoryCache.Turn(null, "USER", "q", LocalDateTime.now(), "m", true)));
+
+        assertEquals(0, cache.conversationCount());
+        assertEquals(0, cache.estimatedBytes());
+    }
+
+    @Test
+    void reloadsInvalidatedConversation() {
+        when(interactionRepository.findTop10ByClientIdAndSenderPsidOrderByTimestampDescIdDesc(1L, "psid")).thenReturn(List.of());
+        cache.history(1L, "psid");
+
+        cache.invalidate(1L, "psid");
+        cache.history(1L, "psid");
+
+        verify(interactionRepository, times(2)).findTop10ByClientIdAndSenderPsidOrderByTimestampDescIdDesc(1L, "psid");
+        assertEquals(1, cache.conversationCount());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedConversationsOverMemoryBudget() {
+        cache = new ConversationHistoryCache(interactionRepository, summaryRepository, meterRegistry, true, 800, 600000, 1800000);
+        when(interactionRepository.findTop10ByClientIdAndSenderPsidOrderByTimestampDescIdDesc(anyLong(), anyString()))
+                .thenAnswer(invocation -> List.of(interaction("USER", "x".repeat(50), 1)));
+
+        cache.history(1L, "a");
+        cache.history(1L, "b");
+        cache.history(1L, "a");
+        cache.history(1L, "c");
+
+        assertEquals(2, cache.conversationCount());
+        assertTrue(cache.estimatedBytes() <= 800);
+        cache.history(1L, "a");
+        verify(interactionRepository, times(1)).findTop10ByClientIdAndSenderPsidOrderByTimestampDescIdDesc(1L, "a");
+    }
+
+    @Test
+    void evictsIdleConversations() {
+        cache = new ConversationHistoryCache(interactionRepository, summaryRepository, meterRegistry, true, 1 << 20, 0, 1800000);
+        when(interactionRepository.findTop10ByClientIdAndSenderPsidOrderByTimestampDescIdDesc(1L, "psid")).thenReturn(List.of());
+
+        cache.history(1L, "psid");
+        cache.history(1L, "psid");
+
+        verify(interactionRepository, times(2)).findTop10ByClientIdAndSenderPsidOrderByTimestampDescIdDesc(1L, "psid");
+    }
+
+    @Test
+    void reloadsConversationsOlderThanMaxAgeEvenWhenBusy() {
+        cache = new ConversationHistoryCache(interactionRepository, summaryRepository, meterRegistry, true, 1 << 20, 600000, 0);
+        when(interactionRepository.findTop10ByClientIdAndSenderPsidOrderByTimestampDescIdDesc(1L, "psid")).thenReturn(List.of());
+
+        cache.history(1L, "psid");
+        cache.history(1L, "psid");
+
+        verify(interactionRepository, times(2)).findTop10ByClientIdAndSenderPsidOrderByTimestampDescIdDesc(1L, "psid");
+        assertEquals(1, cache.conversationCount());
+    }
+
+    @Test
+    void doesNotCacheLoadThatOverlapsWrite() {
+        // The message is stored and written through while the load is reading the database
+        when(interactionRepository.findTop10ByClientIdAndSenderPsidOrderByTimestampDescIdDesc(1L, "psid"))
+                .thenAnswer(invocation -> {
+                    cache.append(1L, "psid", List.of(new ConversationHistoryCache.Turn(5L, "USER", "Ціна?", LocalDateTime.now(), "m5", true)));
+                    return List.of();
+                })
+                .thenReturn(List.of(interaction("USER", "Ціна?", 0)));
+
+        assertEquals(List.of(), cache.history(1L, "psid").turns());
+        assertEquals(0, cache.conversationCount());
+
+        assertEquals(List.of("Ціна?"), texts(cache.history(1L, "psid").turns()));
+        assertEquals(1, cache.conversationCount());
+    }
+
+    @Test
+    void loadsSummaryWithTurnsAndWritesThroughNewSummaries() {
+        ConversationSummary stored = new ConversationSummary();
+        stored.setSummary("Клієнтка обрала сукню розміру M.");
+        stored.setSummarizedUntil(LocalDateTime.now().minusHours(1));
+        when(interactionRepository.findTop10ByClientIdAndSenderPsidOrderByTimestampDescIdDesc(1L, "psid")).thenReturn(List.of());
+        when(summaryRepository.findByClientIdAndSenderPsid(1L, "psid")).thenReturn(Optional.of(stored));
+
+        assertEquals("Клієнтка обрала сукню розміру M.", cache.history(1L, "psid").summary().text());
+        long bytesBefore = cache.estimatedBytes();
+        ConversationHistoryCache.Summary updated = new ConversationHistoryCache.Summary(
+                "Клієнтка обрала сукню розміру M і доставку Новою поштою до Львова.", LocalDateTime.now(), 7L);
+        cache.summarized(1L, "psid", updated);
+
+        assertEquals(updated, cache.history(1L, "psid").summary());
+        assertTrue(cache.estimatedBytes() > bytesBefore);
+        verify(summaryRepository, times(1)).findByClientIdAndSenderPsid(1L, "psid");
+    }
+
+    private static Interaction interaction(String author, String text, int minutesAgo) {
+        Interaction interaction = new Interaction("psid", author, text);
+        interaction.setTimestamp(LocalDateTime.now().minusMinutes(minutesAgo));
+        return interaction;
+    }
+
+    private static List<String> texts(List<ConversationHistoryCache.Turn> turns) {
+        List<String> texts = new ArrayList<>();
+        turns.forEach(turn -> texts.add(turn.text()));
+        return texts;
+    }
+}
@@ -0,0 +1,62 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownstreamLimitsTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final DownstreamLimits limits = new DownstreamLimits(meterRegistry, 1, 1, 1, 50);
+
+    @Test
+    void call_returnsResultAndReleasesPermit() throws IOException {
+        assertEquals("first", limits.call(DownstreamLimits.Downstream.GEMINI_CHAT, () -> "first"));
+        assertEquals("second", limits.call(DownstreamLimits.Downstream.GEMINI_CHAT, () -> "second"));
+        assertEquals(0.0, meterRegistry.get("downstream.in-flight").tag("downstream", "gemini-chat").gauge().value());
+    }
+
+    @Test
+    void call_releasesPermitWhenCallFails() {
+        assertThrows(IOException.class, () -> limits.call(DownstreamLimits.Downstream.INSTAGRAM, () -> {
+            throw new IOException("boom");
+        }));
+
+        assertDoesNotThrow(() -> limits.call(DownstreamLimits.Downstream.INSTAGRAM, () -> null));
+    }
+
+    @Test
+    void call_failsWhenNoPermitBecomesAvailable() throws Exception {
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = Thread.ofVirtual().start(() -> {
+            try {
+                limits.call(DownstreamLimits.Downstream.GEMINI_CHAT, () -> {
+                    holding.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return null;
+                });
+            } catch (IOException ignored) {
+            }
+        });
+        assertTrue(holding.await(5, TimeUnit.SECONDS));
+
+        IOException e = assertThrows(IOException.class, () -> limits.call(DownstreamLimits.Downstream.GEMINI_CHAT, () -> "late"));
+        assertTrue(e.getMessage().contains("gemini-chat"));
+        assertEquals(1.0, meterRegistry.get("downstream.limit.timeouts").tag("downstream", "gemini-chat").counter().count());
+        // Other downstreams have their own permits.
+        assertEquals("ok", limits.call(DownstreamLimits.Downstream.GEMINI_EMBEDDING, () -> "ok"));
+
+        release.countDown();
+        holder.join();
+    }
+}
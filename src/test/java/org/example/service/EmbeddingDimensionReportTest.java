@@ -0,0 +1,57 @@
+package org.example.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmbeddingDimensionReportTest {
+
+    @Test
+    void comparesEachWidthWithFullWidth() {
+        Random random = new Random(42);
+        List<float[]> corpus = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            corpus.add(unitVector(random, 64));
+        }
+        List<float[]> queries = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            queries.add(unitVector(random, 64));
+        }
+
+        List<EmbeddingDimensionReport.WidthResult> results = EmbeddingDimensionReport.compare(corpus, queries, List.of(32, 4), 5);
+
+        assertEquals(List.of(64, 32, 4), results.stream().map(EmbeddingDimensionReport.WidthResult::dimensions).toList());
+        assertEquals(1.0, results.get(0).recallAtK());
+        assertEquals(4 * 64 + 8, results.get(0).bytesPerVector());
+        assertEquals(2 * 32 + 8, results.get(1).bytesPerVector());
+        // Random vectors spread their information over all dimensions, so a short prefix loses most neighbors
+        assertTrue(results.get(1).recallAtK() > results.get(2).recallAtK());
+        assertTrue(results.get(2).recallAtK() < 0.5);
+    }
+
+    @Test
+    void recallIsRelativeToCorpusSmallerThanK() {
+        List<float[]> corpus = List.of(new float[]{1f, 0f}, new float[]{0f, 1f});
+
+        List<EmbeddingDimensionReport.WidthResult> results = EmbeddingDimensionReport.compare(corpus, List.of(new float[]{1f, 0f}), List.of(1), 5);
+
+        assertEquals(1.0, results.get(1).recallAtK());
+    }
+
+    private static float[] unitVector(Random random, int dimensions) {
+        float[] vector = new float[dimensions];
+        double sumOfSquares = 0;
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = (float) random.nextGaussian();
+            sumOfSquares += vector[i] * vector[i];
+        }
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] /= (float) Math.sqrt(sumOfSquares);
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,89 @@
+package org.example.service;
+
+import org.example.database.entity.Client;
+import org.example.database.entity.Knowledge;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmbeddingDimensionsTest {
+
+    private final float[] full = new float[EmbeddingDimensions.FULL];
+
+    EmbeddingDimensionsTest() {
+        full[0] = 0.3f;
+        full[1] = 0.4f;
+        full[EmbeddingDimensions.FULL - 1] = 0.866f;
+    }
+
+    @Test
+    void reduceTruncatesAndRenormalises() {
+        float[] reduced = EmbeddingDimensions.reduce(new float[]{0.3f, 0.4f, 0.866f}, 2);
+
+        assertArrayEquals(new float[]{0.6f, 0.8f}, reduced, 1e-6f);
+        assertThrows(IllegalArgumentException.class, () -> EmbeddingDimensions.reduce(reduced, 3));
+    }
+
+    @Test
+    void storesOnlyFullEmbeddingAtFullWidth() {
+        Knowledge knowledge = knowledgeOf(client(null, null));
+
+        new EmbeddingDimensions(EmbeddingDimensions.FULL, true).assign(knowledge, full);
+
+        assertSame(full, knowledge.getEmbedding());
+        assertNull(knowledge.getReducedEmbedding());
+        assertNull(knowledge.getEmbeddingDimensions());
+    }
+
+    @Test
+    void keepsFullEmbeddingUntilSwitchedAndDropsItAfterwardsIfConfigured() {
+        EmbeddingDimensions dimensions = new EmbeddingDimensions(768, true);
+        Knowledge migrating = knowledgeOf(client(null, null));
+        Knowledge switched = knowledgeOf(client(null, 768));
+
+        dimensions.assign(migrating, full);
+        dimensions.assign(switched, full);
+
+        assertSame(full, migrating.getEmbedding());
+        assertEquals(768, migrating.getReducedEmbedding().length);
+        assertNull(switched.getEmbedding());
+        assertEquals(768, switched.getEmbeddingDimensions());
+        assertEquals(0.6f, switched.getReducedEmbedding()[0], 1e-6f);
+    }
+
+    @Test
+    void writesActiveReducedWidthWhileMovingBackToFullWidth() {
+        Knowledge knowledge = knowledgeOf(client(EmbeddingDimensions.FULL, 1536));
+
+        new EmbeddingDimensions(768, true).assign(knowledge, full);
+
+        assertSame(full, knowledge.getEmbedding());
+        assertEquals(1536, knowledge.getEmbeddingDimensions());
+    }
+
+    @Test
+    void searchesBothWidthsOnlyWhileMovingBetweenReducedWidths() {
+        EmbeddingDimensions dimensions = new EmbeddingDimensions(EmbeddingDimensions.FULL, false);
+
+        assertEquals(List.of(), dimensions.searchWidths(client(768, null)));
+        assertEquals(List.of(1536, 768), dimensions.searchWidths(client(768, 1536)));
+        assertEquals(List.of(1536), dimensions.searchWidths(client(null, 1536)));
+        assertEquals(List.of(768), dimensions.searchWidths(client(768, 768)));
+        assertThrows(IllegalArgumentException.class, () -> dimensions.target(client(4096, null)));
+    }
+
+    private static Client client(Integer target, Integer active) {
+        Client client = new Client();
+        client.setEmbeddingDimensions(target);
+        client.setActiveEmbeddingDimensions(active);
+        return client;
+    }
+
+    private static Knowledge knowledgeOf(Client client) {
+        Knowledge knowledge = new Knowledge();
+        knowledge.setClient(client);
+        return knowledge;
+    }
+}
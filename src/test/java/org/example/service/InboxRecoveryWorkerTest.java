@@ -0,0 +1,58 @@
+package org.example.service;
+
+import org.example.database.entity.InboxEvent;
+import org.example.database.repository.InboxEventRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class InboxRecoveryWorkerTest {
+
+    @Mock
+    private InboxEventRepository inboxEventRepository;
+
+    @Mock
+    private WebhookIngestionService ingestionService;
+
+    private InboxRecoveryWorker worker;
+
+    @BeforeEach
+    void setUp() {
+        worker = new InboxRecoveryWorker(inboxEventRepository, ingestionService, 60000, 600000, 72, 5);
+    }
+
+    @Test
+    void replaysOnlyEntriesItClaims() {
+        InboxEvent held = event(1L);
+        InboxEvent leased = event(2L);
+        InboxEvent abandoned = event(3L);
+        when(inboxEventRepository.findTop100ByStatusAndReceivedAtBeforeOrderByIdAsc(eq(InboxEvent.Status.PENDING), any()))
+                .thenReturn(List.of(held, leased, abandoned));
+        when(ingestionService.isInFlight(any())).thenAnswer(invocation -> invocation.getArgument(0).equals(1L));
+        when(inboxEventRepository.claim(eq(2L), eq(InboxEvent.Status.PENDING), any(), any())).thenReturn(0);
+        when(inboxEventRepository.claim(eq(3L), eq(InboxEvent.Status.PENDING), any(), any())).thenReturn(1);
+        when(ingestionService.replay(3L, "payload-3")).thenReturn(true);
+
+        assertEquals(1, worker.replayUnfinished());
+
+        verify(inboxEventRepository, never()).claim(eq(1L), any(), any(), any());
+        verify(ingestionService, never()).replay(eq(1L), any());
+        verify(ingestionService, never()).replay(eq(2L), any());
+    }
+
+    private static InboxEvent event(Long id) {
+        InboxEvent event = new InboxEvent("payload-" + id);
+        event.setId(id);
+        return event;
+    }
+}
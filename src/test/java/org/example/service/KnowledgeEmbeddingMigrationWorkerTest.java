@@ -0,0 +1,125 @@
+package org.example.service;
+
+import org.example.database.entity.Client;
+import org.example.database.entity.Knowledge;
+import org.example.database.repository.ClientRepository;
+import org.example.database.repository.KnowledgeRepository;
+import org.example.service.gemini.GeminiEmbeddingService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class KnowledgeEmbeddingMigrationWorkerTest {
+
+    @Mock
+    private ClientRepository clientRepository;
+
+    @Mock
+    private KnowledgeRepository knowledgeRepository;
+
+    @Mock
+    private GeminiEmbeddingService geminiEmbeddingService;
+
+    private KnowledgeEmbeddingMigrationWorker worker;
+    private Client client;
+
+    @BeforeEach
+    void setUp() {
+        worker = new KnowledgeEmbeddingMigrationWorker(clientRepository, knowledgeRepository, geminiEmbeddingService,
+                new EmbeddingDimensions(EmbeddingDimensions.FULL, true), 2);
+        client = new Client();
+        client.setId(1L);
+    }
+
+    @Test
+    void derivesReducedEmbeddingsInBatchesThenSwitchesAndDropsFullVectors() throws IOException {
+        client.setEmbeddingDimensions(2);
+        Knowledge fromFull = entry(1L, new float[]{0.3f, 0.4f, 0.866f}, null);
+        Knowledge fromWider = entry(2L, null, new float[]{0.6f, 0.0f, 0.8f});
+        Knowledge third = entry(3L, new float[]{1f, 0f, 0f}, null);
+        when(knowledgeRepository.findWithoutEmbeddingOfWidth(1L, 2, 2))
+                .thenReturn(List.of(fromFull, fromWider), List.of(third));
+        when(knowledgeRepository.clearFullEmbeddings(1L, 2)).thenReturn(3);
+
+        assertEquals(3, worker.migrate(client));
+
+        assertArrayEquals(new float[]{0.6f, 0.8f}, fromFull.getReducedEmbedding(), 1e-6f);
+        assertArrayEquals(new float[]{1f, 0f}, fromWider.getReducedEmbedding(), 1e-6f);
+        verify(knowledgeRepository).updateEmbeddings(List.of(fromFull, fromWider));
+        verify(knowledgeRepository).updateEmbeddings(List.of(third));
+        verifyNoInteractions(geminiEmbeddingService);
+        assertEquals(2, client.getActiveEmbeddingDimensions());
+        verify(clientRepository).updateActiveEmbeddingDimensions(1L, 2);
+        verify(clientRepository, never()).save(any());
+        verify(knowledgeRepository).clearFullEmbeddings(1L, 2);
+    }
+
+    @Test
+    void embedsAgainWhenNoWiderEmbeddingIsLeft() throws IOException {
+        client.setEmbeddingDimensions(2);
+        client.setActiveEmbeddingDimensions(1);
+        Knowledge narrower = entry(1L, null, new float[]{1f});
+        narrower.setContent("Оплата при отриманні");
+        when(knowledgeRepository.findWithoutEmbeddingOfWidth(1L, 2, 2)).thenReturn(List.of(narrower));
+        when(geminiEmbeddingService.getEmbeddings(List.of("Оплата при отриманні"))).thenReturn(List.of(new float[]{0f, 2f, 5f}));
+
+        worker.migrate(client);
+
+        assertArrayEquals(new float[]{0f, 1f}, narrower.getReducedEmbedding(), 1e-6f);
+        assertEquals(2, client.getActiveEmbeddingDimensions());
+    }
+
+    @Test
+    void movesBackToFullWidthAndClearsReducedEmbeddings() throws IOException {
+        client.setEmbeddingDimensions(EmbeddingDimensions.FULL);
+        client.setActiveEmbeddingDimensions(2);
+        Knowledge dropped = entry(1L, null, new float[]{0.6f, 0.8f});
+        dropped.setContent("Повернення 14 днів");
+        float[] full = {0.3f, 0.4f, 0.866f};
+        when(knowledgeRepository.findWithoutEmbeddingOfWidth(1L, EmbeddingDimensions.FULL, 2)).thenReturn(List.of(dropped));
+        when(geminiEmbeddingService.getEmbeddings(List.of("Повернення 14 днів"))).thenReturn(List.of(full));
+
+        worker.migrate(client);
+
+        // The reduced embedding is kept for searches until the switch
+        assertSame(full, dropped.getEmbedding());
+        assertArrayEquals(new float[]{0.6f, 0.8f}, dropped.getReducedEmbedding());
+        assertNull(client.getActiveEmbeddingDimensions());
+        verify(clientRepository).updateActiveEmbeddingDimensions(1L, null);
+        verify(knowledgeRepository).clearReducedEmbeddings(1L);
+    }
+
+    @Test
+    void doesNotSwitchWhenEmbeddingFails() throws IOException {
+        client.setEmbeddingDimensions(2);
+        Knowledge withoutEmbedding = entry(1L, null, null);
+        withoutEmbedding.setContent("Доставка");
+        when(knowledgeRepository.findWithoutEmbeddingOfWidth(1L, 2, 2)).thenReturn(List.of(withoutEmbedding));
+        when(geminiEmbeddingService.getEmbeddings(anyList())).thenThrow(new IOException("API Error"));
+        when(clientRepository.findAll()).thenReturn(List.of(client));
+
+        worker.migrateAll();
+
+        assertNull(client.getActiveEmbeddingDimensions());
+        verify(knowledgeRepository, never()).updateEmbeddings(anyList());
+        verify(clientRepository, never()).updateActiveEmbeddingDimensions(any(), any());
+    }
+
+    private static Knowledge entry(Long id, float[] embedding, float[] reducedEmbedding) {
+        Knowledge knowledge = new Knowledge();
+        knowledge.setId(id);
+        knowledge.setEmbedding(embedding);
+        knowledge.setReducedEmbedding(reducedEmbedding);
+        return knowledge;
+    }
+}
@@ -1,13 +1,14 @@
 package org.example.service;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.example.database.entity.Client;
 import org.example.database.entity.Knowledge;
 import org.example.database.repository.ClientRepository;
 import org.example.database.repository.KnowledgeRepository;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
@@ -20,12 +21,13 @@ import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.anyLong;
-import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.never;
-import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -41,32 +43,54 @@ class KnowledgeManagementServiceTest {
     @Mock
     private KnowledgeRepository knowledgeRepository;
 
-    @InjectMocks
     private KnowledgeManagementService knowledgeManagementService;
 
+    @BeforeEach
+    void setUp() {
+        knowledgeManagementService = new KnowledgeManagementService(ragService, clientRepository, knowledgeRepository,
+                new EmbeddingDimensions(3072, false), new SimpleMeterRegistry());
+    }
+
     @Test
-    void processAndStoreKnowledge_createsEmbeddingsForEachParagraph() throws Exception {
+    void processAndStoreKnowledge_embedsParagraphsInOneBatchAndInsertsThem() throws Exception {
         Client client = new Client();
         Long clientId = 1L;
         when(clientRepository.findById(clientId)).thenReturn(Optional.of(client));
+        List<String> expectedParagraphs = List.of(
+                "First paragraph line 1.\nFirst paragraph line 2.",
+                "Second paragraph.",
+                "Third paragraph."
+        );
+        List<float[]> embeddings = List.of(new float[]{0.1f}, new float[]{0.2f}, new float[]{0.3f});
+        when(ragService.getEmbeddingsForTexts(expectedParagraphs)).thenReturn(embeddings);
 
         String content = "First paragraph line 1.\nFirst paragraph line 2.\n\nSecond paragraph.\n\nThird paragraph.";
         InputStream inputStream = new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
 
-        knowledgeManagementService.processAndStoreKnowledge(clientId, inputStream);
+        KnowledgeManagementService.UploadReport report = knowledgeManagementService.processAndStoreKnowledge(clientId, inputStream);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Knowledge>> entriesCaptor = ArgumentCaptor.forClass(List.class);
+        verify(knowledgeRepository).insertAll(entriesCaptor.capture());
+        List<Knowledge> entries = entriesCaptor.getValue();
+        assertEquals(expectedParagraphs, entries.stream().map(Knowledge::getContent).toList());
+        for (int i = 0; i < entries.size(); i++) {
+            assertSame(client, entries.get(i).getClient());
+            assertSame(embeddings.get(i), entries.get(i).getEmbedding());
+        }
+        assertEquals(3, report.paragraphs());
+        verify(ragService, never()).createAndStoreEmbedding(any(), anyString());
+    }
 
-        ArgumentCaptor<String> paragraphCaptor = ArgumentCaptor.forClass(String.class);
-        verify(ragService, times(3)).createAndStoreEmbedding(eq(client), paragraphCaptor.capture());
+    @Test
+    void processAndStoreKnowledge_storesNothingWhenEmbeddingFails() throws Exception {
+        when(clientRepository.findById(1L)).thenReturn(Optional.of(new Client()));
+        when(ragService.getEmbeddingsForTexts(anyList())).thenThrow(new IOException("batch failed"));
 
-        List<String> paragraphs = paragraphCaptor.getAllValues();
-        assertEquals(
-                List.of(
-                        "First paragraph line 1.\nFirst paragraph line 2.",
-                        "Second paragraph.",
-                        "Third paragraph."
-                ),
-                paragraphs
-        );
+        InputStream inputStream = new ByteArrayInputStream("One.\n\nTwo.".getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(IOException.class, () -> knowledgeManagementService.processAndStoreKnowledge(1L, inputStream));
+        verify(knowledgeRepository, never()).insertAll(anyList());
     }
 
     @Test
@@ -78,13 +102,14 @@ class KnowledgeManagementServiceTest {
         assertThrows(IllegalArgumentException.class,
                 () -> knowledgeManagementService.processAndStoreKnowledge(42L, inputStream));
 
-        verify(ragService, never()).createAndStoreEmbedding(org.mockito.Mockito.any(), anyString());
+        verify(ragService, never()).getEmbeddingsForTexts(anyList());
     }
 
     @Test
     void updateKnowledge_updatesContentAndEmbeddingAndSaves() throws Exception {
         Long knowledgeId = 5L;
         Knowledge knowledge = new Knowledge();
+        knowledge.setClient(new Client());
         knowledge.setContent("Old content");
         knowledge.setEmbedding(new float[]{0.1f});
 
@@ -99,5 +124,6 @@ class KnowledgeManagementServiceTest {
         assertArrayEquals(expectedEmbedding, knowledge.getEmbedding());
         verify(ragService).getEmbeddingForText(newContent);
         verify(knowledgeRepository).save(knowledge);
+        verify(knowledgeRepository).updateEmbeddings(List.of(knowledge));
     }
 }
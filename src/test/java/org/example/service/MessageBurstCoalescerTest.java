@@ -0,0 +1,93 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageBurstCoalescerTest {
+
+    private ThreadPoolTaskScheduler taskScheduler;
+    private SimpleMeterRegistry meterRegistry;
+    private final List<List<String>> flushedBursts = new CopyOnWriteArrayList<>();
+    private final Function<List<MessageBurstCoalescer.PendingMessage>, CompletableFuture<Void>> flusher = messages -> {
+        flushedBursts.add(messages.stream().map(MessageBurstCoalescer.PendingMessage::text).toList());
+        return CompletableFuture.completedFuture(null);
+    };
+
+    @BeforeEach
+    void setUp() {
+        taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.initialize();
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() {
+        taskScheduler.shutdown();
+    }
+
+    @Test
+    void add_messagesWithinWindow_areFlushedTogether() {
+        MessageBurstCoalescer coalescer = new MessageBurstCoalescer(taskScheduler, meterRegistry, 150, 5000, 10);
+
+        CompletableFuture<Void> first = coalescer.add("1:a", message("m_1", "hi"), flusher);
+        CompletableFuture<Void> second = coalescer.add("1:a", message("m_2", "do you have"), flusher);
+        CompletableFuture<Void> other = coalescer.add("1:b", message("m_3", "hello"), flusher);
+
+        CompletableFuture.allOf(first, second, other).orTimeout(5, TimeUnit.SECONDS).join();
+        assertEquals(2, flushedBursts.size());
+        assertTrue(flushedBursts.contains(List.of("hi", "do you have")));
+        assertTrue(flushedBursts.contains(List.of("hello")));
+        assertEquals(2.0, meterRegistry.counter("webhook.coalescing.bursts").count());
+    }
+
+    @Test
+    void add_duplicateMessageId_isIgnored() {
+        MessageBurstCoalescer coalescer = new MessageBurstCoalescer(taskScheduler, meterRegistry, 100, 5000, 10);
+
+        coalescer.add("1:a", message("m_1", "hi"), flusher);
+        coalescer.add("1:a", message("m_1", "hi"), flusher).orTimeout(5, TimeUnit.SECONDS).join();
+
+        assertEquals(List.of(List.of("hi")), flushedBursts);
+    }
+
+    @Test
+    void add_burstReachingMaxMessages_isFlushedImmediately() {
+        MessageBurstCoalescer coalescer = new MessageBurstCoalescer(taskScheduler, meterRegistry, 60_000, 60_000, 2);
+
+        coalescer.add("1:a", message("m_1", "one"), flusher);
+        coalescer.add("1:a", message("m_2", "two"), flusher).orTimeout(5, TimeUnit.SECONDS).join();
+
+        assertEquals(List.of(List.of("one", "two")), flushedBursts);
+    }
+
+    @Test
+    void flushAll_answersPendingBurstsWithoutWaiting() {
+        MessageBurstCoalescer coalescer = new MessageBurstCoalescer(taskScheduler, meterRegistry, 60_000, 60_000, 10);
+        CompletableFuture<Void> pending = coalescer.add("1:a", message("m_1", "hi"), flusher);
+
+        coalescer.flushAll();
+
+        assertTrue(pending.isDone());
+        assertEquals(List.of(List.of("hi")), flushedBursts);
+    }
+
+    @Test
+    void isEnabled_falseForZeroWindow() {
+        assertFalse(new MessageBurstCoalescer(taskScheduler, meterRegistry, 0, 0, 10).isEnabled());
+    }
+
+    private static MessageBurstCoalescer.PendingMessage message(String messageId, String text) {
+        return new MessageBurstCoalescer.PendingMessage(messageId, text);
+    }
+}
@@ -0,0 +1,56 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageIdDeduplicatorTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void isKnownDuplicate_onlyForRememberedIds() {
+        MessageIdDeduplicator deduplicator = new MessageIdDeduplicator(meterRegistry, 10, 60);
+
+        assertFalse(deduplicator.isKnownDuplicate("m_1"));
+        deduplicator.remember("m_1");
+
+        assertTrue(deduplicator.isKnownDuplicate("m_1"));
+        assertFalse(deduplicator.isKnownDuplicate("m_2"));
+        assertEquals(1.0, meterRegistry.counter("webhook.dedupe.lookups", "result", "hit").count());
+        assertEquals(2.0, meterRegistry.counter("webhook.dedupe.lookups", "result", "miss").count());
+    }
+
+    @Test
+    void remember_evictsOldestBeyondMaxEntries() {
+        MessageIdDeduplicator deduplicator = new MessageIdDeduplicator(meterRegistry, 2, 60);
+
+        deduplicator.remember("m_1");
+        deduplicator.remember("m_2");
+        deduplicator.remember("m_3");
+
+        assertEquals(2, deduplicator.size());
+        assertFalse(deduplicator.isKnownDuplicate("m_1"));
+        assertTrue(deduplicator.isKnownDuplicate("m_3"));
+    }
+
+    @Test
+    void isKnownDuplicate_ignoresExpiredEntries() {
+        MessageIdDeduplicator deduplicator = new MessageIdDeduplicator(meterRegistry, 10, 0);
+
+        deduplicator.remember("m_1");
+
+        assertFalse(deduplicator.isKnownDuplicate("m_1"));
+    }
+
+    @Test
+    void recordStoreDuplicate_countsWithoutRemembering() {
+        MessageIdDeduplicator deduplicator = new MessageIdDeduplicator(meterRegistry, 10, 60);
+
+        deduplicator.recordStoreDuplicate("m_1");
+
+        assertFalse(deduplicator.isKnownDuplicate("m_1"));
+        assertEquals(1.0, meterRegistry.counter("webhook.dedupe.store.duplicates").count());
+    }
+}
@@ -0,0 +1,74 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboundHttpClientsTest {
+
+    private MockWebServer server;
+    private SimpleMeterRegistry meterRegistry;
+    private OutboundHttpClients httpClients;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        meterRegistry = new SimpleMeterRegistry();
+        httpClients = new OutboundHttpClients(meterRegistry, 5000, 240000, 16, 60000, 10000, 15000);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        httpClients.close();
+        server.shutdown();
+    }
+
+    @Test
+    void downstreamsShareConnectionPoolButNotTimeouts() {
+        OkHttpClient chat = httpClients.forDownstream(DownstreamLimits.Downstream.GEMINI_CHAT);
+        OkHttpClient embedding = httpClients.forDownstream(DownstreamLimits.Downstream.GEMINI_EMBEDDING);
+
+        assertSame(chat.connectionPool(), embedding.connectionPool());
+        assertSame(chat.dispatcher(), embedding.dispatcher());
+        assertEquals(60000, chat.readTimeoutMillis());
+        assertEquals(0, chat.callTimeoutMillis());
+        assertEquals(10000, embedding.callTimeoutMillis());
+    }
+
+    @Test
+    void reusesConnectionAcrossDownstreamsAndRecordsPhases() throws IOException {
+        server.enqueue(new MockResponse().setBody("a"));
+        server.enqueue(new MockResponse().setBody("b"));
+
+        call(DownstreamLimits.Downstream.GEMINI_EMBEDDING);
+        call(DownstreamLimits.Downstream.GEMINI_CHAT);
+
+        assertEquals(1, connections("gemini-embedding", "false"));
+        assertEquals(1, connections("gemini-chat", "true"));
+        assertEquals(1, meterRegistry.timer("http.client.phase", "downstream", "gemini-embedding", "phase", "connect").count());
+        assertEquals(0, meterRegistry.timer("http.client.phase", "downstream", "gemini-chat", "phase", "connect").count());
+        assertEquals(1, meterRegistry.timer("http.client.phase", "downstream", "gemini-chat", "phase", "ttfb").count());
+    }
+
+    private void call(DownstreamLimits.Downstream downstream) throws IOException {
+        Request request = new Request.Builder().url(server.url("/")).build();
+        try (Response response = httpClients.forDownstream(downstream).newCall(request).execute()) {
+            response.body().string();
+        }
+    }
+
+    private double connections(String downstream, String reused) {
+        return meterRegistry.counter("http.client.connections", "downstream", downstream, "reused", reused).count();
+    }
+}
@@ -0,0 +1,81 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class OverloadControllerTest {
+
+    private final TenantFairScheduler scheduler = mock(TenantFairScheduler.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private OverloadController newController(long latencyStaleMs) {
+        return new OverloadController(scheduler, meterRegistry, new long[]{10, 20, 30, 40},
+                new long[]{1000, 2000, 3000, 4000}, 1.0, latencyStaleMs, 1, 100, 2, "Soon");
+    }
+
+    @Test
+    void currentLevel_stepsDownWithQueueDepth() {
+        OverloadController controller = newController(60000);
+
+        when(scheduler.queuedCount()).thenReturn(0);
+        assertEquals(OverloadController.Level.NORMAL, controller.currentLevel());
+        when(scheduler.queuedCount()).thenReturn(10);
+        assertEquals(OverloadController.Level.NO_INACTIVITY_HINT, controller.currentLevel());
+        when(scheduler.queuedCount()).thenReturn(25);
+        assertEquals(OverloadController.Level.REDUCED_RAG, controller.currentLevel());
+        when(scheduler.queuedCount()).thenReturn(39);
+        assertEquals(OverloadController.Level.NO_RAG, controller.currentLevel());
+        when(scheduler.queuedCount()).thenReturn(500);
+        assertEquals(OverloadController.Level.DEFER, controller.currentLevel());
+    }
+
+    @Test
+    void currentLevel_takesTheWorseOfQueueDepthAndLatency() {
+        OverloadController controller = newController(60000);
+        when(scheduler.queuedCount()).thenReturn(10);
+
+        controller.recordLatency(Duration.ofMillis(3500));
+
+        assertEquals(OverloadController.Level.NO_RAG, controller.currentLevel());
+    }
+
+    @Test
+    void currentLevel_ignoresStaleLatency() {
+        OverloadController controller = newController(0);
+        controller.recordLatency(Duration.ofMillis(5000));
+
+        assertEquals(OverloadController.Level.NORMAL, controller.currentLevel());
+    }
+
+    @Test
+    void levelForReply_neverReturnsDeferAndCountsDecisions() {
+        OverloadController controller = newController(60000);
+        when(scheduler.queuedCount()).thenReturn(500);
+
+        assertEquals(OverloadController.Level.NO_RAG, controller.levelForReply());
+        assertEquals(1.0, meterRegistry.get("overload.decisions").tag("level", "NO_RAG").counter().count());
+    }
+
+    @Test
+    void shouldDefer_stopsAfterMaxDeferrals() {
+        OverloadController controller = newController(60000);
+        when(scheduler.queuedCount()).thenReturn(500);
+
+        assertTrue(controller.shouldDefer(0));
+        assertTrue(controller.shouldDefer(1));
+        assertFalse(controller.shouldDefer(2));
+        assertEquals(2.0, meterRegistry.get("overload.decisions").tag("level", "DEFER").counter().count());
+    }
+
+    @Test
+    void constructor_rejectsWrongNumberOfThresholds() {
+        assertThrows(IllegalArgumentException.class, () -> new OverloadController(scheduler, meterRegistry,
+                new long[]{1, 2}, new long[]{1, 2, 3, 4}, 0.2, 1000, 1, 100, 2, "Soon"));
+    }
+}
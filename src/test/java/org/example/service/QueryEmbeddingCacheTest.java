@@ -0,0 +1,179 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryEmbeddingCacheTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private QueryEmbeddingCache cache;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new QueryEmbeddingCache(meterRegistry, true, 3, 1 << 20, 60000);
+    }
+
+    @Test
+    void servesNormalizedRepeatsFromCache() throws IOException {
+        float[] first = cache.get("Є в наявності?", this::embed);
+        float[] repeated = cache.get("  є   в НАЯВНОСТІ? ", this::embed);
+
+        assertSame(first, repeated);
+        assertEquals(1, calls.get());
+        assertEquals(0.5, meterRegistry.get("query.embedding.cache.hit.ratio").gauge().value());
+        assertEquals(128 + 2 * "є в наявності?".length() + 4 * 2, meterRegistry.get("query.embedding.cache.bytes").gauge().value());
+    }
+
+    @Test
+    void embedsAgainAfterTtl() throws Exception {
+        cache = new QueryEmbeddingCache(meterRegistry, true, 3, 1 << 20, 20);
+        cache.get("доставка", this::embed);
+
+        Thread.sleep(40);
+        cache.get("доставка", this::embed);
+
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedBeyondMaxEntries() throws IOException {
+        cache.get("ціна", this::embed);
+        cache.get("доставка", this::embed);
+        cache.get("оплата", this::embed);
+        cache.get("ціна", this::embed);
+
+        // "доставка" is the least recently used one now
+        cache.get("розміри", this::embed);
+        cache.get("ціна", this::embed);
+        cache.get("доставка", this::embed);
+
+        assertEquals(5, calls.get());
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    void concurrentMissesShareOneCall() throws Exception {
+        CountDownLatch callStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        QueryEmbeddingCache.Loader slow = query -> {
+            calls.incrementAndGet();
+            callStarted.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new float[]{1f, 2f};
+        };
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            List<Future<float[]>> results = new ArrayList<>();
+            results.add(executor.submit(() -> cache.get("ціна?", slow)));
+            assertTrue(callStarted.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(() -> cache.get("Ціна?", slow)));
+            }
+            while (meterRegistry.counter("query.embedding.cache.lookups", "result", "joined").count() < 4) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+
+            for (Future<float[]> result : results) {
+                assertSame(results.get(0).get(5, TimeUnit.SECONDS), result.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void waitingCallerRetriesWhenCallerItWaitedForIsInterrupted() throws Exception {
+        CountDownLatch callStarted = new CountDownLatch(1);
+        QueryEmbeddingCache.Loader interruptible = query -> {
+            if (calls.incrementAndGet() == 1) {
+                callStarted.countDown();
+                try {
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("cancelled");
+                }
+            }
+            return new float[]{3f};
+        };
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            Future<float[]> leader = executor.submit(() -> cache.get("розміри", interruptible));
+            assertTrue(callStarted.await(5, TimeUnit.SECONDS));
+            Future<float[]> follower = executor.submit(() -> cache.get("розміри", interruptible));
+            while (meterRegistry.counter("query.embedding.cache.lookups", "result", "joined").count() < 1) {
+                Thread.sleep(5);
+            }
+            leader.cancel(true);
+
+            assertArrayEquals(new float[]{3f}, follower.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void failedCallIsSharedButNotCached() throws Exception {
+        CountDownLatch callStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        QueryEmbeddingCache.Loader failing = query -> {
+            calls.incrementAndGet();
+            callStarted.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("API Error");
+        };
+
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        try {
+            Future<float[]> leader = executor.submit(() -> cache.get("оплата", failing));
+            assertTrue(callStarted.await(5, TimeUnit.SECONDS));
+            Future<float[]> follower = executor.submit(() -> cache.get("оплата", failing));
+            while (meterRegistry.counter("query.embedding.cache.lookups", "result", "joined").count() < 1) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+
+            assertInstanceOf(IOException.class, assertThrows(Exception.class, () -> leader.get(5, TimeUnit.SECONDS)).getCause());
+            assertInstanceOf(IOException.class, assertThrows(Exception.class, () -> follower.get(5, TimeUnit.SECONDS)).getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        cache.get("оплата", this::embed);
+        assertEquals(2, calls.get());
+    }
+
+    private float[] embed(String query) {
+        calls.incrementAndGet();
+        return new float[]{query.length(), 1f};
+    }
+}
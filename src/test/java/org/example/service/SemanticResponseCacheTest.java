@@ -0,0 +1,91 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SemanticResponseCacheTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private SemanticResponseCache cache;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new SemanticResponseCache(meterRegistry, true, 0.95, 2, 60000, 1800000);
+    }
+
+    @Test
+    void findsAnswerForSimilarQuestionWithSameContext() {
+        cache.put(key(1L, new float[]{1f, 0f, 0f}, "ctx"), "Доставка 1-2 дні.");
+
+        assertEquals(Optional.of("Доставка 1-2 дні."), cache.find(key(1L, new float[]{0.99f, 0.05f, 0f}, "ctx")));
+        assertEquals(1, meterRegistry.counter("semantic.cache.lookups", "result", "hit").count());
+    }
+
+    @Test
+    void missesForDissimilarQuestionOtherClientOrChangedContext() {
+        cache.put(key(1L, new float[]{1f, 0f, 0f}, "ctx"), "Доставка 1-2 дні.");
+
+        assertEquals(Optional.empty(), cache.find(key(1L, new float[]{0f, 1f, 0f}, "ctx")));
+        assertEquals(Optional.empty(), cache.find(key(2L, new float[]{1f, 0f, 0f}, "ctx")));
+        assertEquals(Optional.empty(), cache.find(key(1L, new float[]{1f, 0f, 0f}, "ctx-after-price-edit")));
+        assertEquals(3, meterRegistry.counter("semantic.cache.lookups", "result", "miss").count());
+    }
+
+    @Test
+    void replacesStaleAnswerForSimilarQuestion() {
+        cache.put(key(1L, new float[]{1f, 0f, 0f}, "old"), "Ціна 100 грн.");
+        cache.put(key(1L, new float[]{1f, 0.01f, 0f}, "new"), "Ціна 120 грн.");
+
+        assertEquals(1, cache.size());
+        assertEquals(Optional.of("Ціна 120 грн."), cache.find(key(1L, new float[]{1f, 0f, 0f}, "new")));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedAnswer() {
+        cache.put(key(1L, new float[]{1f, 0f, 0f}, "ctx"), "a");
+        cache.put(key(1L, new float[]{0f, 1f, 0f}, "ctx"), "b");
+        cache.find(key(1L, new float[]{1f, 0f, 0f}, "ctx"));
+
+        cache.put(key(1L, new float[]{0f, 0f, 1f}, "ctx"), "c");
+
+        assertEquals(2, cache.size());
+        assertEquals(Optional.of("a"), cache.find(key(1L, new float[]{1f, 0f, 0f}, "ctx")));
+        assertEquals(Optional.empty(), cache.find(key(1L, new float[]{0f, 1f, 0f}, "ctx")));
+    }
+
+    @Test
+    void expiredAnswerIsNotReturned() {
+        cache = new SemanticResponseCache(meterRegistry, true, 0.95, 2, 0, 1800000);
+        cache.put(key(1L, new float[]{1f, 0f, 0f}, "ctx"), "a");
+
+        assertEquals(Optional.empty(), cache.find(key(1L, new float[]{1f, 0f, 0f}, "ctx")));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void appliesOnlyWithoutRecentAnsweredMessages() {
+        ConversationHistoryCache.Turn pending = turn("USER", LocalDateTime.now(), true);
+        ConversationHistoryCache.Turn oldReply = turn("AI", LocalDateTime.now().minusDays(1), false);
+        ConversationHistoryCache.Turn recentReply = turn("AI", LocalDateTime.now().minusMinutes(5), false);
+
+        assertTrue(cache.appliesTo(List.of(pending, oldReply)));
+        assertFalse(cache.appliesTo(List.of(pending, recentReply)));
+        assertFalse(new SemanticResponseCache(meterRegistry, false, 0.95, 2, 60000, 1800000).appliesTo(List.of(pending)));
+    }
+
+    private static SemanticResponseCache.Key key(Long clientId, float[] embedding, String fingerprint) {
+        return new SemanticResponseCache.Key(clientId, embedding, fingerprint);
+    }
+
+    private static ConversationHistoryCache.Turn turn(String author, LocalDateTime timestamp, boolean pending) {
+        return new ConversationHistoryCache.Turn(null, author, "text", timestamp, null, pending);
+    }
+}
@@ -0,0 +1,123 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SenderOrderedDispatcherTest {
+
+    private static final TenantFairScheduler.Tenant TENANT = new TenantFairScheduler.Tenant(1L, 1, 0);
+
+    private ExecutorService executor;
+    private SenderOrderedDispatcher dispatcher;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        dispatcher = new SenderOrderedDispatcher(new TenantFairScheduler(executor, new SimpleMeterRegistry(), 4));
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void dispatch_sameKey_runsTasksInSubmissionOrder() {
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        CompletableFuture<?>[] futures = new CompletableFuture[20];
+        for (int i = 0; i < futures.length; i++) {
+            int value = i;
+            futures[i] = dispatcher.dispatch(TENANT, "client:sender", () -> {
+                sleep(value % 3);
+                order.add(value);
+            });
+        }
+
+        CompletableFuture.allOf(futures).join();
+
+        for (int i = 0; i < futures.length; i++) {
+            assertEquals(i, order.get(i));
+        }
+    }
+
+    @Test
+    void dispatch_differentKeys_runInParallel() throws InterruptedException {
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        Runnable task = () -> {
+            bothStarted.countDown();
+            try {
+                bothStarted.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        CompletableFuture<Void> first = dispatcher.dispatch(TENANT, "client:a", task);
+        CompletableFuture<Void> second = dispatcher.dispatch(TENANT, "client:b", task);
+
+        assertTrue(bothStarted.await(5, TimeUnit.SECONDS));
+        CompletableFuture.allOf(first, second).join();
+    }
+
+    @Test
+    void dispatch_failedTaskDoesNotBlockNextTaskForSameKey() {
+        List<String> executed = new CopyOnWriteArrayList<>();
+
+        CompletableFuture<Void> failing = dispatcher.dispatch(TENANT, "client:sender", () -> {
+            throw new IllegalStateException("boom");
+        });
+        CompletableFuture<Void> next = dispatcher.dispatch(TENANT, "client:sender", () -> executed.add("next"));
+
+        next.join();
+        assertTrue(failing.isCompletedExceptionally());
+        assertEquals(List.of("next"), executed);
+    }
+
+    @Test
+    void dispatchHeld_keepsKeyUntilReturnedFutureCompletes() throws InterruptedException {
+        List<String> executed = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> release = new CompletableFuture<>();
+        CountDownLatch started = new CountDownLatch(1);
+
+        CompletableFuture<Void> held = dispatcher.dispatchHeld(TENANT, "client:sender", () -> {
+            executed.add("held");
+            started.countDown();
+            return release;
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Void> next = dispatcher.dispatch(TENANT, "client:sender", () -> executed.add("next"));
+        CompletableFuture<Void> resumed = dispatcher.resume(TENANT, () -> {
+            executed.add("resumed");
+            return CompletableFuture.completedFuture(null);
+        });
+
+        resumed.join();
+        Thread.sleep(50);
+        assertEquals(List.of("held", "resumed"), executed);
+        assertFalse(next.isDone());
+
+        release.complete(null);
+        CompletableFuture.allOf(held, next).join();
+        assertEquals(List.of("held", "resumed", "next"), executed);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
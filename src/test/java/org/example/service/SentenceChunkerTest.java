@@ -0,0 +1,51 @@
+package org.example.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SentenceChunkerTest {
+
+    @Test
+    void append_cutsAtLastSentenceEndOnceMinimumIsBuffered() {
+        SentenceChunker chunker = new SentenceChunker(10, 990);
+
+        assertEquals(List.of(), chunker.append("Hi. "));
+        assertEquals(List.of(), chunker.append("The dress is"));
+        assertEquals(List.of("Hi. The dress is in stock."), chunker.append(" in stock. Deli"));
+        assertEquals(List.of(), chunker.append("very takes two days."));
+        assertEquals(List.of("Delivery takes two days."), chunker.finish());
+    }
+
+    @Test
+    void append_waitsForCharacterAfterTerminator() {
+        SentenceChunker chunker = new SentenceChunker(1, 990);
+
+        assertEquals(List.of(), chunker.append("It costs 3."));
+        assertEquals(List.of(), chunker.append("5 UAH"));
+        assertEquals(List.of("It costs 3.5 UAH! Anything else?"), chunker.append("! Anything else?\n"));
+        assertEquals(List.of(), chunker.finish());
+    }
+
+    @Test
+    void append_neverExceedsMaximumLength() {
+        SentenceChunker chunker = new SentenceChunker(100, 50);
+        List<String> chunks = new ArrayList<>(chunker.append("word ".repeat(30)));
+        chunks.addAll(chunker.finish());
+
+        assertTrue(chunks.size() >= 3);
+        chunks.forEach(chunk -> assertTrue(chunk.length() <= 50, chunk));
+        assertEquals("word ".repeat(30).strip(), String.join(" ", chunks));
+    }
+
+    @Test
+    void append_hardCutsTextWithoutWhitespace() {
+        SentenceChunker chunker = new SentenceChunker(10, 990);
+
+        assertEquals(List.of("a".repeat(990)), chunker.append("a".repeat(1500)));
+        assertEquals(List.of("a".repeat(510)), chunker.finish());
+    }
+}
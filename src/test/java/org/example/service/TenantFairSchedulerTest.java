@@ -0,0 +1,117 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TenantFairSchedulerTest {
+
+    private static final TenantFairScheduler.Tenant BUSY = new TenantFairScheduler.Tenant(1L, 1, 0);
+    private static final TenantFairScheduler.Tenant QUIET = new TenantFairScheduler.Tenant(2L, 1, 0);
+    private static final TenantFairScheduler.Tenant PREMIUM = new TenantFairScheduler.Tenant(3L, 2, 0);
+
+    /**
+     * Holds started tasks until the test runs them, so the order in which slots are granted is observable.
+     */
+    private final Queue<Runnable> started = new ArrayDeque<>();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<Long> order = new ArrayList<>();
+
+    @Test
+    void execute_interleavesClientsInsteadOfServingTheBacklogFirst() {
+        TenantFairScheduler scheduler = new TenantFairScheduler(started::add, meterRegistry, 1);
+        for (int i = 0; i < 5; i++) {
+            submit(scheduler, BUSY);
+        }
+        submit(scheduler, QUIET);
+        submit(scheduler, QUIET);
+
+        runAll();
+
+        assertEquals(List.of(1L, 2L, 1L, 2L, 1L, 1L, 1L), order);
+    }
+
+    @Test
+    void execute_servesClientsInProportionToTheirWeights() {
+        TenantFairScheduler scheduler = new TenantFairScheduler(started::add, meterRegistry, 1);
+        submit(scheduler, BUSY);
+        for (int i = 0; i < 6; i++) {
+            submit(scheduler, BUSY);
+            submit(scheduler, PREMIUM);
+        }
+
+        runAll();
+
+        // After the first task, the premium client gets two slots for each slot of the other client.
+        List<Long> firstNine = order.subList(1, 10);
+        assertEquals(6, firstNine.stream().filter(id -> id == 3L).count());
+        assertEquals(3, firstNine.stream().filter(id -> id == 1L).count());
+    }
+
+    @Test
+    void execute_respectsPerClientConcurrencyCap() {
+        TenantFairScheduler.Tenant capped = new TenantFairScheduler.Tenant(4L, 1, 1);
+        TenantFairScheduler scheduler = new TenantFairScheduler(started::add, meterRegistry, 4);
+
+        submit(scheduler, capped);
+        submit(scheduler, capped);
+        submit(scheduler, QUIET);
+
+        assertEquals(2, started.size());
+        assertEquals(1, scheduler.queuedCount());
+        assertEquals(1.0, meterRegistry.get("webhook.tenant.capped").tag("client", "4").counter().count());
+
+        runAll();
+        assertEquals(0, scheduler.queuedCount());
+    }
+
+    @Test
+    void execute_idleClientDoesNotBankUnusedShare() {
+        TenantFairScheduler scheduler = new TenantFairScheduler(started::add, meterRegistry, 1);
+        for (int i = 0; i < 4; i++) {
+            submit(scheduler, BUSY);
+        }
+        runAll();
+        order.clear();
+
+        for (int i = 0; i < 3; i++) {
+            submit(scheduler, QUIET);
+        }
+        for (int i = 0; i < 3; i++) {
+            submit(scheduler, BUSY);
+        }
+        runAll();
+
+        // The quiet client starts the first slot but then alternates instead of running all three first.
+        assertEquals(List.of(2L, 1L, 2L, 1L, 2L, 1L), order);
+    }
+
+    @Test
+    void execute_recordsQueueWaitPerClient() {
+        TenantFairScheduler scheduler = new TenantFairScheduler(started::add, meterRegistry, 1);
+        submit(scheduler, BUSY);
+        submit(scheduler, QUIET);
+
+        runAll();
+
+        assertEquals(1, meterRegistry.get("webhook.tenant.queue.wait").tag("client", "1").timer().count());
+        assertEquals(1, meterRegistry.get("webhook.tenant.queue.wait").tag("client", "2").timer().count());
+    }
+
+    private void submit(TenantFairScheduler scheduler, TenantFairScheduler.Tenant tenant) {
+        scheduler.execute(tenant, () -> order.add(tenant.id()));
+    }
+
+    private void runAll() {
+        Runnable task;
+        while ((task = started.poll()) != null) {
+            task.run();
+        }
+    }
+}
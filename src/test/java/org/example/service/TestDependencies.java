@@ -0,0 +1,41 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.service.gemini.GeminiResilience;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+
+/**
+ * The outbound-call collaborators with their default settings, for services constructed outside the Spring context.
+ */
+public final class TestDependencies {
+
+    private TestDependencies() {
+    }
+
+    /**
+     * @return Limits that never make a caller wait.
+     */
+    public static DownstreamLimits unboundedLimits() {
+        return new DownstreamLimits(new SimpleMeterRegistry(),
+                Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, 0);
+    }
+
+    /**
+     * @return An executor for the background work of outbound calls, a virtual thread per task without a cap.
+     */
+    public static AsyncTaskExecutor outboundExecutor() {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("test-outbound-");
+        executor.setVirtualThreads(true);
+        return executor;
+    }
+
+    public static OutboundHttpClients httpClients() {
+        return new OutboundHttpClients(new SimpleMeterRegistry(), 5000, 240000, 16, 60000, 10000, 15000);
+    }
+
+    public static GeminiResilience resilience() {
+        return new GeminiResilience(new SimpleMeterRegistry(), outboundExecutor(), 3, 200, 5000, 10000, 45000,
+                20, 10, 0.5, 30000, 3.0, 2000, 20, 30000, false, 50, 0.1);
+    }
+}
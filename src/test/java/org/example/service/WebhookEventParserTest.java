@@ -0,0 +1,75 @@
+package org.example.service;
+
+import org.example.model.WebhookEvent;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WebhookEventParserTest {
+
+    @Test
+    void parse_extractsEveryEventOfEveryEntry() throws IOException {
+        String payload = """
+                {
+                  "object": "instagram",
+                  "entry": [
+                    {
+                      "time": 1515114666,
+                      "messaging": [
+                        {
+                          "sender": { "id": "S1" },
+                          "recipient": { "id": "P1" },
+                          "timestamp": 1515114666,
+                          "message": { "mid": "m_1", "text": "Привіт" }
+                        },
+                        {
+                          "sender": { "id": "S2" },
+                          "message": {
+                            "mid": "m_2",
+                            "attachments": [ { "type": "image", "payload": { "url": "http://example.com/a.jpg" } } ]
+                          }
+                        }
+                      ],
+                      "id": "P1"
+                    },
+                    {
+                      "id": "P2",
+                      "messaging": [
+                        { "sender": { "id": "P2" }, "message": { "mid": "m_3", "text": "echo", "is_echo": true } },
+                        { "sender": { "id": "S3" }, "read": { "mid": "m_3" } }
+                      ]
+                    }
+                  ]
+                }
+                """;
+
+        List<WebhookEvent> events = WebhookEventParser.parse(payload);
+
+        assertEquals(List.of(
+                new WebhookEvent("P1", "S1", "m_1", "Привіт", false, true),
+                new WebhookEvent("P1", "S2", "m_2", null, false, true),
+                new WebhookEvent("P2", "P2", "m_3", "echo", true, true),
+                new WebhookEvent("P2", "S3", null, null, false, false)
+        ), events);
+        assertTrue(events.get(0).isIncomingText());
+        assertFalse(events.get(1).isIncomingText());
+        assertFalse(events.get(2).isIncomingText());
+        assertFalse(events.get(3).isIncomingText());
+    }
+
+    @Test
+    void parse_entryWithoutMessaging_yieldsNoEvents() throws IOException {
+        assertEquals(List.of(), WebhookEventParser.parse("{\"entry\":[{\"id\":\"P1\",\"changes\":[{\"field\":\"comments\"}]}]}"));
+    }
+
+    @Test
+    void parse_rejectsMalformedPayloads() {
+        assertThrows(IOException.class, () -> WebhookEventParser.parse("{not json"));
+        assertThrows(IOException.class, () -> WebhookEventParser.parse("{\"object\":\"instagram\"}"));
+        assertThrows(IOException.class, () -> WebhookEventParser.parse("[]"));
+        assertThrows(IOException.class, () -> WebhookEventParser.parse("{\"entry\":[{\"id\":\"P1\"}]"));
+    }
+}
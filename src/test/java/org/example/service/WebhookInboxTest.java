@@ -0,0 +1,98 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.database.entity.InboxEvent;
+import org.example.database.repository.InboxEventRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class WebhookInboxTest {
+
+    @Mock
+    private InboxEventRepository inboxEventRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private final List<Integer> committedBatchSizes = new ArrayList<>();
+    private final AtomicLong ids = new AtomicLong();
+    private WebhookInbox inbox;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        lenient().when(inboxEventRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            List<InboxEvent> events = invocation.getArgument(0);
+            events.forEach(event -> event.setId(ids.incrementAndGet()));
+            synchronized (committedBatchSizes) {
+                committedBatchSizes.add(events.size());
+            }
+            return events;
+        });
+        inbox = new WebhookInbox(inboxEventRepository, transactionManager, new SimpleMeterRegistry(), 64, 50);
+        inbox.start();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        inbox.stop();
+    }
+
+    @Test
+    void append_concurrentAppendsAreGroupCommitted() throws Exception {
+        List<CompletableFuture<Long>> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            results.add(inbox.append("{\"entry\":[" + i + "]}"));
+        }
+
+        List<Long> assignedIds = new ArrayList<>();
+        for (CompletableFuture<Long> result : results) {
+            assignedIds.add(result.get(5, TimeUnit.SECONDS));
+        }
+
+        assertEquals(10, assignedIds.stream().distinct().count());
+        synchronized (committedBatchSizes) {
+            assertTrue(committedBatchSizes.size() < 10, "Appends should share commits, got " + committedBatchSizes);
+            assertEquals(10, committedBatchSizes.stream().mapToInt(Integer::intValue).sum());
+        }
+        verify(transactionManager, times(committedBatchSizes.size())).commit(any());
+    }
+
+    @Test
+    void append_whenWriteFails_completesExceptionally() {
+        when(inboxEventRepository.saveAll(anyList())).thenThrow(new IllegalStateException("db down"));
+
+        CompletableFuture<Long> result = inbox.append("{\"entry\":[]}");
+
+        assertTrue(result.handle((id, error) -> error != null).join());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void markProcessed_updatesEntriesAsDone() {
+        inbox.markProcessed(7L);
+        inbox.append("{\"entry\":[]}").join();
+
+        verify(inboxEventRepository, timeout(2000)).updateStatus(
+                (Collection<Long>) argThat(idsArg -> ((Collection<Long>) idsArg).contains(7L)),
+                eq(InboxEvent.Status.DONE), any());
+    }
+}
@@ -0,0 +1,217 @@
+package org.example.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.LoggerConfig;
+import org.apache.logging.log4j.core.config.Property;
+import org.example.config.WebhookExecutorConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class WebhookIngestionServiceTest {
+
+    private static final String PAYLOAD = "{\"object\":\"instagram\",\"entry\":[{\"id\":\"PAGE_ID\",\"messaging\":[]}]}";
+    private static final Long INBOX_ID = 42L;
+
+    @Mock
+    private WebhookProcessingService processingService;
+
+    @Mock
+    private WebhookInbox inbox;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void accept_validPayload_journalsProcessesAndMarksItDone() {
+        when(inbox.append(PAYLOAD)).thenReturn(CompletableFuture.completedFuture(INBOX_ID));
+        when(processingService.processEvents(anyList())).thenReturn(CompletableFuture.completedFuture(null));
+        WebhookIngestionService ingestionService = newService(Runnable::run);
+
+        WebhookIngestionService.Outcome outcome = ingestionService.accept(PAYLOAD);
+
+        assertEquals(WebhookIngestionService.Outcome.ACCEPTED, outcome);
+        verify(processingService).processEvents(List.of());
+        verify(inbox).markProcessed(INBOX_ID);
+        assertEquals(1.0, meterRegistry.counter("webhook.ingestion.accepted").count());
+    }
+
+    @Test
+    void accept_logsRawPayloadAtDebugBeforeParsing() {
+        when(inbox.append(PAYLOAD)).thenReturn(CompletableFuture.completedFuture(INBOX_ID));
+        when(processingService.processEvents(anyList())).thenReturn(CompletableFuture.completedFuture(null));
+        WebhookIngestionService ingestionService = newService(Runnable::run);
+        List<String> logged = new CopyOnWriteArrayList<>();
+        LoggerContext context = (LoggerContext) LogManager.getContext(false);
+        LoggerConfig payloadLogger = context.getConfiguration().getLoggerConfig("org.example.webhook.payload");
+        Level level = payloadLogger.getLevel();
+        AbstractAppender appender = new AbstractAppender("payload-capture", null, null, true, Property.EMPTY_ARRAY) {
+            @Override
+            public void append(LogEvent event) {
+                logged.add(event.getMessage().getFormattedMessage());
+            }
+        };
+        appender.start();
+        payloadLogger.addAppender(appender, Level.DEBUG, null);
+        payloadLogger.setLevel(Level.DEBUG);
+        context.updateLoggers();
+        try {
+            ingestionService.accept(PAYLOAD);
+            ingestionService.accept("{not json");
+        } finally {
+            payloadLogger.removeAppender(appender.getName());
+            payloadLogger.setLevel(level);
+            context.updateLoggers();
+        }
+
+        assertEquals(2, logged.size());
+        assertTrue(logged.get(0).contains(PAYLOAD));
+        assertTrue(logged.get(1).contains("{not json"));
+    }
+
+    @Test
+    void accept_doesNotWaitForProcessing() {
+        when(inbox.append(PAYLOAD)).thenReturn(CompletableFuture.completedFuture(INBOX_ID));
+        Executor queueingExecutor = mock(Executor.class);
+        WebhookIngestionService ingestionService = newService(queueingExecutor);
+
+        WebhookIngestionService.Outcome outcome = ingestionService.accept(PAYLOAD);
+
+        assertEquals(WebhookIngestionService.Outcome.ACCEPTED, outcome);
+        verify(queueingExecutor).execute(any(Runnable.class));
+        verifyNoInteractions(processingService);
+        verify(inbox, never()).markProcessed(any());
+    }
+
+    @Test
+    void accept_whenProcessingFails_leavesEntryPendingForReplay() {
+        when(inbox.append(PAYLOAD)).thenReturn(CompletableFuture.completedFuture(INBOX_ID));
+        when(processingService.processEvents(anyList())).thenReturn(CompletableFuture.failedFuture(new IllegalStateException("Gemini down")));
+        WebhookIngestionService ingestionService = newService(Runnable::run);
+
+        assertEquals(WebhookIngestionService.Outcome.ACCEPTED, ingestionService.accept(PAYLOAD));
+
+        verify(inbox, never()).markProcessed(any());
+        assertFalse(ingestionService.isInFlight(INBOX_ID));
+    }
+
+    @Test
+    void accept_keepsEntryInFlightUntilProcessed() {
+        when(inbox.append(PAYLOAD)).thenReturn(CompletableFuture.completedFuture(INBOX_ID));
+        CompletableFuture<Void> processing = new CompletableFuture<>();
+        when(processingService.processEvents(anyList())).thenReturn(processing);
+        WebhookIngestionService ingestionService = newService(Runnable::run);
+
+        ingestionService.accept(PAYLOAD);
+        assertTrue(ingestionService.isInFlight(INBOX_ID));
+        processing.complete(null);
+
+        assertFalse(ingestionService.isInFlight(INBOX_ID));
+        verify(inbox).markProcessed(INBOX_ID);
+    }
+
+    @Test
+    void accept_malformedPayload_isNotJournaledOrEnqueued() {
+        Executor executor = mock(Executor.class);
+        WebhookIngestionService ingestionService = newService(executor);
+
+        assertEquals(WebhookIngestionService.Outcome.INVALID, ingestionService.accept("{not json"));
+        assertEquals(WebhookIngestionService.Outcome.INVALID, ingestionService.accept("{\"object\":\"instagram\"}"));
+        assertEquals(WebhookIngestionService.Outcome.INVALID, ingestionService.accept(""));
+
+        verifyNoInteractions(executor, processingService, inbox);
+        assertEquals(3.0, meterRegistry.counter("webhook.ingestion.invalid").count());
+    }
+
+    @Test
+    void accept_whenInboxWriteFails_returnsRejectedWithoutProcessing() {
+        when(inbox.append(PAYLOAD)).thenReturn(CompletableFuture.failedFuture(new IllegalStateException("db down")));
+        Executor executor = mock(Executor.class);
+        WebhookIngestionService ingestionService = newService(executor);
+
+        WebhookIngestionService.Outcome outcome = ingestionService.accept(PAYLOAD);
+
+        assertEquals(WebhookIngestionService.Outcome.REJECTED, outcome);
+        verifyNoInteractions(executor, processingService);
+    }
+
+    @Test
+    void accept_whenExecutorRejects_returnsRejectedAndLeavesEntryPending() {
+        when(inbox.append(PAYLOAD)).thenReturn(CompletableFuture.completedFuture(INBOX_ID));
+        Executor executor = mock(Executor.class);
+        doThrow(new RejectedExecutionException("queue full")).when(executor).execute(any(Runnable.class));
+        WebhookIngestionService ingestionService = newService(executor);
+
+        WebhookIngestionService.Outcome outcome = ingestionService.accept(PAYLOAD);
+
+        assertEquals(WebhookIngestionService.Outcome.REJECTED, outcome);
+        verifyNoInteractions(processingService);
+        verify(inbox, never()).markProcessed(any());
+    }
+
+    @Test
+    void accept_whenPolicyDiscardsPayload_countsItAsDiscardedAndLeavesEntryForReplay() {
+        when(inbox.append(PAYLOAD)).thenReturn(CompletableFuture.completedFuture(INBOX_ID));
+        Executor discardingExecutor = task -> ((WebhookExecutorConfig.DiscardableWork) task).discarded();
+        WebhookIngestionService ingestionService = newService(discardingExecutor);
+
+        WebhookIngestionService.Outcome outcome = ingestionService.accept(PAYLOAD);
+
+        assertEquals(WebhookIngestionService.Outcome.ACCEPTED, outcome);
+        verifyNoInteractions(processingService);
+        verify(inbox, never()).markProcessed(any());
+        assertFalse(ingestionService.isInFlight(INBOX_ID));
+        assertEquals(0.0, meterRegistry.counter("webhook.ingestion.accepted").count());
+        assertEquals(1.0, meterRegistry.counter("webhook.ingestion.discarded").count());
+        assertFalse(ingestionService.replay(INBOX_ID, PAYLOAD));
+    }
+
+    @Test
+    void replay_processesJournaledPayloadWithoutJournalingAgain() {
+        when(processingService.processWebhookPayload(PAYLOAD)).thenReturn(CompletableFuture.completedFuture(null));
+        WebhookIngestionService ingestionService = newService(Runnable::run);
+
+        ingestionService.replay(INBOX_ID, PAYLOAD);
+
+        verify(inbox, never()).append(any());
+        verify(processingService).processWebhookPayload(PAYLOAD);
+        verify(inbox).markProcessed(INBOX_ID);
+    }
+
+    @Test
+    void replay_whenExecutorRejects_returnsFalse() {
+        Executor executor = mock(Executor.class);
+        doThrow(new RejectedExecutionException("queue full")).when(executor).execute(any(Runnable.class));
+        WebhookIngestionService ingestionService = newService(executor);
+
+        assertFalse(ingestionService.replay(INBOX_ID, PAYLOAD));
+    }
+
+    private WebhookIngestionService newService(Executor executor) {
+        return new WebhookIngestionService(processingService, inbox, executor, meterRegistry, 1000);
+    }
+}
@@ -5,19 +5,34 @@ import org.example.database.entity.Interaction;
 import org.example.database.repository.ClientRepository;
 import org.example.database.repository.InteractionRepository;
 import org.example.service.gemini.GeminiChatService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
-import org.mockito.InjectMocks;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Deque;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -40,8 +55,19 @@ class WebhookProcessingServiceTest {
     @Mock
     private ClientRepository clientRepository;
 
-    @InjectMocks
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private OverloadController overloadController;
+
+    @Mock
+    private ConversationHistoryCache historyCache;
+
     private WebhookProcessingService webhookProcessingService;
+    private ThreadPoolTaskScheduler taskScheduler;
+    private MessageIdDeduplicator deduplicator;
+    private SimpleMeterRegistry meterRegistry;
 
     private Client client;
 
@@ -52,6 +78,28 @@ class WebhookProcessingServiceTest {
         client.setInstagramPageId(PAGE_ID);
         client.setAccessToken("ACCESS_TOKEN");
         client.setAiSystemPrompt("Prompt");
+
+        lenient().when(interactionRepository.claim(any(), any(), any(), any(), any(), any(), any())).thenReturn(1);
+        webhookProcessingService = newService(0);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (taskScheduler != null) {
+            taskScheduler.shutdown();
+        }
+    }
+
+    private WebhookProcessingService newService(long coalescingWindowMs) {
+        meterRegistry = new SimpleMeterRegistry();
+        SenderOrderedDispatcher dispatcher = new SenderOrderedDispatcher(
+                new TenantFairScheduler(Runnable::run, meterRegistry, 4));
+        MessageBurstCoalescer coalescer = new MessageBurstCoalescer(taskScheduler, meterRegistry,
+                coalescingWindowMs, 5000, 10);
+        deduplicator = new MessageIdDeduplicator(meterRegistry, 1000, 60);
+        return new WebhookProcessingService(chatService, interactionRepository,
+                instagramMessageService, clientRepository, dispatcher, coalescer, deduplicator,
+                overloadController, taskScheduler, transactionManager, historyCache, 120000);
     }
 
     @Test
@@ -65,16 +113,67 @@ class WebhookProcessingServiceTest {
     }
 
     @Test
-    void processWebhookPayload_shouldSkipWhenDuplicateMessage() throws IOException {
+    void processWebhookPayload_shouldSkipDuplicateRejectedByUniqueConstraint() throws IOException {
         when(clientRepository.findByInstagramPageId(PAGE_ID)).thenReturn(Optional.of(client));
-        when(interactionRepository.existsByMessageId(MESSAGE_ID)).thenReturn(true);
+        when(interactionRepository.claim(any(), eq(SENDER_ID), eq("USER"), eq(MESSAGE_TEXT), any(), eq(MESSAGE_ID), any())).thenReturn(0);
 
-        webhookProcessingService.processWebhookPayload(buildTextMessagePayload());
+        webhookProcessingService.processWebhookPayload(buildTextMessagePayload()).join();
 
-        verify(interactionRepository).existsByMessageId(MESSAGE_ID);
+        verify(interactionRepository, never()).existsByMessageId(any());
         verify(interactionRepository, never()).save(any(Interaction.class));
         verify(chatService, never()).sendMessage(any(), any(), any());
         verify(instagramMessageService, never()).sendReply(any(), any(), any());
+        assertThat(meterRegistry.counter("webhook.dedupe.store.duplicates").count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void processWebhookPayload_shouldAnswerRepeatedDeliveryFromMemory() throws IOException {
+        when(clientRepository.findByInstagramPageId(PAGE_ID)).thenReturn(Optional.of(client));
+        when(chatService.sendMessage(client, SENDER_ID, MESSAGE_TEXT)).thenReturn("AI Response");
+
+        webhookProcessingService.processWebhookPayload(buildTextMessagePayload()).join();
+        webhookProcessingService.processWebhookPayload(buildTextMessagePayload()).join();
+
+        verify(interactionRepository, times(1)).claim(any(), any(), any(), any(), any(), any(), any());
+        verify(chatService, times(1)).sendMessage(any(), any(), any());
+        verify(instagramMessageService, times(1)).sendReply(any(), any(), any());
+        assertThat(meterRegistry.counter("webhook.dedupe.lookups", "result", "hit").count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void processWebhookPayload_failedReplyIsNotRememberedAsDuplicate() throws IOException {
+        when(clientRepository.findByInstagramPageId(PAGE_ID)).thenReturn(Optional.of(client));
+        when(chatService.sendMessage(client, SENDER_ID, MESSAGE_TEXT))
+                .thenThrow(new IOException("Gemini down"))
+                .thenReturn("AI Response");
+
+        webhookProcessingService.processWebhookPayload(buildTextMessagePayload()).join();
+        webhookProcessingService.processWebhookPayload(buildTextMessagePayload()).join();
+
+        verify(interactionRepository).releaseClaims(List.of(MESSAGE_ID));
+        verify(historyCache).invalidate(client.getId(), SENDER_ID);
+        verify(instagramMessageService, times(1)).sendReply(client.getAccessToken(), SENDER_ID, "AI Response");
+    }
+
+    @Test
+    void processWebhookPayload_writesClaimedMessageAndReplyThroughToHistoryCache() throws IOException {
+        when(clientRepository.findByInstagramPageId(PAGE_ID)).thenReturn(Optional.of(client));
+        when(chatService.sendMessage(client, SENDER_ID, MESSAGE_TEXT)).thenReturn("AI Response");
+
+        webhookProcessingService.processWebhookPayload(buildTextMessagePayload()).join();
+
+        InOrder inOrder = inOrder(historyCache, chatService);
+        ArgumentCaptor<List<ConversationHistoryCache.Turn>> claimedCaptor = ArgumentCaptor.forClass(List.class);
+        inOrder.verify(historyCache).append(eq(client.getId()), eq(SENDER_ID), claimedCaptor.capture());
+        inOrder.verify(chatService).sendMessage(client, SENDER_ID, MESSAGE_TEXT);
+        ArgumentCaptor<ConversationHistoryCache.Turn> replyCaptor = ArgumentCaptor.forClass(ConversationHistoryCache.Turn.class);
+        inOrder.verify(historyCache).answered(eq(client.getId()), eq(SENDER_ID), eq(List.of(MESSAGE_ID)), replyCaptor.capture());
+        assertThat(claimedCaptor.getValue()).singleElement().satisfies(turn -> {
+            assertThat(turn.text()).isEqualTo(MESSAGE_TEXT);
+            assertThat(turn.pending()).isTrue();
+        });
+        assertThat(replyCaptor.getValue().text()).isEqualTo("AI Response");
+        assertThat(replyCaptor.getValue().fromUser()).isFalse();
     }
 
     @Test
@@ -89,22 +188,18 @@ class WebhookProcessingServiceTest {
 
     @Test
     void processWebhookPayload_shouldHandleSuccessfulScenario() throws IOException {
+        client.setId(1L);
         when(clientRepository.findByInstagramPageId(PAGE_ID)).thenReturn(Optional.of(client));
-        when(interactionRepository.existsByMessageId(MESSAGE_ID)).thenReturn(false);
         when(chatService.sendMessage(client, SENDER_ID, MESSAGE_TEXT)).thenReturn("AI Response");
 
         webhookProcessingService.processWebhookPayload(buildTextMessagePayload());
 
-        ArgumentCaptor<Interaction> interactionCaptor = ArgumentCaptor.forClass(Interaction.class);
-        verify(interactionRepository, times(2)).save(interactionCaptor.capture());
+        verify(interactionRepository).claim(eq(1L), eq(SENDER_ID), eq("USER"), eq(MESSAGE_TEXT), any(), eq(MESSAGE_ID), any());
 
-        Interaction userInteraction = interactionCaptor.getAllValues().get(0);
-        Interaction aiInteraction = interactionCaptor.getAllValues().get(1);
+        ArgumentCaptor<Interaction> interactionCaptor = ArgumentCaptor.forClass(Interaction.class);
+        verify(interactionRepository).save(interactionCaptor.capture());
+        Interaction aiInteraction = interactionCaptor.getValue();
 
-        assertThat(userInteraction.getAuthor()).isEqualTo("USER");
-        assertThat(userInteraction.getText()).isEqualTo(MESSAGE_TEXT);
-        assertThat(userInteraction.getMessageId()).isEqualTo(MESSAGE_ID);
-        assertThat(userInteraction.getClient()).isEqualTo(client);
         assertThat(aiInteraction.getAuthor()).isEqualTo("AI");
         assertThat(aiInteraction.getText()).isEqualTo("AI Response");
         assertThat(aiInteraction.getClient()).isEqualTo(client);
@@ -113,7 +208,244 @@ class WebhookProcessingServiceTest {
         verify(instagramMessageService).sendReply(client.getAccessToken(), SENDER_ID, "AI Response");
     }
 
+    @Test
+    void processWebhookPayload_shouldProcessEveryEntryAndMessagingEvent() throws IOException {
+        Client secondClient = new Client();
+        secondClient.setId(2L);
+        secondClient.setClientName("Second Client");
+        secondClient.setAccessToken("SECOND_TOKEN");
+        client.setId(1L);
+        when(clientRepository.findByInstagramPageId(PAGE_ID)).thenReturn(Optional.of(client));
+        when(clientRepository.findByInstagramPageId("PAGE_2")).thenReturn(Optional.of(secondClient));
+        when(chatService.sendMessage(any(), any(), any())).thenAnswer(invocation -> "Re: " + invocation.getArgument(2));
+
+        webhookProcessingService.processWebhookPayload(buildBatchedPayload()).join();
+
+        verify(chatService).sendMessage(client, SENDER_ID, "first");
+        verify(chatService).sendMessage(client, "SENDER_2", "second");
+        verify(chatService).sendMessage(secondClient, SENDER_ID, "third");
+        verify(instagramMessageService).sendReply("ACCESS_TOKEN", SENDER_ID, "Re: first");
+        verify(instagramMessageService).sendReply("ACCESS_TOKEN", "SENDER_2", "Re: second");
+        verify(instagramMessageService).sendReply("SECOND_TOKEN", SENDER_ID, "Re: third");
+        verify(interactionRepository, times(3)).claim(any(), any(), eq("USER"), any(), any(), any(), any());
+        verify(interactionRepository, times(3)).save(any(Interaction.class));
+    }
+
+    @Test
+    void processWebhookPayload_failureInOneEventDoesNotAffectOthers() throws IOException {
+        client.setId(1L);
+        when(clientRepository.findByInstagramPageId(PAGE_ID)).thenReturn(Optional.of(client));
+        when(clientRepository.findByInstagramPageId("PAGE_2")).thenReturn(Optional.empty());
+        when(chatService.sendMessage(client, SENDER_ID, "first")).thenThrow(new IOException("Gemini down"));
+        when(chatService.sendMessage(client, "SENDER_2", "second")).thenReturn("AI Response");
+
+        webhookProcessingService.processWebhookPayload(buildBatchedPayload()).join();
+
+        verify(instagramMessageService, never()).sendReply(any(), eq(SENDER_ID), any());
+        verify(instagramMessageService).sendReply("ACCESS_TOKEN", "SENDER_2", "AI Response");
+    }
+
+    @Test
+    void processWebhookPayload_coalescesConsecutiveMessagesFromOneSender() throws IOException {
+        taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.initialize();
+        webhookProcessingService = newService(200);
+        when(clientRepository.findByInstagramPageId(PAGE_ID)).thenReturn(Optional.of(client));
+        when(chatService.sendMessage(client, SENDER_ID, "hi\ndo you have\nthe black dress in M?")).thenReturn("Yes!");
+
+        CompletableFuture<Void> first = webhookProcessingService.processWebhookPayload(buildTextMessagePayload("m_1", "hi"));
+        CompletableFuture<Void> second = webhookProcessingService.processWebhookPayload(buildTextMessagePayload("m_2", "do you have"));
+        CompletableFuture<Void> third = webhookProcessingService.processWebhookPayload(buildTextMessagePayload("m_3", "the black dress in M?"));
+        CompletableFuture.allOf(first, second, third).orTimeout(5, TimeUnit.SECONDS).join();
+
+        InOrder inOrder = inOrder(interactionRepository);
+        inOrder.verify(interactionRepository).claim(any(), eq(SENDER_ID), eq("USER"), eq("hi"), any(), eq("m_1"), any());
+        inOrder.verify(interactionRepository).claim(any(), eq(SENDER_ID), eq("USER"), eq("do you have"), any(), eq("m_2"), any());
+        inOrder.verify(interactionRepository).claim(any(), eq(SENDER_ID), eq("USER"), eq("the black dress in M?"), any(), eq("m_3"), any());
+        ArgumentCaptor<Interaction> interactionCaptor = ArgumentCaptor.forClass(Interaction.class);
+        inOrder.verify(interactionRepository).save(interactionCaptor.capture());
+        assertThat(interactionCaptor.getValue().getAuthor()).isEqualTo("AI");
+        assertThat(interactionCaptor.getValue().getText()).isEqualTo("Yes!");
+        verify(chatService, times(1)).sendMessage(any(), any(), any());
+        verify(instagramMessageService, times(1)).sendReply(client.getAccessToken(), SENDER_ID, "Yes!");
+    }
+
+    private String buildBatchedPayload() {
+        return """
+                {
+                  "object": "instagram",
+                  "entry": [
+                    {
+                      "id": "%1$s",
+                      "messaging": [
+                        { "sender": { "id": "%2$s" }, "message": { "mid": "m_1", "text": "first" } },
+                        { "sender": { "id": "SENDER_2" }, "message": { "mid": "m_2", "text": "second" } }
+                      ]
+                    },
+                    {
+                      "id": "PAGE_2",
+                      "messaging": [
+                        { "sender": { "id": "%2$s" }, "message": { "mid": "m_3", "text": "third" } }
+                      ]
+                    }
+                  ]
+                }
+                """.formatted(PAGE_ID, SENDER_ID);
+    }
+
+    @Test
+    void processWebhookPayload_shouldSendHoldingReplyAndAnswerLaterWhenOverloaded() throws IOException {
+        taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.initialize();
+        webhookProcessingService = newService(0);
+        when(clientRepository.findByInstagramPageId(PAGE_ID)).thenReturn(Optional.of(client));
+        when(overloadController.shouldDefer(0)).thenReturn(true);
+        when(overloadController.shouldDefer(1)).thenReturn(false);
+        when(overloadController.holdingReply()).thenReturn("We'll reply shortly");
+        when(overloadController.deferDelay()).thenReturn(Duration.ofMillis(50));
+        when(overloadController.maxDeferral()).thenReturn(Duration.ofMillis(150));
+        when(chatService.sendMessage(client, SENDER_ID, MESSAGE_TEXT)).thenReturn("AI Response");
+
+        CompletableFuture<Void> processed = webhookProcessingService.processWebhookPayload(buildTextMessagePayload());
+
+        verify(instagramMessageService).sendReply(client.getAccessToken(), SENDER_ID, "We'll reply shortly");
+        verify(chatService, never()).sendMessage(any(), any(), any());
+        processed.orTimeout(5, TimeUnit.SECONDS).join();
+
+        InOrder inOrder = inOrder(instagramMessageService);
+        inOrder.verify(instagramMessageService).sendReply(client.getAccessToken(), SENDER_ID, "We'll reply shortly");
+        inOrder.verify(instagramMessageService).sendReply(client.getAccessToken(), SENDER_ID, "AI Response");
+    }
+
+    @Test
+    void processWebhookPayload_sendsNoHoldingReplyForMessageClaimedElsewhere() throws IOException {
+        when(clientRepository.findByInstagramPageId(PAGE_ID)).thenReturn(Optional.of(client));
+        when(overloadController.shouldDefer(0)).thenReturn(true);
+        when(overloadController.maxDeferral()).thenReturn(Duration.ofMillis(150));
+        // A redelivery while another instance holds the deferred message
+        when(interactionRepository.claim(any(), eq(SENDER_ID), eq("USER"), eq(MESSAGE_TEXT), any(), eq(MESSAGE_ID), any())).thenReturn(0);
+
+        webhookProcessingService.processWebhookPayload(buildTextMessagePayload()).join();
+
+        verifyNoInteractions(instagramMessageService);
+        verify(chatService, never()).sendMessage(any(), any(), any());
+    }
+
+    @Test
+    void processWebhookPayload_keepsLaterMessagesOfSenderBehindDeferredReply() throws IOException {
+        taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.initialize();
+        webhookProcessingService = newService(0);
+        when(clientRepository.findByInstagramPageId(PAGE_ID)).thenReturn(Optional.of(client));
+        when(overloadController.shouldDefer(0)).thenReturn(true, false);
+        when(overloadController.shouldDefer(1)).thenReturn(false);
+        when(overloadController.holdingReply()).thenReturn("We'll reply shortly");
+        when(overloadController.deferDelay()).thenReturn(Duration.ofMillis(100));
+        when(overloadController.maxDeferral()).thenReturn(Duration.ofMillis(300));
+        when(chatService.sendMessage(client, SENDER_ID, MESSAGE_TEXT)).thenReturn("AI Response");
+        when(chatService.sendMessage(client, SENDER_ID, "Second")).thenReturn("Second Response");
+
+        CompletableFuture<Void> deferred = webhookProcessingService.processWebhookPayload(buildTextMessagePayload());
+        CompletableFuture<Void> next = webhookProcessingService.processWebhookPayload(buildTextMessagePayload("m_2", "Second"));
+        CompletableFuture.allOf(deferred, next).orTimeout(5, TimeUnit.SECONDS).join();
+
+        // The deferred claim outlasts the deferral
+        ArgumentCaptor<LocalDateTime> claimedUntil = ArgumentCaptor.forClass(LocalDateTime.class);
+        verify(interactionRepository).claim(any(), any(), any(), any(), any(), eq(MESSAGE_ID), claimedUntil.capture());
+        assertThat(claimedUntil.getValue()).isAfter(LocalDateTime.now().plusSeconds(119));
+
+        InOrder inOrder = inOrder(instagramMessageService);
+        inOrder.verify(instagramMessageService).sendReply(client.getAccessToken(), SENDER_ID, "We'll reply shortly");
+        inOrder.verify(instagramMessageService).sendReply(client.getAccessToken(), SENDER_ID, "AI Response");
+        inOrder.verify(instagramMessageService).sendReply(client.getAccessToken(), SENDER_ID, "Second Response");
+    }
+
+    @Test
+    void processWebhookPayload_shouldNotHoldTransactionAcrossGeminiAndGraphApiCalls() throws IOException {
+        Deque<Long> openTransactions = new ConcurrentLinkedDeque<>();
+        List<Long> holdNanos = new CopyOnWriteArrayList<>();
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> {
+            openTransactions.push(System.nanoTime());
+            return mock(TransactionStatus.class);
+        });
+        doAnswer(invocation -> holdNanos.add(System.nanoTime() - openTransactions.pop()))
+                .when(transactionManager).commit(any());
+        when(clientRepository.findByInstagramPageId(PAGE_ID)).thenReturn(Optional.of(client));
+        List<Integer> openDuringNetworkCalls = new CopyOnWriteArrayList<>();
+        when(chatService.sendMessage(eq(client), eq(SENDER_ID), any())).thenAnswer(invocation -> {
+            openDuringNetworkCalls.add(openTransactions.size());
+            Thread.sleep(200);
+            return "AI Response";
+        });
+        doAnswer(invocation -> {
+            openDuringNetworkCalls.add(openTransactions.size());
+            Thread.sleep(100);
+            return null;
+        }).when(instagramMessageService).sendReply(any(), any(), any());
+
+        // Warm up once so that class loading does not count as hold time.
+        webhookProcessingService.processWebhookPayload(buildTextMessagePayload("m_warmup", "Hi")).join();
+        holdNanos.clear();
+        openDuringNetworkCalls.clear();
+
+        webhookProcessingService.processWebhookPayload(buildTextMessagePayload()).join();
+
+        assertThat(openDuringNetworkCalls).containsExactly(0, 0);
+        assertThat(holdNanos).isNotEmpty();
+        long totalHoldMs = TimeUnit.NANOSECONDS.toMillis(holdNanos.stream().mapToLong(Long::longValue).sum());
+        // A single transaction around the whole reply would hold the connection for at least the 300 ms of network time.
+        assertThat(totalHoldMs).isLessThan(100);
+    }
+
+    @Test
+    void processWebhookPayload_shouldSendStreamedReplyWhileGeneratingAndPersistFullText() throws IOException {
+        when(clientRepository.findByInstagramPageId(PAGE_ID)).thenReturn(Optional.of(client));
+        when(chatService.isStreamingEnabled()).thenReturn(true);
+        InstagramMessageService.StreamingReply streamingReply = mock(InstagramMessageService.StreamingReply.class);
+        when(instagramMessageService.startStreamingReply(client.getAccessToken(), SENDER_ID)).thenReturn(streamingReply);
+        when(chatService.streamMessage(eq(client), eq(SENDER_ID), eq(MESSAGE_TEXT), any())).thenAnswer(invocation -> {
+            Consumer<String> onText = invocation.getArgument(3);
+            onText.accept("Hello! ");
+            onText.accept("How can I help?");
+            return "Hello! How can I help?";
+        });
+
+        webhookProcessingService.processWebhookPayload(buildTextMessagePayload()).join();
+
+        InOrder inOrder = inOrder(streamingReply, interactionRepository);
+        inOrder.verify(streamingReply).accept("Hello! ");
+        inOrder.verify(streamingReply).accept("How can I help?");
+        inOrder.verify(streamingReply).finish();
+        ArgumentCaptor<Interaction> interactionCaptor = ArgumentCaptor.forClass(Interaction.class);
+        inOrder.verify(interactionRepository).save(interactionCaptor.capture());
+        assertThat(interactionCaptor.getValue().getText()).isEqualTo("Hello! How can I help?");
+        verify(instagramMessageService, never()).sendReply(any(), any(), any());
+        verify(chatService, never()).sendMessage(any(), any(), any());
+    }
+
+    @Test
+    void processWebhookPayload_shouldKeepDeliveredPartWhenStreamBreaks() throws IOException {
+        when(clientRepository.findByInstagramPageId(PAGE_ID)).thenReturn(Optional.of(client));
+        when(chatService.isStreamingEnabled()).thenReturn(true);
+        InstagramMessageService.StreamingReply streamingReply = mock(InstagramMessageService.StreamingReply.class);
+        when(instagramMessageService.startStreamingReply(client.getAccessToken(), SENDER_ID)).thenReturn(streamingReply);
+        when(streamingReply.deliveredText()).thenReturn("Hello!");
+        when(chatService.streamMessage(eq(client), eq(SENDER_ID), eq(MESSAGE_TEXT), any())).thenThrow(new IOException("stream reset"));
+
+        webhookProcessingService.processWebhookPayload(buildTextMessagePayload()).join();
+
+        ArgumentCaptor<Interaction> interactionCaptor = ArgumentCaptor.forClass(Interaction.class);
+        verify(interactionRepository).save(interactionCaptor.capture());
+        assertThat(interactionCaptor.getValue().getText()).isEqualTo("Hello!");
+        verify(interactionRepository).markAnswered(List.of(MESSAGE_ID));
+        verify(interactionRepository, never()).releaseClaims(any());
+    }
+
     private String buildTextMessagePayload() {
+        return buildTextMessagePayload(MESSAGE_ID, MESSAGE_TEXT);
+    }
+
+    private String buildTextMessagePayload(String messageId, String text) {
         return """
                 {
                   \"object\": \"page\",
@@ -132,7 +464,7 @@ class WebhookProcessingServiceTest {
                     }
                   ]
                 }
-                """.formatted(PAGE_ID, SENDER_ID, MESSAGE_ID, MESSAGE_TEXT);
+                """.formatted(PAGE_ID, SENDER_ID, messageId, text);
     }
 
     private String buildNonTextMessagePayload() {
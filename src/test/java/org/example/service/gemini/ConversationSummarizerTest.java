@@ -0,0 +1,170 @@
+package org.example.service.gemini;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.example.database.entity.Client;
+import org.example.database.entity.ConversationSummary;
+import org.example.database.repository.ConversationSummaryRepository;
+import org.example.service.ConversationHistoryCache;
+import org.example.service.TestDependencies;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ConversationSummarizerTest {
+
+    @Mock
+    private ConversationSummaryRepository summaryRepository;
+
+    @Mock
+    private ConversationHistoryCache historyCache;
+
+    private MockWebServer geminiServer;
+    private ConversationSummarizer summarizer;
+    private Client client;
+    private final Gson gson = new Gson();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        geminiServer = new MockWebServer();
+        geminiServer.start();
+        summarizer = new ConversationSummarizer(summaryRepository, historyCache, TestDependencies.unboundedLimits(), TestDependencies.resilience(),
+                TestDependencies.httpClients(), new SimpleMeterRegistry(), "test-key",
+                geminiServer.url("/v1beta/models/gemini-test").toString(), 300, 1, 10);
+        client = new Client();
+        client.setId(1L);
+        client.setClientName("shop");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        summarizer.shutdown();
+        geminiServer.shutdown();
+    }
+
+    @Test
+    void foldsNewTurnsIntoStoredSummary() throws Exception {
+        LocalDateTime summarizedUntil = LocalDateTime.now().minusHours(1);
+        ConversationSummary stored = new ConversationSummary();
+        stored.setSummary("Клієнтка питала про сукню.");
+        stored.setSummarizedUntil(summarizedUntil);
+        when(summaryRepository.findByClientIdAndSenderPsid(1L, "psid")).thenReturn(Optional.of(stored));
+        geminiServer.enqueue(new MockResponse().setBody(candidate("Клієнтка обрала сукню розміру M.")));
+        ConversationHistoryCache.Turn alreadySummarized = turn("USER", "Є сукня?", summarizedUntil.minusMinutes(1));
+        ConversationHistoryCache.Turn question = turn("USER", "Беру розмір M", summarizedUntil.plusMinutes(1));
+        ConversationHistoryCache.Turn answer = turn("AI", "Оформлюю!", summarizedUntil.plusMinutes(2));
+
+        summarizer.fold(client, "psid", List.of(alreadySummarized, question, answer));
+
+        JsonObject body = gson.fromJson(geminiServer.takeRequest().getBody().readUtf8(), JsonObject.class);
+        String prompt = body.getAsJsonArray("contents").get(0).getAsJsonObject()
+                .getAsJsonArray("parts").get(0).getAsJsonObject().get("text").getAsString();
+        assertTrue(prompt.contains("Клієнтка питала про сукню."));
+        assertTrue(prompt.contains("Клієнт: Беру розмір M"));
+        assertTrue(prompt.contains("Магазин: Оформлюю!"));
+        assertFalse(prompt.contains("Є сукня?"));
+        assertEquals(300, body.getAsJsonObject("generationConfig").get("maxOutputTokens").getAsInt());
+
+        verify(summaryRepository).save(stored);
+        assertEquals("Клієнтка обрала сукню розміру M.", stored.getSummary());
+        assertEquals(answer.timestamp(), stored.getSummarizedUntil());
+        verify(historyCache).summarized(1L, "psid",
+                new ConversationHistoryCache.Summary("Клієнтка обрала сукню розміру M.", answer.timestamp(), null));
+    }
+
+    @Test
+    void skipsTurnsThatAreAlreadySummarized() throws Exception {
+        ConversationSummary stored = new ConversationSummary();
+        stored.setSummary("Підсумок");
+        stored.setSummarizedUntil(LocalDateTime.now());
+        when(summaryRepository.findByClientIdAndSenderPsid(1L, "psid")).thenReturn(Optional.of(stored));
+
+        summarizer.fold(client, "psid", List.of(turn("USER", "Привіт", LocalDateTime.now().minusMinutes(5))));
+
+        assertEquals(0, geminiServer.getRequestCount());
+        verify(summaryRepository, never()).save(any());
+    }
+
+    @Test
+    void foldsBurstTurnsThatShareTimestampWithBoundary() throws Exception {
+        LocalDateTime burstAt = LocalDateTime.now().minusMinutes(10);
+        ConversationSummary stored = new ConversationSummary();
+        stored.setSummary("Клієнтка питала про сукню.");
+        stored.setSummarizedUntil(burstAt);
+        stored.setSummarizedUntilId(11L);
+        when(summaryRepository.findByClientIdAndSenderPsid(1L, "psid")).thenReturn(Optional.of(stored));
+        geminiServer.enqueue(new MockResponse().setBody(candidate("Клієнтка обрала розмір M.")));
+        ConversationHistoryCache.Turn folded = new ConversationHistoryCache.Turn(11L, "USER", "Є сукня?", burstAt, "m1", false);
+        ConversationHistoryCache.Turn sameBurst = new ConversationHistoryCache.Turn(12L, "USER", "Розмір M", burstAt, "m2", false);
+
+        summarizer.fold(client, "psid", List.of(folded, sameBurst));
+
+        String prompt = gson.fromJson(geminiServer.takeRequest().getBody().readUtf8(), JsonObject.class)
+                .getAsJsonArray("contents").get(0).getAsJsonObject()
+                .getAsJsonArray("parts").get(0).getAsJsonObject().get("text").getAsString();
+        assertTrue(prompt.contains("Клієнт: Розмір M"));
+        assertFalse(prompt.contains("Є сукня?"));
+        assertEquals(burstAt, stored.getSummarizedUntil());
+        assertEquals(12L, stored.getSummarizedUntilId());
+    }
+
+    @Test
+    void foldAsyncCreatesSummaryForNewConversation() {
+        when(summaryRepository.findByClientIdAndSenderPsid(1L, "psid")).thenReturn(Optional.empty());
+        geminiServer.enqueue(new MockResponse().setBody(candidate("Клієнт вітався.")));
+
+        summarizer.foldAsync(client, "psid", List.of(turn("USER", "Привіт", LocalDateTime.now())));
+
+        ArgumentCaptor<ConversationSummary> saved = ArgumentCaptor.forClass(ConversationSummary.class);
+        verify(summaryRepository, timeout(5000)).save(saved.capture());
+        assertSame(client, saved.getValue().getClient());
+        assertEquals("psid", saved.getValue().getSenderPsid());
+        assertEquals("Клієнт вітався.", saved.getValue().getSummary());
+    }
+
+    @Test
+    void keepsStoredSummaryWhenGeminiFails() {
+        when(summaryRepository.findByClientIdAndSenderPsid(1L, "psid")).thenReturn(Optional.empty());
+        geminiServer.enqueue(new MockResponse().setResponseCode(400).setBody("error"));
+
+        assertThrows(IOException.class,
+                () -> summarizer.fold(client, "psid", List.of(turn("USER", "Привіт", LocalDateTime.now()))));
+
+        verify(summaryRepository, never()).save(any());
+        verifyNoInteractions(historyCache);
+    }
+
+    private static ConversationHistoryCache.Turn turn(String author, String text, LocalDateTime timestamp) {
+        return new ConversationHistoryCache.Turn(null, author, text, timestamp, null, false);
+    }
+
+    private String candidate(String text) {
+        JsonObject part = new JsonObject();
+        part.addProperty("text", text);
+        JsonObject content = new JsonObject();
+        content.add("parts", gson.toJsonTree(List.of(part)));
+        content.addProperty("role", "model");
+        JsonObject candidate = new JsonObject();
+        candidate.add("content", content);
+        JsonObject response = new JsonObject();
+        response.add("candidates", gson.toJsonTree(List.of(candidate)));
+        return gson.toJson(response);
+    }
+}
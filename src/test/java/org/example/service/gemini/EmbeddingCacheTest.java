@@ -0,0 +1,128 @@
+package org.example.service.gemini;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.database.entity.EmbeddingCacheEntry;
+import org.example.database.repository.EmbeddingCacheRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.QueryTimeoutException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class EmbeddingCacheTest {
+
+    private static final String MODEL = "models/gemini-embedding-test";
+    private static final String TASK_TYPE = "TASK_TYPE_UNSPECIFIED";
+
+    @Mock
+    private EmbeddingCacheRepository repository;
+
+    private SimpleMeterRegistry meterRegistry;
+    private EmbeddingCache cache;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new EmbeddingCache(repository, meterRegistry, true, 1 << 20, true, 90);
+    }
+
+    @Test
+    void keyIgnoresSurroundingAndRepeatedWhitespaceAndUnicodeForm() {
+        EmbeddingCache.Key key = EmbeddingCache.key(MODEL, TASK_TYPE, "Сукня  лляна,\n1200 грн");
+
+        assertEquals(key, EmbeddingCache.key(MODEL, TASK_TYPE, "  Сукня лляна, 1200 грн\n"));
+        // "й" precomposed and as "и" followed by a combining breve
+        assertEquals(EmbeddingCache.key(MODEL, TASK_TYPE, "Сині\u0439"), EmbeddingCache.key(MODEL, TASK_TYPE, "Сині\u0438\u0306"));
+        assertNotEquals(key, EmbeddingCache.key(MODEL, TASK_TYPE, "сукня лляна, 1200 грн"));
+        assertNotEquals(key, EmbeddingCache.key("models/other", TASK_TYPE, "Сукня лляна, 1200 грн"));
+    }
+
+    @Test
+    void loadsMissesFromDatabaseOnceAndServesThemFromMemory() {
+        EmbeddingCache.Key key = EmbeddingCache.key(MODEL, TASK_TYPE, "Доставка 1-2 дні");
+        EmbeddingCacheEntry row = new EmbeddingCacheEntry();
+        row.setId(7L);
+        row.setModel(MODEL);
+        row.setTaskType(TASK_TYPE);
+        row.setContentHash(key.contentHash());
+        row.setEmbedding(new float[]{0.5f});
+        when(repository.findByModelAndTaskTypeAndContentHashIn(MODEL, TASK_TYPE, List.of(key.contentHash()))).thenReturn(List.of(row));
+
+        Map<EmbeddingCache.Key, String> texts = Map.of(key, "Доставка 1-2 дні");
+        assertArrayEquals(new float[]{0.5f}, cache.getAll(texts).get(key));
+        assertArrayEquals(new float[]{0.5f}, cache.getAll(texts).get(key));
+
+        verify(repository, times(1)).findByModelAndTaskTypeAndContentHashIn(any(), any(), any());
+        verify(repository).markUsed(eq(List.of(7L)), any());
+        assertEquals(1, meterRegistry.get("embedding.cache.lookups").tags("tier", "durable", "result", "hit").counter().count());
+        assertEquals(1, meterRegistry.get("embedding.cache.lookups").tags("tier", "memory", "result", "hit").counter().count());
+        assertEquals(2.0 * "Доставка 1-2 дні".getBytes(StandardCharsets.UTF_8).length,
+                meterRegistry.get("embedding.cache.saved").counter().count());
+    }
+
+    @Test
+    void storesNewEmbeddingsInBothTiers() {
+        EmbeddingCache.Key key = EmbeddingCache.key(MODEL, TASK_TYPE, "Повернення 14 днів");
+
+        cache.putAll(Map.of(key, new float[]{0.25f}));
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<EmbeddingCacheEntry>> rows = ArgumentCaptor.forClass(List.class);
+        verify(repository).insertAllIfAbsent(rows.capture());
+        EmbeddingCacheEntry row = rows.getValue().get(0);
+        assertEquals(MODEL, row.getModel());
+        assertEquals(TASK_TYPE, row.getTaskType());
+        assertEquals(key.contentHash(), row.getContentHash());
+        assertArrayEquals(new float[]{0.25f}, cache.getAll(Map.of(key, "Повернення 14 днів")).get(key));
+        verify(repository, never()).findByModelAndTaskTypeAndContentHashIn(any(), any(), any());
+    }
+
+    @Test
+    void keepsEmbeddingsOutOfDatabaseWhenNotDurable() {
+        EmbeddingCache.Key key = EmbeddingCache.key(MODEL, TASK_TYPE, "Ціна?");
+        Map<EmbeddingCache.Key, String> texts = Map.of(key, "Ціна?");
+
+        assertTrue(cache.getAll(texts, false).isEmpty());
+        cache.putAll(Map.of(key, new float[]{0.75f}), false);
+
+        assertArrayEquals(new float[]{0.75f}, cache.getAll(texts, false).get(key));
+        verifyNoInteractions(repository);
+    }
+
+    @Test
+    void treatsDatabaseFailureAsMiss() {
+        EmbeddingCache.Key key = EmbeddingCache.key(MODEL, TASK_TYPE, "Оплата");
+        when(repository.findByModelAndTaskTypeAndContentHashIn(any(), any(), any())).thenThrow(new QueryTimeoutException("timeout"));
+
+        assertTrue(cache.getAll(Map.of(key, "Оплата")).isEmpty());
+        assertEquals(1, meterRegistry.get("embedding.cache.lookups").tags("tier", "durable", "result", "miss").counter().count());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedEntriesBeyondMemoryLimit() {
+        cache = new EmbeddingCache(repository, meterRegistry, true, 2 * (256 + 4 * 64), false, 90);
+        EmbeddingCache.Key first = EmbeddingCache.key(MODEL, TASK_TYPE, "1");
+        EmbeddingCache.Key second = EmbeddingCache.key(MODEL, TASK_TYPE, "2");
+        EmbeddingCache.Key third = EmbeddingCache.key(MODEL, TASK_TYPE, "3");
+        cache.putAll(Map.of(first, new float[64]));
+        cache.putAll(Map.of(second, new float[64]));
+        cache.getAll(Map.of(first, "1"));
+
+        cache.putAll(Map.of(third, new float[64]));
+
+        assertEquals(Map.of(first, "1", third, "3").keySet(),
+                cache.getAll(Map.of(first, "1", second, "2", third, "3")).keySet());
+        verifyNoInteractions(repository);
+    }
+}
@@ -0,0 +1,81 @@
+package org.example.service.gemini;
+
+import com.google.gson.Gson;
+import okio.Buffer;
+import org.example.model.response.EmbeddingResponse;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmbeddingResponseReaderTest {
+
+    private final Gson gson = new Gson();
+
+    @Test
+    void decodesTheSameFloatsAsGson() throws IOException {
+        Random random = new Random(7);
+        List<String> numbers = new ArrayList<>(List.of("0", "-0.0", "1", "-2", "0.000123", "1e-7", "-3.5E+2", "1.0e0",
+                "0.12345678901234567890123", "123456789012345678901234", "1e-30", "4.9e-46", "3.4028236e38"));
+        for (int i = 0; i < 3000; i++) {
+            double value = random.nextGaussian() * Math.pow(10, random.nextInt(9) - 6);
+            numbers.add(switch (i % 4) {
+                case 0 -> Float.toString((float) value);
+                case 1 -> Double.toString(value);
+                case 2 -> String.format(Locale.ROOT, "%.9e", value);
+                default -> String.format(Locale.ROOT, "%.12f", value);
+            });
+        }
+        String json = "{\"embedding\": {\"values\": [" + String.join(", ", numbers) + "]}}";
+
+        float[] decoded = EmbeddingResponseReader.readEmbedding(new Buffer().writeUtf8(json), 16);
+
+        List<Float> expected = gson.fromJson(json, EmbeddingResponse.class).getEmbedding().getValues();
+        assertEquals(expected.size(), decoded.length);
+        for (int i = 0; i < decoded.length; i++) {
+            assertEquals(Float.floatToRawIntBits(expected.get(i)), Float.floatToRawIntBits(decoded[i]), numbers.get(i));
+        }
+    }
+
+    @Test
+    void skipsOtherMembers() throws IOException {
+        String json = """
+                {
+                  "usageMetadata": {"note": "a \\"quoted\\" ] }", "counts": [1, {"x": null}, true]},
+                  "embedding": {"model\\u0073": false, "values": [0.5, -0.25]}
+                }""";
+
+        assertArrayEquals(new float[]{0.5f, -0.25f}, EmbeddingResponseReader.readEmbedding(new Buffer().writeUtf8(json), 3072));
+    }
+
+    @Test
+    void readsBatchesKeepingEntriesWithoutValues() throws IOException {
+        String json = "{\"embeddings\":[{\"values\":[1.5]},{},null,{\"values\":[2,3]}]}";
+
+        List<float[]> embeddings = EmbeddingResponseReader.readEmbeddings(new Buffer().writeUtf8(json), 1);
+
+        assertEquals(4, embeddings.size());
+        assertArrayEquals(new float[]{1.5f}, embeddings.get(0));
+        assertNull(embeddings.get(1));
+        assertNull(embeddings.get(2));
+        assertArrayEquals(new float[]{2f, 3f}, embeddings.get(3));
+    }
+
+    @Test
+    void returnsNullWithoutEmbedding() throws IOException {
+        assertNull(EmbeddingResponseReader.readEmbedding(new Buffer().writeUtf8("{\"embedding\": null}"), 3072));
+        assertNull(EmbeddingResponseReader.readEmbeddings(new Buffer().writeUtf8("{}"), 3072));
+    }
+
+    @Test
+    void rejectsTruncatedOrMalformedBody() {
+        assertThrows(IOException.class, () -> EmbeddingResponseReader.readEmbedding(new Buffer().writeUtf8("{\"embedding\": {\"values\": [0.1, 0.2"), 3072));
+        assertThrows(IOException.class, () -> EmbeddingResponseReader.readEmbedding(new Buffer().writeUtf8("{\"embedding\": {\"values\": [0.1, -]}}"), 3072));
+        assertThrows(IOException.class, () -> EmbeddingResponseReader.readEmbedding(new Buffer().writeUtf8("{\"embedding\": {\"values\": [0.1 0.2]}}"), 3072));
+    }
+}
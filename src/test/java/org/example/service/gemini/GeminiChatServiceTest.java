@@ -0,0 +1,461 @@
+package org.example.service.gemini;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.example.database.entity.Client;
+import org.example.database.entity.ConversationSummary;
+import org.example.database.entity.Interaction;
+import org.example.database.repository.ConversationSummaryRepository;
+import org.example.database.repository.InteractionRepository;
+import org.example.service.ConversationHistoryCache;
+import org.example.service.OverloadController;
+import org.example.service.RAGService;
+import org.example.service.SemanticResponseCache;
+import org.example.service.TestDependencies;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class GeminiChatServiceTest {
+
+    @Mock
+    private InteractionRepository interactionRepository;
+
+    @Mock
+    private RAGService ragService;
+
+    @Mock
+    private OverloadController overloadController;
+
+    @Mock
+    private GeminiContextCache contextCache;
+
+    @Mock
+    private ConversationSummaryRepository summaryRepository;
+
+    @Mock
+    private ConversationSummarizer summarizer;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private MockWebServer geminiServer;
+    private SemanticResponseCache responseCache;
+    private GeminiChatService chatService;
+    private Client client;
+    private final Gson gson = new Gson();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        geminiServer = new MockWebServer();
+        geminiServer.start();
+        meterRegistry = new SimpleMeterRegistry();
+        responseCache = new SemanticResponseCache(new SimpleMeterRegistry(), true, 0.95, 16, 60000, 1800000);
+
+        chatService = newChatService(TestDependencies.outboundExecutor());
+
+        client = new Client();
+        client.setId(1L);
+        client.setAiSystemPrompt("Prompt");
+        when(overloadController.levelForReply()).thenReturn(OverloadController.Level.NORMAL);
+        when(interactionRepository.findTop10ByClientIdAndSenderPsidOrderByTimestampDescIdDesc(1L, "psid")).thenReturn(new ArrayList<>());
+        lenient().when(ragService.retrieveContext(any(), any(), anyInt()))
+                .thenReturn(new RAGService.RetrievedContext(new float[]{1f, 0f}, "", "empty", false));
+        lenient().when(contextCache.cachedContentFor(client)).thenReturn(Optional.empty());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        geminiServer.shutdown();
+    }
+
+    private GeminiChatService newChatService(AsyncTaskExecutor ragExecutor) {
+        GeminiChatService service = new GeminiChatService(
+                new ConversationHistoryCache(interactionRepository, summaryRepository, new SimpleMeterRegistry(), false, 1 << 20, 600000, 1800000),
+                ragService, TestDependencies.unboundedLimits(), overloadController, contextCache,
+                responseCache, summarizer, TestDependencies.resilience(),
+                new ModelRouter(meterRegistry, true, 40, geminiServer.url("/v1beta/models/gemini-test").toString(),
+                        geminiServer.url("/v1beta/models/gemini-lite").toString(), 0.30, 0.075, 2.50, 0.10, 0.025, 0.40),
+                TestDependencies.httpClients(), meterRegistry, ragExecutor);
+        ReflectionTestUtils.setField(service, "apiKey", "test-key");
+        return service;
+    }
+
+    @Test
+    void sendMessage_returnsTextOfFirstCandidate() throws Exception {
+        geminiServer.enqueue(new MockResponse().setBody(candidate("Hello there!")));
+
+        String reply = chatService.sendMessage(client, "psid", "Які у вас є сукні?");
+
+        assertEquals("Hello there!", reply);
+        RecordedRequest request = geminiServer.takeRequest();
+        assertEquals("/v1beta/models/gemini-test:generateContent?key=test-key", request.getPath());
+    }
+
+    @Test
+    void streamMessage_deliversEachEventAndReturnsFullText() throws Exception {
+        geminiServer.enqueue(new MockResponse()
+                .setHeader("Content-Type", "text/event-stream")
+                .setBody("data: " + candidate("Так, ця сукня ") + "\r\n\r\n"
+                        + "data: " + candidate("є в розмірі M. ") + "\r\n\r\n"
+                        + "data: " + candidate("Доставка до Львова — 1-2 дні.") + "\r\n\r\n"));
+        List<String> deltas = new ArrayList<>();
+
+        String reply = chatService.streamMessage(client, "psid", "Чи є сукня?", deltas::add);
+
+        assertEquals(List.of("Так, ця сукня ", "є в розмірі M. ", "Доставка до Львова — 1-2 дні."), deltas);
+        assertEquals("Так, ця сукня є в розмірі M. Доставка до Львова — 1-2 дні.", reply);
+        RecordedRequest request = geminiServer.takeRequest();
+        assertEquals("/v1beta/models/gemini-test:streamGenerateContent?alt=sse&key=test-key", request.getPath());
+        JsonObject body = gson.fromJson(request.getBody().readUtf8(), JsonObject.class);
+        assertEquals(1, body.getAsJsonArray("contents").size());
+        assertEquals("Prompt", body.getAsJsonObject("systemInstruction")
+                .getAsJsonArray("parts").get(0).getAsJsonObject().get("text").getAsString());
+    }
+
+    @Test
+    void streamMessage_skipsEventsWithoutText() throws Exception {
+        geminiServer.enqueue(new MockResponse()
+                .setHeader("Content-Type", "text/event-stream")
+                .setBody("data: " + candidate("Done.") + "\n\n"
+                        + "data: {\"candidates\":[{\"finishReason\":\"STOP\"}],\"usageMetadata\":{}}\n\n"));
+        List<String> deltas = new ArrayList<>();
+
+        String reply = chatService.streamMessage(client, "psid", "Hi", deltas::add);
+
+        assertEquals("Done.", reply);
+        assertEquals(List.of("Done."), deltas);
+    }
+
+    @Test
+    void streamMessage_failsOnErrorStatus() {
+        for (int i = 0; i < 3; i++) {
+            geminiServer.enqueue(new MockResponse().setResponseCode(503).setBody("overloaded"));
+        }
+
+        assertThrows(IOException.class, () -> chatService.streamMessage(client, "psid", "Hi", text -> fail("no text expected")));
+        verify(overloadController).recordLatency(any());
+    }
+
+    @Test
+    void sendMessage_refersToCachedSystemPrompt() throws Exception {
+        when(contextCache.cachedContentFor(client)).thenReturn(Optional.of("cachedContents/c1"));
+        geminiServer.enqueue(new MockResponse().setBody(candidate("Ok")));
+
+        chatService.sendMessage(client, "psid", "Чи є доставка?");
+
+        JsonObject body = gson.fromJson(geminiServer.takeRequest().getBody().readUtf8(), JsonObject.class);
+        assertEquals("cachedContents/c1", body.get("cachedContent").getAsString());
+        assertFalse(body.has("systemInstruction"));
+    }
+
+    @Test
+    void sendMessage_retriesWithInlinePromptWhenCacheIsRejected() throws Exception {
+        when(contextCache.cachedContentFor(client)).thenReturn(Optional.of("cachedContents/c1"));
+        geminiServer.enqueue(new MockResponse().setResponseCode(403).setBody("CachedContent not found"));
+        geminiServer.enqueue(new MockResponse().setBody(candidate("Ok")));
+
+        assertEquals("Ok", chatService.sendMessage(client, "psid", "Чи є доставка?"));
+
+        verify(contextCache).invalidate(client, "cachedContents/c1");
+        geminiServer.takeRequest();
+        JsonObject retry = gson.fromJson(geminiServer.takeRequest().getBody().readUtf8(), JsonObject.class);
+        assertFalse(retry.has("cachedContent"));
+        assertTrue(retry.has("systemInstruction"));
+    }
+
+    @Test
+    void sendMessage_keepsCacheWhenRequestIsRejectedForAnotherReason() {
+        when(contextCache.cachedContentFor(client)).thenReturn(Optional.of("cachedContents/c1"));
+        geminiServer.enqueue(new MockResponse().setResponseCode(400).setBody("{\"error\":{\"message\":\"Invalid JSON payload\"}}"));
+
+        assertThrows(IOException.class, () -> chatService.sendMessage(client, "psid", "Чи є доставка?"));
+
+        verify(contextCache, never()).invalidate(any(), any());
+        assertEquals(1, geminiServer.getRequestCount());
+    }
+
+    @Test
+    void sendMessage_reusesAnswerForRepeatedStandaloneQuestion() throws Exception {
+        geminiServer.enqueue(new MockResponse().setBody(candidate("Доставка 1-2 дні.")));
+
+        assertEquals("Доставка 1-2 дні.", chatService.sendMessage(client, "psid", "Скільки йде доставка?"));
+        List<String> deltas = new ArrayList<>();
+        assertEquals("Доставка 1-2 дні.", chatService.streamMessage(client, "psid", "Скільки йде доставка?", deltas::add));
+
+        assertEquals(List.of("Доставка 1-2 дні."), deltas);
+        assertEquals(1, geminiServer.getRequestCount());
+    }
+
+    @Test
+    void sendMessage_doesNotReuseAnswerWhenConversationIsOngoing() throws Exception {
+        Interaction recentReply = new Interaction("psid", "AI", "Вітаю!");
+        recentReply.setTimestamp(LocalDateTime.now().minusMinutes(1));
+        when(interactionRepository.findTop10ByClientIdAndSenderPsidOrderByTimestampDescIdDesc(1L, "psid"))
+                .thenAnswer(invocation -> new ArrayList<>(List.of(recentReply)));
+        geminiServer.enqueue(new MockResponse().setBody(candidate("Так, доставляємо.")));
+        geminiServer.enqueue(new MockResponse().setBody(candidate("Так, доставляємо.")));
+
+        chatService.sendMessage(client, "psid", "А у Львів?");
+        chatService.sendMessage(client, "psid", "А у Львів?");
+
+        assertEquals(2, geminiServer.getRequestCount());
+    }
+
+    @Test
+    void sendMessage_loadsHistoryWhileRetrievingContext() throws Exception {
+        CountDownLatch retrievalStarted = new CountDownLatch(1);
+        CountDownLatch historyLoaded = new CountDownLatch(1);
+        when(ragService.retrieveContext(any(), any(), anyInt())).thenAnswer(invocation -> {
+            retrievalStarted.countDown();
+            assertTrue(historyLoaded.await(5, TimeUnit.SECONDS));
+            return new RAGService.RetrievedContext(new float[]{1f, 0f}, "Доставка 1-2 дні.", "f1", true);
+        });
+        when(interactionRepository.findTop10ByClientIdAndSenderPsidOrderByTimestampDescIdDesc(1L, "psid")).thenAnswer(invocation -> {
+            // Only returns once both stages run at the same time
+            assertTrue(retrievalStarted.await(5, TimeUnit.SECONDS));
+            historyLoaded.countDown();
+            return new ArrayList<>();
+        });
+        geminiServer.enqueue(new MockResponse().setBody(candidate("Ok")));
+
+        assertEquals("Ok", chatService.sendMessage(client, "psid", "Скільки йде доставка?"));
+
+        assertTrue(geminiServer.takeRequest().getBody().readUtf8().contains("Доставка 1-2 дні."));
+        assertEquals(1, meterRegistry.timer("gemini.prepare.stage", "stage", "rag").count());
+        assertEquals(1, meterRegistry.timer("gemini.prepare.stage", "stage", "history").count());
+        assertEquals(1, meterRegistry.timer("gemini.prepare.stage", "stage", "total").count());
+    }
+
+    @Test
+    void sendMessage_answersWithoutContextWhenRetrievalFails() throws Exception {
+        when(ragService.retrieveContext(any(), any(), anyInt())).thenThrow(new IOException("embedding failed"));
+        geminiServer.enqueue(new MockResponse().setBody(candidate("Ok")));
+        geminiServer.enqueue(new MockResponse().setBody(candidate("Ok")));
+
+        assertEquals("Ok", chatService.sendMessage(client, "psid", "Hi"));
+        assertEquals("Ok", chatService.sendMessage(client, "psid", "Hi"));
+
+        // Answers without the context are not reused, and without a search nothing says "Hi" is small talk
+        assertEquals(2, geminiServer.getRequestCount());
+        assertEquals("/v1beta/models/gemini-test:generateContent?key=test-key", geminiServer.takeRequest().getPath());
+        assertEquals(2, meterRegistry.counter("gemini.prepare.degraded", "stage", "rag", "reason", "error").count());
+    }
+
+    @Test
+    void sendMessage_cancelsRetrievalAfterDeadline() throws Exception {
+        ReflectionTestUtils.setField(chatService, "prepareTimeoutMs", 50L);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        when(ragService.retrieveContext(any(), any(), anyInt())).thenAnswer(invocation -> {
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return null;
+        });
+        geminiServer.enqueue(new MockResponse().setBody(candidate("Ok")));
+
+        assertEquals("Ok", chatService.sendMessage(client, "psid", "Hi"));
+
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertEquals(1, meterRegistry.counter("gemini.prepare.degraded", "stage", "rag", "reason", "timeout").count());
+    }
+
+    @Test
+    void sendMessage_routesSmallTalkToLightModelAndCatalogQuestionsToFullModel() throws Exception {
+        lenient().when(contextCache.cachedContentFor(client)).thenReturn(Optional.of("cachedContents/c1"));
+        // The nearest entries are retrieved for small talk too, but only the question has a relevant one
+        when(ragService.retrieveContext(any(), eq("Дякую! 🙏"), anyInt()))
+                .thenReturn(new RAGService.RetrievedContext(new float[]{1f, 0f}, "Доставка 1-2 дні.", "f0", false));
+        when(ragService.retrieveContext(any(), eq("Ціна?"), anyInt()))
+                .thenReturn(new RAGService.RetrievedContext(new float[]{0f, 1f}, "Сукня — 1200 грн.", "f1", true));
+        geminiServer.enqueue(new MockResponse().setBody(candidate("Будь ласка!")));
+        geminiServer.enqueue(new MockResponse().setBody(candidate("1200 грн.")));
+
+        chatService.sendMessage(client, "psid", "Дякую! 🙏");
+        chatService.sendMessage(client, "psid", "Ціна?");
+
+        RecordedRequest smallTalk = geminiServer.takeRequest();
+        assertEquals("/v1beta/models/gemini-lite:generateContent?key=test-key", smallTalk.getPath());
+        // Cached prompts belong to the full model, the light one gets the prompt inline
+        JsonObject smallTalkBody = gson.fromJson(smallTalk.getBody().readUtf8(), JsonObject.class);
+        assertFalse(smallTalkBody.has("cachedContent"));
+        assertTrue(smallTalkBody.has("systemInstruction"));
+        RecordedRequest catalogQuestion = geminiServer.takeRequest();
+        assertEquals("/v1beta/models/gemini-test:generateContent?key=test-key", catalogQuestion.getPath());
+        assertEquals(1, meterRegistry.get("gemini.route.latency").tag("route", "light").timer().count());
+        assertEquals(1, meterRegistry.get("gemini.route.latency").tag("route", "full").timer().count());
+    }
+
+    @Test
+    void sendMessage_usesFullModelForClientsThatOptOutOfRouting() throws Exception {
+        client.setModelRouting(Client.ModelRouting.FULL_ONLY);
+        geminiServer.enqueue(new MockResponse().setBody(candidate("Будь ласка!")));
+
+        chatService.sendMessage(client, "psid", "Дякую!");
+
+        assertEquals("/v1beta/models/gemini-test:generateContent?key=test-key", geminiServer.takeRequest().getPath());
+    }
+
+    @Test
+    void sendMessage_answersWithoutContextWhenExecutorIsSaturated() throws Exception {
+        chatService = newChatService(task -> {
+            throw new RejectedExecutionException("saturated");
+        });
+        geminiServer.enqueue(new MockResponse().setBody(candidate("Ok")));
+
+        assertEquals("Ok", chatService.sendMessage(client, "psid", "Hi"));
+
+        verifyNoInteractions(ragService);
+        assertEquals(1, meterRegistry.counter("gemini.prepare.degraded", "stage", "rag", "reason", "rejected").count());
+    }
+
+    @Test
+    void sendMessage_skipsRagWhenOverloaded() throws Exception {
+        when(overloadController.levelForReply()).thenReturn(OverloadController.Level.NO_RAG);
+        geminiServer.enqueue(new MockResponse().setBody(candidate("Ok")));
+
+        chatService.sendMessage(client, "psid", "Hi");
+
+        verifyNoInteractions(ragService);
+        assertEquals("/v1beta/models/gemini-test:generateContent?key=test-key", geminiServer.takeRequest().getPath());
+    }
+
+    @Test
+    void sendMessage_keepsNewestTurnsWithinBudgetAndFoldsOlderOnesIntoSummary() throws Exception {
+        client.setHistoryTokenBudget(40);
+        List<Interaction> newestFirst = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Interaction turn = new Interaction("psid", i % 2 == 0 ? "AI" : "USER", "репліка " + i + " " + "x".repeat(45));
+            turn.setTimestamp(LocalDateTime.now().minusMinutes(i + 1));
+            newestFirst.add(turn);
+        }
+        when(interactionRepository.findTop10ByClientIdAndSenderPsidOrderByTimestampDescIdDesc(1L, "psid")).thenReturn(newestFirst);
+        ConversationSummary summary = new ConversationSummary();
+        summary.setSummary("Клієнтка питала про сукню.");
+        summary.setSummarizedUntil(LocalDateTime.now().minusMinutes(4).minusSeconds(30));
+        when(summaryRepository.findByClientIdAndSenderPsid(1L, "psid")).thenReturn(Optional.of(summary));
+        geminiServer.enqueue(new MockResponse().setBody(candidate("Ok")));
+
+        chatService.sendMessage(client, "psid", "Hi");
+
+        JsonObject body = gson.fromJson(geminiServer.takeRequest().getBody().readUtf8(), JsonObject.class);
+        List<String> texts = new ArrayList<>();
+        body.getAsJsonArray("contents").forEach(content -> texts.add(content.getAsJsonObject()
+                .getAsJsonArray("parts").get(0).getAsJsonObject().get("text").getAsString()));
+        assertTrue(texts.stream().anyMatch(text -> text.equals("Підсумок попередньої розмови: Клієнтка питала про сукню.")));
+        assertTrue(texts.stream().anyMatch(text -> text.startsWith("репліка 0 ")));
+        assertTrue(texts.stream().noneMatch(text -> text.startsWith("репліка 1 ")));
+        ArgumentCaptor<List<ConversationHistoryCache.Turn>> dropped = ArgumentCaptor.captor();
+        verify(summarizer).foldAsync(eq(client), eq("psid"), dropped.capture());
+        assertEquals(3, dropped.getValue().size());
+        assertTrue(dropped.getValue().get(0).text().startsWith("репліка 3 "));
+        assertTrue(meterRegistry.summary("gemini.history.tokens", "part", "dropped").totalAmount() > 0);
+    }
+
+    @Test
+    void sendMessage_leavesTurnsCoveredBySummaryOutOfTheVerbatimHistory() throws Exception {
+        List<Interaction> newestFirst = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Interaction turn = new Interaction("psid", i % 2 == 0 ? "AI" : "USER", "репліка " + i);
+            turn.setTimestamp(LocalDateTime.now().minusMinutes(i + 1));
+            newestFirst.add(turn);
+        }
+        when(interactionRepository.findTop10ByClientIdAndSenderPsidOrderByTimestampDescIdDesc(1L, "psid")).thenReturn(newestFirst);
+        // The two older turns fit the budget, but are folded into the summary already
+        ConversationSummary summary = new ConversationSummary();
+        summary.setSummary("Клієнтка питала про сукню.");
+        summary.setSummarizedUntil(LocalDateTime.now().minusMinutes(2).minusSeconds(30));
+        when(summaryRepository.findByClientIdAndSenderPsid(1L, "psid")).thenReturn(Optional.of(summary));
+        geminiServer.enqueue(new MockResponse().setBody(candidate("Ok")));
+
+        chatService.sendMessage(client, "psid", "Hi");
+
+        String body = geminiServer.takeRequest().getBody().readUtf8();
+        assertTrue(body.contains("Підсумок попередньої розмови: Клієнтка питала про сукню."));
+        assertTrue(body.contains("репліка 0"));
+        assertTrue(body.contains("репліка 1"));
+        assertFalse(body.contains("репліка 2"));
+        assertFalse(body.contains("репліка 3"));
+        verify(summarizer, never()).foldAsync(any(), any(), any());
+    }
+
+    @Test
+    void sendMessage_sendsTurnsLeavingCachedWindowWhileTheyFitAndFoldsThem() throws Exception {
+        List<Interaction> newestFirst = new ArrayList<>();
+        for (int i = 0; i < ConversationHistoryCache.HISTORY_SIZE; i++) {
+            Interaction turn = new Interaction("psid", i % 2 == 0 ? "AI" : "USER", "репліка " + i);
+            turn.setTimestamp(LocalDateTime.now().minusMinutes(i + 1));
+            newestFirst.add(turn);
+        }
+        when(interactionRepository.findTop10ByClientIdAndSenderPsidOrderByTimestampDescIdDesc(1L, "psid")).thenReturn(newestFirst);
+        geminiServer.enqueue(new MockResponse().setBody(candidate("Ok")));
+
+        chatService.sendMessage(client, "psid", "Hi");
+
+        String body = geminiServer.takeRequest().getBody().readUtf8();
+        assertTrue(body.contains("репліка 9"));
+        assertTrue(body.contains("репліка 8"));
+        ArgumentCaptor<List<ConversationHistoryCache.Turn>> leaving = ArgumentCaptor.captor();
+        verify(summarizer).foldAsync(eq(client), eq("psid"), leaving.capture());
+        assertEquals(List.of("репліка 9", "репліка 8"), leaving.getValue().stream().map(ConversationHistoryCache.Turn::text).toList());
+        assertEquals(0, meterRegistry.summary("gemini.history.tokens", "part", "dropped").totalAmount());
+    }
+
+    @Test
+    void sendMessage_recordsBilledTokens() throws Exception {
+        JsonObject response = gson.fromJson(candidate("Ok"), JsonObject.class);
+        JsonObject usage = new JsonObject();
+        usage.addProperty("promptTokenCount", 1200);
+        usage.addProperty("cachedContentTokenCount", 1000);
+        usage.addProperty("candidatesTokenCount", 40);
+        response.add("usageMetadata", usage);
+        geminiServer.enqueue(new MockResponse().setBody(gson.toJson(response)));
+
+        chatService.sendMessage(client, "psid", "Hi");
+
+        assertEquals(1200, meterRegistry.get("gemini.tokens").tags("type", "prompt", "route", "light").summary().totalAmount());
+        assertEquals(1000, meterRegistry.get("gemini.tokens").tags("type", "cached", "route", "light").summary().totalAmount());
+        assertEquals(40, meterRegistry.get("gemini.tokens").tags("type", "output", "route", "light").summary().totalAmount());
+        // 200 uncached and 1000 cached prompt tokens plus 40 output tokens at the light model's prices per million
+        assertEquals((200 * 0.10 + 1000 * 0.025 + 40 * 0.40) / 1_000_000,
+                meterRegistry.get("gemini.route.cost").tag("route", "light").counter().count(), 1e-12);
+    }
+
+    private String candidate(String text) {
+        JsonObject part = new JsonObject();
+        part.addProperty("text", text);
+        JsonObject content = new JsonObject();
+        content.add("parts", gson.toJsonTree(List.of(part)));
+        content.addProperty("role", "model");
+        JsonObject candidate = new JsonObject();
+        candidate.add("content", content);
+        JsonObject response = new JsonObject();
+        response.add("candidates", gson.toJsonTree(List.of(candidate)));
+        return gson.toJson(response);
+    }
+}
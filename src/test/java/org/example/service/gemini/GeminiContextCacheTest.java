@@ -0,0 +1,210 @@
+package org.example.service.gemini;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.example.database.entity.Client;
+import org.example.service.TestDependencies;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeminiContextCacheTest {
+
+    private MockWebServer geminiServer;
+    private SimpleMeterRegistry meterRegistry;
+    private GeminiContextCache contextCache;
+    private Client client;
+    private final Gson gson = new Gson();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        geminiServer = new MockWebServer();
+        geminiServer.start();
+        meterRegistry = new SimpleMeterRegistry();
+        contextCache = newCache(true);
+
+        client = new Client();
+        client.setId(7L);
+        client.setAiSystemPrompt("Ти — консультант магазину.");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        geminiServer.shutdown();
+    }
+
+    private GeminiContextCache newCache(boolean enabled) {
+        return new GeminiContextCache(TestDependencies.unboundedLimits(), TestDependencies.httpClients(), meterRegistry,
+                TestDependencies.outboundExecutor(), enabled, "test-key",
+                geminiServer.url("/v1beta/models/gemini-test").toString(), 3600, 600, 600);
+    }
+
+    @Test
+    void skipsCacheCallsWhileTheExecutorIsSaturated() throws Exception {
+        AtomicBoolean saturated = new AtomicBoolean(true);
+        Executor executor = TestDependencies.outboundExecutor();
+        contextCache = new GeminiContextCache(TestDependencies.unboundedLimits(), TestDependencies.httpClients(), meterRegistry,
+                task -> {
+                    if (saturated.get()) {
+                        throw new RejectedExecutionException("saturated");
+                    }
+                    executor.execute(task);
+                }, true, "test-key", geminiServer.url("/v1beta/models/gemini-test").toString(), 3600, 600, 600);
+        geminiServer.enqueue(cached("cachedContents/c1", Duration.ofHours(1)));
+
+        assertEquals(Optional.empty(), contextCache.cachedContentFor(client));
+        assertEquals(0, geminiServer.getRequestCount());
+
+        // The rejected call is not remembered as running, so the next lookup tries again
+        saturated.set(false);
+        assertEquals(Optional.empty(), contextCache.cachedContentFor(client));
+        awaitCreated(1);
+    }
+
+    @Test
+    void createsCacheInBackgroundAndReusesIt() throws Exception {
+        geminiServer.enqueue(cached("cachedContents/c1", Duration.ofHours(1)));
+
+        // The first reply sends the prompt inline while the cache is being created
+        assertEquals(Optional.empty(), contextCache.cachedContentFor(client));
+        awaitCreated(1);
+        assertEquals(Optional.of("cachedContents/c1"), contextCache.cachedContentFor(client));
+        assertEquals(Optional.of("cachedContents/c1"), contextCache.cachedContentFor(client));
+
+        assertEquals(1, geminiServer.getRequestCount());
+        RecordedRequest request = geminiServer.takeRequest();
+        assertEquals("POST", request.getMethod());
+        assertEquals("/v1beta/cachedContents?key=test-key", request.getPath());
+        JsonObject body = gson.fromJson(request.getBody().readUtf8(), JsonObject.class);
+        assertEquals("models/gemini-test", body.get("model").getAsString());
+        assertEquals("3600s", body.get("ttl").getAsString());
+        assertEquals("Ти — консультант магазину.", body.getAsJsonObject("systemInstruction")
+                .getAsJsonArray("parts").get(0).getAsJsonObject().get("text").getAsString());
+        assertEquals(1, lookups("fallback"));
+        assertEquals(2, lookups("hit"));
+    }
+
+    @Test
+    void keepsUsingCacheWhileRenewingItsTtl() throws Exception {
+        geminiServer.enqueue(cached("cachedContents/c1", Duration.ofMinutes(5)));
+        geminiServer.enqueue(cached("cachedContents/c1", Duration.ofHours(1)));
+        contextCache.cachedContentFor(client);
+        awaitCreated(1);
+
+        // Every lookup refers to the cache while it is close to expiry; one of them starts the renewal
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (geminiServer.getRequestCount() < 2 && System.nanoTime() < deadline) {
+            assertEquals(Optional.of("cachedContents/c1"), contextCache.cachedContentFor(client));
+            Thread.sleep(10);
+        }
+        geminiServer.takeRequest();
+        RecordedRequest renewal = geminiServer.takeRequest(5, TimeUnit.SECONDS);
+        assertEquals(Optional.of("cachedContents/c1"), contextCache.cachedContentFor(client));
+
+        assertEquals(2, geminiServer.getRequestCount());
+        assertEquals("PATCH", renewal.getMethod());
+        assertEquals("/v1beta/cachedContents/c1?updateMask=ttl&key=test-key", renewal.getPath());
+        assertEquals("3600s", gson.fromJson(renewal.getBody().readUtf8(), JsonObject.class).get("ttl").getAsString());
+    }
+
+    @Test
+    void replacesCacheWhenPromptChanges() throws Exception {
+        geminiServer.enqueue(cached("cachedContents/c1", Duration.ofHours(1)));
+        geminiServer.enqueue(new MockResponse().setBody("{}"));
+        geminiServer.enqueue(cached("cachedContents/c2", Duration.ofHours(1)));
+        contextCache.cachedContentFor(client);
+        awaitCreated(1);
+        geminiServer.takeRequest();
+
+        client.setAiSystemPrompt("Новий промпт");
+
+        assertEquals(Optional.empty(), contextCache.cachedContentFor(client));
+        awaitCachedContent("cachedContents/c2");
+        RecordedRequest deletion = geminiServer.takeRequest();
+        assertEquals("DELETE", deletion.getMethod());
+        assertEquals("/v1beta/cachedContents/c1?key=test-key", deletion.getPath());
+        RecordedRequest creation = geminiServer.takeRequest();
+        assertEquals("POST", creation.getMethod());
+        assertTrue(creation.getBody().readUtf8().contains("Новий промпт"));
+    }
+
+    @Test
+    void fallsBackToInlinePromptWhenCreationFailsAndDoesNotRetryRightAway() throws Exception {
+        geminiServer.enqueue(new MockResponse().setResponseCode(400).setBody("{\"error\":{\"message\":\"too small\"}}"));
+
+        assertEquals(Optional.empty(), contextCache.cachedContentFor(client));
+        geminiServer.takeRequest(5, TimeUnit.SECONDS);
+        assertEquals(Optional.empty(), contextCache.cachedContentFor(client));
+
+        assertEquals(1, geminiServer.getRequestCount());
+        assertEquals(2, lookups("fallback"));
+    }
+
+    @Test
+    void createsNewCacheAfterInvalidation() throws Exception {
+        geminiServer.enqueue(cached("cachedContents/c1", Duration.ofHours(1)));
+        geminiServer.enqueue(cached("cachedContents/c2", Duration.ofHours(1)));
+        contextCache.cachedContentFor(client);
+        awaitCreated(1);
+
+        contextCache.invalidate(client, "cachedContents/c1");
+
+        assertEquals(Optional.empty(), contextCache.cachedContentFor(client));
+        awaitCachedContent("cachedContents/c2");
+        assertEquals(2, geminiServer.getRequestCount());
+        assertEquals(1, meterRegistry.counter("gemini.context.cache.invalidations").count());
+    }
+
+    @Test
+    void sendsNothingWhenDisabled() {
+        contextCache = newCache(false);
+
+        assertEquals(Optional.empty(), contextCache.cachedContentFor(client));
+        assertEquals(0, geminiServer.getRequestCount());
+    }
+
+    private MockResponse cached(String name, Duration ttl) {
+        JsonObject body = new JsonObject();
+        body.addProperty("name", name);
+        body.addProperty("expireTime", Instant.now().plus(ttl).toString());
+        return new MockResponse().setBody(gson.toJson(body));
+    }
+
+    private void awaitCreated(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (lookups("created") < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, lookups("created"));
+    }
+
+    /**
+     * Looks up the cache until it has the name; a lookup while the previous call is still finishing does not start another.
+     */
+    private void awaitCachedContent(String name) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!contextCache.cachedContentFor(client).equals(Optional.of(name)) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Optional.of(name), contextCache.cachedContentFor(client));
+    }
+
+    private double lookups(String result) {
+        return meterRegistry.counter("gemini.context.cache.lookups", "result", result).count();
+    }
+}
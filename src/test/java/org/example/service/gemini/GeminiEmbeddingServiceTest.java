@@ -0,0 +1,155 @@
+package org.example.service.gemini;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.example.database.repository.EmbeddingCacheRepository;
+import org.example.service.TestDependencies;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class GeminiEmbeddingServiceTest {
+
+    private MockWebServer geminiServer;
+    private GeminiEmbeddingService embeddingService;
+    private final Gson gson = new Gson();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        geminiServer = new MockWebServer();
+        geminiServer.start();
+        embeddingService = newEmbeddingService(TestDependencies.outboundExecutor());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        geminiServer.shutdown();
+    }
+
+    private GeminiEmbeddingService newEmbeddingService(AsyncTaskExecutor batchExecutor) {
+        EmbeddingCache embeddingCache = new EmbeddingCache(mock(EmbeddingCacheRepository.class), new SimpleMeterRegistry(), true, 1 << 20, false, 90);
+        GeminiEmbeddingService service = new GeminiEmbeddingService(TestDependencies.unboundedLimits(), TestDependencies.resilience(), embeddingCache,
+                TestDependencies.httpClients(), batchExecutor,
+                geminiServer.url("/v1beta/models/gemini-embedding-test").toString(), 2, 2, 10000);
+        ReflectionTestUtils.setField(service, "apiKey", "test-key");
+        return service;
+    }
+
+    @Test
+    void getEmbeddings_sendsBatchesAndKeepsTextOrder() throws Exception {
+        geminiServer.setDispatcher(echoDispatcher());
+        List<String> texts = IntStream.range(0, 5).mapToObj(String::valueOf).toList();
+
+        List<float[]> embeddings = embeddingService.getEmbeddings(texts);
+
+        assertEquals(5, embeddings.size());
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(new float[]{i}, embeddings.get(i));
+        }
+        assertEquals(3, geminiServer.getRequestCount());
+        assertEquals("/v1beta/models/gemini-embedding-test:batchEmbedContents?key=test-key", geminiServer.takeRequest().getPath());
+    }
+
+    @Test
+    void getEmbeddings_sendsAllBatchesItselfWhileTheExecutorIsSaturated() throws Exception {
+        embeddingService = newEmbeddingService(task -> {
+            throw new RejectedExecutionException("saturated");
+        });
+        geminiServer.setDispatcher(echoDispatcher());
+        List<String> texts = IntStream.range(0, 5).mapToObj(String::valueOf).toList();
+
+        List<float[]> embeddings = embeddingService.getEmbeddings(texts);
+
+        for (int i = 0; i < 5; i++) {
+            assertArrayEquals(new float[]{i}, embeddings.get(i));
+        }
+        assertEquals(3, geminiServer.getRequestCount());
+    }
+
+    @Test
+    void getEmbeddings_sendsOnlyTextsWithoutCachedEmbedding() throws Exception {
+        geminiServer.setDispatcher(echoDispatcher());
+        embeddingService.getEmbeddings(List.of("1", "2"));
+        geminiServer.takeRequest();
+
+        // "2" is cached, and "3" differs from " 3 " only in whitespace
+        List<float[]> embeddings = embeddingService.getEmbeddings(List.of("2", "3", " 3 ", "4"));
+
+        assertArrayEquals(new float[]{3}, embeddings.get(2));
+        assertArrayEquals(new float[]{4}, embeddings.get(3));
+        JsonArray requests = gson.fromJson(geminiServer.takeRequest().getBody().readUtf8(), JsonObject.class).getAsJsonArray("requests");
+        assertEquals(2, requests.size());
+        assertEquals(2, geminiServer.getRequestCount());
+
+        assertArrayEquals(new float[]{4}, embeddingService.getEmbedding("4"));
+        assertEquals(2, geminiServer.getRequestCount());
+    }
+
+    @Test
+    void getEmbeddings_failsWhenAnyBatchFails() {
+        geminiServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode(400).setBody("bad request");
+            }
+        });
+
+        assertThrows(IOException.class, () -> embeddingService.getEmbeddings(List.of("1", "2", "3", "4", "5")));
+    }
+
+    @Test
+    void getEmbeddings_rejectsResponseWithMissingEmbeddings() {
+        geminiServer.enqueue(new MockResponse().setBody("{\"embeddings\":[{\"values\":[1.0]}]}"));
+
+        assertThrows(IOException.class, () -> embeddingService.getEmbeddings(List.of("1", "2")));
+    }
+
+    @Test
+    void getEmbeddings_sendsNothingForNoTexts() throws Exception {
+        assertTrue(embeddingService.getEmbeddings(List.of()).isEmpty());
+        assertEquals(0, geminiServer.getRequestCount());
+    }
+
+    /**
+     * Answers batch calls for texts that are numbers, embedding each as a one-dimensional vector holding it.
+     */
+    private Dispatcher echoDispatcher() {
+        return new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                JsonArray requests = gson.fromJson(request.getBody().clone().readUtf8(), JsonObject.class).getAsJsonArray("requests");
+                JsonArray embeddings = new JsonArray();
+                for (JsonElement embeddingRequest : requests) {
+                    assertEquals("models/gemini-embedding-test", embeddingRequest.getAsJsonObject().get("model").getAsString());
+                    String text = embeddingRequest.getAsJsonObject().getAsJsonObject("content")
+                            .getAsJsonArray("parts").get(0).getAsJsonObject().get("text").getAsString();
+                    JsonArray values = new JsonArray();
+                    values.add(Float.parseFloat(text));
+                    JsonObject embedding = new JsonObject();
+                    embedding.add("values", values);
+                    embeddings.add(embedding);
+                }
+                JsonObject response = new JsonObject();
+                response.add("embeddings", embeddings);
+                return new MockResponse().setBody(response.toString());
+            }
+        };
+    }
+}
@@ -0,0 +1,284 @@
+package org.example.service.gemini;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+import org.example.service.TestDependencies;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeminiResilienceTest {
+
+    private MockWebServer server;
+    private SimpleMeterRegistry meterRegistry;
+    private GeminiResilience resilience;
+    // Without OkHttp's own silent retry of failed connections every injected fault reaches the resilience layer
+    private final OkHttpClient client = new OkHttpClient.Builder()
+            .readTimeout(5, TimeUnit.SECONDS)
+            .retryOnConnectionFailure(false)
+            .build();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        resilience = resilience(false, 20000);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    void retriesRetryableStatusesAndConnectionErrors() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST));
+        server.enqueue(new MockResponse().setBody("ok"));
+
+        try (Response response = resilience.execute(GeminiResilience.Endpoint.GENERATE, client, request())) {
+            assertEquals(200, response.code());
+            assertEquals("ok", response.body().string());
+        }
+        assertEquals(3, server.getRequestCount());
+        assertEquals(2, meterRegistry.counter("gemini.resilience.retries", "endpoint", "generate").count());
+    }
+
+    @Test
+    void returnsClientErrorsWithoutRetrying() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(400).setBody("bad request"));
+
+        try (Response response = resilience.execute(GeminiResilience.Endpoint.GENERATE, client, request())) {
+            assertEquals(400, response.code());
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    void returnsLastResponseWhenAttemptsAreExhausted() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            server.enqueue(new MockResponse().setResponseCode(429));
+        }
+
+        try (Response response = resilience.execute(GeminiResilience.Endpoint.GENERATE, client, request())) {
+            assertEquals(429, response.code());
+        }
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    void waitsAsLongAsRetryAfterAsks() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "1"));
+        server.enqueue(new MockResponse().setBody("ok"));
+
+        long startedAt = System.nanoTime();
+        try (Response response = resilience.execute(GeminiResilience.Endpoint.GENERATE, client, request())) {
+            assertEquals(200, response.code());
+        }
+        assertTrue(System.nanoTime() - startedAt >= TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    void doesNotRetryWhenRetryAfterExceedsLimit() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503).setHeader("Retry-After", "120"));
+
+        try (Response response = resilience.execute(GeminiResilience.Endpoint.GENERATE, client, request())) {
+            assertEquals(503, response.code());
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    void opensCircuitAfterFailuresAndClosesAfterSuccessfulTrial() throws Exception {
+        meterRegistry = new SimpleMeterRegistry();
+        resilience = new GeminiResilience(meterRegistry, TestDependencies.outboundExecutor(), 1, 0, 0, 10000, 20000,
+                4, 4, 0.5, 200, 3.0, 100, 20, 30000, false, 10, 0.5);
+        for (int i = 0; i < 4; i++) {
+            server.enqueue(new MockResponse().setResponseCode(500));
+            resilience.execute(GeminiResilience.Endpoint.GENERATE, client, request()).close();
+        }
+
+        assertThrows(GeminiResilience.CircuitOpenException.class,
+                () -> resilience.execute(GeminiResilience.Endpoint.GENERATE, client, request()));
+        assertEquals(4, server.getRequestCount());
+        assertEquals(2, meterRegistry.get("gemini.resilience.circuit.state").tag("endpoint", "generate").gauge().value());
+        // Other endpoints are not affected
+        server.enqueue(new MockResponse().setBody("ok"));
+        resilience.execute(GeminiResilience.Endpoint.EMBED, client, request()).close();
+
+        Thread.sleep(250);
+        server.enqueue(new MockResponse().setBody("ok"));
+        try (Response response = resilience.execute(GeminiResilience.Endpoint.GENERATE, client, request())) {
+            assertEquals(200, response.code());
+        }
+        assertEquals(0, meterRegistry.get("gemini.resilience.circuit.state").tag("endpoint", "generate").gauge().value());
+    }
+
+    @Test
+    void interruptedTrialLetsNextCallBeTheTrial() throws Exception {
+        meterRegistry = new SimpleMeterRegistry();
+        resilience = new GeminiResilience(meterRegistry, TestDependencies.outboundExecutor(), 1, 0, 0, 10000, 20000,
+                4, 4, 0.5, 200, 3.0, 100, 20, 30000, false, 10, 0.5);
+        for (int i = 0; i < 4; i++) {
+            server.enqueue(new MockResponse().setResponseCode(500));
+            resilience.execute(GeminiResilience.Endpoint.EMBED, client, request()).close();
+        }
+        Thread.sleep(250);
+        // The caller is cancelled while the trial is in flight, as a timed-out RAG lookup is
+        OkHttpClient cancelled = client.newBuilder()
+                .addInterceptor(chain -> {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("cancelled");
+                })
+                .build();
+        try {
+            assertThrows(InterruptedIOException.class,
+                    () -> resilience.execute(GeminiResilience.Endpoint.EMBED, cancelled, request()));
+        } finally {
+            Thread.interrupted();
+        }
+
+        server.enqueue(new MockResponse().setBody("ok"));
+        try (Response response = resilience.execute(GeminiResilience.Endpoint.EMBED, client, request())) {
+            assertEquals(200, response.code());
+        }
+        assertEquals(0, meterRegistry.get("gemini.resilience.circuit.state").tag("endpoint", "embed").gauge().value());
+    }
+
+    @Test
+    void derivesReadTimeoutFromObservedLatency() throws Exception {
+        meterRegistry = new SimpleMeterRegistry();
+        resilience = new GeminiResilience(meterRegistry, TestDependencies.outboundExecutor(), 2, 0, 0, 10000, 20000,
+                20, 20, 0.9, 30000, 3.0, 100, 5, 30000, false, 10, 0.5);
+        for (int i = 0; i < 5; i++) {
+            server.enqueue(new MockResponse().setBody("ok"));
+            resilience.execute(GeminiResilience.Endpoint.GENERATE, client, request()).close();
+        }
+        // Far beyond three times the observed latency, but within the client's own read timeout
+        server.enqueue(new MockResponse().setBody("slow").setHeadersDelay(2, TimeUnit.SECONDS));
+        server.enqueue(new MockResponse().setBody("fast"));
+
+        try (Response response = resilience.execute(GeminiResilience.Endpoint.GENERATE, client, request())) {
+            assertEquals("fast", response.body().string());
+        }
+        assertEquals(100, meterRegistry.get("gemini.resilience.timeout").tag("endpoint", "generate").gauge().value());
+    }
+
+    @Test
+    void readsStreamedBodyWithItsOwnTimeout() throws Exception {
+        meterRegistry = new SimpleMeterRegistry();
+        resilience = new GeminiResilience(meterRegistry, TestDependencies.outboundExecutor(), 2, 0, 0, 10000, 20000,
+                20, 20, 0.9, 30000, 3.0, 100, 5, 2000, false, 10, 0.5);
+        for (int i = 0; i < 5; i++) {
+            server.enqueue(new MockResponse().setBody("ok"));
+            resilience.execute(GeminiResilience.Endpoint.STREAM_GENERATE, client, request()).close();
+        }
+        // Each chunk follows the previous one after longer than the adaptive timeout
+        server.enqueue(new MockResponse().setBody("chunk1chunk2chunk3").throttleBody(6, 300, TimeUnit.MILLISECONDS));
+
+        try (Response response = resilience.execute(GeminiResilience.Endpoint.STREAM_GENERATE, client, request())) {
+            assertEquals("chunk1chunk2chunk3", response.body().string());
+        }
+        // The wait for the headers is still bounded by the adaptive timeout
+        server.enqueue(new MockResponse().setBody("slow").setHeadersDelay(2, TimeUnit.SECONDS));
+        server.enqueue(new MockResponse().setBody("fast"));
+        try (Response response = resilience.execute(GeminiResilience.Endpoint.STREAM_GENERATE, client, request())) {
+            assertEquals("fast", response.body().string());
+        }
+        assertEquals(100, meterRegistry.get("gemini.resilience.timeout").tag("endpoint", "stream-generate").gauge().value());
+    }
+
+    @Test
+    void hedgesSlowEmbeddingCalls() throws Exception {
+        resilience = resilience(true, 20000);
+        for (int i = 0; i < 5; i++) {
+            server.enqueue(new MockResponse().setBody("ok"));
+            resilience.execute(GeminiResilience.Endpoint.EMBED, client, request()).close();
+        }
+        server.enqueue(new MockResponse().setBody("slow").setHeadersDelay(2, TimeUnit.SECONDS));
+        server.enqueue(new MockResponse().setBody("hedge"));
+
+        long startedAt = System.nanoTime();
+        try (Response response = resilience.execute(GeminiResilience.Endpoint.EMBED, client, request())) {
+            assertEquals("hedge", response.body().string());
+        }
+        assertTrue(System.nanoTime() - startedAt < TimeUnit.SECONDS.toNanos(2));
+        assertEquals(1, meterRegistry.counter("gemini.resilience.hedges", "endpoint", "embed").count());
+    }
+
+    @Test
+    void failsHedgedCallsThatThrowUnexpectedly() throws Exception {
+        resilience = resilience(true, 20000);
+        for (int i = 0; i < 5; i++) {
+            server.enqueue(new MockResponse().setBody("ok"));
+            resilience.execute(GeminiResilience.Endpoint.EMBED, client, request()).close();
+        }
+        OkHttpClient failing = client.newBuilder()
+                .addInterceptor(chain -> {
+                    throw new IllegalStateException("broken interceptor");
+                })
+                .build();
+
+        IOException failure = assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> assertThrows(IOException.class, () -> resilience.execute(GeminiResilience.Endpoint.EMBED, failing, request())));
+        assertInstanceOf(IllegalStateException.class, failure.getCause());
+    }
+
+    @Test
+    void sendsCallsDirectlyWhileTheExecutorIsSaturated() throws Exception {
+        meterRegistry = new SimpleMeterRegistry();
+        resilience = new GeminiResilience(meterRegistry, task -> {
+            throw new RejectedExecutionException("saturated");
+        }, 3, 10, 50, 10000, 20000, 20, 10, 0.5, 30000, 3.0, 5000, 5, 30000, true, 10, 0.5);
+        for (GeminiResilience.Endpoint endpoint : List.of(GeminiResilience.Endpoint.EMBED, GeminiResilience.Endpoint.STREAM_GENERATE)) {
+            // Past the warm-up the calls would be hedged or wait for their headers on another thread
+            for (int i = 0; i < 6; i++) {
+                server.enqueue(new MockResponse().setBody("ok"));
+                try (Response response = resilience.execute(endpoint, client, request())) {
+                    assertEquals("ok", response.body().string());
+                }
+            }
+        }
+        assertEquals(12, server.getRequestCount());
+        assertEquals(0, meterRegistry.counter("gemini.resilience.hedges", "endpoint", "embed").count());
+    }
+
+    @Test
+    void neverHedgesChatCalls() throws Exception {
+        resilience = resilience(true, 20000);
+        for (int i = 0; i < 5; i++) {
+            server.enqueue(new MockResponse().setBody("ok"));
+            resilience.execute(GeminiResilience.Endpoint.GENERATE, client, request()).close();
+        }
+        server.enqueue(new MockResponse().setBody("slow").setHeadersDelay(300, TimeUnit.MILLISECONDS));
+
+        try (Response response = resilience.execute(GeminiResilience.Endpoint.GENERATE, client, request())) {
+            assertEquals("slow", response.body().string());
+        }
+        assertEquals(6, server.getRequestCount());
+    }
+
+    private GeminiResilience resilience(boolean hedge, long maxElapsedMs) {
+        meterRegistry = new SimpleMeterRegistry();
+        return new GeminiResilience(meterRegistry, TestDependencies.outboundExecutor(), 3, 10, 50, 10000, maxElapsedMs,
+                20, 10, 0.5, 30000, 3.0, 5000, 5, 30000, hedge, 10, 0.5);
+    }
+
+    private Request request() {
+        return new Request.Builder().url(server.url("/v1beta/models/gemini-test:generateContent")).get().build();
+    }
+}
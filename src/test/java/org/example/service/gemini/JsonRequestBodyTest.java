@@ -0,0 +1,107 @@
+package org.example.service.gemini;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import okio.Buffer;
+import org.example.database.entity.Client;
+import org.example.model.Content;
+import org.example.model.Part;
+import org.example.model.request.GenerationConfig;
+import org.example.model.request.RequestPayload;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonRequestBodyTest {
+
+    private final Gson gson = new Gson();
+
+    @Test
+    void writesSameJsonAsGsonWithPreEncodedSystemInstruction() throws IOException {
+        RequestPayload payload = payload();
+        payload.setSystemInstruction(GeminiContextCache.systemInstruction(client()));
+        GenerationConfig generationConfig = new GenerationConfig();
+        generationConfig.setMaxOutputTokens(300);
+        payload.setGenerationConfig(generationConfig);
+        String encoded = JsonRequestBody.encode(gson, payload.getSystemInstruction());
+
+        String written = write(JsonRequestBody.of(gson, payload, encoded));
+
+        assertEquals(gson.fromJson(gson.toJson(payload), JsonObject.class), gson.fromJson(written, JsonObject.class));
+    }
+
+    @Test
+    void writesPayloadWithOnlySystemInstruction() throws IOException {
+        RequestPayload payload = new RequestPayload();
+        payload.setSystemInstruction(GeminiContextCache.systemInstruction(client()));
+
+        String written = write(JsonRequestBody.of(gson, payload, JsonRequestBody.encode(gson, payload.getSystemInstruction())));
+
+        assertEquals(gson.toJson(payload), written);
+    }
+
+    @Test
+    void writesValidJsonWhenOnlyOtherMemberIsEmptyOrNull() throws IOException {
+        Gson serializingNulls = new GsonBuilder().serializeNulls().create();
+        RequestPayload payload = new RequestPayload();
+        payload.setSystemInstruction(GeminiContextCache.systemInstruction(client()));
+        payload.setContents(List.of());
+        payload.setGenerationConfig(new GenerationConfig());
+
+        for (Gson g : List.of(gson, serializingNulls)) {
+            String written = write(JsonRequestBody.of(g, payload, JsonRequestBody.encode(g, payload.getSystemInstruction())));
+
+            assertFalse(written.contains(",}"), written);
+            assertEquals(JsonParser.parseString(g.toJson(payload)), JsonParser.parseString(written));
+        }
+    }
+
+    @Test
+    void ignoresEncodedSystemInstructionWhenPayloadRefersToCachedContent() throws IOException {
+        RequestPayload payload = payload();
+        payload.setCachedContent("cachedContents/c1");
+
+        String written = write(JsonRequestBody.of(gson, payload, JsonRequestBody.encode(gson, "stale")));
+
+        assertEquals(gson.toJson(payload), written);
+    }
+
+    @Test
+    void canBeWrittenForEveryAttempt() throws IOException {
+        RequestPayload payload = payload();
+        payload.setSystemInstruction(GeminiContextCache.systemInstruction(client()));
+        JsonRequestBody body = JsonRequestBody.of(gson, payload, JsonRequestBody.encode(gson, payload.getSystemInstruction()));
+
+        assertEquals(write(body), write(body));
+        assertFalse(body.isOneShot());
+    }
+
+    private String write(JsonRequestBody body) throws IOException {
+        Buffer buffer = new Buffer();
+        body.writeTo(buffer);
+        return buffer.readUtf8();
+    }
+
+    private static Client client() {
+        Client client = new Client();
+        client.setId(1L);
+        client.setAiSystemPrompt("Ти — помічник магазину \"Сукні\". Відповідай коротко <українською>.");
+        return client;
+    }
+
+    private static RequestPayload payload() {
+        Part part = new Part();
+        part.setText("Чи є сукня розміру M? 👗");
+        Content content = new Content();
+        content.setParts(List.of(part));
+        content.setRole("user");
+        RequestPayload payload = new RequestPayload();
+        payload.setContents(List.of(content));
+        return payload;
+    }
+}
@@ -6,6 +6,7 @@ import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
 import org.example.service.InstagramMessageService;
+import org.example.service.TestDependencies;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -31,7 +32,7 @@ public class InstagramMessageServiceTest {
         mockWebServer = new MockWebServer();
         mockWebServer.start();
 
-        messageService = new InstagramMessageService();
+        messageService = new InstagramMessageService(TestDependencies.unboundedLimits(), TestDependencies.httpClients());
 
         // Inject values for @Value fields using reflection
         String baseUrl = mockWebServer.url("").toString();
@@ -97,6 +98,47 @@ public class InstagramMessageServiceTest {
         assertEquals("a".repeat(1500 - 990), json2.getAsJsonObject("message").get("text").getAsString());
     }
 
+    @Test
+    public void startStreamingReply_sendsCompleteSentencesAsTheyArrive() throws InterruptedException {
+        ReflectionTestUtils.setField(messageService, "streamingMinChunkChars", 10);
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200));
+
+        InstagramMessageService.StreamingReply reply = messageService.startStreamingReply(TEST_ACCESS_TOKEN, TEST_RECIPIENT_ID);
+        reply.accept("Так, ця сукня ");
+        assertEquals(0, mockWebServer.getRequestCount());
+        reply.accept("є в розмірі M. Доставка ");
+        assertEquals(1, mockWebServer.getRequestCount());
+        reply.accept("1-2 дні.");
+        reply.finish();
+
+        assertEquals(2, mockWebServer.getRequestCount());
+        assertEquals("Так, ця сукня є в розмірі M.", sentText(mockWebServer.takeRequest(1, TimeUnit.SECONDS)));
+        assertEquals("Доставка 1-2 дні.", sentText(mockWebServer.takeRequest(1, TimeUnit.SECONDS)));
+        assertEquals("Так, ця сукня є в розмірі M.\nДоставка 1-2 дні.", reply.deliveredText());
+    }
+
+    @Test
+    public void startStreamingReply_countsOnlyAcceptedMessagesAsDelivered() {
+        ReflectionTestUtils.setField(messageService, "streamingMinChunkChars", 10);
+        mockWebServer.enqueue(new MockResponse().setResponseCode(400).setBody("{\"error\":{\"message\":\"rejected\"}}"));
+        mockWebServer.enqueue(new MockResponse().setResponseCode(200));
+
+        InstagramMessageService.StreamingReply reply = messageService.startStreamingReply(TEST_ACCESS_TOKEN, TEST_RECIPIENT_ID);
+        reply.accept("Так, ця сукня є в розмірі M. ");
+        reply.accept("Доставка 1-2 дні.");
+        reply.finish();
+
+        assertEquals(2, mockWebServer.getRequestCount());
+        assertEquals("Доставка 1-2 дні.", reply.deliveredText());
+    }
+
+    private String sentText(RecordedRequest request) {
+        assertNotNull(request);
+        JsonObject json = gson.fromJson(request.getBody().readUtf8(), JsonObject.class);
+        return json.getAsJsonObject("message").get("text").getAsString();
+    }
+
     @Test
     public void sendReply_whenApiFails_doesNotThrowException() {
         // Given
@@ -1,22 +1,25 @@
 package org.example.service.rag;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.example.database.entity.CatalogItem;
 import org.example.database.entity.Client;
 import org.example.database.entity.Knowledge;
 import org.example.database.repository.KnowledgeRepository;
+import org.example.service.EmbeddingDimensions;
+import org.example.service.QueryEmbeddingCache;
 import org.example.service.RAGService;
 import org.example.service.gemini.GeminiEmbeddingService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -30,7 +33,6 @@ class RAGServiceTest {
     @Mock
     private GeminiEmbeddingService geminiEmbeddingService;
 
-    @InjectMocks
     private RAGService ragService;
 
     private Client testClient;
@@ -38,6 +40,8 @@ class RAGServiceTest {
 
     @BeforeEach
     void setUp() {
+        ragService = new RAGService(knowledgeRepository, geminiEmbeddingService,
+                new QueryEmbeddingCache(new SimpleMeterRegistry(), true, 100, 1 << 20, 60000), new EmbeddingDimensions(3072, false), 0.7);
         testClient = new Client();
         testClient.setId(1L);
         testEmbedding = new float[]{0.1f, 0.2f, 0.3f};
@@ -53,16 +57,29 @@ class RAGServiceTest {
         ragService.createAndStoreEmbedding(testClient, content);
 
         // Then
-        ArgumentCaptor<Knowledge> knowledgeCaptor = ArgumentCaptor.forClass(Knowledge.class);
-        verify(knowledgeRepository).save(knowledgeCaptor.capture());
-
-        Knowledge savedKnowledge = knowledgeCaptor.getValue();
+        Knowledge savedKnowledge = captureInserted();
         assertEquals(testClient, savedKnowledge.getClient());
         assertEquals(content, savedKnowledge.getContent());
         assertArrayEquals(testEmbedding, savedKnowledge.getEmbedding());
+        assertNull(savedKnowledge.getReducedEmbedding());
         assertNull(savedKnowledge.getCatalogItem()); // Ensure it's a general knowledge
     }
 
+    @Test
+    void createAndStoreEmbedding_storesReducedEmbeddingAtClientsWidth() throws IOException {
+        // Given
+        testClient.setEmbeddingDimensions(2);
+        when(geminiEmbeddingService.getEmbedding("Доставка 1-2 дні")).thenReturn(new float[]{0.6f, 0.8f, 1f});
+
+        // When
+        ragService.createAndStoreEmbedding(testClient, "Доставка 1-2 дні");
+
+        // Then: searches still use the full embedding until the migration switches the client
+        Knowledge savedKnowledge = captureInserted();
+        assertArrayEquals(new float[]{0.6f, 0.8f, 1f}, savedKnowledge.getEmbedding());
+        assertArrayEquals(new float[]{0.6f, 0.8f}, savedKnowledge.getReducedEmbedding(), 1e-6f);
+    }
+
     @Test
     void createAndStoreEmbedding_withCatalogItem_success() throws IOException {
         // Given
@@ -76,10 +93,7 @@ class RAGServiceTest {
         ragService.createAndStoreEmbedding(testClient, content, catalogItem);
 
         // Then
-        ArgumentCaptor<Knowledge> knowledgeCaptor = ArgumentCaptor.forClass(Knowledge.class);
-        verify(knowledgeRepository).save(knowledgeCaptor.capture());
-
-        Knowledge savedKnowledge = knowledgeCaptor.getValue();
+        Knowledge savedKnowledge = captureInserted();
         assertEquals(testClient, savedKnowledge.getClient());
         assertEquals(content, savedKnowledge.getContent());
         assertEquals(catalogItem, savedKnowledge.getCatalogItem());
@@ -94,7 +108,7 @@ class RAGServiceTest {
 
         // When & Then
         assertThrows(IOException.class, () -> ragService.createAndStoreEmbedding(testClient, content));
-        verify(knowledgeRepository, never()).save(any(Knowledge.class));
+        verify(knowledgeRepository, never()).insertAll(anyList());
     }
 
     @Test
@@ -102,7 +116,7 @@ class RAGServiceTest {
         // Given
         String userQuery = "What is the price?";
         int limit = 3;
-        when(geminiEmbeddingService.getEmbedding(userQuery)).thenReturn(testEmbedding);
+        when(geminiEmbeddingService.getQueryEmbedding(userQuery)).thenReturn(testEmbedding);
 
         Knowledge neighbor1 = new Knowledge();
         neighbor1.setContent("The price is $100.");
@@ -128,7 +142,7 @@ class RAGServiceTest {
         // Given
         String userQuery = "Some obscure query";
         int limit = 3;
-        when(geminiEmbeddingService.getEmbedding(userQuery)).thenReturn(testEmbedding);
+        when(geminiEmbeddingService.getQueryEmbedding(userQuery)).thenReturn(testEmbedding);
         when(knowledgeRepository.findNearestNeighbors(anyLong(), any(), anyInt())).thenReturn(Collections.emptyList());
 
         // When
@@ -138,11 +152,94 @@ class RAGServiceTest {
         assertEquals("", context);
     }
 
+    @Test
+    void retrieveContext_fingerprintChangesWithRetrievedKnowledge() throws IOException {
+        // Given
+        String userQuery = "What is the price?";
+        when(geminiEmbeddingService.getQueryEmbedding(userQuery)).thenReturn(testEmbedding);
+        Knowledge before = new Knowledge();
+        before.setContent("The price is $100.");
+        Knowledge after = new Knowledge();
+        after.setContent("The price is $120.");
+        when(knowledgeRepository.findNearestNeighbors(testClient.getId(), testEmbedding, 3))
+                .thenReturn(List.of(before), List.of(before), List.of(after));
+
+        // When
+        RAGService.RetrievedContext first = ragService.retrieveContext(testClient, userQuery, 3);
+        RAGService.RetrievedContext unchanged = ragService.retrieveContext(testClient, userQuery, 3);
+        RAGService.RetrievedContext edited = ragService.retrieveContext(testClient, userQuery, 3);
+
+        // Then
+        assertSame(testEmbedding, first.queryEmbedding());
+        assertEquals(first.fingerprint(), unchanged.fingerprint());
+        assertNotEquals(first.fingerprint(), edited.fingerprint());
+    }
+
+    @Test
+    void retrieveContext_isRelevantOnlyWhenAnEntryIsSimilarEnough() throws IOException {
+        // Given
+        when(geminiEmbeddingService.getQueryEmbedding("Ціна?")).thenReturn(new float[]{1f, 0f, 0f});
+        when(geminiEmbeddingService.getQueryEmbedding("Дякую!")).thenReturn(new float[]{0f, 1f, 0f});
+        Knowledge price = new Knowledge();
+        price.setContent("Сукня — 1200 грн.");
+        price.setEmbedding(new float[]{0.9f, 0.1f, 0f});
+        when(knowledgeRepository.findNearestNeighbors(eq(testClient.getId()), any(), eq(3))).thenReturn(List.of(price));
+
+        // When
+        RAGService.RetrievedContext question = ragService.retrieveContext(testClient, "Ціна?", 3);
+        RAGService.RetrievedContext smallTalk = ragService.retrieveContext(testClient, "Дякую!", 3);
+
+        // Then: the nearest entry is the context either way
+        assertTrue(question.relevant());
+        assertFalse(smallTalk.relevant());
+        assertEquals(question.context(), smallTalk.context());
+    }
+
+    @Test
+    void retrieveContext_embedsRepeatedQueryOnce() throws IOException {
+        // Given
+        when(geminiEmbeddingService.getQueryEmbedding("Ціна?")).thenReturn(testEmbedding);
+        when(knowledgeRepository.findNearestNeighbors(testClient.getId(), testEmbedding, 3)).thenReturn(Collections.emptyList());
+
+        // When
+        ragService.retrieveContext(testClient, "Ціна?", 3);
+        RAGService.RetrievedContext repeated = ragService.retrieveContext(testClient, "  ціна? ", 3);
+
+        // Then
+        assertSame(testEmbedding, repeated.queryEmbedding());
+        verify(geminiEmbeddingService, times(1)).getQueryEmbedding(anyString());
+    }
+
+    @Test
+    void retrieveContext_searchesBothReducedWidthsWhileMigratingBetweenThem() throws IOException {
+        // Given
+        testClient.setActiveEmbeddingDimensions(2);
+        testClient.setEmbeddingDimensions(1);
+        when(geminiEmbeddingService.getQueryEmbedding("Ціна?")).thenReturn(new float[]{0.6f, 0.8f, 1f});
+        Knowledge neighbor = new Knowledge();
+        neighbor.setContent("Сукня — 1200 грн.");
+        neighbor.setReducedEmbedding(new float[]{0.6f, 0.8f});
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Map<Integer, float[]>> queryVectors = ArgumentCaptor.forClass(Map.class);
+        when(knowledgeRepository.findNearestNeighborsReduced(eq(testClient.getId()), queryVectors.capture(), eq(3))).thenReturn(List.of(neighbor));
+
+        // When
+        RAGService.RetrievedContext retrieved = ragService.retrieveContext(testClient, "Ціна?", 3);
+
+        // Then
+        assertTrue(retrieved.context().contains("Сукня — 1200 грн."));
+        assertTrue(retrieved.relevant());
+        assertEquals(List.of(2, 1), List.copyOf(queryVectors.getValue().keySet()));
+        assertArrayEquals(new float[]{0.6f, 0.8f}, queryVectors.getValue().get(2), 1e-6f);
+        assertArrayEquals(new float[]{1f}, queryVectors.getValue().get(1), 1e-6f);
+        verify(knowledgeRepository, never()).findNearestNeighbors(anyLong(), any(), anyInt());
+    }
+
     @Test
     void findRelevantContext_throwsIOException_whenEmbeddingFails() throws IOException {
         // Given
         String userQuery = "A query that will fail";
-        when(geminiEmbeddingService.getEmbedding(userQuery)).thenThrow(new IOException("API Error"));
+        when(geminiEmbeddingService.getQueryEmbedding(userQuery)).thenThrow(new IOException("API Error"));
 
         // When & Then
         assertThrows(IOException.class, () -> ragService.findRelevantContext(testClient, userQuery, 3));
@@ -174,4 +271,12 @@ class RAGServiceTest {
         assertArrayEquals(testEmbedding, result);
         verify(geminiEmbeddingService, times(1)).getEmbedding(text);
     }
+
+    private Knowledge captureInserted() {
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Knowledge>> entries = ArgumentCaptor.forClass(List.class);
+        verify(knowledgeRepository).insertAll(entries.capture());
+        assertEquals(1, entries.getValue().size());
+        return entries.getValue().get(0);
+    }
 }